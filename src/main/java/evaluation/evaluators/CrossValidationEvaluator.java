@@ -69,6 +69,23 @@ public class CrossValidationEvaluator extends MultiSamplingEvaluator {
         this.numFolds = 10;
     }
 
+    /**
+     * If true, each fold's predictions are accumulated into summative metrics as they are made instead of
+     * being stored individually, see ClassifierResults.enableStreamingMetrics(). The concatenated results
+     * then hold the metrics over all folds, but no per-instance predictions.
+     *
+     * Defaults to false
+     */
+    private boolean streamingMetrics = false;
+
+    public boolean getStreamingMetrics() {
+        return streamingMetrics;
+    }
+
+    public void setStreamingMetrics(boolean streamingMetrics) {
+        this.streamingMetrics = streamingMetrics;
+    }
+
     public ArrayList<ArrayList<Integer>> getFoldIndices() { return foldIndexing; }
 
     /**
@@ -146,6 +163,7 @@ public class CrossValidationEvaluator extends MultiSamplingEvaluator {
                 // get the classifier instance to be used this fold
                 final Classifier foldClassifier = cloneClassifiers ? foldClassifiers[classifierIndex][fold] : classifiers[classifierIndex];
                 final SingleTestSetEvaluator tester = new SingleTestSetEvaluator(seed, cloneData, setClassMissing);
+                tester.setStreamingMetrics(streamingMetrics);
                 
                 Callable<ClassifierResults> eval = () -> {
                     long estimateTime = System.nanoTime();
@@ -207,6 +225,26 @@ public class CrossValidationEvaluator extends MultiSamplingEvaluator {
 
         res.turnOffZeroTimingsErrors();
 
+        if (streamingMetrics) {
+            //no individual predictions to reorder, just combine each fold's metrics
+            res.enableStreamingMetrics();
+
+            long totalBuildTime = 0;
+            long totalEstimateTime = 0;
+            for (int fold = 0; fold < numFolds; fold++) {
+                totalBuildTime += foldResults[fold].getBuildTime();
+                totalEstimateTime += foldResults[fold].getErrorEstimateTime();
+                res.addAllStreamedPredictions(foldResults[fold]);
+            }
+
+            res.setBuildTime(totalBuildTime);
+            res.turnOnZeroTimingsErrors();
+            res.setErrorEstimateTime(totalEstimateTime);
+            res.finaliseResults();
+
+            return res;
+        }
+
         double[][] dists = new double[trueClassVals.length][];
         double[] preds = new double[trueClassVals.length];
         long[] times = new long[trueClassVals.length];
@@ -451,7 +489,7 @@ public class CrossValidationEvaluator extends MultiSamplingEvaluator {
         
     }
     
-    private double indexOfMax(double[] dist) {
+    static double indexOfMax(double[] dist) {
         double  bsfWeight = -(Double.MAX_VALUE);
         ArrayList<Integer>  bsfClassVals = null;
         
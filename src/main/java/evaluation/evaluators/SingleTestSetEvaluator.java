@@ -54,12 +54,32 @@ public class SingleTestSetEvaluator extends Evaluator {
         this.vis = vis;
     }
 
+    /**
+     * If true, predictions are accumulated into the summative metrics as they are made instead of
+     * being stored individually, see ClassifierResults.enableStreamingMetrics(). The memory used by
+     * the results is then constant in the number of test instances, but the results can only be
+     * written as a summary.
+     *
+     * Defaults to false
+     */
+    private boolean streamingMetrics = false;
+
+    public boolean getStreamingMetrics() {
+        return streamingMetrics;
+    }
+
+    public void setStreamingMetrics(boolean streamingMetrics) {
+        this.streamingMetrics = streamingMetrics;
+    }
+
     @Override
     public synchronized ClassifierResults evaluate(Classifier classifier, Instances dataset) throws Exception {
 
         final Instances insts = cloneData ? new Instances(dataset) : dataset;
 
         ClassifierResults res = new ClassifierResults(insts.numClasses());
+        if (streamingMetrics)
+            res.enableStreamingMetrics();
         res.setTimeUnit(TimeUnit.NANOSECONDS);
         res.setClassifierName(classifier.getClass().getSimpleName());
         res.setDatasetName(dataset.relationName());
@@ -108,7 +128,9 @@ public class SingleTestSetEvaluator extends Evaluator {
 
     @Override
     public Evaluator cloneEvaluator() {
-        return new SingleTestSetEvaluator(this.seed, this.cloneData, this.setClassMissing);
+        SingleTestSetEvaluator ev = new SingleTestSetEvaluator(this.seed, this.cloneData, this.setClassMissing);
+        ev.setStreamingMetrics(this.streamingMetrics);
+        return ev;
     }
     
 }
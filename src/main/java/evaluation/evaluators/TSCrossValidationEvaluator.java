@@ -0,0 +1,604 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package evaluation.evaluators;
+
+import evaluation.storage.ClassifierResults;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import tsml.classifiers.TSClassifier;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.Converter;
+import utilities.ThreadingUtilities;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * Cross validation over TimeSeriesInstances, where each fold is a view over the data given
+ * (a list of references to the same TimeSeriesInstance objects) rather than a copy of it.
+ *
+ * Produces the same folds as CrossValidationEvaluator for the same seed and data, and the
+ * concatenated results are returned in the order of the original data in the same way.
+ *
+ * Each (fold, classifier) pair is an independent job. If an executor is given via
+ * setExecutorService(...) the jobs are all submitted to it at once and the executor is left
+ * running afterwards, such that e.g. an ensemble can share one pool across all of its modules.
+ * Otherwise, if multithreading is enabled a pool is made for the call, else the jobs are run
+ * sequentially. Each job writes its predictions straight into the final per-classifier
+ * arrays, so no reordering pass over the fold results is needed.
+ *
+ * When given TimeSeriesInstances, classifiers that handle them natively (i.e. override
+ * distributionForInstance(TimeSeriesInstance)) are trained and tested on the fold views.
+ * Any other classifier, and every classifier when given weka Instances, is evaluated through
+ * Instances exactly as CrossValidationEvaluator would, with each fold's Instances made once and
+ * shared between all such classifiers. Classifiers given Instances are not switched over to their
+ * TimeSeriesInstances implementations, since those are not guaranteed to give the same results.
+ *
+ * Since the views share the underlying series, cloneData and setClassMissing only apply
+ * to the Instances folds. Classifiers must not modify the TimeSeriesInstances they are given.
+ */
+public class TSCrossValidationEvaluator extends MultiSamplingEvaluator {
+
+    /**
+     * Caller-owned executor to run the fold jobs on, never shut down by this evaluator
+     */
+    private transient ExecutorService executorService = null;
+
+    /**
+     * If true, each fold's predictions are accumulated into summative metrics as they are made instead of
+     * being stored individually, see ClassifierResults.enableStreamingMetrics()
+     *
+     * Defaults to false
+     */
+    private boolean streamingMetrics = false;
+
+    /**
+     * [fold][indexInFold] = index in the original data of that instance
+     */
+    private int[][] foldIndices = null;
+    private int foldsNumInstances = -1;
+    private String foldsProblemName = null;
+
+    public TSCrossValidationEvaluator() {
+        this(0, false, false, false, false);
+    }
+
+    public TSCrossValidationEvaluator(int numFolds) {
+        this();
+        setNumFolds(numFolds);
+    }
+
+    public TSCrossValidationEvaluator(int seed, boolean cloneData, boolean setClassMissing, boolean cloneClassifiers, boolean maintainClassifiers) {
+        super(seed, cloneData, setClassMissing, cloneClassifiers, maintainClassifiers);
+        this.numFolds = 10;
+    }
+
+    /**
+     * @return an evaluator with the same settings as the given CrossValidationEvaluator, which
+     * will produce the same folds
+     */
+    public static TSCrossValidationEvaluator fromCrossValidationEvaluator(CrossValidationEvaluator cv) {
+        TSCrossValidationEvaluator ev = new TSCrossValidationEvaluator(cv.getSeed(), cv.getCloneData(), cv.getSetClassMissing(), cv.getCloneClassifiers(), cv.getMaintainClassifiers());
+        ev.setNumFolds(cv.getNumFolds());
+        ev.setStreamingMetrics(cv.getStreamingMetrics());
+        if (cv.multiThread)
+            ev.enableMultiThreading(cv.numThreads);
+        return ev;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Sets an executor to run the (fold, classifier) jobs on. The executor is not shut down after
+     * evaluation. Using an executor forces cloneClassifiers to be effectively true, since the same
+     * classifier would otherwise be built on several folds at once
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public boolean getStreamingMetrics() {
+        return streamingMetrics;
+    }
+
+    public void setStreamingMetrics(boolean streamingMetrics) {
+        this.streamingMetrics = streamingMetrics;
+    }
+
+    /**
+     * @return [fold][indexInFold] = index in the original data of that instance, or null if no folds are built
+     */
+    public int[][] getFoldIndices() {
+        return foldIndices;
+    }
+
+    /**
+     * @return the index in the original data of the instance found at getTestFold(fold).get(indexInFold)
+     */
+    public int getOriginalInstIndex(int fold, int indexInFold) {
+        return foldIndices[fold][indexInFold];
+    }
+
+    @Override
+    public ClassifierResults evaluate(Classifier classifier, Instances dataset) throws Exception {
+        ClassifierResults res = crossValidateWithStats(new Classifier[] { classifier }, dataset)[0];
+        res.findAllStatsOnce();
+        return res;
+    }
+
+    @Override
+    public ClassifierResults evaluate(TSClassifier classifier, TimeSeriesInstances data) throws Exception {
+        ClassifierResults res = crossValidateWithStats(new TSClassifier[] { classifier }, data)[0];
+        res.findAllStatsOnce();
+        return res;
+    }
+
+    public ClassifierResults crossValidateWithStats(TSClassifier classifier, TimeSeriesInstances data) throws Exception {
+        return crossValidateWithStats(new TSClassifier[] { classifier }, data)[0];
+    }
+
+    public ClassifierResults crossValidateWithStats(Classifier classifier, Instances dataset) throws Exception {
+        return crossValidateWithStats(new Classifier[] { classifier }, dataset)[0];
+    }
+
+    /**
+     * Cross validates each of the classifiers on the same folds of the data.
+     *
+     * If folds have already been defined (by a call to buildFolds()) for data of the same size and
+     * problem name, will use those, else will create them. Setting the seed makes folds reproducible
+     * across different instantiations of this object
+     *
+     * @return the concatenated results over all folds for each classifier, in the order of the data given
+     */
+    public ClassifierResults[] crossValidateWithStats(TSClassifier[] classifiers, TimeSeriesInstances data) throws Exception {
+        if (foldsNotBuiltFor(data.numInstances(), data.getProblemName()))
+            buildFolds(data);
+
+        boolean[] useViews = new boolean[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++)
+            useViews[c] = handlesTimeSeriesInstances(classifiers[c]);
+
+        return crossValidate(classifiers, new FoldData(data, null), useViews);
+    }
+
+    /**
+     * As crossValidateWithStats(TSClassifier[], TimeSeriesInstances), for weka data. The classifiers
+     * are evaluated on Instances folds in the same way as CrossValidationEvaluator, but with the
+     * folds made once each and the (fold, classifier) jobs run concurrently if threading
+     */
+    public ClassifierResults[] crossValidateWithStats(Classifier[] classifiers, Instances dataset) throws Exception {
+        if (foldsNotBuiltFor(dataset.numInstances(), dataset.relationName()))
+            buildFolds(dataset);
+
+        TSClassifier[] tsClassifiers = new TSClassifier[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++)
+            tsClassifiers[c] = asTSClassifier(classifiers[c]);
+
+        return crossValidate(tsClassifiers, new FoldData(null, cloneData ? new Instances(dataset) : dataset), new boolean[classifiers.length]);
+    }
+
+    private boolean foldsNotBuiltFor(int numInstances, String problemName) {
+        return foldIndices == null || foldsNumInstances != numInstances
+                || (foldsProblemName == null ? problemName != null : !foldsProblemName.equals(problemName));
+    }
+
+    private ClassifierResults[] crossValidate(TSClassifier[] classifiers, FoldData data, boolean[] useViews) throws Exception {
+        final int numInstances = data.numInstances();
+        final int[][] folds = foldIndices;
+
+        data.prepare(useViews);
+
+        ExecutorService exec = executorService;
+        boolean shutdownAfter = false;
+        if (exec == null && multiThread) {
+            exec = ThreadingUtilities.buildExecutorService(numThreads);
+            shutdownAfter = true;
+        }
+
+        final boolean cloning = cloneClassifiers || exec != null;
+        final Classifier[][] clones = cloning ? new Classifier[classifiers.length][] : null;
+        if (cloning)
+            for (int c = 0; c < classifiers.length; ++c)
+                clones[c] = AbstractClassifier.makeCopies(asClassifier(classifiers[c]), numFolds);
+
+        final double[] trueClassVals = data.trueClassVals();
+        final double[][][] dists = new double[classifiers.length][numInstances][];
+        final double[][] preds = new double[classifiers.length][numInstances];
+        final long[][] times = new long[classifiers.length][numInstances];
+        final String[][] descs = new String[classifiers.length][numInstances];
+
+        final ClassifierResults[][] foldResults = new ClassifierResults[classifiers.length][numFolds];
+
+        List<Callable<ClassifierResults>> jobs = new ArrayList<>(numFolds * classifiers.length);
+        for (int fold = 0; fold < numFolds; fold++) {
+            final int f = fold;
+            final String foldStr = "cvFold" + fold;
+
+            for (int classifierIndex = 0; classifierIndex < classifiers.length; ++classifierIndex) {
+                final int c = classifierIndex;
+
+                jobs.add(() -> {
+                    TSClassifier foldClassifier = cloning ? asTSClassifier(clones[c][f]) : classifiers[c];
+
+                    long estimateTime = System.nanoTime();
+                    ClassifierResults res;
+                    if (useViews[c]) {
+                        res = evaluateFold(foldClassifier, data.trainView(f), data.testView(f));
+                    }
+                    else {
+                        SingleTestSetEvaluator tester = new SingleTestSetEvaluator(seed, cloneData, setClassMissing);
+                        tester.setStreamingMetrics(streamingMetrics);
+                        Instances[] trainTest = data.trainTestInstances(f);
+                        res = tester.evaluate(foldClassifier.getClassifier(), trainTest[0], trainTest[1]);
+                        data.releaseInstances(f);
+                    }
+                    estimateTime = System.nanoTime() - estimateTime;
+                    res.setErrorEstimateTime(estimateTime);
+                    res.setDatasetName(res.getDatasetName() + "_" + foldStr);
+
+                    //folds are disjoint, so each job writes to its own slots of the final arrays
+                    if (!streamingMetrics) {
+                        for (int i = 0; i < res.numInstances(); i++) {
+                            int originalIndex = folds[f][i];
+                            double[] dist = res.getProbabilityDistribution(i);
+                            dists[c][originalIndex] = dist;
+                            preds[c][originalIndex] = CrossValidationEvaluator.indexOfMax(dist);
+                            times[c][originalIndex] = res.getPredictionTime(i);
+                            descs[c][originalIndex] = foldStr + res.getPredDescription(i);
+                        }
+                    }
+
+                    if (cloning && !maintainClassifiers)
+                        clones[c][f] = null; //free the memory
+
+                    foldResults[c][f] = res;
+                    return res;
+                });
+            }
+        }
+
+        if (exec == null) {
+            for (Callable<ClassifierResults> job : jobs)
+                job.call();
+        }
+        else {
+            List<Future<ClassifierResults>> futures = ThreadingUtilities.submitAll(exec, jobs);
+            try {
+                for (Future<ClassifierResults> future : futures)
+                    future.get();
+            } catch (ExecutionException ex) {
+                for (Future<ClassifierResults> future : futures)
+                    future.cancel(true);
+                if (ex.getCause() instanceof Exception)
+                    throw (Exception) ex.getCause();
+                throw ex;
+            } finally {
+                if (shutdownAfter)
+                    exec.shutdown();
+            }
+        }
+
+        resultsPerFold = foldResults;
+        foldClassifiers = maintainClassifiers ? clones : null;
+
+        ClassifierResults[] results = new ClassifierResults[classifiers.length];
+        for (int c = 0; c < classifiers.length; c++) {
+            results[c] = concatenateFoldResults(foldResults[c],
+                    asClassifier(classifiers[c]).getClass().getSimpleName(), data.problemName(),
+                    trueClassVals, preds[c], dists[c], times[c], descs[c]);
+        }
+
+        return results;
+    }
+
+    private ClassifierResults evaluateFold(TSClassifier classifier, TimeSeriesInstances train, TimeSeriesInstances test) throws Exception {
+        long buildTime = System.nanoTime();
+        classifier.buildClassifier(train);
+        buildTime = System.nanoTime() - buildTime;
+
+        ClassifierResults res = new ClassifierResults(test.numClasses());
+        if (streamingMetrics)
+            res.enableStreamingMetrics();
+        res.setTimeUnit(TimeUnit.NANOSECONDS);
+        res.setClassifierName(asClassifier(classifier).getClass().getSimpleName());
+        res.setDatasetName(test.getProblemName());
+        res.setFoldID(seed);
+        res.setSplit("train");
+
+        res.turnOffZeroTimingsErrors();
+        for (TimeSeriesInstance inst : test) {
+            long startTime = System.nanoTime();
+            double[] dist = classifier.distributionForInstance(inst);
+            long predTime = System.nanoTime() - startTime;
+
+            res.addPrediction(inst.getLabelIndex(), dist, CrossValidationEvaluator.indexOfMax(dist), predTime, "");
+        }
+        res.setBuildTime(buildTime);
+        res.turnOnZeroTimingsErrors();
+
+        res.finaliseResults();
+        res.findAllStatsOnce();
+
+        return res;
+    }
+
+    private ClassifierResults concatenateFoldResults(ClassifierResults[] foldResults, String fullClassifierName, String fullDatasetName,
+                                                     double[] trueClassVals, double[] preds, double[][] dists, long[] times, String[] descs) throws Exception {
+        ClassifierResults res = new ClassifierResults(foldResults[0].numClasses());
+        res.setTimeUnit(TimeUnit.NANOSECONDS);
+        res.setClassifierName(fullClassifierName);
+        res.setDatasetName(fullDatasetName);
+        res.setFoldID(seed);
+        res.setSplit("train");
+
+        res.turnOffZeroTimingsErrors();
+
+        long totalBuildTime = 0;
+        long totalEstimateTime = 0;
+        for (ClassifierResults foldRes : foldResults) {
+            totalBuildTime += foldRes.getBuildTime();
+            totalEstimateTime += foldRes.getErrorEstimateTime();
+        }
+
+        if (streamingMetrics) {
+            res.enableStreamingMetrics();
+            for (ClassifierResults foldRes : foldResults)
+                res.addAllStreamedPredictions(foldRes);
+        }
+        else {
+            res.addAllPredictions(trueClassVals, preds, dists, times, descs);
+        }
+
+        res.setBuildTime(totalBuildTime);
+        res.turnOnZeroTimingsErrors();
+        res.setErrorEstimateTime(totalEstimateTime);
+
+        if (streamingMetrics)
+            res.finaliseResults();
+
+        return res;
+    }
+
+    /**
+     * Defines the folds for the given data. The folds are stratified, and identical to those
+     * made by CrossValidationEvaluator.buildFolds(...) for the same seed
+     */
+    public synchronized void buildFolds(TimeSeriesInstances data) {
+        int[] classIndices = new int[data.numInstances()];
+        for (int i = 0; i < classIndices.length; i++)
+            classIndices[i] = data.get(i).getLabelIndex();
+
+        buildFolds(classIndices, data.numClasses());
+        foldsProblemName = data.getProblemName();
+    }
+
+    public synchronized void buildFolds(Instances dataset) {
+        int[] classIndices = new int[dataset.numInstances()];
+        for (int i = 0; i < classIndices.length; i++)
+            classIndices[i] = (int) dataset.instance(i).classValue();
+
+        buildFolds(classIndices, dataset.numClasses());
+        foldsProblemName = dataset.relationName();
+    }
+
+    private void buildFolds(int[] classIndices, int numClasses) {
+        int numInstances = classIndices.length;
+        if (numInstances < numFolds)
+            numFolds = numInstances;
+
+        //same shuffle as Collections.shuffle(list, new Random(seed)), without the boxing
+        Random r = new Random(seed);
+        int[] instanceIds = new int[numInstances];
+        for (int i = 0; i < numInstances; i++)
+            instanceIds[i] = i;
+        for (int i = numInstances; i > 1; i--) {
+            int j = r.nextInt(i);
+            int temp = instanceIds[i - 1];
+            instanceIds[i - 1] = instanceIds[j];
+            instanceIds[j] = temp;
+        }
+
+        //counting sort on class, stable such that instances remain shuffled within each class
+        int[] classStarts = new int[numClasses + 1];
+        for (int classIndex : classIndices)
+            classStarts[classIndex + 1]++;
+        for (int c = 0; c < numClasses; c++)
+            classStarts[c + 1] += classStarts[c];
+        int[] sortedByClassInstanceIds = new int[numInstances];
+        for (int instIndex : instanceIds)
+            sortedByClassInstanceIds[classStarts[classIndices[instIndex]]++] = instIndex;
+
+        //deal them out to each fold in turn
+        int[][] folds = new int[numFolds][];
+        for (int fold = 0; fold < numFolds; fold++) {
+            folds[fold] = new int[(numInstances - fold + numFolds - 1) / numFolds];
+            for (int i = fold, j = 0; i < numInstances; i += numFolds, j++)
+                folds[fold][j] = sortedByClassInstanceIds[i];
+        }
+
+        foldIndices = folds;
+        foldsNumInstances = numInstances;
+    }
+
+    /**
+     * @return a view over the instances of data in the given fold, in fold order
+     */
+    public TimeSeriesInstances getTestFold(TimeSeriesInstances data, int fold) {
+        return view(data, foldIndices[fold], data.getProblemName());
+    }
+
+    /**
+     * @return a view over the instances of data in every fold other than the given fold, in fold order
+     */
+    public TimeSeriesInstances getTrainFold(TimeSeriesInstances data, int fold) {
+        return view(data, trainIndices(foldIndices, fold), data.getProblemName());
+    }
+
+    private static TimeSeriesInstances view(TimeSeriesInstances data, int[] indices, String problemName) {
+        List<TimeSeriesInstance> insts = new ArrayList<>(indices.length);
+        for (int index : indices)
+            insts.add(data.get(index));
+
+        TimeSeriesInstances view = new TimeSeriesInstances(insts, data.getClassLabels());
+        view.setProblemName(problemName);
+        return view;
+    }
+
+    private static int[] trainIndices(int[][] folds, int testFold) {
+        int size = 0;
+        for (int f = 0; f < folds.length; f++)
+            if (f != testFold)
+                size += folds[f].length;
+
+        int[] indices = new int[size];
+        int pos = 0;
+        for (int f = 0; f < folds.length; f++) {
+            if (f != testFold) {
+                System.arraycopy(folds[f], 0, indices, pos, folds[f].length);
+                pos += folds[f].length;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return true if the classifier overrides distributionForInstance(TimeSeriesInstance), rather
+     * than relying on the default conversion of each instance to weka format
+     */
+    private static boolean handlesTimeSeriesInstances(TSClassifier classifier) {
+        try {
+            return classifier.getClass().getMethod("distributionForInstance", TimeSeriesInstance.class).getDeclaringClass() != TSClassifier.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static TSClassifier asTSClassifier(Classifier classifier) {
+        return classifier instanceof TSClassifier ? (TSClassifier) classifier : TSClassifier.wrapClassifier(classifier);
+    }
+
+    private static Classifier asClassifier(TSClassifier classifier) {
+        return classifier instanceof Classifier ? (Classifier) classifier : classifier.getClassifier();
+    }
+
+    /**
+     * The data for a single cross validation, in whichever of the two forms are needed by the
+     * classifiers being evaluated. The weka Instances for each fold are made on first request and
+     * dropped once every classifier evaluated through them on that fold is done
+     */
+    private class FoldData {
+        private TimeSeriesInstances tsData;
+        private Instances arffData;
+
+        private Instances[][] trainTestInstances;
+        private AtomicInteger[] instancesUsesRemaining;
+
+        FoldData(TimeSeriesInstances tsData, Instances arffData) {
+            this.tsData = tsData;
+            this.arffData = arffData;
+        }
+
+        void prepare(boolean[] useViews) {
+            int numInstancesUsers = 0;
+            for (boolean views : useViews)
+                if (!views)
+                    numInstancesUsers++;
+
+            if (numInstancesUsers > 0) {
+                if (arffData == null)
+                    arffData = Converter.toArff(tsData);
+
+                trainTestInstances = new Instances[numFolds][];
+                instancesUsesRemaining = new AtomicInteger[numFolds];
+                for (int f = 0; f < numFolds; f++)
+                    instancesUsesRemaining[f] = new AtomicInteger(numInstancesUsers);
+            }
+        }
+
+        int numInstances() {
+            return tsData != null ? tsData.numInstances() : arffData.numInstances();
+        }
+
+        String problemName() {
+            return arffData != null ? arffData.relationName() : tsData.getProblemName();
+        }
+
+        double[] trueClassVals() {
+            if (arffData != null)
+                return arffData.attributeToDoubleArray(arffData.classIndex());
+
+            double[] vals = new double[tsData.numInstances()];
+            for (int i = 0; i < vals.length; i++)
+                vals[i] = tsData.get(i).getLabelIndex();
+            return vals;
+        }
+
+        TimeSeriesInstances trainView(int fold) {
+            return getTrainFold(tsData, fold);
+        }
+
+        TimeSeriesInstances testView(int fold) {
+            return getTestFold(tsData, fold);
+        }
+
+        /**
+         * @return [0] = train set, [1] = test(validation) set, as made by CrossValidationEvaluator.buildTrainTestSet(fold)
+         */
+        synchronized Instances[] trainTestInstances(int fold) {
+            if (trainTestInstances[fold] == null) {
+                Instances test = new Instances(arffData, foldIndices[fold].length);
+                for (int index : foldIndices[fold])
+                    test.add(arffData.instance(index));
+
+                int[] trainIndices = trainIndices(foldIndices, fold);
+                Instances train = new Instances(arffData, trainIndices.length);
+                for (int index : trainIndices)
+                    train.add(arffData.instance(index));
+
+                trainTestInstances[fold] = new Instances[] { train, test };
+            }
+            return trainTestInstances[fold];
+        }
+
+        synchronized void releaseInstances(int fold) {
+            if (instancesUsesRemaining[fold].decrementAndGet() == 0)
+                trainTestInstances[fold] = null;
+        }
+    }
+
+    @Override
+    public Evaluator cloneEvaluator() {
+        TSCrossValidationEvaluator ev = new TSCrossValidationEvaluator(this.seed, this.cloneData, this.setClassMissing, this.cloneClassifiers, this.maintainClassifiers);
+        ev.setNumFolds(this.numFolds);
+        ev.setStreamingMetrics(this.streamingMetrics);
+        ev.setExecutorService(this.executorService);
+        if (this.multiThread)
+            ev.enableMultiThreading(this.numThreads);
+        //folds intentionally not copied, see CrossValidationEvaluator.cloneEvaluator()
+        return ev;
+    }
+}
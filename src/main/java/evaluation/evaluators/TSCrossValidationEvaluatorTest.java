@@ -0,0 +1,99 @@
+package evaluation.evaluators;
+
+import evaluation.storage.ClassifierResults;
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.classifiers.TSClassifier;
+import tsml.classifiers.distance_based.knn.KNN;
+import tsml.data_containers.utilities.Converter;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+
+/**
+ * Checks TSCrossValidationEvaluator makes the same folds as CrossValidationEvaluator, and gives the same
+ * concatenated predictions and distributions, whether given Instances or TimeSeriesInstances.
+ */
+public class TSCrossValidationEvaluatorTest {
+
+    private static final int[] SEEDS = { 0, 1, 2 };
+    private static final int[] NUM_FOLDS = { 3, 10 };
+
+    private static Instances italyPowerDemand() throws Exception {
+        return DatasetLoading.sampleItalyPowerDemand(0)[0];
+    }
+
+    @Test
+    public void testSameFolds() throws Exception {
+        Instances data = italyPowerDemand();
+        for (int seed : SEEDS) {
+            for (int numFolds : NUM_FOLDS) {
+                CrossValidationEvaluator cv = new CrossValidationEvaluator(seed, false, false, false, false);
+                cv.setNumFolds(numFolds);
+                cv.buildFolds(data);
+                TSCrossValidationEvaluator tscv = TSCrossValidationEvaluator.fromCrossValidationEvaluator(cv);
+                tscv.buildFolds(Converter.fromArff(data));
+
+                ArrayList<ArrayList<Integer>> expected = cv.getFoldIndices();
+                int[][] actual = tscv.getFoldIndices();
+                Assert.assertEquals(expected.size(), actual.length);
+                for (int fold = 0; fold < actual.length; fold++) {
+                    Assert.assertEquals(expected.get(fold).size(), actual[fold].length);
+                    for (int i = 0; i < actual[fold].length; i++)
+                        Assert.assertEquals((int) expected.get(fold).get(i), actual[fold][i]);
+                }
+            }
+        }
+    }
+
+    private static void assertSameResults(ClassifierResults expected, ClassifierResults actual) {
+        Assert.assertArrayEquals(expected.getTrueClassValsAsArray(), actual.getTrueClassValsAsArray(), 0);
+        Assert.assertArrayEquals(expected.getPredClassValsAsArray(), actual.getPredClassValsAsArray(), 0);
+        double[][] expectedDists = expected.getProbabilityDistributionsAsArray();
+        double[][] actualDists = actual.getProbabilityDistributionsAsArray();
+        Assert.assertEquals(expectedDists.length, actualDists.length);
+        for (int i = 0; i < expectedDists.length; i++)
+            Assert.assertArrayEquals(expectedDists[i], actualDists[i], 0);
+    }
+
+    private static Classifier[] newClassifiers() {
+        KNN knn = new KNN();
+        knn.setSeed(0);
+        return new Classifier[] { new NaiveBayes(), new IBk(3), knn };
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+        Instances data = italyPowerDemand();
+        for (int seed : SEEDS) {
+            for (int numFolds : NUM_FOLDS) {
+                CrossValidationEvaluator cv = new CrossValidationEvaluator(seed, false, false, true, false);
+                cv.setNumFolds(numFolds);
+                ClassifierResults[] expected = cv.crossValidateWithStats(newClassifiers(), data);
+
+                // through Instances
+                TSCrossValidationEvaluator tscv = TSCrossValidationEvaluator.fromCrossValidationEvaluator(cv);
+                ClassifierResults[] actual = tscv.crossValidateWithStats(newClassifiers(), data);
+                for (int c = 0; c < expected.length; c++)
+                    assertSameResults(expected[c], actual[c]);
+
+                // through TimeSeriesInstances, where the knn is evaluated on views over the data, on several threads
+                tscv = TSCrossValidationEvaluator.fromCrossValidationEvaluator(cv);
+                tscv.enableMultiThreading(3);
+                Classifier[] classifiers = newClassifiers();
+                TSClassifier[] tsClassifiers = new TSClassifier[classifiers.length];
+                for (int c = 0; c < classifiers.length; c++)
+                    tsClassifiers[c] = classifiers[c] instanceof TSClassifier
+                            ? (TSClassifier) classifiers[c]
+                            : TSClassifier.wrapClassifier(classifiers[c]);
+                actual = tscv.crossValidateWithStats(tsClassifiers, Converter.fromArff(data));
+                for (int c = 0; c < expected.length; c++)
+                    assertSameResults(expected[c], actual[c]);
+            }
+        }
+    }
+}
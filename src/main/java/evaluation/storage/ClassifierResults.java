@@ -17,11 +17,16 @@
 package evaluation.storage;
 
 import fileIO.OutFile;
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -237,13 +242,19 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     private long buildPlusEstimateTime = -1;
 
 //REMAINDER OF THE FILE - 1 prediction per line
-    //raw performance data. currently just give parallel arrays
-    private ArrayList<Double> trueClassValues;
-    private ArrayList<Double> predClassValues;
+    //raw performance data. currently just give parallel arrays, stored as primitive columns
+    private DoubleColumn trueClassValues;
+    private DoubleColumn predClassValues;
     private ArrayList<double[]> predDistributions;
-    private ArrayList<Long> predTimes;
+    private LongColumn predTimes;
     private ArrayList<String> predDescriptions;
 
+    /**
+     * If not null, predictions are not stored individually at all, and are instead accumulated into
+     * these metrics as they are added. See enableStreamingMetrics()
+     */
+    private StreamingClassifierMetrics streamingMetrics = null;
+
     //inferred/supplied dataset meta info
     private int numClasses;
     private int numInstances;
@@ -362,11 +373,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults() {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
 
         finalised = false;
     }
@@ -382,11 +389,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * to infer the number of classes, some may be missing.
      */
     public ClassifierResults(int numClasses) {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
 
         this.numClasses = numClasses;
         finalised = false;
@@ -408,16 +411,61 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * All other arguments are required in full, however
      */
     public ClassifierResults(double[] trueClassVals, double[] predictions, double[][] distributions, long[] predTimes, String[] descriptions) throws Exception {
-        trueClassValues= new ArrayList<>();
-        predClassValues = new ArrayList<>();
-        predDistributions = new ArrayList<>();
-        this.predTimes = new ArrayList<>();
-        predDescriptions = new ArrayList<>();
+        initPredictionStorage();
 
         addAllPredictions(trueClassVals, predictions, distributions, predTimes, descriptions);
         finaliseResults();
     }
 
+    private void initPredictionStorage() {
+        trueClassValues = new DoubleColumn();
+        predClassValues = new DoubleColumn();
+        predDistributions = new ArrayList<>();
+        predTimes = new LongColumn();
+        predDescriptions = new ArrayList<>();
+    }
+
+    /**
+     * Predictions added from now on are not stored, and are instead accumulated into summative metrics as they
+     * are added, such that this object takes the same (small) amount of memory regardless of how many predictions
+     * are made. See StreamingClassifierMetrics for the precision of the metrics found this way.
+     *
+     * Must be called before any predictions are added. True class values must be given with each prediction
+     * via addPrediction(trueClassVal, dist, ...), as they cannot be supplied afterwards.
+     *
+     * As individual predictions are not kept, these results cannot be written with writeFullResultsToFile(..),
+     * use writeSummaryResultsToFile(..) instead.
+     */
+    public void enableStreamingMetrics() {
+        if (predClassValues != null && !predClassValues.isEmpty())
+            throw new IllegalStateException("enableStreamingMetrics(): predictions have already been stored");
+
+        streamingMetrics = new StreamingClassifierMetrics(numClasses);
+        trueClassValues = null;
+        predClassValues = null;
+        predDistributions = null;
+        predTimes = null;
+        predDescriptions = null;
+    }
+
+    public boolean isStreamingMetrics() {
+        return streamingMetrics != null;
+    }
+
+    /**
+     * Adds the predictions accumulated by other (which must also have streaming metrics enabled) into this
+     * object, e.g. to combine the results of each fold of a cross validation
+     */
+    public void addAllStreamedPredictions(ClassifierResults other) {
+        if (streamingMetrics == null || other.streamingMetrics == null)
+            throw new IllegalStateException("addAllStreamedPredictions(..): streaming metrics must be enabled on both results");
+
+        streamingMetrics.merge(other.streamingMetrics);
+        numInstances += other.numInstances;
+        if (other.testTime != -1)
+            testTime = testTime == -1 ? other.testTime : testTime + other.testTime;
+    }
+
     /**
      * System.nanoTime() can STILL return zero on some tiny datasets with simple classifiers,
      * because it does not have enough precision. This flag, if true, will allow timings
@@ -491,7 +539,9 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         this.numClasses = numClasses;
     }
     private void inferNumClasses() {
-        if (predDistributions.isEmpty())
+        if (streamingMetrics != null)
+            this.numClasses = streamingMetrics.numClasses();
+        else if (predDistributions.isEmpty())
             this.numClasses = 0;
         else
             this.numClasses = predDistributions.get(0).length;
@@ -504,7 +554,10 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     }
 
     private void inferNumInstances() {
-        this.numInstances = predClassValues.size();
+        if (streamingMetrics != null)
+            this.numInstances = (int) streamingMetrics.numInstances();
+        else
+            this.numInstances = predClassValues.size();
     }
 
 
@@ -681,7 +734,11 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         return acc<0 ? false: true;
     }
     private void calculateAcc() {
-        if (trueClassValues == null || trueClassValues.isEmpty() || trueClassValues.get(0) == -1) {
+        if (streamingMetrics != null && streamingMetrics.numInstances() > 0) {
+            acc = streamingMetrics.findAccuracy();
+            return;
+        }
+        if (trueClassValues == null || trueClassValues.isEmpty() || trueClassValues.getDouble(0) == -1) {
             System.out.println("**getAcc():calculateAcc() no true class values supplied yet, cannot calculate accuracy");
             return;
         }
@@ -689,7 +746,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         int size = predClassValues.size();
         double correct = .0;
         for (int i = 0; i < size; i++) {
-            if (predClassValues.get(i).equals(trueClassValues.get(i)))
+            if (predClassValues.getDouble(i) == trueClassValues.getDouble(i))
                 correct++;
         }
 
@@ -871,8 +928,12 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * method finaliseResults(double[] trueClassVals)
      */
     public void addPrediction(double[] dist, double predictedClass, long predictionTime, String description) throws RuntimeException {
+        if (streamingMetrics != null)
+            throw new UnsupportedOperationException("addPrediction(..): streaming metrics are enabled, the true class value must be "
+                    + "supplied with each prediction");
+
         predDistributions.add(dist);
-        predClassValues.add(predictedClass);
+        predClassValues.addDouble(predictedClass);
 
         if (description == null)
             predDescriptions.add("");
@@ -886,7 +947,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
                     + "If you are using nanoseconds but STILL getting this error, read the javadoc for and use turnOffZeroTimingsErrors() "
                     + "for this call");
         else {
-            predTimes.add(predictionTime);
+            predTimes.addLong(predictionTime);
 
             if (testTime == -1)
                 testTime = predictionTime;
@@ -907,8 +968,24 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * Todo future, maaaybe add enum for tie resolution to handle it here.
      */
     public void addPrediction(double trueClassVal, double[] dist, double predictedClass, long predictionTime, String description) throws RuntimeException {
+        if (streamingMetrics != null) {
+            if (errorOnTimingOfZero && predictionTime < 1)
+                throw new RuntimeException("Prediction time passed has invalid value, " + predictionTime + ". If greater resolution is needed, "
+                        + "use nano seconds (e.g System.nanoTime()) and set the TimeUnit of the classifierResults object to nanoseconds.\n\n"
+                        + "If you are using nanoseconds but STILL getting this error, read the javadoc for and use turnOffZeroTimingsErrors() "
+                        + "for this call");
+
+            streamingMetrics.add(trueClassVal, dist, predictedClass, predictionTime);
+            if (testTime == -1)
+                testTime = predictionTime;
+            else
+                testTime += predictionTime;
+            numInstances++;
+            return;
+        }
+
         addPrediction(dist,predictedClass,predictionTime,description);
-        trueClassValues.add(trueClassVal);
+        trueClassValues.addDouble(trueClassVal);
     }
 
 
@@ -975,13 +1052,15 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
             return;
         }
 
+        if (streamingMetrics != null)
+            throw new UnsupportedOperationException("finaliseResults(double[] testClassVals): streaming metrics are enabled, "
+                    + "the true class values must be supplied with each prediction");
+
         if (testClassVals.length != predClassValues.size())
             throw new Exception("finaliseTestResults(double[] testClassVals): Number of predictions "
                     + "made and number of true class values passed do not match");
 
-        trueClassValues = new ArrayList<>();
-        for(double d:testClassVals)
-            trueClassValues.add(d);
+        trueClassValues = new DoubleColumn(testClassVals);
 
         finaliseResults();
     }
@@ -1006,6 +1085,14 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
        if (numClasses <= 0)
            inferNumClasses();
 
+        if (streamingMetrics != null) {
+            if (streamingMetrics.numInstances() == 0)
+                throw new Exception("finaliseTestResults(): no predictions stored for this module");
+            acc = streamingMetrics.findAccuracy();
+            finalised = true;
+            return;
+        }
+
         //todo extra verification
 
         if (predDistributions == null || predClassValues == null ||
@@ -1014,7 +1101,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
 
         double correct = .0;
         for (int inst = 0; inst < predClassValues.size(); inst++)
-            if (trueClassValues.get(inst).equals(predClassValues.get(inst)))
+            if (trueClassValues.getDouble(inst) == predClassValues.getDouble(inst))
                 ++correct;
 
         acc = correct/trueClassValues.size();
@@ -1066,9 +1153,9 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
             numClasses = (int) trueClassValues.stream().distinct().count();
 
         predDistributions = new ArrayList<>(predClassValues.size());
-        for (double d : predClassValues) {
+        for (int i = 0; i < predClassValues.size(); i++) {
             double[] dist = new double[numClasses];
-            dist[(int)d] = 1;
+            dist[(int)predClassValues.getDouble(i)] = 1;
             predDistributions.add(dist);
         }
 
@@ -1084,39 +1171,32 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     */
 
     /**
-     *
+     * The true class values are stored as primitives, so this returns a copy of them, as do getPredClassVals()
+     * and getPredictionTimes(). Use the AsArray or single element accessors where a copy is not wanted
      */
     public ArrayList<Double> getTrueClassVals() {
-        return trueClassValues;
+        return trueClassValues == null ? null : new ArrayList<>(trueClassValues);
     }
 
     public double[] getTrueClassValsAsArray(){
-        double[] d=new double[trueClassValues.size()];
-        int i=0;
-        for(double x:trueClassValues)
-            d[i++]=x;
-        return d;
+        return trueClassValues.toDoubleArray();
     }
 
     public double getTrueClassValue(int index){
-        return trueClassValues.get(index);
+        return trueClassValues.getDouble(index);
     }
 
 
     public ArrayList<Double> getPredClassVals(){
-        return predClassValues;
+        return predClassValues == null ? null : new ArrayList<>(predClassValues);
     }
 
     public double[] getPredClassValsAsArray(){
-        double[] d=new double[predClassValues.size()];
-        int i=0;
-        for(double x:predClassValues)
-            d[i++]=x;
-        return d;
+        return predClassValues.toDoubleArray();
     }
 
     public double getPredClassValue(int index){
-        return predClassValues.get(index);
+        return predClassValues.getDouble(index);
     }
 
 
@@ -1136,19 +1216,15 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
 
 
     public ArrayList<Long> getPredictionTimes() {
-        return predTimes;
+        return predTimes == null ? null : new ArrayList<>(predTimes);
     }
 
     public long[] getPredictionTimesAsArray() {
-        long[] l=new long[predTimes.size()];
-        int i=0;
-        for(long x:predTimes)
-            l[i++]=x;
-        return l;
+        return predTimes.toLongArray();
     }
 
     public long getPredictionTime(int index) {
-        return predTimes.get(index);
+        return predTimes.getLong(index);
     }
 
     public long getPredictionTimeInNanos(int index) {
@@ -1210,13 +1286,16 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
      * [true],[pred], ,[dist[0]],...,[dist[c]], ,[predTime], ,[description until end of line, may have commas in it]
      */
     private boolean instancePredictionFromString(String predLine) throws Exception {
-        String[] split=predLine.split(",");
+        //hand-rolled field splitting, equivalent to predLine.split(",") (including the removal
+        //of trailing empty fields) but without the intermediate String[] or boxed values. this is the
+        //hot loop when collating thousands of results files
+        int numFields = findFieldOffsets(predLine);
 
         //collect actual/predicted class
-        double trueClassVal=Double.valueOf(split[0].trim());
-        double predClassVal=Double.valueOf(split[1].trim());
+        double trueClassVal=parseField(predLine, 0);
+        double predClassVal=parseField(predLine, 1);
 
-        if(split.length<3) { //no probabilities, no timing. VERY old files will not have them
+        if(numFields<3) { //no probabilities, no timing. VERY old files will not have them
             if (printDistMissingWarning && firstTimeDistMissing) {
                 System.out.println("*********");
                 System.out.println("");
@@ -1235,50 +1314,37 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         //else
         //collect probabilities
         final int distStartInd = 3; //actual, predicted, space, distStart
-        double[] dist = null;
         if (numClasses < 2) {
-            List<Double> distL = new ArrayList<>();
-            for(int i = distStartInd; i < split.length; i++) {
-                if (split[i].equals(""))
-                    break; //we're at the empty-space-separator between probs and timing
-                else
-                    distL.add(Double.valueOf(split[i].trim()));
-            }
+            int c = 0;
+            while (distStartInd + c < numFields && fieldOffsets[distStartInd + c] + 1 < fieldOffsets[distStartInd + c + 1])
+                c++; //until we're at the empty-space-separator between probs and timing
 
-            numClasses = distL.size();
+            numClasses = c;
             assert(numClasses >= 2);
-
-            dist = new double[numClasses];
-            for (int i = 0; i < numClasses; i++)
-                dist[i] = distL.get(i);
         }
-        else {
-            //we know how many classes there should be, use this as implicit
-            //file verification
-            dist = new double[numClasses];
-            for (int i = 0; i < numClasses; i++) {
-                //now need to offset by 3.
-                dist[i] = Double.valueOf(split[i+distStartInd].trim());
-            }
+
+        //we know how many classes there should be, use this as implicit
+        //file verification
+        double[] dist = new double[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            //now need to offset by 3.
+            dist[i] = parseField(predLine, i+distStartInd);
         }
 
         //collect timings
         long predTime = -1;
         final int timingInd = distStartInd + (numClasses-1) + 1 + 1; //actual, predicted, space, dist, space, timing
-        if (split.length > timingInd)
-            predTime = Long.parseLong(split[timingInd].trim());
+        if (numFields > timingInd)
+            predTime = Long.parseLong(field(predLine, timingInd).trim());
 
         //collect description
         String description = "";
         final int descriptionInd = timingInd + 1 + 1; //actual, predicted, space, dist, space, timing, space, description
-        if (split.length > descriptionInd) {
-            description = split[descriptionInd];
-
+        if (numFields > descriptionInd) {
             //no reason currently why the description passed cannot have commas in it,
             //might be a natural way to separate it in to different parts.
             //description reall just fills up the remainder of the line.
-            for (int i = descriptionInd+1; i < split.length; i++)
-                description += "," + split[i];
+            description = predLine.substring(fieldOffsets[descriptionInd] + 1, fieldOffsets[numFields]);
         }
 
 
@@ -1286,12 +1352,54 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         return trueClassVal==predClassVal;
     }
 
-    private void instancePredictionsFromScanner(Scanner in) throws Exception {
+    /**
+     * Positions of the commas delimiting the fields of the line currently being parsed, with
+     * fieldOffsets[0] == -1 and fieldOffsets[numFields] marking the end of the last non-empty field.
+     * Field i spans (fieldOffsets[i], fieldOffsets[i+1]). Reused across lines to avoid reallocation
+     */
+    private transient int[] fieldOffsets = new int[32];
+
+    /**
+     * Populates fieldOffsets for the line, and returns the number of fields as String.split(",")
+     * would report them, i.e. ignoring trailing empty fields
+     */
+    private int findFieldOffsets(String line) {
+        if (fieldOffsets == null)
+            fieldOffsets = new int[32];
+
+        int numFields = 0;
+        fieldOffsets[0] = -1;
+        int len = line.length();
+        for (int i = 0; i < len; i++) {
+            if (line.charAt(i) == ',') {
+                if (numFields + 2 >= fieldOffsets.length)
+                    fieldOffsets = Arrays.copyOf(fieldOffsets, fieldOffsets.length * 2);
+                fieldOffsets[++numFields] = i;
+            }
+        }
+        fieldOffsets[++numFields] = len;
+
+        //drop trailing empty fields
+        while (numFields > 1 && fieldOffsets[numFields - 1] + 1 == fieldOffsets[numFields])
+            numFields--;
+
+        return numFields;
+    }
+
+    private String field(String line, int i) {
+        return line.substring(fieldOffsets[i] + 1, fieldOffsets[i + 1]);
+    }
+
+    private double parseField(String line, int i) {
+        return Double.parseDouble(field(line, i));
+    }
+
+    private void instancePredictionsFromReader(BufferedReader in) throws Exception {
         double correct = 0;
-        while (in.hasNext()) {
-            String line = in.nextLine();
+        String line;
+        while ((line = in.readLine()) != null) {
             //may be trailing empty lines at the end of the file
-            if (line == null || line.equals(""))
+            if (line.equals(""))
                 break;
 
             if (instancePredictionFromString(line))
@@ -1307,8 +1415,8 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     private String instancePredictionToString(int i) {
         StringBuilder sb = new StringBuilder();
 
-        sb.append(trueClassValues.get(i).intValue()).append(",");
-        sb.append(predClassValues.get(i).intValue());
+        sb.append((int) trueClassValues.getDouble(i)).append(",");
+        sb.append((int) predClassValues.getDouble(i));
 
         //probs
         sb.append(","); //<empty space>
@@ -1317,7 +1425,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
             sb.append(",").append(GenericTools.RESULTS_DECIMAL_FORMAT.format(d));
 
         //timing
-        sb.append(",,").append(predTimes.get(i)); //<empty space>, timing
+        sb.append(",,").append(predTimes.getLong(i)); //<empty space>, timing
 
         //description
         sb.append(",,").append(predDescriptions.get(i)); //<empty space>, description
@@ -1329,7 +1437,11 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
 
         //todo extra verification
 
-        if (trueClassValues == null || trueClassValues.size() == 0 || trueClassValues.get(0) == -1)
+        if (streamingMetrics != null)
+            throw new UnsupportedOperationException("Streaming metrics are enabled, individual predictions have not been stored. "
+                    + "Write the results with writeSummaryResultsToFile(..) instead");
+
+        if (trueClassValues == null || trueClassValues.size() == 0 || trueClassValues.getDouble(0) == -1)
             throw new Exception("No true class value stored, call finaliseResults(double[] trueClassVal)");
 
         if(numInstances()>0 &&(predDistributions.size()==trueClassValues.size()&& predDistributions.size()==predClassValues.size())){
@@ -1578,14 +1690,26 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     }
 
     public void loadResultsFromFile(String path) throws FileNotFoundException, Exception {
+        loadResultsFromFile(path, false);
+    }
+
+    /**
+     * Reads only the first three lines of the file at the given path, i.e. the meta info, parameter
+     * info and the acc/timings/memory line. Prediction info (or metrics, for METRICS files) is not read,
+     * and the prediction storage is left empty. Intended for when only the summary information is wanted
+     * from very many files, e.g. when the remaining metrics have already been computed and cached
+     * elsewhere (see ResultsStatsCache)
+     */
+    public void loadMetaInfoFromFile(String path) throws FileNotFoundException, Exception {
+        loadResultsFromFile(path, true);
+    }
+
+    private void loadResultsFromFile(String path, boolean metaInfoOnly) throws FileNotFoundException, Exception {
 
         try {
             //init
-            trueClassValues = new ArrayList<>();
-            predClassValues = new ArrayList<>();
-            predDistributions = new ArrayList<>();
-            predTimes = new ArrayList<>();
-            predDescriptions = new ArrayList<>();
+            initPredictionStorage();
+            streamingMetrics = null;
             numInstances = 0;
             acc = -1;
             buildTime = -1;
@@ -1597,43 +1721,47 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
             if (!(f.exists() && f.length() > 0))
                 throw new FileNotFoundException("File " + path + " NOT FOUND");
 
-            Scanner inf = new Scanner(f);
-
-            //parse meta infos
-            parseFirstLine(inf.nextLine());
-            parseSecondLine(inf.nextLine());
-            double reportedTestAcc = parseThirdLine(inf.nextLine());
-
-            //fileType was read in from first line.
-            switch (fileType) {
-                case PREDICTIONS: {
-                    //have all meta info, start reading predictions or metrics
-                    instancePredictionsFromScanner(inf);
-
-                    //acts as a basic form of verification, does the acc reported on line 3 align with
-                    //the acc calculated while reading predictions
-                    double eps = 1.e-8;
-                    if (Math.abs(reportedTestAcc - acc) > eps) {
-                        throw new ArithmeticException("Calculated accuracy (" + acc + ") differs from written accuracy (" + reportedTestAcc + ") "
-                                + "by more than eps (" + eps + "). File = " + path + ". numinstances = " + numInstances + ". numClasses = " + numClasses);
-                    }
+            try (BufferedReader inf = new BufferedReader(new FileReader(f), 1 << 16)) {
+                //parse meta infos
+                parseFirstLine(nextLine(inf));
+                parseSecondLine(nextLine(inf));
+                double reportedTestAcc = parseThirdLine(nextLine(inf));
 
-                    if (predDistributions == null || predDistributions.isEmpty() || predDistributions.get(0) == null) {
-                        if (printDistMissingWarning)
-                            System.out.println("Probability distributions missing from file: " + path);
-                    }
+                if (metaInfoOnly) {
+                    finalised = true;
+                    return;
+                }
 
-                    break;
+                //fileType was read in from first line.
+                switch (fileType) {
+                    case PREDICTIONS: {
+                        //have all meta info, start reading predictions or metrics
+                        instancePredictionsFromReader(inf);
+
+                        //acts as a basic form of verification, does the acc reported on line 3 align with
+                        //the acc calculated while reading predictions
+                        double eps = 1.e-8;
+                        if (Math.abs(reportedTestAcc - acc) > eps) {
+                            throw new ArithmeticException("Calculated accuracy (" + acc + ") differs from written accuracy (" + reportedTestAcc + ") "
+                                    + "by more than eps (" + eps + "). File = " + path + ". numinstances = " + numInstances + ". numClasses = " + numClasses);
+                        }
+
+                        if (predDistributions == null || predDistributions.isEmpty() || predDistributions.get(0) == null) {
+                            if (printDistMissingWarning)
+                                System.out.println("Probability distributions missing from file: " + path);
+                        }
+
+                        break;
+                    }
+                    case METRICS:
+                        allPerformanceMetricsFromScanner(new Scanner(inf));
+                        break;
+                    case COMPACT:
+                        throw new UnsupportedOperationException("COMPACT file reading not yet supported");
                 }
-                case METRICS:
-                    allPerformanceMetricsFromScanner(inf);
-                    break;
-                case COMPACT:
-                    throw new UnsupportedOperationException("COMPACT file reading not yet supported");
-            }
 
-            finalised = true;
-            inf.close();
+                finalised = true;
+            }
         }
         catch (FileNotFoundException fnf) {
             if (printOnFailureToLoad)
@@ -1647,6 +1775,70 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         }
     }
 
+    private static String nextLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null)
+            throw new NoSuchElementException("Results file ended before the three meta info lines were read");
+        return line;
+    }
+
+    /**
+     * Writes the summative metrics found by findAllStats() (those written by allPerformanceMetricsToString())
+     * in a compact binary form, for use by ResultsStatsCache
+     */
+    void writeMetrics(DataOutput out) throws IOException {
+        out.writeInt(numClasses);
+        out.writeInt(numInstances);
+        out.writeDouble(acc);
+        out.writeDouble(balancedAcc);
+        out.writeDouble(sensitivity);
+        out.writeDouble(precision);
+        out.writeDouble(recall);
+        out.writeDouble(specificity);
+        out.writeDouble(f1);
+        out.writeDouble(mcc);
+        out.writeDouble(nll);
+        out.writeDouble(meanAUROC);
+        out.writeDouble(stddev);
+        out.writeLong(medianPredTime);
+        for (int i = 0; i < numClasses; i++)
+            out.writeDouble(countPerClass[i]);
+        for (int i = 0; i < numClasses; i++)
+            for (int j = 0; j < numClasses; j++)
+                out.writeDouble(confusionMatrix[i][j]);
+    }
+
+    /**
+     * Reads metrics written by writeMetrics(DataOutput), after which this object is treated as
+     * having had all its stats found. Intended to be paired with loadMetaInfoFromFile(String)
+     */
+    void readMetrics(DataInput in) throws IOException {
+        numClasses = in.readInt();
+        numInstances = in.readInt();
+        acc = in.readDouble();
+        balancedAcc = in.readDouble();
+        sensitivity = in.readDouble();
+        precision = in.readDouble();
+        recall = in.readDouble();
+        specificity = in.readDouble();
+        f1 = in.readDouble();
+        mcc = in.readDouble();
+        nll = in.readDouble();
+        meanAUROC = in.readDouble();
+        stddev = in.readDouble();
+        medianPredTime = in.readLong();
+        countPerClass = new double[numClasses];
+        for (int i = 0; i < numClasses; i++)
+            countPerClass[i] = in.readDouble();
+        confusionMatrix = new double[numClasses][numClasses];
+        for (int i = 0; i < numClasses; i++)
+            for (int j = 0; j < numClasses; j++)
+                confusionMatrix[i][j] = in.readDouble();
+
+        finalised = true;
+        allStatsFound = true;
+    }
+
 
 
 
@@ -1681,12 +1873,17 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         if (numClasses <= 0)
             inferNumClasses();
 
+        if (streamingMetrics != null) {
+            findAllStatsFromStreamingMetrics();
+            return;
+        }
+
         //predictions-only
         confusionMatrix=buildConfusionMatrix();
 
         countPerClass=new double[confusionMatrix.length];
         for(int i=0;i<trueClassValues.size();i++)
-            countPerClass[trueClassValues.get(i).intValue()]++;
+            countPerClass[(int)trueClassValues.getDouble(i)]++;
 
         if (acc < 0)
             calculateAcc();
@@ -1702,7 +1899,7 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         }
 
         //timing
-        medianPredTime=findMedianPredTime(predTimes);
+        medianPredTime=findMedianPredTime(predTimes.toLongArray());
 
         //early classification
         //earliness=findEarliness();
@@ -1712,6 +1909,34 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     }
 
 
+    /**
+     * As findAllStats(), but from the metrics accumulated while streaming predictions, see enableStreamingMetrics()
+     */
+    private void findAllStatsFromStreamingMetrics() {
+        confusionMatrix = streamingMetrics.getConfusionMatrix();
+
+        countPerClass = new double[confusionMatrix.length];
+        for (int i = 0; i < confusionMatrix.length; i++)
+            for (int j = 0; j < confusionMatrix.length; j++)
+                countPerClass[i] += confusionMatrix[i][j];
+
+        if (acc < 0)
+            calculateAcc();
+        balancedAcc = findBalancedAcc(confusionMatrix);
+
+        mcc = computeMCC(confusionMatrix);
+        f1 = findF1(confusionMatrix);
+
+        if (streamingMetrics.hasProbabilityDistributionInformation()) {
+            nll = streamingMetrics.findNLL();
+            meanAUROC = streamingMetrics.findMeanAUROC();
+        }
+
+        medianPredTime = streamingMetrics.findMedianPredTime();
+
+        allStatsFound = true;
+    }
+
     /**
      * Will calculate all the metrics that can be found from the prediction information
      * stored in this object, UNLESS this object has been finalised (finaliseResults(..)) AND
@@ -1738,8 +1963,8 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     private double[][] buildConfusionMatrix() {
         double[][] matrix = new double[numClasses][numClasses];
         for (int i = 0; i < predClassValues.size(); ++i){
-            double actual=trueClassValues.get(i);
-            double predicted=predClassValues.get(i);
+            double actual=trueClassValues.getDouble(i);
+            double predicted=predClassValues.getDouble(i);
             ++matrix[(int)actual][(int)predicted];
         }
         return matrix;
@@ -1752,13 +1977,13 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
     public double findNLL(){
         double nll=0;
         for(int i=0;i<trueClassValues.size();i++){
-            double[] dist=getProbabilityDistribution(i);
-            int trueClass = trueClassValues.get(i).intValue();
+            int trueClass = (int)trueClassValues.getDouble(i);
+            double prob = predDistributions.get(i)[trueClass];
 
-            if(dist[trueClass]==0)
+            if(prob==0)
                 nll+=NLL_PENALTY;
             else
-                nll+=Math.log(dist[trueClass])/Math.log(2);//Log 2
+                nll+=Math.log(prob)/Math.log(2);//Log 2
         }
         return -nll/trueClassValues.size();
     }
@@ -1772,7 +1997,11 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
                 a=findAUROC(1);
  */       }
         else{
-            double[] classDist = InstanceTools.findClassDistributions(trueClassValues, numClasses);
+            double[] classDist=new double[numClasses];
+            for(int i=0;i<trueClassValues.size();i++)
+                classDist[(int)trueClassValues.getDouble(i)]++;
+            for(int i=0;i<numClasses;i++)
+                classDist[i]/=trueClassValues.size();
             for(int i=0;i<numClasses;i++){
                 a+=findAUROC(i) * classDist[i];
             }
@@ -1907,30 +2136,19 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
 
 
     protected double findAUROC(int c){
-        class Pair implements Comparable<Pair>{
-            Double x;
-            Double y;
-            public Pair(Double a, Double b){
-                x=a;
-                y=b;
-            }
-            @Override
-            public int compareTo(Pair p) {
-                return p.x.compareTo(x);
-            }
-            public String toString(){ return "("+x+","+y+")";}
-        }
-
-        ArrayList<Pair> p=new ArrayList<>();
+        //prediction indices ordered by descending probability of class c. the sort is stable, such that
+        //ties are kept in the order predicted, as when this was previously done via Collections.sort
+        double[] probs=new double[numInstances];
+        int[] order=new int[numInstances];
         double nosPositive=0,nosNegative;
         for(int i=0;i<numInstances;i++){
-            Pair temp=new Pair(predDistributions.get(i)[c],trueClassValues.get(i));
-            if(c==trueClassValues.get(i))
+            probs[i]=predDistributions.get(i)[c];
+            order[i]=i;
+            if(c==trueClassValues.getDouble(i))
                 nosPositive++;
-            p.add(temp);
         }
         nosNegative=trueClassValues.size()-nosPositive;
-        Collections.sort(p);
+        stableSortDescending(order, probs);
 
         /* http://www.cs.waikato.ac.nz/~remco/roc.pdf
                 Determine points on ROC curve as follows;
@@ -1942,17 +2160,21 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
         of true positives (true negatives). This gives the points on the ROC curve
         (0; 0); (x1; y1); : : : ; (xn; yn); (1; 1).
         */
-        ArrayList<Pair> roc=new ArrayList<>();
+        //Calculate the area under the ROC curve, as the sum over all trapezoids with
+        //base xi+1 to xi. each point on the curve is folded into the area as it is found,
+        //rather than storing the curve
+        double auroc=0;
+        double prevY=0;
         double x=0;
-        double oldX=0;
         double y=0;
         int xAdd=0, yAdd=0;
         boolean xLast=false,yLast=false;
-        roc.add(new Pair(x,y));
         for(int i=0;i<numInstances;i++){
-            if(p.get(i).y==c){
-                if(yLast)
-                    roc.add(new Pair(x,y));
+            if(trueClassValues.getDouble(order[i])==c){
+                if(yLast){
+                    auroc+=(y-prevY)*x;
+                    prevY=y;
+                }
                 xLast=true;
                 yLast=false;
                 x+=1/nosPositive;
@@ -1962,8 +2184,10 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
 
             }
             else{
-                if(xLast)
-                    roc.add(new Pair(x,y));
+                if(xLast){
+                    auroc+=(y-prevY)*x;
+                    prevY=y;
+                }
                 yLast=true;
                 xLast=false;
                 y+=1/nosNegative;
@@ -1972,16 +2196,29 @@ public class ClassifierResults extends EstimatorResults implements DebugPrinting
                     y=1.0;
             }
         }
-        roc.add(new Pair(1.0,1.0));
-
-        //Calculate the area under the ROC curve, as the sum over all trapezoids with
-        //base xi+1 to xi , that is, A
+        auroc+=(1.0-prevY)*1.0;
+        return auroc;
+    }
 
-        double auroc=0;
-        for(int i=0;i<roc.size()-1;i++){
-            auroc+=(roc.get(i+1).y-roc.get(i).y)*(roc.get(i+1).x);
+    /**
+     * Stable merge sort of the indices in order by descending keys[index]
+     */
+    private static void stableSortDescending(int[] order, double[] keys) {
+        int[] buffer=new int[order.length];
+        for(int width=1;width<order.length;width*=2){
+            for(int lo=0;lo<order.length-width;lo+=2*width){
+                int mid=lo+width;
+                int hi=Math.min(lo+2*width,order.length);
+                int i=lo,j=mid,k=lo;
+                while(i<mid&&j<hi)
+                    buffer[k++]=Double.compare(keys[order[j]],keys[order[i]])>0 ? order[j++] : order[i++];
+                while(i<mid)
+                    buffer[k++]=order[i++];
+                while(j<hi)
+                    buffer[k++]=order[j++];
+                System.arraycopy(buffer,lo,order,lo,hi-lo);
+            }
         }
-        return auroc;
     }
 
     //Early classification
@@ -0,0 +1,92 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package evaluation.storage;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable column of primitive doubles, presented as a List<Double> so that the existing list based
+ * code in ClassifierResults can use it unchanged. Storage and internal access (getDouble/addDouble)
+ * avoid boxing; only calls through the List interface box/unbox.
+ */
+final class DoubleColumn extends AbstractList<Double> implements RandomAccess, Serializable {
+
+    private double[] values;
+    private int size;
+
+    DoubleColumn() {
+        this(16);
+    }
+
+    DoubleColumn(int initialCapacity) {
+        values = new double[Math.max(1, initialCapacity)];
+    }
+
+    DoubleColumn(double[] values) {
+        this.values = Arrays.copyOf(values, Math.max(1, values.length));
+        this.size = values.length;
+    }
+
+    void addDouble(double value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+        values[size++] = value;
+    }
+
+    double getDouble(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return values[index];
+    }
+
+    double[] toDoubleArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    @Override
+    public Double set(int index, Double value) {
+        double old = getDouble(index);
+        values[index] = value;
+        return old;
+    }
+
+    @Override
+    public boolean add(Double value) {
+        addDouble(value);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
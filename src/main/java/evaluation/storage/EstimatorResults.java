@@ -1,6 +1,7 @@
 package evaluation.storage;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -73,7 +74,7 @@ public abstract class EstimatorResults {
     public static final Function<EstimatorResults, Double> GETTER_totalTestTimeDoubleMillisBenchmarked = (EstimatorResults cr) -> divideAvoidInfinity(GETTER_totalTestTimeDoubleMillis.apply(cr), GETTER_benchmarkTime.apply(cr));
     public static final Function<EstimatorResults, Double> GETTER_avgTestPredTimeDoubleMillisBenchmarked = (EstimatorResults cr) -> divideAvoidInfinity(GETTER_avgTestPredTimeDoubleMillis.apply(cr), GETTER_benchmarkTime.apply(cr));
 
-    public static final Function<EstimatorResults, Double> GETTER_MemoryMB = (EstimatorResults cr) -> (double)(cr.memoryUsage/1e+6);
+    public static final Function<EstimatorResults, Double> GETTER_MemoryMB = (EstimatorResults cr) -> cr.memoryUsage/1e+6;
 
     protected static double divideAvoidInfinity(double a, double b) {
         if(b == 0) {
@@ -124,6 +125,20 @@ public abstract class EstimatorResults {
             return copy.get(mid);
     }
 
+    /**
+     * As findMedianPredTime(ArrayList), for pred times stored as primitives. Sorts a copy
+     */
+    protected long findMedianPredTime(long[] predTimes) {
+        long[] copy = Arrays.copyOf(predTimes, predTimes.length);
+        Arrays.sort(copy);
+
+        int mid = copy.length/2;
+        if (copy.length % 2 == 0)
+            return (copy[mid] + copy[mid-1]) / 2;
+        else
+            return copy[mid];
+    }
+
     public abstract double getAcc();
 
     public abstract void cleanPredictionInfo();
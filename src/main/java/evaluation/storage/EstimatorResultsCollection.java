@@ -24,10 +24,15 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import utilities.DebugPrinting;
 import utilities.ErrorReport;
+import utilities.ThreadingUtilities;
 
 /**
  * Essentially a loader for many results over a given set of estimators, datasets, folds, and splits
@@ -133,6 +138,26 @@ public class EstimatorResultsCollection implements DebugPrinting {
      * Defaults to false
      */
     private boolean ignoreMissingDistributions = false;
+
+    /**
+     * The number of threads used to read results files concurrently. Reading is IO and parsing
+     * bound, and each file is independent.
+     *
+     * Defaults to the number of available processors
+     */
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * If not null, the path to a binary cache file of the stats of each results file read in
+     * (see ResultsStatsCache). On subsequent loads, the stats of files that have not been modified since
+     * are taken from the cache and only the meta info lines of those files are read.
+     *
+     * Only used for classification results, when cleanResults is true and ignoreMissingDistributions
+     * is false, i.e. when the individual predictions would not be kept anyway.
+     *
+     * Defaults to null, i.e. no caching
+     */
+    private String statsCachePath = null;
     
     public EstimatorResultsCollection() {
         
@@ -165,6 +190,8 @@ public class EstimatorResultsCollection implements DebugPrinting {
         this.cleanResults = other.cleanResults;
         this.allowMissingResults = other.allowMissingResults;
         this.ignoreMissingDistributions = other.ignoreMissingDistributions;
+        this.numThreads = other.numThreads;
+        this.statsCachePath = other.statsCachePath;
     }
 
     /**
@@ -375,6 +402,34 @@ public class EstimatorResultsCollection implements DebugPrinting {
         this.ignoreMissingDistributions = ignoreMissingDistributions;
     }
     
+    /**
+     * The number of threads used to read results files concurrently.
+     *
+     * Defaults to the number of available processors
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * If not null, the stats of each results file read in will be cached in a binary file at this path,
+     * and on subsequent loads, the stats of unmodified files will be read from the cache instead of recomputed
+     * from the predictions. Only used when cleanResults is true and ignoreMissingDistributions is false.
+     *
+     * Defaults to null, i.e. no caching
+     */
+    public void setStatsCachePath(String statsCachePath) {
+        this.statsCachePath = statsCachePath;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public String getStatsCachePath() {
+        return statsCachePath;
+    }
+
     public int getNumDatasets() {
         return numDatasets;
     }
@@ -560,10 +615,56 @@ public class EstimatorResultsCollection implements DebugPrinting {
         }
     }
     
+    /**
+     * Loads a single results file for the given split/estimator/dataset/fold, looking for a Resample
+     * first (new name), else a Fold (old name). Stats are found, and the prediction info cleaned if
+     * cleanResults is true. Used as the unit of work when loading concurrently.
+     */
+    private EstimatorResults loadAndProcess(String readPath, String estimatorStorage, String datasetStorage,
+                                            String split, int fold, ResultsStatsCache cache,
+                                            AtomicBoolean ignoringDistsFirstTime) throws FileNotFoundException, Exception {
+        String base = readPath + estimatorStorage + "/Predictions/" + datasetStorage + "/" + split;
+
+        EstimatorResults res;
+        if (cache != null) {
+            try {
+                res = cache.load(base + "Resample" + fold + ".csv");
+            }
+            catch (FileNotFoundException ex) {
+                res = cache.load(base + "Fold" + fold + ".csv");
+            }
+            return res;
+        }
+
+        try {
+            res = loadEstimator(base + "Resample" + fold + ".csv");
+        }
+        catch (FileNotFoundException ex) {
+            res = loadEstimator(base + "Fold" + fold + ".csv");
+        }
+        //This is only an issue for old ClassifierResults files, we should probably stop
+        //accepting those and just alter the results files if there are any left.
+        if (ignoreMissingDistributions && res instanceof ClassifierResults) {
+            boolean wasMissing = ((ClassifierResults)res).populateMissingDists();
+            if (wasMissing && ignoringDistsFirstTime.getAndSet(false)) {
+                System.out.println("---------Probability distributions missing, but ignored: "
+                        + estimatorStorage + " - " + datasetStorage + " - " + fold + " - " + split);
+            }
+        }
+        res.findAllStatsOnce();
+        if (cleanResults)
+            res.cleanPredictionInfo();
+        return res;
+    }
+
     /**
      * Loads the splits, estimators, datasets, and folds specified from disk into memory
      * subject to the options set. 
      * 
+     * Files are read concurrently using numThreads threads (see setNumThreads(int)), and if a stats
+     * cache path has been set (see setStatsCachePath(String)), the stats of files that have not changed
+     * since the last load are read from the cache instead of being recomputed from the predictions
+     * 
      * @return the EstimatorResults[splits][estimators][datasets][folds] loaded in, also accessible after the call with retrieveResults()
      * @throws Exception on any number of missing file if allowMissingResults is false
      */
@@ -578,13 +679,42 @@ public class EstimatorResultsCollection implements DebugPrinting {
         //train files may be produced via TrainAccuracyEstimate, older code
         //while test files likely by experiments, but still might be a very old file
         //so having separate checks for each.
-        boolean ignoringDistsFirstTime = true;
+        AtomicBoolean ignoringDistsFirstTime = new AtomicBoolean(true);
         
         splitsWithMissingResults = new HashSet<>(splits.length);
         estimatorsWithMissingResults = new HashSet<>(estimatorNamesInOutput.length);
         datasetsWithMissingResults = new HashSet<>(datasetNamesInOutput.length);
         foldsWithMissingResults = new HashSet<>(folds.length);
-        
+
+        //the cache only holds summary stats, so can only be used if predictions are not wanted, and the
+        //stats are found from the predictions as written
+        ResultsStatsCache cache = null;
+        if (statsCachePath != null && resultsType == ResultsType.CLASSIFICATION && cleanResults && !ignoreMissingDistributions)
+            cache = new ResultsStatsCache(statsCachePath);
+
+        //submit every file as a job up front, then walk through them in the usual order to gather
+        //results and report any missing files exactly as when reading sequentially
+        ExecutorService executor = ThreadingUtilities.buildExecutorService(Math.max(1, numThreads));
+        List<Future<EstimatorResults>> futures = new ArrayList<>(getTotalNumResultsIgnoreMissing());
+        for (int c = 0; c < numEstimators; c++) {
+            String readPath = resultsFilesDirectories.length == 1 ? resultsFilesDirectories[0] : resultsFilesDirectories[c];
+            for (int d = 0; d < numDatasets; d++) {
+                for (int f = 0; f < numFolds; f++) {
+                    for (int s = 0; s < numSplits; s++) {
+                        final String estimatorStorage = estimatorNamesInStorage[c];
+                        final String datasetStorage = datasetNamesInStorage[d];
+                        final String split = splits[s];
+                        final int fold = folds[f];
+                        final ResultsStatsCache jobCache = cache;
+                        futures.add(executor.submit(() -> loadAndProcess(readPath, estimatorStorage, datasetStorage,
+                                split, fold, jobCache, ignoringDistsFirstTime)));
+                    }
+                }
+            }
+        }
+        executor.shutdown();
+
+        int job = 0;
         for (int c = 0; c < numEstimators; c++) {
             String estimatorStorage = estimatorNamesInStorage[c];
             String estimatorOutput = estimatorNamesInOutput[c];
@@ -609,28 +739,13 @@ public class EstimatorResultsCollection implements DebugPrinting {
 
                             String readPath = resultsFilesDirectories.length == 1 ? resultsFilesDirectories[0] : resultsFilesDirectories[c];
                             try {
-                                //Look for a Resample first (new name), else look for a Fold (old name).
                                 try {
-                                    allResults[s][c][d][f] = loadEstimator(readPath + estimatorStorage +
-                                            "/Predictions/" + datasetStorage + "/" + split + "Resample" + fold + ".csv");
-                                }
-                                catch (FileNotFoundException ex) {
-                                    allResults[s][c][d][f] = loadEstimator(readPath + estimatorStorage +
-                                            "/Predictions/" + datasetStorage + "/" + split + "Fold" + fold + ".csv");
-                                }
-                                //This is only an issue for old ClassifierResults files, we should probably stop
-                                //accepting those and just alter the results files if there are any left.
-                                if (ignoreMissingDistributions && allResults[s][c][d][f] instanceof ClassifierResults) {
-                                    boolean wasMissing = ((ClassifierResults)allResults[s][c][d][f]).populateMissingDists();
-                                    if (wasMissing && ignoringDistsFirstTime) {
-                                        System.out.println("---------Probability distributions missing, but ignored: " 
-                                                + estimatorStorage + " - " + datasetStorage + " - " + f + " - train");
-                                        ignoringDistsFirstTime = false;
-                                    }
+                                    allResults[s][c][d][f] = futures.get(job++).get();
+                                } catch (ExecutionException ex) {
+                                    if (ex.getCause() instanceof Exception)
+                                        throw (Exception) ex.getCause();
+                                    throw ex;
                                 }
-                                allResults[s][c][d][f].findAllStatsOnce();
-                                if (cleanResults)
-                                    allResults[s][c][d][f].cleanPredictionInfo();
                             } catch (FileNotFoundException ex) {
                                 String fileName = readPath + estimatorStorage + "/Predictions/" + datasetStorage + "/"
                                         + split + "(Resample/Fold)" + fold + ".csv";
@@ -666,9 +781,17 @@ public class EstimatorResultsCollection implements DebugPrinting {
                 masterError.log("Estimator Errors: " + estimatorNamesInStorage[c] + "\n" + e+" ");
                 e.printStackTrace();
             }
+
+            //skip over any remaining jobs of this estimator, if an error was thrown part way through
+            job = (c + 1) * numDatasets * numFolds * numSplits;
             
             numMissingResults += estimatorFnfs;
         }
+
+        if (cache != null) {
+            cache.save();
+            printlnDebug(cache.toString());
+        }
         
         masterError.throwIfErrors();
         
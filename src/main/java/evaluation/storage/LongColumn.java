@@ -0,0 +1,92 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package evaluation.storage;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable column of primitive longs, presented as a List<Long> so that the existing list based
+ * code in ClassifierResults can use it unchanged. Storage and internal access (getLong/addLong)
+ * avoid boxing; only calls through the List interface box/unbox.
+ */
+final class LongColumn extends AbstractList<Long> implements RandomAccess, Serializable {
+
+    private long[] values;
+    private int size;
+
+    LongColumn() {
+        this(16);
+    }
+
+    LongColumn(int initialCapacity) {
+        values = new long[Math.max(1, initialCapacity)];
+    }
+
+    LongColumn(long[] values) {
+        this.values = Arrays.copyOf(values, Math.max(1, values.length));
+        this.size = values.length;
+    }
+
+    void addLong(long value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+        values[size++] = value;
+    }
+
+    long getLong(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return values[index];
+    }
+
+    long[] toLongArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public Long get(int index) {
+        return getLong(index);
+    }
+
+    @Override
+    public Long set(int index, Long value) {
+        long old = getLong(index);
+        values[index] = value;
+        return old;
+    }
+
+    @Override
+    public boolean add(Long value) {
+        addLong(value);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package evaluation.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk binary index of the summative metrics computed from ClassifierResults files, keyed
+ * by the absolute path of each results file along with its last modified time and length.
+ *
+ * Computing the stats of a predictions file requires reading and parsing every prediction, which
+ * dominates the time taken to collate large numbers of results. When a file has not changed since
+ * its stats were cached, only its first three (meta info) lines need to be read, and the rest of
+ * the stats are filled in from the cache.
+ *
+ * Usage:
+ *      ResultsStatsCache cache = new ResultsStatsCache(cacheFilePath); //reads existing entries, if any
+ *      ClassifierResults res = cache.load(resultsFilePath);           //from cache where possible
+ *      ...
+ *      cache.save();                                                   //writes new entries, if any
+ *
+ * Safe for concurrent calls to load(...). Results loaded via the cache have had all their stats found,
+ * but hold no prediction info (as though cleanPredictionInfo() had been called)
+ */
+public class ResultsStatsCache {
+
+    private static final int MAGIC = 0x54534d4c; //"TSML"
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final byte[] metrics;
+
+        Entry(long lastModified, long length, byte[] metrics) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.metrics = metrics;
+        }
+    }
+
+    private final File cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified = false;
+
+    private int numHits = 0;
+    private int numMisses = 0;
+
+    /**
+     * Creates a cache backed by the given file. If the file exists, its entries are read in,
+     * otherwise the cache starts empty and the file will be created on save(). A file that
+     * cannot be read as a cache (e.g. an older version) is ignored, and overwritten on save()
+     */
+    public ResultsStatsCache(String cacheFilePath) {
+        this.cacheFile = new File(cacheFilePath);
+
+        if (cacheFile.exists()) {
+            try {
+                read();
+            } catch (IOException e) {
+                System.out.println("Could not read results stats cache " + cacheFilePath + ", starting from empty: " + e);
+                entries.clear();
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not a results stats cache of version " + VERSION);
+
+            int numEntries = in.readInt();
+            for (int i = 0; i < numEntries; i++) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                byte[] metrics = new byte[in.readInt()];
+                in.readFully(metrics);
+                entries.put(path, new Entry(lastModified, length, metrics));
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to disk, if any entries have been added since it was read/last saved.
+     * The cache is written to a temporary file first and then moved into place, such that an
+     * interrupted save does not corrupt an existing cache
+     */
+    public synchronized void save() throws IOException {
+        if (!modified)
+            return;
+
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().lastModified);
+                out.writeLong(e.getValue().length);
+                out.writeInt(e.getValue().metrics.length);
+                out.write(e.getValue().metrics);
+            }
+        }
+
+        if (cacheFile.exists() && !cacheFile.delete())
+            throw new IOException("Could not replace results stats cache " + cacheFile.getPath());
+        if (!tmp.renameTo(cacheFile))
+            throw new IOException("Could not move " + tmp.getPath() + " to " + cacheFile.getPath());
+
+        modified = false;
+    }
+
+    /**
+     * Loads the results at the given path with all stats found. If the file is unchanged since it
+     * was last cached, only the meta info is read from the file, otherwise the file is read and
+     * its stats found in full and then cached.
+     *
+     * The returned results will not contain prediction info either way.
+     */
+    public ClassifierResults load(String path) throws Exception {
+        File f = new File(path);
+        if (!ClassifierResults.exists(f))
+            throw new FileNotFoundException("File " + path + " NOT FOUND");
+
+        String key = f.getAbsolutePath();
+        long lastModified = f.lastModified();
+        long length = f.length();
+
+        ClassifierResults res = new ClassifierResults();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+            res.loadMetaInfoFromFile(path);
+            res.readMetrics(new DataInputStream(new ByteArrayInputStream(entry.metrics)));
+            res.cleanPredictionInfo();
+            countHit(true);
+            return res;
+        }
+
+        res.loadResultsFromFile(path);
+        res.findAllStatsOnce();
+        res.cleanPredictionInfo();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            res.writeMetrics(out);
+        }
+        entries.put(key, new Entry(lastModified, length, bytes.toByteArray()));
+        modified = true;
+        countHit(false);
+
+        return res;
+    }
+
+    private synchronized void countHit(boolean hit) {
+        if (hit)
+            numHits++;
+        else
+            numMisses++;
+    }
+
+    public synchronized int getNumHits() {
+        return numHits;
+    }
+
+    public synchronized int getNumMisses() {
+        return numMisses;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultsStatsCache: " + cacheFile.getPath() + ", " + size() + " entries, " + getNumHits() + " hits, " + getNumMisses() + " misses";
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package evaluation.storage;
+
+import java.io.Serializable;
+
+/**
+ * Accumulates the summative metrics of a ClassifierResults online, one prediction at a time, in memory
+ * that does not grow with the number of predictions. Used by ClassifierResults when streaming metrics
+ * are enabled (see ClassifierResults.enableStreamingMetrics()), where individual predictions are not kept.
+ *
+ * Accuracy, the confusion matrix (and so balanced accuracy, F1, MCC etc.) and NLL are exact.
+ *
+ * AUROC is found from per-class histograms of the predicted probabilities of the positive and negative
+ * instances, with numBins equal width bins over [0,1]. Pairs of positive/negative instances falling
+ * in the same bin count as ties, each tie counting half. With the default 1000 bins and few tied
+ * probabilities this agrees with the exact, sort-based AUROC of ClassifierResults to roughly 3 decimal
+ * places. Where probabilities are coarser than the bin width (e.g. one-hot distributions, or counts over
+ * a forest of 500 trees) this is exactly the tie-corrected (Mann-Whitney) AUROC, which may differ further
+ * from ClassifierResults, as that orders tied probabilities by the order they were predicted in.
+ *
+ * The median prediction time is found from a histogram of 64 buckets per power of two, so is reported
+ * to within ~1.6% of the true median.
+ */
+public class StreamingClassifierMetrics implements Serializable {
+
+    public static final int DEFAULT_NUM_AUROC_BINS = 1000;
+
+    private static final double NLL_PENALTY = -6.64; //Log_2(0.01), as in ClassifierResults
+
+    private static final int TIME_BUCKETS_PER_OCTAVE_BITS = 6; //64 buckets per power of two
+    private static final int NUM_TIME_BUCKETS = 1 + 63 * (1 << TIME_BUCKETS_PER_OCTAVE_BITS);
+
+    private final int numBins;
+    private int numClasses;
+
+    private long numInstances;
+    private double[][] confusionMatrix; //[actual class][predicted class]
+
+    private long numWithDists;
+    private double log2ProbSum;
+    private int[][] positiveBins; //[class][bin], counts of probabilities for class c of instances of class c
+    private int[][] negativeBins; //[class][bin], counts of probabilities for class c of instances NOT of class c
+
+    private long numNegativeTimes;
+    private long[] timeBuckets;
+
+    public StreamingClassifierMetrics(int numClasses) {
+        this(numClasses, DEFAULT_NUM_AUROC_BINS);
+    }
+
+    /**
+     * @param numClasses the number of classes, or <= 0 to infer from the first distribution added
+     * @param numBins    the number of histogram bins used to approximate the AUROC
+     */
+    public StreamingClassifierMetrics(int numClasses, int numBins) {
+        if (numBins < 1)
+            throw new IllegalArgumentException("numBins must be positive: " + numBins);
+        this.numBins = numBins;
+        this.timeBuckets = new long[NUM_TIME_BUCKETS];
+        if (numClasses > 0)
+            init(numClasses);
+    }
+
+    private void init(int numClasses) {
+        this.numClasses = numClasses;
+        confusionMatrix = new double[numClasses][numClasses];
+        positiveBins = new int[numClasses][numBins];
+        negativeBins = new int[numClasses][numBins];
+    }
+
+    /**
+     * Records a single prediction. dist may be null, in which case the prediction does not contribute
+     * to the NLL or AUROC
+     */
+    public void add(double trueClassVal, double[] dist, double predClassVal, long predTime) {
+        if (numClasses <= 0) {
+            if (dist == null)
+                throw new IllegalStateException("Number of classes is not known, and cannot be inferred from a missing distribution");
+            init(dist.length);
+        }
+
+        int trueClass = (int) trueClassVal;
+        confusionMatrix[trueClass][(int) predClassVal]++;
+        numInstances++;
+
+        if (dist != null) {
+            if (dist[trueClass] == 0)
+                log2ProbSum += NLL_PENALTY;
+            else
+                log2ProbSum += Math.log(dist[trueClass]) / Math.log(2);
+
+            for (int c = 0; c < numClasses; c++) {
+                if (c == trueClass)
+                    positiveBins[c][bin(dist[c])]++;
+                else
+                    negativeBins[c][bin(dist[c])]++;
+            }
+            numWithDists++;
+        }
+
+        if (predTime < 0)
+            numNegativeTimes++;
+        else
+            timeBuckets[timeBucket(predTime)]++;
+    }
+
+    /**
+     * Adds all predictions recorded by other into this. Both must have the same number of classes and bins
+     */
+    public void merge(StreamingClassifierMetrics other) {
+        if (other.numInstances == 0)
+            return;
+        if (numClasses <= 0)
+            init(other.numClasses);
+        if (other.numClasses != numClasses || other.numBins != numBins)
+            throw new IllegalArgumentException("Cannot merge metrics over " + other.numClasses + " classes and " + other.numBins
+                    + " bins into metrics over " + numClasses + " classes and " + numBins + " bins");
+
+        numInstances += other.numInstances;
+        numWithDists += other.numWithDists;
+        log2ProbSum += other.log2ProbSum;
+        numNegativeTimes += other.numNegativeTimes;
+        for (int i = 0; i < numClasses; i++) {
+            for (int j = 0; j < numClasses; j++)
+                confusionMatrix[i][j] += other.confusionMatrix[i][j];
+            for (int b = 0; b < numBins; b++) {
+                positiveBins[i][b] += other.positiveBins[i][b];
+                negativeBins[i][b] += other.negativeBins[i][b];
+            }
+        }
+        for (int t = 0; t < NUM_TIME_BUCKETS; t++)
+            timeBuckets[t] += other.timeBuckets[t];
+    }
+
+    private int bin(double prob) {
+        if (!(prob > 0)) //also catches NaN
+            return 0;
+        int b = (int) (prob * numBins);
+        return b >= numBins ? numBins - 1 : b;
+    }
+
+    private static int timeBucket(long time) {
+        if (time == 0)
+            return 0;
+        int exp = 63 - Long.numberOfLeadingZeros(time);
+        int shift = exp - TIME_BUCKETS_PER_OCTAVE_BITS;
+        long mantissa = shift >= 0 ? time >>> shift : time << -shift;
+        return 1 + (exp << TIME_BUCKETS_PER_OCTAVE_BITS) + (int) (mantissa & ((1 << TIME_BUCKETS_PER_OCTAVE_BITS) - 1));
+    }
+
+    private static long timeBucketLowerBound(int bucket) {
+        if (bucket == 0)
+            return 0;
+        int exp = (bucket - 1) >>> TIME_BUCKETS_PER_OCTAVE_BITS;
+        long mantissa = ((bucket - 1) & ((1 << TIME_BUCKETS_PER_OCTAVE_BITS) - 1)) | (1 << TIME_BUCKETS_PER_OCTAVE_BITS);
+        int shift = exp - TIME_BUCKETS_PER_OCTAVE_BITS;
+        return shift >= 0 ? mantissa << shift : mantissa >>> -shift;
+    }
+
+    public int numClasses() {
+        return numClasses;
+    }
+
+    public long numInstances() {
+        return numInstances;
+    }
+
+    public boolean hasProbabilityDistributionInformation() {
+        return numWithDists > 0;
+    }
+
+    /**
+     * @return a copy of the confusion matrix, [actual class][predicted class]
+     */
+    public double[][] getConfusionMatrix() {
+        double[][] cm = new double[numClasses][];
+        for (int i = 0; i < numClasses; i++)
+            cm[i] = confusionMatrix[i].clone();
+        return cm;
+    }
+
+    public double findAccuracy() {
+        double correct = 0;
+        for (int i = 0; i < numClasses; i++)
+            correct += confusionMatrix[i][i];
+        return correct / numInstances;
+    }
+
+    public double findNLL() {
+        return -log2ProbSum / numWithDists;
+    }
+
+    /**
+     * Approximate AUROC of class c vs the rest, see the class description
+     */
+    public double findAUROC(int c) {
+        double positives = 0, negatives = 0;
+        for (int b = 0; b < numBins; b++) {
+            positives += positiveBins[c][b];
+            negatives += negativeBins[c][b];
+        }
+        if (positives == 0 || negatives == 0)
+            return 0.5;
+
+        //probability that a random positive is scored higher than a random negative, ties counting half
+        double negativesBelow = 0, area = 0;
+        for (int b = 0; b < numBins; b++) {
+            area += positiveBins[c][b] * (negativesBelow + 0.5 * negativeBins[c][b]);
+            negativesBelow += negativeBins[c][b];
+        }
+        return area / (positives * negatives);
+    }
+
+    /**
+     * As ClassifierResults.findMeanAUROC(), the AUROC of class 1 for two class problems, otherwise the
+     * average of the one-vs-rest AUROC of each class, weighted by the class distribution
+     */
+    public double findMeanAUROC() {
+        if (numClasses == 2)
+            return findAUROC(1);
+
+        double a = 0;
+        for (int c = 0; c < numClasses; c++) {
+            double count = 0;
+            for (int p = 0; p < numClasses; p++)
+                count += confusionMatrix[c][p];
+            a += findAUROC(c) * (count / numInstances);
+        }
+        return a;
+    }
+
+    /**
+     * Approximate median prediction time, see the class description
+     */
+    public long findMedianPredTime() {
+        long mid = numInstances / 2;
+        if (mid < numNegativeTimes)
+            return -1;
+
+        long seen = numNegativeTimes;
+        for (int t = 0; t < NUM_TIME_BUCKETS; t++) {
+            seen += timeBuckets[t];
+            if (seen > mid)
+                return timeBucketLowerBound(t);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,149 @@
+package evaluation.storage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the metrics accumulated with streaming enabled against those found from the stored predictions.
+ * Accuracy, the confusion matrix based metrics and NLL should agree exactly (up to floating point summation order),
+ * AUROC to within 1e-3 with the default 1000 bins, and the median prediction time to within 1.6%.
+ */
+public class StreamingClassifierMetricsTest {
+
+    private static final double EXACT_TOLERANCE = 1e-9;
+    private static final double AUROC_TOLERANCE = 1e-3;
+    private static final double MEDIAN_TIME_RELATIVE_TOLERANCE = 0.016;
+
+    private static double[] randomDistribution(Random random, int numClasses, int trueClass, boolean oneHot) {
+        double[] dist = new double[numClasses];
+        if (oneHot) {
+            // mostly right, sometimes wrong
+            dist[random.nextDouble() < 0.7 ? trueClass : random.nextInt(numClasses)] = 1;
+            return dist;
+        }
+        double sum = 0;
+        for (int c = 0; c < numClasses; c++) {
+            // skew towards the true class so the metrics are not all at chance
+            dist[c] = random.nextDouble() + (c == trueClass ? 0.5 : 0);
+            sum += dist[c];
+        }
+        for (int c = 0; c < numClasses; c++)
+            dist[c] /= sum;
+        return dist;
+    }
+
+    private static int indexOfMax(double[] dist) {
+        int best = 0;
+        for (int c = 1; c < dist.length; c++)
+            if (dist[c] > dist[best])
+                best = c;
+        return best;
+    }
+
+    private static ClassifierResults[] makeResults(int seed, int numClasses, int numInstances, boolean oneHot) throws Exception {
+        Random random = new Random(seed);
+        ClassifierResults exact = new ClassifierResults(numClasses);
+        ClassifierResults streamed = new ClassifierResults(numClasses);
+        streamed.enableStreamingMetrics();
+        exact.turnOffZeroTimingsErrors();
+        streamed.turnOffZeroTimingsErrors();
+        for (int i = 0; i < numInstances; i++) {
+            int trueClass = random.nextInt(numClasses);
+            double[] dist = randomDistribution(random, numClasses, trueClass, oneHot);
+            long time = 1000 + (long) (random.nextDouble() * 1000000);
+            exact.addPrediction(trueClass, dist, indexOfMax(dist), time, "");
+            streamed.addPrediction(trueClass, dist.clone(), indexOfMax(dist), time, "");
+        }
+        exact.turnOnZeroTimingsErrors();
+        streamed.turnOnZeroTimingsErrors();
+        return new ClassifierResults[] { exact, streamed };
+    }
+
+    private static void assertMetricsMatch(ClassifierResults exact, ClassifierResults streamed, double aurocTolerance) throws Exception {
+        exact.finaliseResults();
+        exact.findAllStatsOnce();
+        streamed.finaliseResults();
+        streamed.findAllStatsOnce();
+
+        Assert.assertArrayEquals(exact.confusionMatrix, streamed.confusionMatrix);
+        Assert.assertEquals(exact.getAcc(), streamed.getAcc(), EXACT_TOLERANCE);
+        Assert.assertEquals(exact.balancedAcc, streamed.balancedAcc, EXACT_TOLERANCE);
+        Assert.assertEquals(exact.f1, streamed.f1, EXACT_TOLERANCE);
+        Assert.assertEquals(exact.mcc, streamed.mcc, EXACT_TOLERANCE);
+        Assert.assertEquals(exact.nll, streamed.nll, EXACT_TOLERANCE);
+        Assert.assertEquals(exact.meanAUROC, streamed.meanAUROC, aurocTolerance);
+        Assert.assertEquals(exact.medianPredTime, streamed.medianPredTime,
+                exact.medianPredTime * MEDIAN_TIME_RELATIVE_TOLERANCE);
+    }
+
+    @Test
+    public void testStreamedMetricsMatchExact() throws Exception {
+        for (int numClasses : new int[] { 2, 3, 7 }) {
+            ClassifierResults[] results = makeResults(numClasses, numClasses, 2000, false);
+            assertMetricsMatch(results[0], results[1], AUROC_TOLERANCE);
+        }
+    }
+
+    /**
+     * One-vs-rest AUROC of class c with tied pairs counting half
+     */
+    private static double mannWhitneyAUROC(ClassifierResults results, int c) {
+        double area = 0, positives = 0, negatives = 0;
+        for (int i = 0; i < results.numInstances(); i++) {
+            if (results.getTrueClassValue(i) != c)
+                continue;
+            positives++;
+            double p = results.getProbabilityDistribution(i)[c];
+            for (int j = 0; j < results.numInstances(); j++) {
+                if (results.getTrueClassValue(j) == c)
+                    continue;
+                double q = results.getProbabilityDistribution(j)[c];
+                area += p > q ? 1 : p == q ? 0.5 : 0;
+            }
+        }
+        for (int j = 0; j < results.numInstances(); j++)
+            if (results.getTrueClassValue(j) != c)
+                negatives++;
+        return area / (positives * negatives);
+    }
+
+    @Test
+    public void testStreamedAUROCExactForOneHotDistributions() throws Exception {
+        // probabilities coarser than the bin width fall in the same bins as their ties, so the streamed AUROC is
+        // exactly the tie-corrected AUROC. ClassifierResults orders ties by prediction order instead, so is not
+        // compared against here
+        int numClasses = 4;
+        ClassifierResults[] results = makeResults(0, numClasses, 1000, true);
+        results[0].finaliseResults();
+        results[1].finaliseResults();
+        results[1].findAllStatsOnce();
+        double[] classDist = new double[numClasses];
+        for (int i = 0; i < results[0].numInstances(); i++)
+            classDist[(int) results[0].getTrueClassValue(i)] += 1.0 / results[0].numInstances();
+        double expected = 0;
+        for (int c = 0; c < numClasses; c++)
+            expected += mannWhitneyAUROC(results[0], c) * classDist[c];
+        Assert.assertEquals(expected, results[1].meanAUROC, EXACT_TOLERANCE);
+    }
+
+    @Test
+    public void testMergedFoldsMatchExact() throws Exception {
+        int numClasses = 3;
+        int numFolds = 5;
+        ClassifierResults exact = new ClassifierResults(numClasses);
+        ClassifierResults streamed = new ClassifierResults(numClasses);
+        streamed.enableStreamingMetrics();
+        exact.turnOffZeroTimingsErrors();
+        for (int fold = 0; fold < numFolds; fold++) {
+            ClassifierResults[] foldResults = makeResults(fold, numClasses, 300, false);
+            for (int i = 0; i < foldResults[0].numInstances(); i++)
+                exact.addPrediction(foldResults[0].getTrueClassValue(i), foldResults[0].getProbabilityDistribution(i),
+                        foldResults[0].getPredClassValue(i), foldResults[0].getPredictionTime(i), "");
+            streamed.addAllStreamedPredictions(foldResults[1]);
+        }
+        exact.turnOnZeroTimingsErrors();
+        assertMetricsMatch(exact, streamed, AUROC_TOLERANCE);
+    }
+}
@@ -37,8 +37,6 @@ import weka.core.Randomizable;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -83,7 +81,7 @@ public class ClassifierExperiments {
     public static int numCVFolds = 10;
 
     private static String WORKSPACE_DIR = "Workspace";
-    private static String PREDICTIONS_DIR = "Predictions";
+    static String PREDICTIONS_DIR = "Predictions";
 
     /**
      * Parses args into an ExperimentalArguments object, then calls setupAndRunExperiment(ExperimentalArguments expSettings).
@@ -740,6 +738,8 @@ public class ClassifierExperiments {
      */
     public static ClassifierResults evaluateClassifier(ExperimentalArguments exp, Classifier classifier, Instances testSet) throws Exception {
         SingleTestSetEvaluator eval = new SingleTestSetEvaluator(exp.foldId, false, true, exp.interpret); //DONT clone data, DO set the class to be missing for each inst
+        //individual predictions are not written for the METRICS file format, so need not be kept in memory if approximate metrics are acceptable
+        eval.setStreamingMetrics(exp.streamingMetrics && exp.classifierResultsFileFormat == 1);
 
         return eval.evaluate(classifier, testSet);
     }
@@ -798,71 +798,28 @@ public class ClassifierExperiments {
     }
 
     /**
-     * If exp.performTimingBenchmark = true, this will return the total time to
-     * sort 1,000 arrays of size 10,000
-     *
-     * Expected time on Intel(R) Core(TM) i7-7700K CPU @ 4.20GHz is ~0.8 seconds
-     *
-     * This can still anecdotally vary between 0.75 to 1.05 on my windows machine, however.
+     * If exp.performTimingBenchmark = true, this will return the total of the median times of the TimingBenchmark
+     * kernels (DTW, FFT, tree split scan, hash histogram) on this machine, in nanoseconds. The benchmark is run at most
+     * once per JVM, see TimingBenchmark.forThisMachine()
      */
     public static long findBenchmarkTime(ExperimentalArguments exp) {
         if (!exp.performTimingBenchmark)
             return -1; //the default in classifierresults, i.e no benchmark
 
-        // else calc benchmark
-
-        int arrSize = 10000;
-        int repeats = 1000;
-        long[] times = new long[repeats];
-        long total = 0L;
-        for (int i = 0; i < repeats; i++) {
-            times[i] = atomicBenchmark(arrSize);
-            total+=times[i];
-        }
-
-        if (debug) {
-            long mean = 0L, max = Long.MIN_VALUE, min = Long.MAX_VALUE;
-            for (long time : times) {
-                mean += time;
-                if (time < min)
-                    min = time;
-                if (time > max)
-                    max = time;
-            }
-            mean/=repeats;
-
-            int halfR = repeats/2;
-            long median = repeats % 2 == 0 ?
-                    (times[halfR] + times[halfR+1]) / 2 :
-                    times[halfR];
-
-            double d = 1000000000;
-            StringBuilder sb = new StringBuilder("BENCHMARK TIMINGS, summary of times to "
-                    + "sort "+repeats+" random int arrays of size "+arrSize+" - in seconds\n");
-            sb.append("total = ").append(total/d).append("\n");
-            sb.append("min = ").append(min/d).append("\n");
-            sb.append("max = ").append(max/d).append("\n");
-            sb.append("mean = ").append(mean/d).append("\n");
-            sb.append("median = ").append(median/d).append("\n");
-
-            LOGGER.log(Level.FINE, sb.toString());
-        }
-
-        return total;
+        TimingBenchmark.Scores scores = TimingBenchmark.forThisMachine();
+        LOGGER.log(Level.FINE, "BENCHMARK TIMINGS, median time of each kernel in nanoseconds: " + scores
+                + ", total = " + scores.getTotalTime());
+        return scores.getTotalTime();
     }
 
-    private static long atomicBenchmark(int arrSize) {
-        long startTime = System.nanoTime();
-        int[] arr = new int[arrSize];
-        Random rng = new Random(0);
-        for (int j = 0; j < arrSize; j++)
-            arr[j] = rng.nextInt();
-
-        Arrays.sort(arr);
-        return System.nanoTime() - startTime;
+    public static String buildExperimentDescription() {
+        return buildExperimentDescription(null);
     }
 
-    public static String buildExperimentDescription() {
+    /**
+     * As buildExperimentDescription(), with the score of each benchmark kernel if exp.performTimingBenchmark = true
+     */
+    public static String buildExperimentDescription(ExperimentalArguments exp) {
         //TODO get system information, e.g. cpu clock-speed. generic across os too
         Date date = new Date();
         SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -875,6 +832,9 @@ public class ClassifierExperiments {
         sb.append(",os.name:").append(System.getProperty("os.name", "unknown"));
         sb.append("},ENDSYSTEMPROPERTIES");
 
+        if (exp != null && exp.performTimingBenchmark)
+            sb.append("    BENCHMARK:{").append(TimingBenchmark.forThisMachine()).append("},ENDBENCHMARK");
+
         return sb.toString().replace("\n", "NEW_LINE");
     }
 
@@ -883,7 +843,7 @@ public class ClassifierExperiments {
         results.setDatasetName(exp.datasetName);
         results.setFoldID(exp.foldId);
         results.setSplit(split);
-        results.setDescription(buildExperimentDescription());
+        results.setDescription(buildExperimentDescription(exp));
 
         //todo, need to make design decisions with the classifierresults enum to clean this switch up
         switch (exp.classifierResultsFileFormat) {
@@ -963,6 +923,10 @@ public class ClassifierExperiments {
      * standardArgs. If numThreads > 0, will spawn that many threads. If numThreads == 0, will use as many threads as there are cores,
      * else if numThreads == -1, will spawn as many threads as there are cores minus 1, to aid usability of the machine.
      *
+     * The threads are a budget of cores shared by the experiments, see ExperimentScheduler: MultiThreadable classifiers
+     * are given the standardArgs numberOfThreads, experiments expected to take longest are started first, and
+     * experiments already completed by an earlier, interrupted call are skipped.
+     *
      * If using bespoke classifiers (not found in setClassifier), e.g. different parameterisations, bespoke ensembles etc,
      * provide a generator function for each classifier, in a list that is parallel with classifierNames. Assuming the
      * classifier is Randomizable, the seed shall be set equal to the expSettings foldId
@@ -984,15 +948,9 @@ public class ClassifierExperiments {
 
         System.out.println("# cores ="+numCores);
         System.out.println("# threads ="+numThreads);
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
 
         List<ExperimentalArguments> exps = standardArgs.generateExperiments(classifierNames, classifierGenerators, datasetNames, minFolds, maxFolds);
-        for (ExperimentalArguments exp : exps)
-            executor.execute(exp);
-
-        executor.shutdown();
-        while (!executor.isTerminated()) {
-        }
+        new ExperimentScheduler(numThreads).run(exps);
         System.out.println("Finished all threads");
     }
 
@@ -0,0 +1,272 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package experiments;
+
+import evaluation.storage.ClassifierResults;
+import tsml.classifiers.MultiThreadable;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a batch of experiments (e.g. from ExperimentalArguments.generateExperiments) within a budget of cores.
+ *
+ * Jobs are queued largest first by their predicted cost, the mean build time of the same classifier on the same
+ * dataset in the results already written for other folds (or of the classifier on any dataset if there are none
+ * for that dataset). Jobs with no prior results at all are assumed to be as costly as the most costly known job, so
+ * run early. Each job is given as many cores as it can use: one for single threaded classifiers, and the job's
+ * numberOfThreads for MultiThreadable classifiers, unless more are given to each with setThreadsPerMultiThreadedJob.
+ * Jobs are started in queue order once enough cores are free for the next one, so a job is never started with fewer
+ * cores than it asked for. The scheduler blocks while waiting for jobs to finish.
+ *
+ * Jobs whose results files already exist are skipped without instantiating the classifier or loading the data, so
+ * an interrupted batch resumes where it left off. Jobs forcing evaluation are always run.
+ */
+public class ExperimentScheduler {
+
+    private final static Logger LOGGER = Logger.getLogger(ExperimentScheduler.class.getName());
+
+    private final int numCores;
+    private int threadsPerMultiThreadedJob = 1;
+    private Runner runner = ClassifierExperiments::setupAndRunExperiment;
+
+    // whether the classifiers of each classifier name are MultiThreadable, found when the first is instantiated
+    private final Map<String, Boolean> multiThreaded = new HashMap<>();
+    // build times of the results already written for each classifier and dataset
+    private final Map<String, List<Long>> buildTimes = new HashMap<>();
+
+    /**
+     * @param numCores the number of cores shared between all running jobs
+     */
+    public ExperimentScheduler(int numCores) {
+        if (numCores < 1)
+            throw new IllegalArgumentException("numCores must be at least 1: " + numCores);
+        this.numCores = numCores;
+    }
+
+    public int getNumCores() {
+        return numCores;
+    }
+
+    public int getThreadsPerMultiThreadedJob() {
+        return threadsPerMultiThreadedJob;
+    }
+
+    /**
+     * @param threadsPerMultiThreadedJob the least cores given to MultiThreadable classifiers, for experiments setting
+     *                                   fewer numberOfThreads. Defaults to 1, capped at the number of cores
+     */
+    public void setThreadsPerMultiThreadedJob(int threadsPerMultiThreadedJob) {
+        this.threadsPerMultiThreadedJob = Math.max(1, Math.min(numCores, threadsPerMultiThreadedJob));
+    }
+
+    /**
+     * @param runner runs a single experiment, replacing ClassifierExperiments.setupAndRunExperiment
+     */
+    void setRunner(Runner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * Run all the experiments given, returning once they have all finished. Experiments which fail are logged and
+     * write no results, so are attempted again when resuming.
+     */
+    public void run(List<ExperimentalArguments> exps) throws Exception {
+        if (exps.isEmpty())
+            return;
+
+        List<Job> queue = new ArrayList<>(exps.size());
+        for (ExperimentalArguments exp : exps) {
+            if (!forced(exp) && resultsExist(exp))
+                continue;
+            queue.add(new Job(exp, runner));
+        }
+        LOGGER.log(Level.INFO, (exps.size() - queue.size()) + " of " + exps.size() + " experiments already completed");
+        if (queue.isEmpty())
+            return;
+
+        long maxKnownCost = 0;
+        for (Job job : queue) {
+            job.cost = predictCost(job.exp);
+            maxKnownCost = Math.max(maxKnownCost, job.cost);
+        }
+        for (Job job : queue)
+            if (job.cost < 0)
+                job.cost = maxKnownCost;
+        // stable, so jobs of equal cost keep the order given
+        queue.sort((a, b) -> Long.compare(b.cost, a.cost));
+
+        ExecutorService executor = Executors.newFixedThreadPool(numCores);
+        CompletionService<Job> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Job>, Job> running = new HashMap<>();
+        int freeCores = numCores;
+        int next = 0;
+
+        try {
+            while (next < queue.size() || !running.isEmpty()) {
+                // the next job waits for all the cores it asked for, which is at most numCores so always comes
+                while (next < queue.size()) {
+                    Job job = queue.get(next);
+                    if (job.cores == 0)
+                        job.cores = requestedCores(job.exp);
+                    if (job.cores > freeCores)
+                        break;
+                    job.exp.numberOfThreads = job.cores;
+                    freeCores -= job.cores;
+                    running.put(completionService.submit(job), job);
+                    next++;
+                }
+
+                Future<Job> done = completionService.take();
+                Job job = running.remove(done);
+                freeCores += job.cores;
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.SEVERE, "Experiment " + job.key + " failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Predict the build time of an experiment from the results already written for other folds.
+     *
+     * @return the mean build time in nanoseconds of the classifier on the dataset, else on any dataset, else -1 if
+     * there are no results for the classifier
+     */
+    public long predictCost(ExperimentalArguments exp) {
+        List<Long> times = buildTimes(exp.resultsWriteLocation, exp.estimatorName, exp.datasetName);
+        if (times.isEmpty()) {
+            File predictions = new File(exp.resultsWriteLocation + exp.estimatorName + "/" + ClassifierExperiments.PREDICTIONS_DIR + "/");
+            String[] datasets = predictions.list();
+            if (datasets != null) {
+                times = new ArrayList<>();
+                for (String dataset : datasets)
+                    times.addAll(buildTimes(exp.resultsWriteLocation, exp.estimatorName, dataset));
+            }
+        }
+        if (times.isEmpty())
+            return -1;
+
+        long total = 0;
+        for (long time : times)
+            total += time;
+        return total / times.size();
+    }
+
+    private List<Long> buildTimes(String resultsLocation, String classifier, String dataset) {
+        String dir = resultsLocation + classifier + "/" + ClassifierExperiments.PREDICTIONS_DIR + "/" + dataset + "/";
+        List<Long> times = buildTimes.get(dir);
+        if (times != null)
+            return times;
+
+        times = new ArrayList<>();
+        File[] files = new File(dir).listFiles((d, name) -> name.matches("testFold\\d+\\.csv"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    ClassifierResults results = new ClassifierResults();
+                    results.loadMetaInfoFromFile(file.getPath());
+                    if (results.getBuildTime() >= 0)
+                        times.add(results.getBuildTimeInNanos());
+                } catch (Exception e) {
+                    // incomplete or malformed, no timing to learn from
+                }
+            }
+        }
+        buildTimes.put(dir, times);
+        return times;
+    }
+
+    private int requestedCores(ExperimentalArguments exp) {
+        int threads = Math.max(exp.numberOfThreads < 1 ? numCores : exp.numberOfThreads, threadsPerMultiThreadedJob);
+        if (threads == 1)
+            return 1;
+
+        Boolean isMultiThreaded = multiThreaded.get(exp.estimatorName);
+        if (isMultiThreaded == null) {
+            // instantiate the classifier to check, keeping it for the experiment
+            String name = exp.estimatorName;
+            if (exp.classifier == null) {
+                try {
+                    exp.classifier = exp.classifierGenerator != null ? exp.classifierGenerator.get()
+                            : ClassifierLists.setClassifier(exp);
+                } catch (Exception e) {
+                    // the experiment itself will fail and report it
+                    return 1;
+                }
+            }
+            isMultiThreaded = exp.classifier instanceof MultiThreadable;
+            multiThreaded.put(name, isMultiThreaded);
+        }
+        return isMultiThreaded ? Math.min(numCores, threads) : 1;
+    }
+
+    private static boolean forced(ExperimentalArguments exp) {
+        return exp.forceEvaluation || exp.forceEvaluationTestFold || exp.forceEvaluationTrainFold;
+    }
+
+    /**
+     * Whether the results of an experiment have already been written. Results of experiments with a
+     * singleParameterID are named by the classifier, so are not looked for and the experiment checks for itself.
+     */
+    private static boolean resultsExist(ExperimentalArguments exp) {
+        if (exp.singleParameterID != null)
+            return false;
+
+        String dir = exp.resultsWriteLocation + exp.estimatorName + "/" + ClassifierExperiments.PREDICTIONS_DIR + "/"
+                + exp.datasetName + "/";
+        return CollateResults.validateSingleFoldFile(dir + "testFold" + exp.foldId + ".csv")
+                && (!exp.generateErrorEstimateOnTrainSet
+                || CollateResults.validateSingleFoldFile(dir + "trainFold" + exp.foldId + ".csv"));
+    }
+
+    /**
+     * Runs a single experiment, replaceable to schedule experiments without running them.
+     */
+    interface Runner {
+        void run(ExperimentalArguments exp) throws Exception;
+    }
+
+    private static class Job implements Callable<Job> {
+        private final ExperimentalArguments exp;
+        // taken before the classifier is instantiated, which may rename it
+        private final String key;
+        private long cost;
+        private int cores;
+
+        private final Runner runner;
+
+        private Job(ExperimentalArguments exp, Runner runner) {
+            this.exp = exp;
+            this.runner = runner;
+            key = exp.toShortString();
+        }
+
+        @Override
+        public Job call() throws Exception {
+            runner.run(exp);
+            return this;
+        }
+    }
+}
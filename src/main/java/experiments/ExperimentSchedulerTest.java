@@ -0,0 +1,159 @@
+package experiments;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.classifiers.MultiThreadable;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the scheduler with experiments which only record when they run: the cores of the running experiments never
+ * add up to more than the budget, each experiment is given all the cores it asked for, waiting for them if need be,
+ * and a rerun skips the experiments whose results were written.
+ */
+public class ExperimentSchedulerTest {
+
+    private static final int NUM_CORES = 4;
+
+    private static class MultiThreadedClassifier extends AbstractClassifier implements MultiThreadable {
+        @Override
+        public void enableMultiThreading(int numThreads) {
+        }
+
+        @Override
+        public void buildClassifier(Instances data) {
+        }
+    }
+
+    private static ExperimentalArguments experiment(String resultsLocation, String classifier, int foldId,
+                                                    int numberOfThreads, boolean multiThreaded) {
+        ExperimentalArguments exp = new ExperimentalArguments();
+        exp.resultsWriteLocation = resultsLocation;
+        exp.estimatorName = classifier;
+        exp.datasetName = "Fake";
+        exp.foldId = foldId;
+        exp.numberOfThreads = numberOfThreads;
+        exp.classifierGenerator = multiThreaded ? MultiThreadedClassifier::new : NaiveBayes::new;
+        return exp;
+    }
+
+    /**
+     * Records the experiments run and the cores in use at the time, and writes a test fold file for each.
+     */
+    private static class FakeRunner implements ExperimentScheduler.Runner {
+        private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+        private int coresInUse = 0;
+        private int maxCoresInUse = 0;
+        private final List<int[]> coresOnStart = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void run(ExperimentalArguments exp) throws Exception {
+            synchronized (this) {
+                coresInUse += exp.numberOfThreads;
+                maxCoresInUse = Math.max(maxCoresInUse, coresInUse);
+                // the cores given to the experiment, and those in use by all running experiments including it
+                coresOnStart.add(new int[]{ exp.numberOfThreads, coresInUse });
+            }
+            started.add(exp.toShortString());
+            Thread.sleep(50);
+
+            File dir = new File(exp.resultsWriteLocation + exp.estimatorName + "/"
+                    + ClassifierExperiments.PREDICTIONS_DIR + "/" + exp.datasetName + "/");
+            dir.mkdirs();
+            try (FileWriter writer = new FileWriter(new File(dir, "testFold" + exp.foldId + ".csv"))) {
+                writer.write("fake results\n");
+            }
+            synchronized (this) {
+                coresInUse -= exp.numberOfThreads;
+            }
+        }
+    }
+
+    private static List<ExperimentalArguments> experiments(String resultsLocation) {
+        // no prior results, so all are queued in the order given
+        return Arrays.asList(
+                experiment(resultsLocation, "Single", 0, 1, false),
+                experiment(resultsLocation, "Multi", 0, NUM_CORES, true),
+                experiment(resultsLocation, "Single", 1, 1, false),
+                experiment(resultsLocation, "Multi", 1, 3, true),
+                experiment(resultsLocation, "NotMulti", 0, 2, false),
+                experiment(resultsLocation, "Single", 2, 1, false));
+    }
+
+    private static String tempResultsLocation() throws Exception {
+        File dir = Files.createTempDirectory("schedulerTest").toFile();
+        dir.deleteOnExit();
+        return dir.getPath() + "/";
+    }
+
+    @Test
+    public void testCoresWithinBudget() throws Exception {
+        String resultsLocation = tempResultsLocation();
+        List<ExperimentalArguments> exps = experiments(resultsLocation);
+        FakeRunner runner = new FakeRunner();
+        ExperimentScheduler scheduler = new ExperimentScheduler(NUM_CORES);
+        scheduler.setRunner(runner);
+        scheduler.run(exps);
+
+        Assert.assertEquals(exps.size(), runner.started.size());
+        Assert.assertTrue(runner.maxCoresInUse <= NUM_CORES);
+        // MultiThreadable classifiers get the threads asked for, others one
+        int[] expectedCores = { 1, NUM_CORES, 1, 3, 1, 1 };
+        for (int i = 0; i < exps.size(); i++)
+            Assert.assertEquals(expectedCores[i], exps.get(i).numberOfThreads);
+    }
+
+    @Test
+    public void testWaitsForCores() throws Exception {
+        String resultsLocation = tempResultsLocation();
+        List<ExperimentalArguments> exps = experiments(resultsLocation);
+        FakeRunner runner = new FakeRunner();
+        ExperimentScheduler scheduler = new ExperimentScheduler(NUM_CORES);
+        scheduler.setRunner(runner);
+        scheduler.run(exps);
+
+        // the experiment asking for every core was started while the first held one, so must have waited for it
+        Assert.assertEquals(exps.get(0).toShortString(), runner.started.get(0));
+        Assert.assertEquals(exps.get(1).toShortString(), runner.started.get(1));
+        for (int[] cores : runner.coresOnStart) {
+            if (cores[0] == NUM_CORES)
+                Assert.assertEquals(NUM_CORES, cores[1]);
+        }
+    }
+
+    @Test
+    public void testRerunSkipsCompleted() throws Exception {
+        String resultsLocation = tempResultsLocation();
+        List<ExperimentalArguments> exps = experiments(resultsLocation);
+        ExperimentScheduler scheduler = new ExperimentScheduler(NUM_CORES);
+
+        // as if interrupted after the first two experiments
+        FakeRunner runner = new FakeRunner();
+        scheduler.setRunner(runner);
+        scheduler.run(exps.subList(0, 2));
+        Assert.assertEquals(2, runner.started.size());
+
+        runner = new FakeRunner();
+        scheduler.setRunner(runner);
+        scheduler.run(exps);
+        Assert.assertEquals(exps.size() - 2, runner.started.size());
+        for (ExperimentalArguments exp : exps.subList(0, 2))
+            Assert.assertFalse(runner.started.contains(exp.toShortString()));
+
+        // unless forced
+        exps.get(0).forceEvaluation = true;
+        runner = new FakeRunner();
+        scheduler.setRunner(runner);
+        scheduler.run(exps);
+        Assert.assertEquals(Collections.singletonList(exps.get(0).toShortString()), runner.started);
+    }
+}
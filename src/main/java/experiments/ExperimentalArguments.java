@@ -85,7 +85,7 @@ public class ExperimentalArguments implements Runnable {
     public Integer singleParameterID = null;
 
     @Parameter(names = {"-tb", "--timingBenchmark"}, arity = 1, description = "(boolean) Turns on the computation of a standard operation to act as a simple benchmark for the speed of computation on this hardware, which may "
-            + "optionally be used to normalise build/test/predictions times across hardware in later analysis. Expected time on Intel(R) Core(TM) i7-7700K CPU @ 4.20GHz is ~0.8 seconds. For experiments that are likely to be very "
+            + "optionally be used to normalise build/test/predictions times across hardware in later analysis. The benchmark is run once per JVM and shared by all experiments it runs, see TimingBenchmark. For experiments that are likely to be very "
             + "short, it is recommended to leave this off, as it will proportionally increase the total time to perform all your experiments by a great deal, and for short evaluation time the proportional affect of "
             + "any processing noise may make any benchmark normalisation process unreliable anyway.")
     public boolean performTimingBenchmark = false;
@@ -97,6 +97,11 @@ public class ExperimentalArguments implements Runnable {
             + "requires the least space. Use options other than 0 if generating too many files with too much prediction information for the disk space available, however be aware that there is of course a loss of information.")
     public int classifierResultsFileFormat = 0;
 
+    @Parameter(names = {"-sm", "--streamingMetrics"}, arity = 1, description = "(boolean) If true, test predictions are accumulated into streaming metrics rather than stored individually, "
+            + "using constant memory. Only applies with --fileFormat 1, which does not write individual predictions. AUROC and the median prediction time are then approximated from histograms, "
+            + "the other metrics are exact. Defaults to false.")
+    public boolean streamingMetrics = false;
+
     @Parameter(names = {"-nt", "--numberOfThreads"}, arity = 1, description = "(int) Number of threads to be set for MultiThreadable classifiers, defaults to 1. If set to"
             + " < 1, Runtime.getRuntime().availableProcessors()-1 threads are used.")
     public int numberOfThreads = 1;
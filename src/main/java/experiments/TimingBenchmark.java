@@ -0,0 +1,445 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package experiments;
+
+import java.util.*;
+
+/**
+ * A benchmark of the speed of computation on this hardware, for normalising build/test/prediction times across
+ * machines in later analysis.
+ *
+ * The benchmark runs a suite of kernels representative of the work done by the classifiers in the toolbox: by
+ * default a DTW row update, an FFT, a tree split scan and a hash histogram update. Each kernel is run a number of
+ * times untimed to let the JIT compile it, then timed over a number of repeats. The score of a kernel is its median
+ * time, and the total score is the sum of the kernel scores, in nanoseconds.
+ *
+ * Kernels are pluggable, see Kernel. forThisMachine() runs the default kernels once per JVM, so that the experiments
+ * of a sweep run in the same JVM share the same scores. Scores are not shared between JVMs, as the load on a machine
+ * and so the scores can change between them.
+ */
+public class TimingBenchmark {
+
+    /**
+     * A unit of work to time. Inputs are set up before timing, the kernel's result is consumed so that the work can
+     * not be optimised away.
+     */
+    public interface Kernel {
+        String getName();
+
+        /**
+         * Set up the inputs of the kernel, not timed
+         */
+        void setup(Random random);
+
+        /**
+         * Perform the work
+         * @return a value dependent on all the work done
+         */
+        double run();
+    }
+
+    private static Scores machineScores = null;
+    // consumes kernel results
+    private static volatile double sink;
+
+    private final List<Kernel> kernels;
+    private int numWarmups = 5;
+    private int numRepeats = 9;
+    private long seed = 0;
+
+    public TimingBenchmark() {
+        this(defaultKernels());
+    }
+
+    public TimingBenchmark(List<Kernel> kernels) {
+        this.kernels = new ArrayList<>(kernels);
+    }
+
+    public static List<Kernel> defaultKernels() {
+        return Arrays.asList(new DTWKernel(), new FFTKernel(), new SplitScanKernel(), new HistogramKernel());
+    }
+
+    public List<Kernel> getKernels() {
+        return kernels;
+    }
+
+    public int getNumWarmups() {
+        return numWarmups;
+    }
+
+    public void setNumWarmups(int numWarmups) {
+        this.numWarmups = numWarmups;
+    }
+
+    public int getNumRepeats() {
+        return numRepeats;
+    }
+
+    public void setNumRepeats(int numRepeats) {
+        if (numRepeats < 1)
+            throw new IllegalArgumentException("numRepeats must be at least 1: " + numRepeats);
+        this.numRepeats = numRepeats;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public Scores run() {
+        Scores scores = new Scores();
+        for (Kernel kernel : kernels) {
+            kernel.setup(new Random(seed));
+            double result = 0;
+            for (int i = 0; i < numWarmups; i++)
+                result += kernel.run();
+
+            long[] times = new long[numRepeats];
+            for (int i = 0; i < numRepeats; i++) {
+                long startTime = System.nanoTime();
+                result += kernel.run();
+                times[i] = System.nanoTime() - startTime;
+            }
+            sink = result;
+
+            Arrays.sort(times);
+            long median = numRepeats % 2 == 0 ?
+                    (times[numRepeats / 2 - 1] + times[numRepeats / 2]) / 2 :
+                    times[numRepeats / 2];
+            scores.kernelTimes.put(kernel.getName(), median);
+        }
+        return scores;
+    }
+
+    /**
+     * The scores of the default kernels on this machine, benchmarked at most once per JVM.
+     */
+    public static synchronized Scores forThisMachine() {
+        if (machineScores == null)
+            machineScores = new TimingBenchmark().run();
+        return machineScores;
+    }
+
+    /**
+     * The median time in nanoseconds of each kernel
+     */
+    public static class Scores {
+        private final LinkedHashMap<String, Long> kernelTimes = new LinkedHashMap<>();
+
+        public Map<String, Long> getKernelTimes() {
+            return Collections.unmodifiableMap(kernelTimes);
+        }
+
+        public long getKernelTime(String kernelName) {
+            Long time = kernelTimes.get(kernelName);
+            return time == null ? -1 : time;
+        }
+
+        /**
+         * @return the sum of the kernel times, in nanoseconds
+         */
+        public long getTotalTime() {
+            long total = 0;
+            for (long time : kernelTimes.values())
+                total += time;
+            return total;
+        }
+
+        /**
+         * @return the kernel times in the form name:time,name:time,...
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Long> entry : kernelTimes.entrySet()) {
+                if (sb.length() > 0)
+                    sb.append(",");
+                sb.append(entry.getKey()).append(":").append(entry.getValue());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Full DTW between pairs of series, updating a pair of rows of the cost matrix
+     */
+    public static class DTWKernel implements Kernel {
+        private final int length;
+        private final int numPairs;
+        private double[][] series;
+
+        public DTWKernel() {
+            this(512, 4);
+        }
+
+        public DTWKernel(int length, int numPairs) {
+            this.length = length;
+            this.numPairs = numPairs;
+        }
+
+        @Override
+        public String getName() {
+            return "dtw";
+        }
+
+        @Override
+        public void setup(Random random) {
+            series = new double[numPairs + 1][length];
+            for (double[] s : series)
+                for (int i = 0; i < length; i++)
+                    s[i] = random.nextGaussian();
+        }
+
+        @Override
+        public double run() {
+            double total = 0;
+            double[] prev = new double[length];
+            double[] curr = new double[length];
+            for (int p = 0; p < numPairs; p++) {
+                double[] a = series[p], b = series[p + 1];
+                for (int i = 0; i < length; i++) {
+                    for (int j = 0; j < length; j++) {
+                        double d = a[i] - b[j];
+                        d *= d;
+                        if (i == 0)
+                            curr[j] = j == 0 ? d : d + curr[j - 1];
+                        else if (j == 0)
+                            curr[j] = d + prev[j];
+                        else
+                            curr[j] = d + Math.min(prev[j - 1], Math.min(prev[j], curr[j - 1]));
+                    }
+                    double[] tmp = prev;
+                    prev = curr;
+                    curr = tmp;
+                }
+                total += prev[length - 1];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * In place iterative radix 2 FFTs of complex series
+     */
+    public static class FFTKernel implements Kernel {
+        private final int length;
+        private final int numTransforms;
+        private double[] real, imag, workReal, workImag;
+
+        public FFTKernel() {
+            this(1 << 14, 16);
+        }
+
+        /**
+         * @param length a power of 2
+         */
+        public FFTKernel(int length, int numTransforms) {
+            if (Integer.bitCount(length) != 1)
+                throw new IllegalArgumentException("length must be a power of 2: " + length);
+            this.length = length;
+            this.numTransforms = numTransforms;
+        }
+
+        @Override
+        public String getName() {
+            return "fft";
+        }
+
+        @Override
+        public void setup(Random random) {
+            real = new double[length];
+            imag = new double[length];
+            workReal = new double[length];
+            workImag = new double[length];
+            for (int i = 0; i < length; i++)
+                real[i] = random.nextGaussian();
+        }
+
+        @Override
+        public double run() {
+            double total = 0;
+            for (int t = 0; t < numTransforms; t++) {
+                System.arraycopy(real, 0, workReal, 0, length);
+                System.arraycopy(imag, 0, workImag, 0, length);
+                fft(workReal, workImag);
+                total += workReal[t] + workImag[length - 1 - t];
+            }
+            return total;
+        }
+
+        private static void fft(double[] re, double[] im) {
+            int n = re.length;
+            for (int i = 1, j = 0; i < n; i++) {
+                int bit = n >> 1;
+                for (; (j & bit) != 0; bit >>= 1)
+                    j ^= bit;
+                j ^= bit;
+                if (i < j) {
+                    double t = re[i]; re[i] = re[j]; re[j] = t;
+                    t = im[i]; im[i] = im[j]; im[j] = t;
+                }
+            }
+            for (int len = 2; len <= n; len <<= 1) {
+                double angle = -2 * Math.PI / len;
+                double wRe = Math.cos(angle), wIm = Math.sin(angle);
+                for (int i = 0; i < n; i += len) {
+                    double curRe = 1, curIm = 0;
+                    for (int j = 0; j < len / 2; j++) {
+                        int a = i + j, b = i + j + len / 2;
+                        double tRe = re[b] * curRe - im[b] * curIm;
+                        double tIm = re[b] * curIm + im[b] * curRe;
+                        re[b] = re[a] - tRe;
+                        im[b] = im[a] - tIm;
+                        re[a] += tRe;
+                        im[a] += tIm;
+                        double nextRe = curRe * wRe - curIm * wIm;
+                        curIm = curRe * wIm + curIm * wRe;
+                        curRe = nextRe;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans of presorted attributes for the split with the lowest weighted gini impurity, as when growing a tree
+     */
+    public static class SplitScanKernel implements Kernel {
+        private final int numInstances;
+        private final int numAttributes;
+        private final int numClasses;
+        private double[][] values;
+        private int[][] sortedIndices;
+        private int[] labels;
+
+        public SplitScanKernel() {
+            this(20000, 40, 4);
+        }
+
+        public SplitScanKernel(int numInstances, int numAttributes, int numClasses) {
+            this.numInstances = numInstances;
+            this.numAttributes = numAttributes;
+            this.numClasses = numClasses;
+        }
+
+        @Override
+        public String getName() {
+            return "split";
+        }
+
+        @Override
+        public void setup(Random random) {
+            values = new double[numAttributes][numInstances];
+            sortedIndices = new int[numAttributes][];
+            labels = new int[numInstances];
+            for (int i = 0; i < numInstances; i++)
+                labels[i] = random.nextInt(numClasses);
+            for (int a = 0; a < numAttributes; a++) {
+                long[] keyed = new long[numInstances];
+                for (int i = 0; i < numInstances; i++) {
+                    // noisy signal of the class, quantised so that ties occur
+                    values[a][i] = Math.round((labels[i] + random.nextGaussian() * 2) * 100) / 100.0;
+                    keyed[i] = (Math.round(values[a][i] * 100 + (1 << 20)) << 32) | i;
+                }
+                Arrays.sort(keyed);
+                sortedIndices[a] = new int[numInstances];
+                for (int i = 0; i < numInstances; i++)
+                    sortedIndices[a][i] = (int) keyed[i];
+            }
+        }
+
+        @Override
+        public double run() {
+            int[] totalCounts = new int[numClasses];
+            for (int label : labels)
+                totalCounts[label]++;
+            int[] leftCounts = new int[numClasses];
+            double total = 0;
+            for (int a = 0; a < numAttributes; a++) {
+                double[] attValues = values[a];
+                int[] order = sortedIndices[a];
+                Arrays.fill(leftCounts, 0);
+                double best = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < numInstances - 1; i++) {
+                    leftCounts[labels[order[i]]]++;
+                    if (attValues[order[i]] == attValues[order[i + 1]])
+                        continue;
+                    int numLeft = i + 1, numRight = numInstances - numLeft;
+                    double leftGini = 1, rightGini = 1;
+                    for (int c = 0; c < numClasses; c++) {
+                        double pl = (double) leftCounts[c] / numLeft;
+                        double pr = (double) (totalCounts[c] - leftCounts[c]) / numRight;
+                        leftGini -= pl * pl;
+                        rightGini -= pr * pr;
+                    }
+                    double gini = (numLeft * leftGini + numRight * rightGini) / numInstances;
+                    if (gini < best)
+                        best = gini;
+                }
+                total += best;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Counts of words in a hash map histogram, as when building bags of words
+     */
+    public static class HistogramKernel implements Kernel {
+        private final int numWords;
+        private final int wordLength;
+        private final int alphabetSize;
+        private long[] words;
+
+        public HistogramKernel() {
+            this(400000, 8, 4);
+        }
+
+        public HistogramKernel(int numWords, int wordLength, int alphabetSize) {
+            this.numWords = numWords;
+            this.wordLength = wordLength;
+            this.alphabetSize = alphabetSize;
+        }
+
+        @Override
+        public String getName() {
+            return "histogram";
+        }
+
+        @Override
+        public void setup(Random random) {
+            words = new long[numWords];
+            for (int i = 0; i < numWords; i++) {
+                long word = 0;
+                for (int j = 0; j < wordLength; j++)
+                    // skewed towards low letters, as discretised series are
+                    word = word * alphabetSize + Math.min(alphabetSize - 1, Math.abs((int) (random.nextGaussian() * alphabetSize / 2)));
+                words[i] = word;
+            }
+        }
+
+        @Override
+        public double run() {
+            HashMap<Long, Integer> histogram = new HashMap<>();
+            for (long word : words)
+                histogram.merge(word, 1, Integer::sum);
+            double total = histogram.size();
+            for (int i = 0; i < numWords; i += 1000)
+                total += histogram.get(words[i]);
+            return total;
+        }
+    }
+}
@@ -54,6 +54,16 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
     private TreeNode root;
 
     private int numAttributes;
+    private int numClasses;
+
+    //Column major feature values, class values and instance indices sorted by the value of each attribute, only held
+    //during the build. Each tree node owns the same index range in every sorted column
+    private transient double[][] columns;
+    private transient int[] classes;
+    private transient int[][] sorted;
+    private transient int[][] thresholdOrders;
+    private transient int[] buffer;
+    private transient byte[] side;
 
     protected static final long serialVersionUID = 2L;
 
@@ -101,27 +111,73 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
 
     @Override
     public void buildClassifier(Instances data) throws Exception {
-        numAttributes = data.numAttributes() - 1;
-        if (data.classIndex() != numAttributes) throw new Exception("Class attribute must be the last index.");
+        if (data.classIndex() != data.numAttributes() - 1)
+            throw new Exception("Class attribute must be the last index.");
+
+        double[][] columns = new double[data.numAttributes() - 1][data.numInstances()];
+        int[] classes = new int[data.numInstances()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance inst = data.instance(i);
+            for (int n = 0; n < columns.length; n++) {
+                columns[n][i] = inst.value(n);
+            }
+            classes[i] = (int) inst.classValue();
+        }
 
+        buildClassifier(columns, classes, data.numClasses());
+    }
+
+    /**
+     * Builds the tree from a column major feature matrix, without the need to create Instances.
+     *
+     * @param columns    feature values indexed by attribute then instance
+     * @param classes    class value for each instance
+     * @param numClasses number of classes
+     */
+    public void buildClassifier(double[][] columns, int[] classes, int numClasses) {
+        this.numAttributes = columns.length;
+        this.numClasses = numClasses;
+        this.columns = columns;
+        this.classes = classes;
+
+        int numInstances = classes.length;
         rand = new Random(seed);
 
-        //thresholds for each attribute
-        double[][] thresholds = findThresholds(data);
+        //thresholds for each attribute, and their ascending order
+        double[][] thresholds = findThresholds();
+        thresholdOrders = new int[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+            thresholdOrders[i] = sortIndices(thresholds[i]);
+        }
+
+        //instance indices for each attribute sorted once by value, with missing values last
+        sorted = new int[numAttributes][];
+        for (int i = 0; i < numAttributes; i++) {
+            sorted[i] = sortIndices(columns[i]);
+        }
+        buffer = new int[numInstances];
+        side = new byte[numInstances];
 
         //Initial tree node setup
-        double[] dist = new double[data.numClasses()];
-        for (Instance inst : data) {
-            dist[(int) inst.classValue()]++;
+        double[] dist = new double[numClasses];
+        for (int c : classes) {
+            dist[c]++;
         }
         double rootEntropy = 0;
-        for (int i = 0; i < data.numClasses(); i++) {
-            double p = dist[i] / data.numInstances();
+        for (int i = 0; i < numClasses; i++) {
+            double p = dist[i] / numInstances;
             rootEntropy += p > 0 ? -(p * Math.log(p) / log2) : 0;
         }
 
         root = new TreeNode();
-        root.buildTree(data, thresholds, rootEntropy, dist, -1, false);
+        root.buildTree(0, numInstances, thresholds, rootEntropy, dist, -1, false);
+
+        this.columns = null;
+        this.classes = null;
+        sorted = null;
+        thresholdOrders = null;
+        buffer = null;
+        side = null;
     }
 
     @Override
@@ -159,15 +215,31 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
     }
 
     private int tieBreak(double[] probs) {
+        return tieBreak(probs, 0, probs.length, rand);
+    }
+
+    //Class with the highest probability from the length values starting at offset, ties broken randomly
+    static int tieBreak(double[] probs, int offset, int length, Random rand) {
         int maxClass = 0;
-        for (int n = 1; n < probs.length; n++) {
-            if (probs[n] > probs[maxClass] || (probs[n] == probs[maxClass] && rand.nextBoolean())) {
+        for (int n = 1; n < length; n++) {
+            if (probs[offset + n] > probs[offset + maxClass] || (probs[offset + n] == probs[offset + maxClass]
+                    && rand.nextBoolean())) {
                 maxClass = n;
             }
         }
         return maxClass;
     }
 
+    //Random used to break ties in predictions, shared with flattened forests so both give the same predictions
+    Random tieBreakRandom() {
+        return rand;
+    }
+
+    //Adds the nodes of this tree to a flattened forest, returns the index of the root node
+    int flatten(FlatIntervalForest forest, int[][][] intervals, int[] attributes, int[][] dimensions) {
+        return root.flatten(forest, intervals, attributes, dimensions);
+    }
+
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception {
         return root.distributionForInstance(instance);
@@ -202,13 +274,12 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
         return root.distributionForInstance(instance, functions, intervals, attributes, dimensions, info);
     }
 
-    private double[][] findThresholds(Instances data) {
+    private double[][] findThresholds() {
         double[][] thresholds = new double[numAttributes][k];
         for (int i = 0; i < numAttributes; i++) {
             double min = Double.MAX_VALUE;
             double max = -99999999;
-            for (Instance inst : data) {
-                double v = inst.value(i);
+            for (double v : columns[i]) {
                 if (v < min) {
                     min = v;
                 }
@@ -225,6 +296,39 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
         return thresholds;
     }
 
+    //Indices of the values sorted in ascending order, NaN last
+    private static int[] sortIndices(double[] values) {
+        int[] indices = new int[values.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+
+        mergeSort(indices, new int[indices.length], values, 0, indices.length);
+        return indices;
+    }
+
+    private static void mergeSort(int[] indices, int[] temp, double[] values, int from, int to) {
+        if (to - from < 2)
+            return;
+
+        int mid = (from + to) >>> 1;
+        mergeSort(indices, temp, values, from, mid);
+        mergeSort(indices, temp, values, mid, to);
+
+        if (Double.compare(values[indices[mid - 1]], values[indices[mid]]) <= 0)
+            return;
+
+        System.arraycopy(indices, from, temp, from, to - from);
+        int l = from, r = mid;
+        for (int i = from; i < to; i++) {
+            if (r >= to || (l < mid && Double.compare(values[temp[l]], values[temp[r]]) <= 0)) {
+                indices[i] = temp[l++];
+            } else {
+                indices[i] = temp[r++];
+            }
+        }
+    }
+
     //Returns the attribute used for each node and its information gain
     public ArrayList<Double>[] getTreeSplitsGain() {
         ArrayList<Double> splits = new ArrayList<>();
@@ -282,8 +386,8 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
         TreeNode() {
         }
 
-        void buildTree(Instances data, double[][] thresholds, double entropy, double[] distribution, int lastDepth,
-                       boolean leaf) {
+        void buildTree(int from, int to, double[][] thresholds, double entropy, double[] distribution,
+                       int lastDepth, boolean leaf) {
             double[][] bestEntropies = new double[0][0];
             depth = lastDepth + 1;
 
@@ -295,9 +399,11 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
             if (!leaf && remainingClasses > 1 && depth < maxDepth) {
                 //Loop through all attributes each using k threshold values looking the best split for this node
                 for (int i = 0; i < numAttributes; i++) {
+                    double[][][] attEntropies = entropyGains(from, to, i, thresholds[i], entropy);
+
                     for (int n = 0; n < k; n++) {
                         //gain stored in [0][0]
-                        double[][] entropies = entropyGain(data, i, thresholds[i][n], entropy);
+                        double[][] entropies = attEntropies[n];
 
                         if (entropies[0][0] > bestGain || (!useMargin && entropies[0][0] == bestGain && entropies[0][0]
                                 > 0 && rand.nextBoolean())) {
@@ -309,8 +415,8 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
                         }
                         //Use margin gain if there is a tie
                         else if (useMargin && entropies[0][0] == bestGain && entropies[0][0] > 0) {
-                            double margin = findMargin(data, i, thresholds[i][n]);
-                            if (bestMargin == -1) bestMargin = findMargin(data, bestSplit, bestThreshold);
+                            double margin = findMargin(from, to, i, thresholds[i][n]);
+                            if (bestMargin == -1) bestMargin = findMargin(from, to, bestSplit, bestThreshold);
 
                             //Select randomly if there is a tie again
                             if (margin > bestMargin || (margin == bestMargin && rand.nextBoolean())) {
@@ -325,56 +431,98 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
             }
 
             if (bestSplit > -1) {
-                Instances[] split = splitData(data);
+                int[] split = splitData(from, to);
                 children = new TreeNode[3];
 
                 //Left node
                 children[0] = new TreeNode();
-                if (split[0].isEmpty()) {
-                    children[0].buildTree(split[0], thresholds, entropy, distribution, depth, true);
+                if (split[0] == from) {
+                    children[0].buildTree(from, split[0], thresholds, entropy, distribution, depth, true);
                 } else {
-                    children[0].buildTree(split[0], thresholds, bestEntropies[0][1], bestEntropies[1], depth, false);
+                    children[0].buildTree(from, split[0], thresholds, bestEntropies[0][1], bestEntropies[1], depth,
+                            false);
                 }
 
                 //Right node
                 children[1] = new TreeNode();
-                if (split[1].isEmpty()) {
-                    children[1].buildTree(split[1], thresholds, entropy, distribution, depth, true);
+                if (split[1] == split[0]) {
+                    children[1].buildTree(split[0], split[1], thresholds, entropy, distribution, depth, true);
                 } else {
-                    children[1].buildTree(split[1], thresholds, bestEntropies[0][2], bestEntropies[2], depth, false);
+                    children[1].buildTree(split[0], split[1], thresholds, bestEntropies[0][2], bestEntropies[2],
+                            depth, false);
                 }
 
                 //Missing value node
                 children[2] = new TreeNode();
-                if (split[2].isEmpty()) {
-                    children[2].buildTree(split[2], thresholds, entropy, distribution, depth, true);
+                if (to == split[1]) {
+                    children[2].buildTree(split[1], to, thresholds, entropy, distribution, depth, true);
                 } else {
-                    children[2].buildTree(split[2], thresholds, bestEntropies[0][3], bestEntropies[3], depth, false);
+                    children[2].buildTree(split[1], to, thresholds, bestEntropies[0][3], bestEntropies[3], depth,
+                            false);
                 }
             } else {
                 leafDistribution = normalise(distribution);
             }
         }
 
-        //Distribution, entropy for each split and information gain
-        double[][] entropyGain(Instances data, int att, double threshold, double parentEntropy) {
-            double[][] dists = new double[4][data.numClasses()];
-            for (Instance inst : data) {
-                if (Double.isNaN(inst.value(att))) {
-                    dists[3][(int) inst.classValue()]++;
-                } else if (inst.value(att) <= threshold) {
-                    dists[1][(int) inst.classValue()]++;
+        //Distribution, entropy for each split and information gain for each threshold of an attribute. Thresholds
+        //are evaluated in ascending order in a single pass over the sorted attribute values of the node
+        double[][][] entropyGains(int from, int to, int att, double[] attThresholds, double parentEntropy) {
+            int[] order = sorted[att];
+            double[] column = columns[att];
+
+            //missing values are sorted last
+            int end = to;
+            double[] missing = new double[numClasses];
+            while (end > from && Double.isNaN(column[order[end - 1]])) {
+                end--;
+                missing[classes[order[end]]]++;
+            }
+
+            double[] present = new double[numClasses];
+            for (int i = from; i < end; i++) {
+                present[classes[order[i]]]++;
+            }
+
+            double[][][] attEntropies = new double[k][][];
+            double[] left = new double[numClasses];
+            int p = from;
+            for (int n : thresholdOrders[att]) {
+                double threshold = attThresholds[n];
+                double[][] dists = new double[4][];
+
+                if (Double.isNaN(threshold)) {
+                    dists[1] = new double[numClasses];
+                    dists[2] = present.clone();
                 } else {
-                    dists[2][(int) inst.classValue()]++;
+                    while (p < end && column[order[p]] <= threshold) {
+                        left[classes[order[p]]]++;
+                        p++;
+                    }
+
+                    dists[1] = left.clone();
+                    dists[2] = new double[numClasses];
+                    for (int i = 0; i < numClasses; i++) {
+                        dists[2][i] = present[i] - left[i];
+                    }
                 }
+
+                dists[3] = missing.clone();
+                dists[0] = entropies(dists, to - from, parentEntropy);
+                attEntropies[n] = dists;
             }
 
+            return attEntropies;
+        }
+
+        //Entropy for each split and information gain, stored in [0]
+        double[] entropies(double[][] dists, int numInstances, double parentEntropy) {
             double sumLeft = sum(dists[1]);
             double sumRight = sum(dists[2]);
             double sumMissing = sum(dists[3]);
 
             double[] entropies = new double[4];
-            for (int i = 0; i < data.numClasses(); i++) {
+            for (int i = 0; i < numClasses; i++) {
                 double p1 = sumLeft > 0 ? dists[1][i] / sumLeft : 0;
                 entropies[1] += p1 > 0 ? -(p1 * Math.log(p1) / log2) : 0;
                 double p2 = sumRight > 0 ? dists[2][i] / sumRight : 0;
@@ -384,21 +532,21 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
             }
 
             entropies[0] = parentEntropy
-                    - sumLeft / data.numInstances() * entropies[1]
-                    - sumRight / data.numInstances() * entropies[2]
-                    - sumMissing / data.numInstances() * entropies[3];
-
-            dists[0] = entropies;
+                    - sumLeft / numInstances * entropies[1]
+                    - sumRight / numInstances * entropies[2]
+                    - sumMissing / numInstances * entropies[3];
 
-            return dists;
+            return entropies;
         }
 
         //Margin gain for tie breaks
-        double findMargin(Instances data, int att, double threshold) {
+        double findMargin(int from, int to, int att, double threshold) {
             double min = Double.MAX_VALUE;
+            int[] order = sorted[att];
+            double[] column = columns[att];
 
-            for (Instance inst : data) {
-                double n = Math.abs(inst.value(att) - threshold);
+            for (int i = from; i < to; i++) {
+                double n = Math.abs(column[order[i]] - threshold);
                 if (n < min) {
                     min = n;
                 }
@@ -407,23 +555,43 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
             return min;
         }
 
-        Instances[] splitData(Instances data) {
-            Instances[] split = new Instances[3];
-            split[0] = new Instances(data, data.numInstances());
-            split[1] = new Instances(data, data.numInstances());
-            split[2] = new Instances(data, data.numInstances());
-
-            for (Instance inst : data) {
-                if (Double.isNaN(inst.value(bestSplit))) {
-                    split[2].add(inst);
-                } else if (inst.value(bestSplit) <= bestThreshold) {
-                    split[0].add(inst);
+        //Partitions the node range of every sorted column in place into the left, right and missing children,
+        //keeping each sorted. Returns the end of the left and right ranges
+        int[] splitData(int from, int to) {
+            double[] column = columns[bestSplit];
+            int[] order = sorted[bestSplit];
+            int numLeft = 0, numRight = 0;
+            for (int i = from; i < to; i++) {
+                int idx = order[i];
+                if (Double.isNaN(column[idx])) {
+                    side[idx] = 2;
+                } else if (column[idx] <= bestThreshold) {
+                    side[idx] = 0;
+                    numLeft++;
                 } else {
-                    split[1].add(inst);
+                    side[idx] = 1;
+                    numRight++;
                 }
             }
 
-            return split;
+            int leftEnd = from + numLeft;
+            int rightEnd = leftEnd + numRight;
+            for (int[] attOrder : sorted) {
+                int l = from, r = leftEnd, m = rightEnd;
+                for (int i = from; i < to; i++) {
+                    int idx = attOrder[i];
+                    if (side[idx] == 0) {
+                        buffer[l++] = idx;
+                    } else if (side[idx] == 1) {
+                        buffer[r++] = idx;
+                    } else {
+                        buffer[m++] = idx;
+                    }
+                }
+                System.arraycopy(buffer, from, attOrder, from, to - from);
+            }
+
+            return new int[]{leftEnd, rightEnd};
         }
 
         double[] distributionForInstance(Instance inst) {
@@ -564,6 +732,31 @@ public class ContinuousIntervalTree extends AbstractClassifier implements Random
             }
         }
 
+        int flatten(FlatIntervalForest forest, int[][][] intervals, int[] attributes, int[][] dimensions) {
+            if (bestSplit == -1)
+                return forest.addLeaf(leafDistribution);
+
+            int repSum = 0;
+            int rep = -1;
+            for (int i = 0; i < intervals.length; i++) {
+                if (bestSplit < repSum + attributes.length * intervals[i].length) {
+                    rep = i;
+                    break;
+                }
+                repSum += attributes.length * intervals[i].length;
+            }
+
+            int att = bestSplit % attributes.length;
+            int interval = (bestSplit - repSum) / attributes.length;
+
+            int node = forest.addSplit(rep, dimensions[rep][interval], intervals[rep][interval][0],
+                    intervals[rep][interval][1], attributes[att], bestThreshold);
+            forest.setChildren(node, children[0].flatten(forest, intervals, attributes, dimensions),
+                    children[1].flatten(forest, intervals, attributes, dimensions),
+                    children[2].flatten(forest, intervals, attributes, dimensions));
+            return node;
+        }
+
         @Override
         public String toString() {
             return "[" + bestSplit + "," + depth + "]";
@@ -0,0 +1,240 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package machine_learning.classifiers;
+
+import machine_learning.classifiers.ContinuousIntervalTree.Interval;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * A forest of ContinuousIntervalTrees compiled into flat arrays for fast predictions with interval forests such as
+ * CIF and DrCIF.
+ *
+ * Nodes from all trees are stored in depth first order as the feature used, the split threshold and the offsets of
+ * the left, right and missing value children. Features are stored once for each distinct (representation,
+ * dimension, start, end, function) across all trees, so each is evaluated at most once per instance and only when
+ * a tree reaches a node using it. Predictions are the same as from the trees, tree votes are tie broken using the
+ * random number generator of each tree.
+ **/
+public class FlatIntervalForest {
+
+    private final int numClasses;
+
+    private int numTrees = 0;
+    private int[] roots = new int[16];
+    private Random[] tieBreaks = new Random[16];
+
+    //Feature index for split nodes and -1 for leaves, with the offset of the leaf distribution stored as the first
+    //child of leaf nodes
+    private int numNodes = 0;
+    private int[] nodeFeatures = new int[256];
+    private double[] thresholds = new double[256];
+    private int[] children = new int[768];
+
+    private int leafSize = 0;
+    private double[] leafDistributions = new double[256];
+
+    private int numFeatures = 0;
+    private int[] featureReps = new int[64];
+    private int[] featureDims = new int[64];
+    private int[] featureStarts = new int[64];
+    private int[] featureEnds = new int[64];
+    private int[] featureFunctions = new int[64];
+    private final HashMap<List<Integer>, Integer> featureIndex = new HashMap<>();
+
+    public FlatIntervalForest(int numClasses) {
+        this.numClasses = numClasses;
+    }
+
+    /**
+     * Adds a tree built on interval features of a single representation (CIF).
+     *
+     * @param tree       built tree
+     * @param intervals  start and end of each interval
+     * @param attributes function index for each attribute of an interval
+     * @param dimensions dimension of each interval
+     */
+    public void addTree(ContinuousIntervalTree tree, int[][] intervals, int[] attributes, int[] dimensions) {
+        addTree(tree, new int[][][]{intervals}, attributes, new int[][]{dimensions});
+    }
+
+    /**
+     * Adds a tree built on interval features of multiple representations (DrCIF).
+     *
+     * @param tree       built tree
+     * @param intervals  start and end of each interval for each representation
+     * @param attributes function index for each attribute of an interval
+     * @param dimensions dimension of each interval for each representation
+     */
+    public void addTree(ContinuousIntervalTree tree, int[][][] intervals, int[] attributes, int[][] dimensions) {
+        if (numTrees == roots.length) {
+            roots = Arrays.copyOf(roots, numTrees * 2);
+            tieBreaks = Arrays.copyOf(tieBreaks, numTrees * 2);
+        }
+
+        roots[numTrees] = tree.flatten(this, intervals, attributes, dimensions);
+        tieBreaks[numTrees] = tree.tieBreakRandom();
+        numTrees++;
+    }
+
+    public int numTrees() {
+        return numTrees;
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * Finds class probabilities as the proportion of tree votes for an instance with a single representation.
+     *
+     * @param instance  series for each dimension
+     * @param functions interval feature functions
+     * @return array of doubles: probability of each class
+     */
+    public double[] distributionForInstance(double[][] instance, Function<Interval, Double>[] functions) {
+        return distributionForInstance(new double[][][]{instance}, functions);
+    }
+
+    /**
+     * Finds class probabilities as the proportion of tree votes for an instance with multiple representations.
+     *
+     * @param instance  series for each representation and dimension
+     * @param functions interval feature functions
+     * @return array of doubles: probability of each class
+     */
+    public double[] distributionForInstance(double[][][] instance, Function<Interval, Double>[] functions) {
+        double[] d = new double[numClasses];
+        vote(instance, functions, 0, numTrees, d);
+
+        double sum = 0;
+        for (double x : d)
+            sum += x;
+        for (int i = 0; i < d.length; i++)
+            d[i] = d[i] / sum;
+
+        return d;
+    }
+
+    /**
+     * Adds the class votes of a range of trees for an instance with multiple representations. Each tree breaks ties
+     * using its own random number generator, so predictions are repeatable when a tree is only used by one thread
+     * at a time.
+     *
+     * @param instance  series for each representation and dimension
+     * @param functions interval feature functions
+     * @param fromTree  first tree to use
+     * @param toTree    tree to stop at, exclusive
+     * @param votes     array to add the vote of each tree to
+     */
+    public void vote(double[][][] instance, Function<Interval, Double>[] functions, int fromTree, int toTree,
+                     double[] votes) {
+        double[] values = new double[numFeatures];
+        boolean[] calculated = new boolean[numFeatures];
+
+        for (int i = fromTree; i < toTree; i++) {
+            int node = roots[i];
+            int f;
+            while ((f = nodeFeatures[node]) >= 0) {
+                if (!calculated[f]) {
+                    values[f] = functions[featureFunctions[f]].apply(new Interval(
+                            instance[featureReps[f]][featureDims[f]], featureStarts[f], featureEnds[f]));
+                    calculated[f] = true;
+                }
+
+                double val = values[f];
+                if (Double.isNaN(val)) {
+                    node = children[node * 3 + 2];
+                } else if (val <= thresholds[node]) {
+                    node = children[node * 3];
+                } else {
+                    node = children[node * 3 + 1];
+                }
+            }
+
+            votes[ContinuousIntervalTree.tieBreak(leafDistributions, children[node * 3], numClasses,
+                    tieBreaks[i])]++;
+        }
+    }
+
+    int addSplit(int rep, int dim, int start, int end, int function, double threshold) {
+        List<Integer> key = Arrays.asList(rep, dim, start, end, function);
+        Integer feature = featureIndex.get(key);
+        if (feature == null) {
+            if (numFeatures == featureReps.length) {
+                int size = numFeatures * 2;
+                featureReps = Arrays.copyOf(featureReps, size);
+                featureDims = Arrays.copyOf(featureDims, size);
+                featureStarts = Arrays.copyOf(featureStarts, size);
+                featureEnds = Arrays.copyOf(featureEnds, size);
+                featureFunctions = Arrays.copyOf(featureFunctions, size);
+            }
+
+            feature = numFeatures++;
+            featureReps[feature] = rep;
+            featureDims[feature] = dim;
+            featureStarts[feature] = start;
+            featureEnds[feature] = end;
+            featureFunctions[feature] = function;
+            featureIndex.put(key, feature);
+        }
+
+        int node = addNode();
+        nodeFeatures[node] = feature;
+        thresholds[node] = threshold;
+        return node;
+    }
+
+    int addLeaf(double[] distribution) {
+        if (leafSize + numClasses > leafDistributions.length)
+            leafDistributions = Arrays.copyOf(leafDistributions, Math.max(leafDistributions.length * 2,
+                    leafSize + numClasses));
+
+        System.arraycopy(distribution, 0, leafDistributions, leafSize, numClasses);
+
+        int node = addNode();
+        nodeFeatures[node] = -1;
+        children[node * 3] = leafSize;
+        leafSize += numClasses;
+        return node;
+    }
+
+    void setChildren(int node, int left, int right, int missing) {
+        children[node * 3] = left;
+        children[node * 3 + 1] = right;
+        children[node * 3 + 2] = missing;
+    }
+
+    private int addNode() {
+        if (numNodes == nodeFeatures.length) {
+            int size = numNodes * 2;
+            nodeFeatures = Arrays.copyOf(nodeFeatures, size);
+            thresholds = Arrays.copyOf(thresholds, size);
+            children = Arrays.copyOf(children, size * 3);
+        }
+
+        return numNodes++;
+    }
+}
@@ -19,8 +19,9 @@
 
 package machine_learning.classifiers.ensembles;
 
-import evaluation.evaluators.Evaluator;
+import evaluation.evaluators.CrossValidationEvaluator;
 import evaluation.evaluators.SamplingEvaluator;
+import evaluation.evaluators.TSCrossValidationEvaluator;
 import evaluation.storage.ClassifierResults;
 import experiments.data.DatasetLoading;
 import java.io.File;
@@ -30,6 +31,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import tsml.classifiers.*;
@@ -382,46 +384,68 @@ public abstract class AbstractEnsemble extends EnhancedAbstractClassifier implem
     }
     
     protected synchronized void trainModules() throws Exception {
+        ExecutorService executor = multiThread ? ThreadingUtilities.buildExecutorService(numThreads) : null;
         
-        //define the operations to build and evaluate each module, as a function
-        //that will build the classifier and return train results for it, either 
-        //generated by the classifier itself or the trainEstimator
-        List<Callable<ClassifierResults>> moduleBuilds = new ArrayList<>();
-        for (EnsembleModule module : modules) {
-            final Classifier classifier = module.getClassifier();
-            final Evaluator eval = trainEstimator.cloneEvaluator();
-            
-            Callable<ClassifierResults> moduleBuild = () -> {
-                ClassifierResults trainResults = null;
-                
-                if (EnhancedAbstractClassifier.classifierIsEstimatingOwnPerformance(classifier)) { 
-                    classifier.buildClassifier(trainInsts);
-                    trainResults = ((EnhancedAbstractClassifier)classifier).getTrainResults();
+        List<ClassifierResults> results;
+        try {
+            //modules that estimate their own performance can be built straight away, and 
+            //concurrently with the cross validation of the others when threading
+            List<Callable<ClassifierResults>> selfEstimatingBuilds = new ArrayList<>();
+            List<Integer> selfEstimatingModules = new ArrayList<>();
+            List<Integer> evaluatedModules = new ArrayList<>();
+            for (int m = 0; m < modules.length; m++) {
+                final Classifier classifier = modules[m].getClassifier();
+                if (EnhancedAbstractClassifier.classifierIsEstimatingOwnPerformance(classifier)) {
+                    selfEstimatingBuilds.add(() -> {
+                        classifier.buildClassifier(trainInsts);
+                        return ((EnhancedAbstractClassifier)classifier).getTrainResults();
+                    });
+                    selfEstimatingModules.add(m);
                 }
-                else { 
-                    trainResults = eval.evaluate(classifier, trainInsts);
+                else
+                    evaluatedModules.add(m);
+            }
+            
+            List<Future<ClassifierResults>> selfEstimatingFutures = null;
+            if (executor != null)
+                selfEstimatingFutures = ThreadingUtilities.submitAll(executor, selfEstimatingBuilds);
+            
+            ClassifierResults[] evaluatedResults = estimateModules(evaluatedModules, executor);
+            
+            //build the evaluated modules on the full train data now that their estimates are made
+            List<Callable<ClassifierResults>> evaluatedBuilds = new ArrayList<>();
+            for (int i = 0; i < evaluatedModules.size(); i++) {
+                final Classifier classifier = modules[evaluatedModules.get(i)].getClassifier();
+                final ClassifierResults trainResults = evaluatedResults[i];
+                evaluatedBuilds.add(() -> {
                     classifier.buildClassifier(trainInsts);
-                }
-                
-                return trainResults;
-            };
+                    return trainResults;
+                });
+            }
             
-            moduleBuilds.add(moduleBuild);
-        }
-        
-        
-        //complete the operations, either threaded via the executor service or 
-        //locally/sequentially
-        List<ClassifierResults> results = new ArrayList<>();
-        if (multiThread) {
-            ExecutorService executor = ThreadingUtilities.buildExecutorService(numThreads);
-            boolean shutdownAfter = true;
+            List<ClassifierResults> selfEstimatingResults;
+            List<ClassifierResults> evaluatedBuildResults;
+            if (executor != null) {
+                evaluatedBuildResults = ThreadingUtilities.computeAll(executor, evaluatedBuilds, false);
+                selfEstimatingResults = ThreadingUtilities.gatherAll(selfEstimatingFutures);
+            }
+            else {
+                selfEstimatingResults = new ArrayList<>();
+                for (Callable<ClassifierResults> build : selfEstimatingBuilds)
+                    selfEstimatingResults.add(build.call());
+                evaluatedBuildResults = new ArrayList<>();
+                for (Callable<ClassifierResults> build : evaluatedBuilds)
+                    evaluatedBuildResults.add(build.call());
+            }
             
-            results = ThreadingUtilities.computeAll(executor, moduleBuilds, shutdownAfter);  
-        }
-        else { 
-            for (Callable<ClassifierResults> moduleBuild : moduleBuilds)
-                results.add(moduleBuild.call());
+            results = new ArrayList<>(Arrays.asList(new ClassifierResults[modules.length]));
+            for (int i = 0; i < selfEstimatingModules.size(); i++)
+                results.set(selfEstimatingModules.get(i), selfEstimatingResults.get(i));
+            for (int i = 0; i < evaluatedModules.size(); i++)
+                results.set(evaluatedModules.get(i), evaluatedBuildResults.get(i));
+        } finally {
+            if (executor != null)
+                ThreadingUtilities.shutdownExecutor(executor);
         }
         
         
@@ -438,6 +462,43 @@ public abstract class AbstractEnsemble extends EnhancedAbstractClassifier implem
         }
     }
     
+    /**
+     * Finds the trainEstimator's estimates for the given modules. If the trainEstimator 
+     * is a cross validation, all modules are evaluated together on the same folds of the data 
+     * by a TSCrossValidationEvaluator, with every (fold, module) pair run as a separate job on 
+     * the executor if there is one. Otherwise, each module is evaluated in turn by a copy of 
+     * the trainEstimator
+     */
+    protected ClassifierResults[] estimateModules(List<Integer> moduleIndices, ExecutorService executor) throws Exception {
+        ClassifierResults[] results = new ClassifierResults[moduleIndices.size()];
+        if (moduleIndices.isEmpty())
+            return results;
+        
+        Classifier[] classifiers = new Classifier[moduleIndices.size()];
+        for (int i = 0; i < classifiers.length; i++)
+            classifiers[i] = modules[moduleIndices.get(i)].getClassifier();
+        
+        TSCrossValidationEvaluator cv = null;
+        if (trainEstimator instanceof TSCrossValidationEvaluator)
+            cv = (TSCrossValidationEvaluator) trainEstimator.cloneEvaluator();
+        else if (trainEstimator instanceof CrossValidationEvaluator)
+            cv = TSCrossValidationEvaluator.fromCrossValidationEvaluator((CrossValidationEvaluator) trainEstimator);
+        
+        if (cv != null) {
+            if (executor != null)
+                cv.setExecutorService(executor);
+            results = cv.crossValidateWithStats(classifiers, trainInsts);
+            for (ClassifierResults res : results)
+                res.findAllStatsOnce();
+        }
+        else {
+            for (int i = 0; i < classifiers.length; i++)
+                results[i] = trainEstimator.cloneEvaluator().evaluate(classifiers[i], trainInsts);
+        }
+        
+        return results;
+    }
+    
 //    protected void trainModules_unThreaded() throws Exception {
 //        for (EnsembleModule module : modules) {
 //            Classifier clf = module.getClassifier();
@@ -23,7 +23,6 @@ import weka.core.Instances;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-import static utilities.ClusteringUtilities.createDistanceMatrix;
 import static utilities.InstanceTools.deleteClassAttribute;
 import static utilities.Utilities.maxIndex;
 import static utilities.Utilities.minIndex;
@@ -78,7 +77,11 @@ public class CAST extends DistanceBasedVectorClusterer {
         super.buildClusterer(data);
 
         if (!hasDistances) {
-            distanceMatrix = createDistanceMatrix(train, distFunc);
+            try {
+                distanceMatrix = createTrainDistanceMatrix(train);
+            } finally {
+                shutdownExecutor();
+            }
         }
 
         normaliseDistanceMatrix();
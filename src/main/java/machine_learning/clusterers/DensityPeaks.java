@@ -25,7 +25,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 
-import static utilities.ClusteringUtilities.createDistanceMatrix;
 
 /**
  * Implementation of the Density Peaks algorithm described in "Clustering by
@@ -104,7 +103,11 @@ public class DensityPeaks extends DistanceBasedVectorClusterer {
         numInstances = train.size();
 
         if (!hasDistances) {
-            distanceMatrix = createDistanceMatrix(train, distFunc);
+            try {
+                distanceMatrix = createTrainDistanceMatrix(train);
+            } finally {
+                shutdownExecutor();
+            }
         }
 
         if (distC < 0) {
@@ -17,9 +17,16 @@
 
 package machine_learning.clusterers;
 
+import tsml.classifiers.MultiThreadable;
 import tsml.clusterers.EnhancedAbstractClusterer;
 import weka.core.*;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static utilities.ClusteringUtilities.createDistanceMatrix;
 import static utilities.InstanceTools.deleteClassAttribute;
 
 /**
@@ -27,7 +34,7 @@ import static utilities.InstanceTools.deleteClassAttribute;
  *
  * @author Matthew Middlehurst
  */
-public abstract class DistanceBasedVectorClusterer extends EnhancedAbstractClusterer {
+public abstract class DistanceBasedVectorClusterer extends EnhancedAbstractClusterer implements MultiThreadable {
 
     protected DistanceFunction distFunc = new EuclideanDistance();
     protected boolean symmetricDistance = true;
@@ -37,6 +44,14 @@ public abstract class DistanceBasedVectorClusterer extends EnhancedAbstractClust
     protected double[] attributeMeans;
     protected double[] attributeStdDevs;
 
+    //Use primitive arrays and pruned/incremental updates where the distance function allows. Results are the same
+    //as the unaccelerated versions.
+    protected boolean accelerated = true;
+
+    protected int numThreads = 1;
+    protected boolean multiThread = false;
+    private transient ExecutorService ex;
+
     @Override
     public void buildClusterer(Instances data) throws Exception {
         super.buildClusterer(data);
@@ -84,6 +99,80 @@ public abstract class DistanceBasedVectorClusterer extends EnhancedAbstractClust
         this.normaliseData = b;
     }
 
+    public void setAccelerated(boolean b) {
+        this.accelerated = b;
+    }
+
+    /**
+     * Enables multi threading with a set number of threads to use.
+     *
+     * @param numThreads number of threads available for multi threading
+     */
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        if (numThreads > 1) {
+            this.numThreads = numThreads;
+            multiThread = true;
+        } else {
+            this.numThreads = 1;
+            multiThread = false;
+        }
+    }
+
+    //Create the lower half distance matrix of the data, in parallel using primitive arrays if accelerated and the
+    //distance function allows.
+    protected double[][] createTrainDistanceMatrix(Instances data) throws Exception {
+        if (!accelerated)
+            return createDistanceMatrix(data, distFunc);
+
+        return createDistanceMatrix(data, distFunc, executor(), numThreads);
+    }
+
+    //Splits [0, size) into a contiguous range for each thread and runs task over each of them, sequentially if not
+    //multi threading.
+    protected void runInRanges(int size, RangeTask task) throws Exception {
+        ExecutorService ex = executor();
+        if (ex == null || size < 2) {
+            task.run(0, size);
+            return;
+        }
+
+        int rangeSize = (size + numThreads - 1) / numThreads;
+        ArrayList<Future<?>> futures = new ArrayList<>(numThreads);
+
+        for (int from = 0; from < size; from += rangeSize) {
+            int start = from;
+            int end = Math.min(size, from + rangeSize);
+            futures.add(ex.submit(() -> {
+                task.run(start, end);
+                return null;
+            }));
+        }
+
+        for (Future<?> f : futures) {
+            f.get();
+        }
+    }
+
+    //The executor for this build, created when first used. Returns null if not multi threading.
+    protected ExecutorService executor() {
+        if (!multiThread)
+            return null;
+
+        if (ex == null || ex.isShutdown())
+            ex = Executors.newFixedThreadPool(numThreads);
+
+        return ex;
+    }
+
+    //Subclasses using the executor should call this once the build is complete.
+    protected void shutdownExecutor() {
+        if (ex != null) {
+            ex.shutdown();
+            ex = null;
+        }
+    }
+
     //Normalise instances and save the means and standard deviations.
     protected void normaliseData(Instances data) throws Exception {
         if (data.classIndex() >= 0 && data.classIndex() != data.numAttributes() - 1) {
@@ -117,4 +206,8 @@ public abstract class DistanceBasedVectorClusterer extends EnhancedAbstractClust
             inst.setValue(i, (inst.value(i) - attributeMeans[i]) / attributeStdDevs[i]);
         }
     }
+
+    protected interface RangeTask {
+        void run(int from, int to) throws Exception;
+    }
 }
@@ -28,7 +28,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 
-import static utilities.ClusteringUtilities.createDistanceMatrix;
+import static utilities.ClusteringUtilities.squaredEuclidean;
+import static utilities.ClusteringUtilities.toEuclideanArray;
+import static utilities.ClusteringUtilities.toEuclideanArrays;
 
 /**
  * Implementation of the K-Means algorithm with options for finding a value
@@ -126,35 +128,49 @@ public class KMeans extends DistanceBasedVectorClusterer implements NumberOfClus
             return;
         }
 
-        if (findBestK) {
-            //Builds clusters using multiple values of k and keeps the best one
-            findBestK(train);
-        } else {
-            //Pick initial cluster centers.
-            if (!hasInitialCenters) {
-                if (refinedInitialCenters) {
-                    initialClusterCentersRefined(train);
-                } else {
-                    initialClusterCenters(train);
+        try {
+            if (findBestK) {
+                //Builds clusters using multiple values of k and keeps the best one
+                findBestK(train);
+            } else {
+                //Pick initial cluster centers.
+                if (!hasInitialCenters) {
+                    if (refinedInitialCenters) {
+                        initialClusterCentersRefined(train);
+                    } else {
+                        initialClusterCenters(train);
+                    }
                 }
-            }
-
-            boolean finished = false;
-            int iterations = 0;
 
-            //Change cluster centers until cluster membership no longer changes
-            while (!finished) {
-                centerDistances = createCenterDistances(train);
+                double[][] points = null;
+                if (accelerated) {
+                    distFunc.setInstances(train);
+                    points = toEuclideanArrays(train, distFunc);
+                }
 
-                //If no clusters changed membership.
-                if (!calculateClusterMembership() || iterations == maxIterations) {
-                    finished = true;
+                if (points != null) {
+                    acceleratedIterations(train, points);
                 } else {
-                    selectClusterCenters(train);
-                }
+                    boolean finished = false;
+                    int iterations = 0;
+
+                    //Change cluster centers until cluster membership no longer changes
+                    while (!finished) {
+                        centerDistances = createCenterDistances(train);
 
-                iterations++;
+                        //If no clusters changed membership.
+                        if (!calculateClusterMembership() || iterations == maxIterations) {
+                            finished = true;
+                        } else {
+                            selectClusterCenters(train);
+                        }
+
+                        iterations++;
+                    }
+                }
             }
+        } finally {
+            shutdownExecutor();
         }
     }
 
@@ -435,6 +451,187 @@ public class KMeans extends DistanceBasedVectorClusterer implements NumberOfClus
         }
     }
 
+    //Elkan, Charles.
+    //"Using the triangle inequality to accelerate k-means."
+    //ICML. Vol. 3. 2003.
+
+    //The same iterations as the loop in buildClusterer using primitive arrays, skipping distance calculations which
+    //cannot change the closest center using the bounds above. Bounds are kept on the non-squared distance, while
+    //candidate centers are compared on the squared distance as in calculateClusterMembership so ties are broken
+    //the same way. Centers with missing values (empty clusters) are compared using distFunc and never pruned.
+    private void acceleratedIterations(Instances data, double[][] points) throws Exception {
+        double[][] values = new double[numInstances][];
+        for (int i = 0; i < numInstances; i++) {
+            values[i] = data.get(i).toDoubleArray();
+        }
+
+        double[][] centers = new double[k][];
+        for (int i = 0; i < k; i++) {
+            centers[i] = toEuclideanArray(clusterCenters.get(i), distFunc);
+        }
+
+        int[] closest = new int[numInstances];
+        double[] closestDists = new double[numInstances];
+        double[] upperBounds = new double[numInstances];
+        double[][] lowerBounds = new double[numInstances][k];
+        double[][] halfCenterDists = new double[k][k];
+        double[] centerMovement = new double[k];
+
+        runInRanges(numInstances, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                closest[i] = fullAssignment(data, points, centers, i, closestDists, upperBounds, lowerBounds[i]);
+            }
+        });
+
+        int iterations = 0;
+
+        while (true) {
+            boolean membershipChange = false;
+            for (int i = 0; i < numInstances; i++) {
+                if (closest[i] != assignments[i]) {
+                    assignments[i] = closest[i];
+                    membershipChange = true;
+                }
+            }
+
+            clusters = new ArrayList[k];
+
+            for (int i = 0; i < k; i++) {
+                clusters[i] = new ArrayList<>();
+            }
+
+            for (int i = 0; i < numInstances; i++) {
+                clusters[(int) assignments[i]].add(i);
+            }
+
+            if (!membershipChange || iterations == maxIterations)
+                break;
+
+            //Move the centers to the mean of their cluster as in selectClusterCenters
+            for (int i = 0; i < k; i++) {
+                Instance center = clusterCenters.get(i);
+
+                for (int n = 0; n < data.numAttributes() - 1; n++) {
+                    double sum = 0;
+
+                    for (Integer g : clusters[i]) {
+                        sum += values[g][n];
+                    }
+
+                    center.setValue(n, sum / clusters[i].size());
+                }
+
+                double[] newCenter = toEuclideanArray(center, distFunc);
+                centerMovement[i] = centers[i] == null || newCenter == null ? Double.NaN
+                        : Math.sqrt(squaredEuclidean(centers[i], newCenter));
+                centers[i] = newCenter;
+            }
+
+            for (int i = 0; i < k; i++) {
+                for (int n = 0; n < i; n++) {
+                    halfCenterDists[i][n] = centers[i] == null || centers[n] == null ? Double.NaN
+                            : Math.sqrt(squaredEuclidean(centers[i], centers[n])) / 2;
+                    halfCenterDists[n][i] = halfCenterDists[i][n];
+                }
+            }
+
+            runInRanges(numInstances, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    closest[i] = prunedAssignment(data, points, centers, i, closest[i], closestDists, upperBounds,
+                            lowerBounds[i], halfCenterDists, centerMovement);
+                }
+            });
+
+            iterations++;
+        }
+
+        //Only the distances to the assigned centers are used from this when selecting refined initial centers
+        centerDistances = new double[k][numInstances];
+        for (int i = 0; i < numInstances; i++) {
+            centerDistances[closest[i]][i] = Double.isNaN(closestDists[i])
+                    ? centerDistance(data, points, centers, i, closest[i]) : closestDists[i];
+        }
+    }
+
+    private int fullAssignment(Instances data, double[][] points, double[][] centers, int i, double[] closestDists,
+                               double[] upperBounds, double[] lowerBounds) {
+        double minDist = Double.MAX_VALUE;
+        int minIndex = -1;
+
+        for (int n = 0; n < k; n++) {
+            double dist = centerDistance(data, points, centers, i, n);
+            lowerBounds[n] = Math.sqrt(dist);
+
+            if (dist < minDist) {
+                minDist = dist;
+                minIndex = n;
+            }
+        }
+
+        closestDists[i] = minDist;
+        upperBounds[i] = Math.sqrt(minDist);
+        return minIndex;
+    }
+
+    private int prunedAssignment(Instances data, double[][] points, double[][] centers, int i, int closest,
+                                 double[] closestDists, double[] upperBounds, double[] lowerBounds,
+                                 double[][] halfCenterDists, double[] centerMovement) {
+        for (int n = 0; n < k; n++) {
+            lowerBounds[n] = Math.max(0, lowerBounds[n] - centerMovement[n]);
+        }
+
+        double upperBound = upperBounds[i] + centerMovement[closest];
+        double closestDist = closestDists[i];
+        boolean tight = false;
+
+        for (int n = 0; n < k; n++) {
+            if (n == closest || cannotBeCloser(upperBound, lowerBounds[n], halfCenterDists[closest][n]))
+                continue;
+
+            if (!tight) {
+                closestDist = centerDistance(data, points, centers, i, closest);
+                upperBound = Math.sqrt(closestDist);
+                lowerBounds[closest] = upperBound;
+                tight = true;
+
+                //Bounds involving missing values are NaN, the full search handles these the same as above
+                if (!(closestDist < Double.MAX_VALUE))
+                    return fullAssignment(data, points, centers, i, closestDists, upperBounds, lowerBounds);
+
+                if (cannotBeCloser(upperBound, lowerBounds[n], halfCenterDists[closest][n]))
+                    continue;
+            }
+
+            double dist = centerDistance(data, points, centers, i, n);
+            lowerBounds[n] = Math.sqrt(dist);
+
+            if (dist < closestDist || (dist == closestDist && n < closest)) {
+                closestDist = dist;
+                upperBound = lowerBounds[n];
+                closest = n;
+            }
+        }
+
+        //Distances to the closest center are only known if the bound was tightened, found when finished otherwise
+        closestDists[i] = tight ? closestDist : Double.NaN;
+        upperBounds[i] = upperBound;
+        return closest;
+    }
+
+    //True if the center is guaranteed to be strictly further away than the current one. The margin covers rounding
+    //in the bounds, comparisons involving NaN bounds are false.
+    private static boolean cannotBeCloser(double upperBound, double lowerBound, double halfCenterDist) {
+        double bound = upperBound * (1 + 1e-10);
+        return bound < lowerBound || bound < halfCenterDist;
+    }
+
+    private double centerDistance(Instances data, double[][] points, double[][] centers, int i, int n) {
+        if (centers[n] == null)
+            return distFunc.distance(data.get(i), clusterCenters.get(n));
+
+        return squaredEuclidean(points[i], centers[n]);
+    }
+
     //Lletı, R., et al.
     //"Selecting variables for k-means cluster analysis by using a genetic algorithm that optimises the silhouettes."
     //Analytica Chimica Acta 515.1 (2004): 87-100.
@@ -445,7 +642,7 @@ public class KMeans extends DistanceBasedVectorClusterer implements NumberOfClus
         int maxK = 10;
         double bestSilVal = 0;
 
-        double[][] distMatrix = createDistanceMatrix(data, distFunc);
+        double[][] distMatrix = createTrainDistanceMatrix(data);
 
         //For each value of K
         for (int i = 2; i <= maxK; i++) {
@@ -455,6 +652,8 @@ public class KMeans extends DistanceBasedVectorClusterer implements NumberOfClus
             kmeans.setNormaliseData(false);
             kmeans.setFindBestK(false);
             kmeans.setRefinedInitialCenters(refinedInitialCenters);
+            kmeans.setAccelerated(accelerated);
+            kmeans.enableMultiThreading(numThreads);
             if (seedClusterer)
                 kmeans.setSeed(seed + (i + 1) * 237);
             kmeans.buildClusterer(data);
@@ -28,7 +28,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 
-import static utilities.ClusteringUtilities.createDistanceMatrix;
 import static utilities.InstanceTools.deleteClassAttribute;
 
 /**
@@ -51,6 +50,9 @@ public class KMedoids extends DistanceBasedVectorClusterer implements NumberOfCl
 
     private int[] medoids;
 
+    //Cluster members at the last medoid selection, used to skip unchanged clusters when accelerated
+    private ArrayList<Integer>[] selectedClusters;
+
     public KMedoids() {
     }
 
@@ -126,30 +128,35 @@ public class KMedoids extends DistanceBasedVectorClusterer implements NumberOfCl
             return;
         }
 
-        if (!hasDistances) {
-            distanceMatrix = createDistanceMatrix(train, distFunc);
-        }
+        try {
+            if (!hasDistances) {
+                distanceMatrix = createTrainDistanceMatrix(train);
+            }
 
-        if (findBestK) {
-            //Build clusters using multiple values of k and uses the best one.
-            findBestK(train);
-        } else {
-            //Pick initial medoids.
-            if (!hasInitialMedoids) {
-                if (refinedInitialMedoids) {
-                    initialMedoidsRefined(train);
-                } else {
-                    initialMedoids();
+            if (findBestK) {
+                //Build clusters using multiple values of k and uses the best one.
+                findBestK(train);
+            } else {
+                //Pick initial medoids.
+                if (!hasInitialMedoids) {
+                    if (refinedInitialMedoids) {
+                        initialMedoidsRefined(train);
+                    } else {
+                        initialMedoids();
+                    }
                 }
-            }
 
-            boolean finished = false;
+                boolean finished = false;
+                selectedClusters = null;
 
-            //Change medoids until medoid location no longer changes.
-            while (!finished) {
-                calculateClusterMembership();
-                finished = selectMedoids();
+                //Change medoids until medoid location no longer changes.
+                while (!finished) {
+                    calculateClusterMembership();
+                    finished = selectMedoids();
+                }
             }
+        } finally {
+            shutdownExecutor();
         }
 
         for (int n = 0; n < numInstances; n++) {
@@ -326,9 +333,31 @@ public class KMedoids extends DistanceBasedVectorClusterer implements NumberOfCl
         medoids = subsampleMedoids[minIndex];
     }
 
-    private void calculateClusterMembership() {
+    private void calculateClusterMembership() throws Exception {
         //Set membership of each point to the closest medoid.
-        for (int i = 0; i < numInstances; i++) {
+        if (accelerated) {
+            runInRanges(numInstances, this::calculateClusterMembership);
+        } else {
+            calculateClusterMembership(0, numInstances);
+        }
+
+        //Create and store an ArrayList for each cluster containing indexes of
+        //points inside the cluster.
+        clusters = new ArrayList[k];
+
+        for (int i = 0; i < k; i++) {
+            clusters[i] = new ArrayList();
+
+            for (int n = 0; n < numInstances; n++) {
+                if (medoids[i] == assignments[n]) {
+                    clusters[i].add(n);
+                }
+            }
+        }
+    }
+
+    private void calculateClusterMembership(int from, int to) {
+        for (int i = from; i < to; i++) {
             double minDist = Double.MAX_VALUE;
 
             for (int n = 0; n < k; n++) {
@@ -350,47 +379,37 @@ public class KMedoids extends DistanceBasedVectorClusterer implements NumberOfCl
                 }
             }
         }
-
-        //Create and store an ArrayList for each cluster containing indexes of
-        //points inside the cluster.
-        clusters = new ArrayList[k];
-
-        for (int i = 0; i < k; i++) {
-            clusters[i] = new ArrayList();
-
-            for (int n = 0; n < numInstances; n++) {
-                if (medoids[i] == assignments[n]) {
-                    clusters[i].add(n);
-                }
-            }
-        }
     }
 
     //Select new medoids by finding the point with the lowest distance sum for
     //each cluster
-    private boolean selectMedoids() {
+    private boolean selectMedoids() throws Exception {
         boolean changedMedoid = false;
 
         for (int i = 0; i < k; i++) {
-            double minDist = Double.MAX_VALUE;
-            int bestMedoid = -1;
+            //The medoid of a cluster with the same members as the last selection
+            //is already the best one.
+            if (accelerated && selectedClusters != null && clusters[i].equals(selectedClusters[i])) continue;
 
-            for (int n = 0; n < clusters[i].size(); n++) {
-                double clusterDist = 0;
+            int[] members = new int[clusters[i].size()];
+            for (int n = 0; n < members.length; n++) {
+                members[n] = clusters[i].get(n);
+            }
 
-                for (int g = 0; g < clusters[i].size(); g++) {
-                    if (clusters[i].get(n).equals(clusters[i].get(g))) continue;
+            double[] clusterDists = new double[members.length];
+            if (accelerated) {
+                runInRanges(members.length, (from, to) -> medoidDistanceSums(members, clusterDists, from, to));
+            } else {
+                medoidDistanceSums(members, clusterDists, 0, members.length);
+            }
 
-                    if (clusters[i].get(n) > clusters[i].get(g)) {
-                        clusterDist += distanceMatrix[clusters[i].get(n)][clusters[i].get(g)];
-                    } else {
-                        clusterDist += distanceMatrix[clusters[i].get(g)][clusters[i].get(n)];
-                    }
-                }
+            double minDist = Double.MAX_VALUE;
+            int bestMedoid = -1;
 
-                if (clusterDist < minDist) {
-                    minDist = clusterDist;
-                    bestMedoid = clusters[i].get(n);
+            for (int n = 0; n < members.length; n++) {
+                if (clusterDists[n] < minDist) {
+                    minDist = clusterDists[n];
+                    bestMedoid = members[n];
                 }
             }
 
@@ -401,9 +420,30 @@ public class KMedoids extends DistanceBasedVectorClusterer implements NumberOfCl
             }
         }
 
+        selectedClusters = clusters;
+
         return !changedMedoid;
     }
 
+    //Sum of distances from each candidate medoid in [from, to) to the other members of its cluster
+    private void medoidDistanceSums(int[] members, double[] clusterDists, int from, int to) {
+        for (int n = from; n < to; n++) {
+            double clusterDist = 0;
+
+            for (int g = 0; g < members.length; g++) {
+                if (members[n] == members[g]) continue;
+
+                if (members[n] > members[g]) {
+                    clusterDist += distanceMatrix[members[n]][members[g]];
+                } else {
+                    clusterDist += distanceMatrix[members[g]][members[n]];
+                }
+            }
+
+            clusterDists[n] = clusterDist;
+        }
+    }
+
     //Lletı, R., et al.
     //"Selecting variables for k-means cluster analysis by using a genetic algorithm that optimises the silhouettes."
     //Analytica Chimica Acta 515.1 (2004): 87-100.
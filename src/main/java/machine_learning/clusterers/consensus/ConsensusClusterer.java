@@ -1,10 +1,11 @@
 package machine_learning.clusterers.consensus;
 
+import tsml.classifiers.MultiThreadable;
 import tsml.clusterers.EnhancedAbstractClusterer;
 
 import java.util.ArrayList;
 
-public abstract class ConsensusClusterer extends EnhancedAbstractClusterer {
+public abstract class ConsensusClusterer extends EnhancedAbstractClusterer implements MultiThreadable {
 
     protected EnhancedAbstractClusterer[] clusterers;
 
@@ -21,4 +22,13 @@ public abstract class ConsensusClusterer extends EnhancedAbstractClusterer {
     public void setBuildClusterers(boolean b){
         buildClusterers = b;
     }
+
+    //Base clusterers are built one at a time, each using numThreads threads if able to.
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        for (EnhancedAbstractClusterer clusterer: clusterers){
+            if (clusterer instanceof MultiThreadable)
+                ((MultiThreadable) clusterer).enableMultiThreading(numThreads);
+        }
+    }
 }
@@ -26,7 +26,7 @@ public abstract class Distribution{
 	//Objects
 	private Domain domain;
 //Dont trust this:	public Random RNG= new MersenneTwister();
-	public static Random RNG= new Random();
+	public static Random RNG= new ThreadBoundRandom();
         public static void setDistributionSeed(int r){
             RNG.setSeed(r);
         }
@@ -0,0 +1,78 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package statistics.distributions;
+
+import java.util.Random;
+
+/**
+ * A Random for the shared static generators (Distribution.RNG, Model.rand) which, on a thread that has bound its own
+ * Random, draws from that instead. Unbound threads see an ordinary Random with the seed given, so single threaded use
+ * is unchanged. Binding lets several threads generate simulated data at once, each from its own reproducible stream.
+ */
+public class ThreadBoundRandom extends Random {
+
+    private static final ThreadLocal<Random> BOUND = new ThreadLocal<>();
+
+    // false while the super constructor seeds this instance, which must not reseed a bound stream
+    private final boolean constructed;
+
+    public ThreadBoundRandom() {
+        super();
+        constructed = true;
+    }
+
+    public ThreadBoundRandom(long seed) {
+        super(seed);
+        constructed = true;
+    }
+
+    /**
+     * Route all ThreadBoundRandoms used by the calling thread to random, or back to their own state if null.
+     */
+    public static void bind(Random random) {
+        if (random == null)
+            BOUND.remove();
+        else
+            BOUND.set(random);
+    }
+
+    public static Random getBound() {
+        return BOUND.get();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        Random bound = constructed ? BOUND.get() : null;
+        if (bound != null)
+            bound.setSeed(seed);
+        else
+            super.setSeed(seed);
+    }
+
+    @Override
+    protected int next(int bits) {
+        Random bound = BOUND.get();
+        // the top bits of nextInt() are next(bits) of a java.util.Random
+        return bound != null ? bound.nextInt() >>> (32 - bits) : super.next(bits);
+    }
+
+    @Override
+    public double nextGaussian() {
+        Random bound = BOUND.get();
+        return bound != null ? bound.nextGaussian() : super.nextGaussian();
+    }
+}
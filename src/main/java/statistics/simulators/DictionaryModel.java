@@ -207,7 +207,7 @@ This is reset with a call to generateSeries
 */
         int[] temp=new int[nosIntervals];
         for(int i=0;i<spaces;i++)
-            temp[new Random().nextInt(nosIntervals)]++;
+            temp[rand.nextInt(nosIntervals)]++;
         for(int i=0;i<nosIntervals;i++)
             intervals.add(temp[i]);
 //Randomize intervals
@@ -43,7 +43,7 @@ abstract public class Model {
     static int seed = 1;
     static int count = 1;
     double variance;
-    public static Random rand = new Random(seed);
+    public static Random rand = new ThreadBoundRandom(seed);
 
     //        public static Random rand=new MersenneTwister();
     public Model() {
@@ -58,7 +58,7 @@ abstract public class Model {
 
     public static void setGlobalRandomSeed(int s) {
         seed = s;
-        rand = new Random(seed);
+        rand = new ThreadBoundRandom(seed);
         count = 1;
 
     }
@@ -0,0 +1,298 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package statistics.simulators;
+
+import statistics.distributions.ThreadBoundRandom;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.ts_fileIO.TSWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Generates large simulated datasets from a DataSimulator in parallel, streaming them chunk by chunk to a Sink so
+ * that the whole dataset need never be held in memory.
+ *
+ * Every series is drawn from its own random stream, seeded from the generator seed and the index of the series, so
+ * the data is the same whatever the number of threads or chunk size, and any one series can be regenerated alone with
+ * generateSeries. Each thread builds its own DataSimulator from the supplier with the same seed, so the models (e.g.
+ * shapelets or intervals chosen at random) are identical across threads. As with DataSimulator.generateDataSet the
+ * instances are ordered by class, with casesPerClass[i] instances of class i.
+ *
+ * The random streams are bound to Model.rand and Distribution.RNG, so simulators must draw all their random numbers
+ * from those to be reproducible. Models still drawing from Math.random() are not, e.g. the warping and shifting of
+ * SinusoidalModel and the parameters and start position of SimulateSpectralData.
+ */
+public class SimulatedDataGenerator {
+
+    // model construction changes the static state of Model, so one thread at a time
+    private static final Object CONSTRUCTION_LOCK = new Object();
+
+    private final Supplier<DataSimulator> simulator;
+    private long seed = 0;
+    private int numThreads = 1;
+    private int chunkSize = 1000;
+    private String problemName = null;
+
+    /**
+     * @param simulator creates a simulator with its models, series length and cases per class set. Called once per
+     *                  thread, so must create new models each time
+     */
+    public SimulatedDataGenerator(Supplier<DataSimulator> simulator) {
+        this.simulator = simulator;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @param problemName the name given to the data, by default the model type
+     */
+    public void setProblemName(String problemName) {
+        this.problemName = problemName;
+    }
+
+    /**
+     * Receives the generated data in order, one chunk at a time.
+     */
+    public interface Sink {
+        void open(String problemName, int seriesLength, String[] classLabels) throws IOException;
+
+        void write(List<TimeSeriesInstance> chunk) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Collects the data into a TimeSeriesInstances.
+     */
+    public static class InstancesSink implements Sink {
+        private TimeSeriesInstances data;
+
+        @Override
+        public void open(String problemName, int seriesLength, String[] classLabels) {
+            data = new TimeSeriesInstances(classLabels);
+            data.setProblemName(problemName);
+        }
+
+        @Override
+        public void write(List<TimeSeriesInstance> chunk) {
+            for (TimeSeriesInstance inst : chunk)
+                data.add(inst);
+        }
+
+        @Override
+        public void close() {}
+
+        public TimeSeriesInstances getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Writes the data to a .ts file, appending each chunk as it arrives.
+     */
+    public static class TSFileSink implements Sink {
+        private final File file;
+        private TSWriter writer;
+        private String[] classLabels;
+
+        public TSFileSink(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void open(String problemName, int seriesLength, String[] classLabels) throws IOException {
+            this.classLabels = classLabels;
+            if (file.getParentFile() != null)
+                file.getParentFile().mkdirs();
+            writer = new TSWriter(file);
+            writer.writeHeader(problemName, false, false, true, 1, true, seriesLength, classLabels);
+        }
+
+        @Override
+        public void write(List<TimeSeriesInstance> chunk) {
+            writer.writeInstances(chunk, classLabels);
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+        }
+    }
+
+    public TimeSeriesInstances generateInstances() throws Exception {
+        InstancesSink sink = new InstancesSink();
+        generate(sink);
+        return sink.getData();
+    }
+
+    public void writeTSFile(File file) throws Exception {
+        generate(new TSFileSink(file));
+    }
+
+    /**
+     * Generate the whole dataset, passing it to sink in chunks of chunkSize instances. At most two chunks per thread
+     * are held in memory at once.
+     */
+    public void generate(Sink sink) throws Exception {
+        DataSimulator config = createSimulator();
+        int[] casesPerClass = casesPerClass(config);
+        String[] classLabels = new String[casesPerClass.length];
+        for (int i = 0; i < classLabels.length; i++)
+            classLabels[i] = "" + i;
+        long numCases = 0;
+        for (int cases : casesPerClass)
+            numCases += cases;
+
+        sink.open(problemName != null ? problemName : config.models.get(0).getModelType(), config.seriesLength,
+                classLabels);
+        try {
+            if (numThreads == 1) {
+                Worker worker = new Worker(config, casesPerClass, classLabels);
+                for (long start = 0; start < numCases; start += chunkSize)
+                    sink.write(worker.generate(start, Math.min(numCases, start + chunkSize)));
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            ThreadLocal<Worker> workers = ThreadLocal.withInitial(
+                    () -> new Worker(createSimulator(), casesPerClass, classLabels));
+            Deque<Future<List<TimeSeriesInstance>>> pending = new ArrayDeque<>();
+            try {
+                long next = 0;
+                while (next < numCases || !pending.isEmpty()) {
+                    while (next < numCases && pending.size() < 2 * numThreads) {
+                        long start = next, end = Math.min(numCases, start + chunkSize);
+                        pending.add(executor.submit(() -> workers.get().generate(start, end)));
+                        next = end;
+                    }
+                    sink.write(pending.poll().get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Generate the series at position index of the dataset alone.
+     */
+    public TimeSeriesInstance generateSeries(long index) {
+        DataSimulator sim = createSimulator();
+        int[] casesPerClass = casesPerClass(sim);
+        String[] classLabels = new String[casesPerClass.length];
+        for (int i = 0; i < classLabels.length; i++)
+            classLabels[i] = "" + i;
+        long numCases = 0;
+        for (int cases : casesPerClass)
+            numCases += cases;
+        if (index < 0 || index >= numCases)
+            throw new IndexOutOfBoundsException("index " + index + " of " + numCases + " series");
+        return new Worker(sim, casesPerClass, classLabels).generate(index, index + 1).get(0);
+    }
+
+    private DataSimulator createSimulator() {
+        synchronized (CONSTRUCTION_LOCK) {
+            int count = Model.count;
+            Model.count = 1;
+            ThreadBoundRandom.bind(new Random(seed));
+            try {
+                return simulator.get();
+            } finally {
+                ThreadBoundRandom.bind(null);
+                Model.count = count;
+            }
+        }
+    }
+
+    private static int[] casesPerClass(DataSimulator sim) {
+        if (sim.casesPerClass != null)
+            return sim.casesPerClass;
+        int[] casesPerClass = new int[sim.models.size()];
+        for (int i = 0; i < casesPerClass.length; i++)
+            casesPerClass[i] = sim.nosPerClass;
+        return casesPerClass;
+    }
+
+    // the random stream of each series, a SplitMix64 hash of the seed and index
+    private static long seriesSeed(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private class Worker {
+        private final DataSimulator sim;
+        private final long[] classEnds;
+        private final String[] classLabels;
+        private final Random random = new Random();
+
+        private Worker(DataSimulator sim, int[] casesPerClass, String[] classLabels) {
+            this.sim = sim;
+            this.classLabels = classLabels;
+            classEnds = new long[casesPerClass.length];
+            long end = 0;
+            for (int i = 0; i < casesPerClass.length; i++)
+                classEnds[i] = end += casesPerClass[i];
+        }
+
+        private List<TimeSeriesInstance> generate(long start, long end) {
+            List<TimeSeriesInstance> chunk = new ArrayList<>((int) (end - start));
+            int classIdx = 0;
+            ThreadBoundRandom.bind(random);
+            try {
+                for (long i = start; i < end; i++) {
+                    while (i >= classEnds[classIdx])
+                        classIdx++;
+                    random.setSeed(seriesSeed(seed, i));
+                    // not all simulators restart the time of their models on initialise, e.g. SimulateSpectralData
+                    for (Model model : sim.models)
+                        model.t = 0;
+                    sim.initialise();
+                    double[] series = sim.generate(sim.seriesLength, classIdx);
+                    chunk.add(new TimeSeriesInstance(new double[][]{series}, classIdx, classLabels));
+                }
+            } finally {
+                ThreadBoundRandom.bind(null);
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package statistics.simulators;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.data_containers.TimeSeriesInstances;
+
+import java.util.Arrays;
+
+/**
+ * Checks the generated data does not depend on the number of threads or chunk size, and that single series can be
+ * regenerated.
+ */
+public class SimulatedDataGeneratorTest {
+
+    private static SimulatedDataGenerator shapeletGenerator(long seed, int numThreads, int chunkSize) {
+        SimulatedDataGenerator generator = new SimulatedDataGenerator(() -> {
+            Model[] models = { new ShapeletModel(new double[]{ 100, 1 }), new ShapeletModel(new double[]{ 100, 1 }) };
+            DataSimulator sim = new DataSimulator(models);
+            sim.setSeriesLength(100);
+            sim.setCasesPerClass(new int[]{ 30, 25 });
+            return sim;
+        });
+        generator.setSeed(seed);
+        generator.setNumThreads(numThreads);
+        generator.setChunkSize(chunkSize);
+        return generator;
+    }
+
+    private static void assertSameSeries(TimeSeriesInstance expected, TimeSeriesInstance actual) {
+        Assert.assertEquals(expected.getLabelIndex(), actual.getLabelIndex());
+        Assert.assertArrayEquals(expected.toValueArray()[0], actual.toValueArray()[0], 0);
+    }
+
+    @Test
+    public void testSameForAnyThreadsAndChunkSize() throws Exception {
+        TimeSeriesInstances expected = shapeletGenerator(0, 1, 1000).generateInstances();
+        Assert.assertEquals(55, expected.numInstances());
+
+        for (int numThreads : new int[]{ 1, 2, 4 }) {
+            for (int chunkSize : new int[]{ 1, 7, 1000 }) {
+                TimeSeriesInstances data = shapeletGenerator(0, numThreads, chunkSize).generateInstances();
+                Assert.assertEquals(expected.numInstances(), data.numInstances());
+                for (int i = 0; i < expected.numInstances(); i++)
+                    assertSameSeries(expected.get(i), data.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRegenerateSeries() throws Exception {
+        TimeSeriesInstances data = shapeletGenerator(1, 3, 5).generateInstances();
+        SimulatedDataGenerator generator = shapeletGenerator(1, 1, 1000);
+        for (int i : new int[]{ 0, 12, 29, 30, 54 })
+            assertSameSeries(data.get(i), generator.generateSeries(i));
+    }
+
+    @Test
+    public void testSeedChangesData() throws Exception {
+        TimeSeriesInstances a = shapeletGenerator(0, 1, 1000).generateInstances();
+        TimeSeriesInstances b = shapeletGenerator(1, 1, 1000).generateInstances();
+        boolean differ = false;
+        for (int i = 0; i < a.numInstances() && !differ; i++)
+            differ = !Arrays.equals(a.get(i).toValueArray()[0], b.get(i).toValueArray()[0]);
+        Assert.assertTrue(differ);
+    }
+}
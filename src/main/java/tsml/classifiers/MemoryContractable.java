@@ -23,11 +23,14 @@ import tsml.classifiers.distance_based.utils.system.memory.MemoryWatchable;
  * Interface that allows the user to impose a memory contract of a classifier that
     implements this interface
 
-    known classifiers: None
+    known classifiers: KNN, ProximityForest, ElasticEnsemble
  *
  * Provide default implementation of the memory stats getters which classifiers should track. It's most easily
  * tracked through the GcMemoryWatchable interface so you don't have to track the stats yourself!
  *
+ * The limit is on the heap in use, including anything held before building. Classifiers share it between their big
+ * allocations through a MemoryBudget and degrade (e.g. fewer distances cached or trees built) to stay inside it.
+ *
  * @author pfm15hbu, goastler
  */
 public interface MemoryContractable {
@@ -45,4 +48,20 @@ public interface MemoryContractable {
     //pass in an value from the DataUnit enum and the amount of said values.
     void setMemoryLimit(DataUnit unit, long amount);
 
+    //the limit in bytes, negative for no limit.
+    long getMemoryLimit();
+
+    //convert an amount to bytes, megabytes and gigabytes being powers of 1024 as for the jvm heap size.
+    static long toBytes(DataUnit unit, long amount) {
+        if(amount < 0) {
+            return -1;
+        }
+        switch(unit) {
+            case BYTES: return amount;
+            case MEGABYTE: return amount << 20;
+            case GIGABYTE: return amount << 30;
+            default: throw new IllegalArgumentException("unknown unit: " + unit);
+        }
+    }
+
 }
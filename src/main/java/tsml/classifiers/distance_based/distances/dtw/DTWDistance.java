@@ -47,6 +47,9 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
     }
 
     private double window = 1;
+    // whether to find the window used by an optimal warping path
+    private boolean recordPathWindow = false;
+    private double pathWindow = Double.NaN;
 
     @Override public void setWindow(final double window) {
         this.window = Checks.requireUnitInterval(window);
@@ -56,8 +59,33 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
         return window;
     }
 
+    public boolean isRecordPathWindow() {
+        return recordPathWindow;
+    }
+
+    /**
+     * Set whether to record the window of an optimal warping path when computing distances. This does not change the
+     * distances produced.
+     * @param recordPathWindow
+     */
+    public void setRecordPathWindow(final boolean recordPathWindow) {
+        this.recordPathWindow = recordPathWindow;
+    }
+
+    /**
+     * The smallest window containing an optimal warping path for the last distance computed, if recording path
+     * windows. DTW with any window between this and the window used for the last distance produces the same distance,
+     * as the path is kept and no other path becomes available. NaN if not recorded or the distance was abandoned.
+     * @return
+     */
+    public double getPathWindow() {
+        return pathWindow;
+    }
+
     public double distance(TimeSeriesInstance a, TimeSeriesInstance b, final double limit) {
 
+        pathWindow = Double.NaN;
+
         // make a the longest time series
         if(a.getMaxLength() < b.getMaxLength()) {
             TimeSeriesInstance tmp = a;
@@ -84,6 +112,14 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
         double[] row = getRow(i);
         double[] prevRow;
 
+        // the largest distance from the window mid point along the best path to each cell, if recording path windows
+        double[] pathRow = null;
+        double[] prevPathRow = null;
+        if(recordPathWindow) {
+            pathRow = new double[bLength];
+            prevPathRow = new double[bLength];
+        }
+
         // col index
         int j = start;
         // process the first row (can only warp left - not top/topLeft)
@@ -92,6 +128,7 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
         for(; j <= end; j++) {
             row[j] = row[j - 1] + cost(a, i, b, j);
             min = Math.min(min, row[j]);
+            if(recordPathWindow) pathRow[j] = j;
         }
         if(min > limit) return Double.POSITIVE_INFINITY; // quit if beyond limit
         i++;
@@ -120,16 +157,40 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
             // set the value left of the window to inf
             if(j > 0) row[j - 1] = Double.POSITIVE_INFINITY;
 
+            if(recordPathWindow) {
+                final double[] tmp = prevPathRow;
+                prevPathRow = pathRow;
+                pathRow = tmp;
+            }
+
             // if assessing the left most column then only mapping option is top - not left or topleft
             if(j == 0) {
                 row[j] = prevRow[j] + cost(a, i, b, j);
+                if(recordPathWindow) pathRow[j] = Math.max(prevPathRow[j], mid);
                 min = Math.min(min, row[j++]);
             }
 
-            // compute the distance for each cell in the row
-            for(; j <= end; j++) {
-                row[j] = Math.min(prevRow[j], Math.min(row[j - 1], prevRow[j - 1])) + cost(a, i, b, j);
-                min = Math.min(min, row[j]);
+            if(recordPathWindow) {
+                // as below, also following the best path into each cell, breaking ties by the narrowest path
+                for(; j <= end; j++) {
+                    final double top = prevRow[j];
+                    final double left = row[j - 1];
+                    final double topLeft = prevRow[j - 1];
+                    final double best = Math.min(top, Math.min(left, topLeft));
+                    row[j] = best + cost(a, i, b, j);
+                    min = Math.min(min, row[j]);
+                    double path = Double.POSITIVE_INFINITY;
+                    if(top == best) path = prevPathRow[j];
+                    if(left == best) path = Math.min(path, pathRow[j - 1]);
+                    if(topLeft == best) path = Math.min(path, prevPathRow[j - 1]);
+                    pathRow[j] = Math.max(path, Math.abs(j - mid));
+                }
+            } else {
+                // compute the distance for each cell in the row
+                for(; j <= end; j++) {
+                    row[j] = Math.min(prevRow[j], Math.min(row[j - 1], prevRow[j - 1])) + cost(a, i, b, j);
+                    min = Math.min(min, row[j]);
+                }
             }
             
             if(min > limit) return Double.POSITIVE_INFINITY; // quit if beyond limit
@@ -137,10 +198,56 @@ public class DTWDistance extends MatrixBasedDistanceMeasure implements DTW {
 
         // last value in the current row is the distance
         final double distance = row[row.length - 1];
+        if(recordPathWindow) {
+            pathWindow = pathRow[bLength - 1] / bLength;
+        }
         teardown();
         return distance;
     }
 
+    /**
+     * The max (or min) of the series within width of each point, found by a monotonic deque. Any warping path within a
+     * window of width must match each point of another series to a value within this envelope.
+     */
+    public static double[] envelope(double[] series, int width, boolean max) {
+        final int n = series.length;
+        final double[] envelope = new double[n];
+        final int[] deque = new int[n];
+        int head = 0, tail = 0;
+        for(int i = 0, added = 0; i < n; i++) {
+            // add points up to i + width
+            for(; added < n && added <= i + width; added++) {
+                while(tail > head && (max ? series[deque[tail - 1]] <= series[added]
+                                           : series[deque[tail - 1]] >= series[added]))
+                    tail--;
+                deque[tail++] = added;
+            }
+            while(deque[head] < i - width)
+                head++;
+            envelope[i] = series[deque[head]];
+        }
+        return envelope;
+    }
+
+    /**
+     * LB_Keogh: the squared distance of a series from the envelope of another, a lower bound on the DTW distance
+     * between them within the window of the envelope.
+     */
+    public static double lbKeogh(double[] candidate, double[] upper, double[] lower) {
+        double bound = 0;
+        for(int i = 0; i < candidate.length; i++) {
+            double diff;
+            if(candidate[i] > upper[i])
+                diff = candidate[i] - upper[i];
+            else if(candidate[i] < lower[i])
+                diff = candidate[i] - lower[i];
+            else
+                continue;
+            bound += diff * diff;
+        }
+        return bound;
+    }
+
     @Override public ParamSet getParams() {
         return new ParamSet().add(WINDOW_FLAG, window);
     }
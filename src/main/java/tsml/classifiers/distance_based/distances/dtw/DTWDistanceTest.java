@@ -25,6 +25,8 @@ import tsml.data_containers.TimeSeriesInstances;
 import utilities.InstanceTools;
 import weka.core.Instances;
 
+import java.util.Random;
+
 import static tsml.classifiers.distance_based.distances.dtw.spaces.DDTWDistanceSpace.newDDTWDistance;
 
 /**
@@ -115,6 +117,38 @@ public class DTWDistanceTest {
         Assert.assertEquals(distance, otherDistance, 0d);
     }
     
+    @Test
+    public void testPathWindow() {
+        final Random random = new Random(0);
+        final DTWDistance dtw = new DTWDistance();
+        final DTWDistance tracked = new DTWDistance();
+        tracked.setRecordPathWindow(true);
+        for(int i = 0; i < 100; i++) {
+            final double[] a = new double[10 + random.nextInt(20)];
+            final double[] b = new double[10 + random.nextInt(20)];
+            for(int j = 0; j < a.length; j++) a[j] = random.nextGaussian();
+            for(int j = 0; j < b.length; j++) b[j] = random.nextGaussian();
+            final double window = random.nextDouble();
+            dtw.setWindow(window);
+            tracked.setWindow(window);
+            final double distance = dtw.distanceUnivariate(a, b);
+            Assert.assertEquals(distance, tracked.distanceUnivariate(a, b), 0d);
+            final double pathWindow = tracked.getPathWindow();
+            Assert.assertTrue(pathWindow <= window);
+            // any window containing the path gives the same distance
+            for(int j = 0; j < 10; j++) {
+                final double otherWindow = pathWindow + (window - pathWindow) * random.nextDouble();
+                if(otherWindow > pathWindow + 1e-9) {
+                    dtw.setWindow(otherWindow);
+                    Assert.assertEquals(distance, dtw.distanceUnivariate(a, b), 0d);
+                }
+            }
+        }
+        tracked.setWindow(1);
+        tracked.distanceUnivariate(new double[] {1, 2, 3}, new double[] {5, 6, 7}, 1);
+        Assert.assertTrue(Double.isNaN(tracked.getPathWindow()));
+    }
+
     public static class DTWParamTest extends ParamHandlerTest {
 
         @Override public Object getHandler() {
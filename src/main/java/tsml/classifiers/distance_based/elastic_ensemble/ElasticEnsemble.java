@@ -3,6 +3,7 @@ package tsml.classifiers.distance_based.elastic_ensemble;
 import evaluation.evaluators.Evaluator;
 import evaluation.evaluators.InternalEstimateEvaluator;
 import evaluation.storage.ClassifierResults;
+import tsml.classifiers.MemoryContractable;
 import tsml.classifiers.TSClassifier;
 import tsml.classifiers.TrainEstimateTimeable;
 import tsml.classifiers.distance_based.distances.dtw.spaces.*;
@@ -25,6 +26,7 @@ import tsml.classifiers.distance_based.utils.classifiers.contracting.Progressive
 import tsml.classifiers.distance_based.utils.classifiers.results.ResultUtils;
 import tsml.classifiers.distance_based.utils.collections.params.ParamSpaceBuilder;
 import tsml.classifiers.distance_based.utils.collections.params.iteration.RandomSearch;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatchable;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatcher;
 import tsml.classifiers.distance_based.utils.system.timing.StopWatch;
@@ -38,7 +40,7 @@ import java.util.*;
 import static tsml.classifiers.distance_based.utils.collections.CollectionUtils.newArrayList;
 
 public class ElasticEnsemble extends BaseClassifier implements ContractedTrain, ContractedTest, ProgressiveBuild, Checkpointed,
-                                                          MemoryWatchable, TrainEstimateTimeable {
+                                                          MemoryWatchable, TrainEstimateTimeable, MemoryContractable {
 
     public final static Configs<ElasticEnsemble> CONFIGS = buildConfigs().immutable();
 
@@ -72,6 +74,7 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
     }
 
     private final StopWatch runTimer = new StopWatch();
+    // times consolidating the train estimates of the constituents into the ensemble's train estimate
     private final StopWatch evaluationTimer = new StopWatch();
     private final StopWatch testTimer = new StopWatch();
     private final MemoryWatcher memoryWatcher = new MemoryWatcher();
@@ -79,6 +82,9 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
     private long trainTimeLimit = -1;
     private long testTimeLimit = -1;
     private long longestTrainStageTime = 0;
+    private long memoryLimit = -1;
+    // the most memory taken by a train stage, i.e. a build step of a constituent
+    private long largestTrainStageMemory = 0;
     private List<ParamSpaceBuilder> distanceMeasureSpaceBuilders = new ArrayList<>();
     private List<OptimisedClassifier> constiteunts;
     private List<OptimisedClassifier> remainingConstituents;
@@ -96,7 +102,7 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
     }
 
     @Override public long getTrainEstimateTime() {
-        throw new UnsupportedOperationException();
+        return evaluationTimer.elapsedTime();
     }
 
     @Override public long getRunTime() {
@@ -140,6 +146,7 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
 
                 checkRandom();
                 longestTrainStageTime = 0;
+                largestTrainStageMemory = 0;
                 // for each distance measure space
                 constiteunts = new ArrayList<>();
                 remainingConstituents = new LinkedList<>(); // the classifiers which are not fully built
@@ -154,6 +161,7 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
                     final OptimisedClassifier classifier = new OptimisedClassifier();
                     classifier.setAgent(agent);
                     classifier.setSeed(getSeed());
+                    classifier.setTrainData(trainData);
                     // kick off the classifier
                     classifier.beforeBuild();
                     if(!classifier.isFullyBuilt()) {
@@ -165,15 +173,31 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
 
         } // else case (2)
         runTimer.start(timeStamp);
+        // the constituents already built are held in the heap in use, so only the remainder of the contract is available
+        long heapInUse = memoryLimit < 0 ? 0 : MemoryBudget.usedHeapAfterGc();
+        final MemoryBudget memoryBudget = memoryLimit < 0 ? new MemoryBudget()
+                                                  : new MemoryBudget(Math.max(0, memoryLimit - heapInUse));
         
-        // loop through tuned knns until no further increments remain or out of time
+        // loop through tuned knns until no further increments remain or out of time / memory
         final StopWatch trainStageTimer = new StopWatch();
         boolean workDone = false;
         // multiply up the longest train stage time to leave time for consolidating results into 1
-        while(insideTrainTimeLimit(System.nanoTime() + longestTrainStageTime * constiteunts.size()) && !remainingConstituents.isEmpty()) {
+        while(insideTrainTimeLimit(getRunTime() + longestTrainStageTime * constiteunts.size()) && !remainingConstituents.isEmpty()
+                      && reserveTrainStageMemory(memoryBudget)) {
             trainStageTimer.resetAndStart();
             final OptimisedClassifier classifier = remainingConstituents.remove(0);
             classifier.nextBuildStep();
+            if(memoryBudget.isLimited()) {
+                // swap the memory reserved for the stage for the memory it holds. The heap is measured once per
+                // stage, as a gc can cost more than a step of a small constituent, so the heap after one stage is
+                // the heap before the next
+                final long heapAfterStage = MemoryBudget.usedHeapAfterGc();
+                final long stageMemory = Math.max(0, heapAfterStage - heapInUse);
+                heapInUse = heapAfterStage;
+                memoryBudget.release(largestTrainStageMemory);
+                memoryBudget.account(stageMemory);
+                largestTrainStageMemory = Math.max(largestTrainStageMemory, stageMemory);
+            }
             if(classifier.hasNextBuildStep()) {
                 remainingConstituents.add(classifier);
             }
@@ -183,12 +207,16 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
         }
         
         if(workDone || trainResults.getPredClassVals() == null) {
+            evaluationTimer.start();
             // init the train results
             trainResults = new ClassifierResults();
             final double[][] distributions = new double[trainData.numInstances()][trainData.numClasses()];
             final long[] predictionTimes = new long[trainData.numInstances()];
             // consolidate train results via ensembling
             for(OptimisedClassifier classifier : constiteunts) {
+                if(!isTuned(classifier)) {
+                    continue;
+                }
                 // finalise the build for the constituent
                 classifier.afterBuild();
                 // get the train results for the constituent
@@ -208,6 +236,7 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
                 final int labelIndex = trainData.get(i).getLabelIndex();
                 trainResults.addPrediction(labelIndex, distributions[i], prediction, predictionTime, null);
             }
+            evaluationTimer.stop();
         }
         
         memoryWatcher.stop();
@@ -223,6 +252,9 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
     @Override public double[] distributionForInstance(final TimeSeriesInstance inst) throws Exception {
         final double[] distribution = new double[getLabels().length];
         for(OptimisedClassifier classifier : constiteunts) {
+            if(!isTuned(classifier)) {
+                continue;
+            }
             final double[] constituentDistribution = classifier.distributionForInstance(inst);
             final int prediction = Utilities.argMax(constituentDistribution, getRandom());
             distribution[prediction] += classifier.getTrainResults().getAcc();
@@ -231,6 +263,34 @@ public class ElasticEnsemble extends BaseClassifier implements ContractedTrain,
         return distribution;
     }
 
+    /**
+     * @return whether the constituent has evaluated any candidates. Constituents left without a step by the train time
+     * or memory limit take no part in the ensemble
+     */
+    private static boolean isTuned(OptimisedClassifier classifier) {
+        return !classifier.getAgent().getBestEvaluations().isEmpty();
+    }
+
+    private boolean reserveTrainStageMemory(MemoryBudget memoryBudget) {
+        if(memoryBudget.reserve(largestTrainStageMemory)) {
+            return true;
+        }
+        getLogger().info(() -> "memory contract reached with " + remainingConstituents.size() + " constituents still tuning");
+        return false;
+    }
+
+    @Override public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Limit the heap in use while building. Constituents are tuned step by step until another step taking as much
+     * memory as the largest so far would exceed the limit, leaving the remaining constituents partially tuned.
+     */
+    @Override public void setMemoryLimit(final DataUnit unit, final long amount) {
+        memoryLimit = MemoryContractable.toBytes(unit, amount);
+    }
+
     public boolean withinTrainContract(long time) {
         return insideTrainTimeLimit(time);
     }
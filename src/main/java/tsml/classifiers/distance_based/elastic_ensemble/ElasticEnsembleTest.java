@@ -0,0 +1,67 @@
+package tsml.classifiers.distance_based.elastic_ensemble;
+
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.classifiers.MemoryContractable;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.Converter;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the ensemble builds and predicts under a memory limit, holding no more heap than the limit once built, and
+ * stops tuning its constituents early when the limit leaves no room.
+ */
+public class ElasticEnsembleTest {
+
+    private static final long MEMORY_ROOM = 20 * 1024 * 1024;
+
+    private static ElasticEnsemble build(TimeSeriesInstances train, long memoryLimit) throws Exception {
+        ElasticEnsemble ee = new ElasticEnsemble();
+        ee.setSeed(0);
+        ee.setTrainTimeLimit(2, TimeUnit.SECONDS);
+        ee.setMemoryLimit(MemoryContractable.DataUnit.BYTES, memoryLimit);
+        ee.buildClassifier(train);
+        return ee;
+    }
+
+    private static void assertPredicts(ElasticEnsemble ee, TimeSeriesInstances train, TimeSeriesInstances test)
+            throws Exception {
+        Assert.assertEquals(train.numInstances(), ee.getTrainResults().numInstances());
+        Assert.assertTrue(ee.getTrainTime() >= 0);
+        Assert.assertTrue(ee.getTrainEstimateTime() >= 0);
+        for (int i = 0; i < test.numInstances(); i++) {
+            double[] distribution = ee.distributionForInstance(test.get(i));
+            Assert.assertEquals(test.numClasses(), distribution.length);
+            double sum = 0;
+            for (double p : distribution)
+                sum += p;
+            Assert.assertEquals(1, sum, 1e-9);
+        }
+    }
+
+    @Test
+    public void testWithinMemoryLimit() throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        TimeSeriesInstances train = Converter.fromArff(data[0]);
+        TimeSeriesInstances test = Converter.fromArff(data[1]);
+        long memoryLimit = MemoryBudget.usedHeapAfterGc() + MEMORY_ROOM;
+        ElasticEnsemble ee = build(train, memoryLimit);
+        Assert.assertTrue(MemoryBudget.usedHeapAfterGc() <= memoryLimit);
+        assertPredicts(ee, train, test);
+    }
+
+    @Test
+    public void testStopsAtMemoryLimit() throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        TimeSeriesInstances train = Converter.fromArff(data[0]);
+        TimeSeriesInstances test = Converter.fromArff(data[1]);
+        // no room beyond the heap already in use, so tuning stops after the first step
+        ElasticEnsemble ee = build(train, MemoryBudget.usedHeapAfterGc());
+        Assert.assertFalse(ee.isFullyBuilt());
+        assertPredicts(ee, train, test);
+    }
+}
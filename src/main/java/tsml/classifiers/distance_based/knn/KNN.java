@@ -23,13 +23,16 @@ import java.util.concurrent.TimeUnit;
 
 import evaluation.storage.ClassifierResults;
 import experiments.data.DatasetLoading;
+import tsml.classifiers.MemoryContractable;
 import tsml.classifiers.TrainEstimateTimeable;
 import tsml.classifiers.distance_based.distances.DistanceMeasure;
 import tsml.classifiers.distance_based.distances.ed.EDistance;
+import tsml.classifiers.distance_based.proximity.ExemplarDistanceCache;
 import tsml.classifiers.distance_based.utils.classifiers.configs.Configs;
 import tsml.classifiers.distance_based.utils.collections.pruned.PrunedMap;
 import tsml.classifiers.distance_based.utils.classifiers.BaseClassifier;
 import tsml.classifiers.distance_based.utils.system.copy.CopierUtils;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
 import tsml.classifiers.distance_based.utils.classifiers.checkpointing.CheckpointConfig;
 import tsml.classifiers.distance_based.utils.classifiers.checkpointing.Checkpointed;
 import tsml.classifiers.distance_based.utils.classifiers.contracting.ContractedTest;
@@ -48,7 +51,7 @@ import utilities.ArrayUtilities;
 import utilities.ClassifierTools;
 
 public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, ContractedTrain, TrainEstimateTimeable,
-                                                         ContractedTest {
+                                                         ContractedTest, MemoryContractable {
 
     public static void main(String[] args) throws Exception {
         final int seed = 0;
@@ -144,6 +147,9 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
     private boolean earlyAbandonDistances;
     private boolean autoK;
     private int bestK;
+    // distances between train instances shared with other knns, e.g. while tuning, null if not sharing
+    private transient ExemplarDistanceCache distanceCache;
+    private transient ExemplarDistanceCache.CachedDistanceMeasure cachedDistanceMeasure;
     
     // track the total run time of the build
     private final StopWatch runTimer = new StopWatch();
@@ -162,6 +168,12 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
     private final CheckpointConfig checkpointConfig = new CheckpointConfig();
     private long trainTimeLimit = -1;
     private long testTimeLimit = -1;
+    private long memoryLimit = -1;
+    // approximate memory held per neighbour not yet seen by a loocv search, i.e. a boxed index in a list
+    private static final long UNSEEN_NEIGHBOUR_BYTES = 24;
+    // the number of neighbours each loocv search draws from, fewer than all the other train instances when the
+    // searches would not otherwise fit in the memory limit. -1 for all
+    private int maxNeighboursPerSearch = -1;
 
     @Override public long getRunTime() {
         return runTimer.elapsedTime();
@@ -205,7 +217,10 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         final boolean inside = neighbourhoodSize >= neighbourhoodSizeLimit;
         final boolean inactive = neighbourhoodSizeLimit < 0;
         final boolean insideProp = getNeighbourhoodSizeProportional() >= neighbourhoodSizeLimitProportional;
-        return !getEstimateOwnPerformance() || ((inside || inactive) && insideProp);
+        // searches limited by memory run out of neighbours before the neighbourhood is full
+        final boolean exhausted = maxNeighboursPerSearch >= 0 && remainingSearchIndices != null
+                                          && remainingSearchIndices.isEmpty();
+        return !getEstimateOwnPerformance() || ((inside || inactive) && insideProp) || exhausted;
     }
 
     public int getNeighbourhoodSize() {
@@ -239,6 +254,14 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         for(int i = 0; i < trainData.numClasses(); i++) {
             neighboursByClass.add(new UnorderedArrayList<>());
         }
+        if(instIndex >= 0 && maxNeighboursPerSearch >= 0) {
+            // a random sample of the other train insts, skipping over inst itself
+            for(Integer i : RandomUtils.choiceIndex(trainData.numInstances() - 1, getRandom(), maxNeighboursPerSearch)) {
+                final int neighbourIndex = i < instIndex ? i : i + 1;
+                neighboursByClass.get(trainData.get(neighbourIndex).getLabelIndex()).add(neighbourIndex);
+            }
+            return neighboursByClass;
+        }
         for(int i = 0; i < trainData.numInstances(); i++) {
             // if inst is in the neighbours data then skip it
             if(i != instIndex) {
@@ -265,11 +288,14 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
                 neighbourhoodSize = 0;
                 trainData = data;
                 longestAddNeighbourTime = 0;
+                // reset stops the timer, so restart it from the same time point
                 runTimer.reset();
+                runTimer.start(timeStamp);
                 evaluationTimer.reset();
                 checkpointConfig.resetCheckpointingTime();
                 if(getEstimateOwnPerformance()) {
                     evaluationTimer.start();
+                    reserveSearchesMemory();
                     // init the searches for loocv
                     searches = new ArrayList<>();
                     remainingSearchIndices = new UnorderedArrayList<>();
@@ -290,7 +316,15 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         // already had some work done, all of which should already be saved in a checkpoint)
         checkpointConfig.setLastCheckpointRunTime(System.nanoTime());
         if(getEstimateOwnPerformance()) {
-            estimatePerformance();
+            cachedDistanceMeasure = distanceCache == null ? null : distanceCache.cache(distanceMeasure);
+            try {
+                estimatePerformance();
+            } finally {
+                if(cachedDistanceMeasure != null) {
+                    cachedDistanceMeasure.release();
+                    cachedDistanceMeasure = null;
+                }
+            }
         }
         
         runTimer.stop();
@@ -338,8 +372,8 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
             saveCheckpoint();
         }
         
-        // when searches have been exhausted
-        if(remainingSearchIndices.isEmpty()) {
+        // when searches have been exhausted, having drawn from all the other train insts
+        if(remainingSearchIndices.isEmpty() && maxNeighboursPerSearch < 0) {
             // sanity check all neighbours have been seen
             if(getMaxNeighbourhoodSize() != neighbourhoodSize) {
                 throw new IllegalStateException("expected neighbourhood to be full: " + neighbourhoodSize + " != " + getMaxNeighbourhoodSize());                
@@ -349,10 +383,11 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         if(workDone) {
             
             if(autoK) {
-                // take a backup of the searches as they are currently
-                final List<Search> searchesBackup = new ArrayList<>();
+                // take a backup of the nearest neighbours of the searches as they are currently, as trying smaller ks
+                // prunes them. Only the nearest neighbours are copied, copying a search would copy this knn with it
+                final List<PrunedMap<Double, Integer>> nearestNeighboursBackup = new ArrayList<>();
                 for(Search search : searches) {
-                    searchesBackup.add(CopierUtils.deepCopy(search));
+                    nearestNeighboursBackup.add(search.copyNearestNeighbours());
                 }
                 
                 // loop through the searches, adjusted the k decrementally. Take best k and best score so far
@@ -372,9 +407,10 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
                     }
                 }
                 
-                // restore the original searches and trim down to the optimum k
-                searches = searchesBackup;
-                for(Search search : searches) {
+                // restore the original nearest neighbours and trim down to the optimum k
+                for(int i = 0; i < searches.size(); i++) {
+                    final Search search = searches.get(i);
+                    search.restoreNearestNeighbours(nearestNeighboursBackup.get(i));
                     search.setK(bestK);
                 }
             }
@@ -418,6 +454,128 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         return search.predict();
     }
 
+    /**
+     * Fill distribution with the votes of the nearest neighbours, given as indices in trainData by distance.
+     */
+    static void vote(PrunedMap<Double, Integer> nearestNeighbourIndices, TimeSeriesInstances trainData,
+            double[] distribution) {
+        Arrays.fill(distribution, 0d);
+        // note that more than k neighbours may be held as the nearest neighbours if there are ties.
+        // it makes most sense to keep the ties. The ties should get the kth
+        final Double lastKey = nearestNeighbourIndices.lastKey();
+        for(Double distance : nearestNeighbourIndices.keySet()) {
+            final List<Integer> instIndices = nearestNeighbourIndices.get(distance);
+            final double weight;
+            if(distance.equals(lastKey)) {
+                // last list contains any tie breaks for the kth nearest neighbour
+                // give any ties equal share for the kth vote
+                weight = 1d / instIndices.size();
+            } else {
+                weight = 1d;
+            }
+            for(Integer i : instIndices) {
+                final TimeSeriesInstance nearestNeighbour = trainData.get(i);
+                distribution[nearestNeighbour.getLabelIndex()] += weight;
+            }
+        }
+        ArrayUtilities.normalise(distribution, true);
+    }
+
+    /**
+     * Fit the loocv searches in the memory contract before making them. The searches hold the neighbours each train
+     * instance has left to see, so need memory quadratic in the size of the train data. If they do not fit, each
+     * search draws from a random sample of the other train instances small enough that they do, and the train
+     * estimate is made from the smaller neighbourhood.
+     */
+    private void reserveSearchesMemory() {
+        maxNeighboursPerSearch = -1;
+        if(memoryLimit < 0) {
+            return;
+        }
+        final long numInstances = trainData.numInstances();
+        // a bitset of the neighbours seen per search, which is needed whatever the number of neighbours
+        final long seenBytes = numInstances * (numInstances / Byte.SIZE + 1);
+        // plus the unseen neighbours of every search
+        final long bytes = numInstances * (numInstances - 1) * UNSEEN_NEIGHBOUR_BYTES + seenBytes;
+        // the searches are only held while building, so are fitted in what is left of the limit rather than reserved
+        final long remaining = Math.max(0, memoryLimit - MemoryBudget.usedHeapAfterGc());
+        if(bytes <= remaining) {
+            return;
+        }
+        final long numNeighbours = (remaining - seenBytes) / (numInstances * UNSEEN_NEIGHBOUR_BYTES);
+        if(numNeighbours < 1) {
+            throw new IllegalStateException("the train estimate needs approximately " + (seenBytes + numInstances
+                    * UNSEEN_NEIGHBOUR_BYTES) + " bytes for " + numInstances + " instances even with 1 neighbour per"
+                    + " instance, more than the " + remaining + " bytes left in the memory limit of "
+                    + memoryLimit + " bytes");
+        }
+        maxNeighboursPerSearch = (int) numNeighbours;
+        getLogger().warning("the train estimate needs approximately " + bytes + " bytes, more than the "
+                + remaining + " bytes left in the memory limit of " + memoryLimit + " bytes, so "
+                + "drawing " + maxNeighboursPerSearch + " of the " + (numInstances - 1) + " neighbours per instance");
+    }
+
+    /**
+     * @return the number of neighbours each loocv search drew from in the last build, -1 for all the other train
+     * instances
+     */
+    public int getMaxNeighboursPerSearch() {
+        return maxNeighboursPerSearch;
+    }
+
+    @Override public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Limit the heap in use while building. The train estimate draws on fewer neighbours per instance if its
+     * neighbour searches would not otherwise fit, and fails fast if they would not fit even with one each.
+     */
+    @Override public void setMemoryLimit(final DataUnit unit, final long amount) {
+        memoryLimit = MemoryContractable.toBytes(unit, amount);
+    }
+
+    /**
+     * @return the train data of the built classifier
+     */
+    public TimeSeriesInstances getTrainData() {
+        return trainData;
+    }
+
+    /**
+     * @return the number of neighbours used to predict, the k chosen by the train estimate if using auto k
+     */
+    public int getPredictionK() {
+        return autoK ? bestK : k;
+    }
+
+    /**
+     * The distance between two train instances from the cache. Symmetric distances are looked up in one order only
+     * so either search finding the pair shares it.
+     */
+    private double cachedDistance(int i, int j, double limit) {
+        if(distanceMeasure.isSymmetric() && j < i) {
+            final int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        return cachedDistanceMeasure.distance(i, trainData.get(i), j, trainData.get(j), limit);
+    }
+
+    public ExemplarDistanceCache getDistanceCache() {
+        return distanceCache;
+    }
+
+    /**
+     * Share the distances between train instances found by the train estimate with other knns using the same cache
+     * (with the same train data), e.g. candidates with different parameters of the same distance measure. Cached
+     * distances are those computed (symmetric ones possibly in the other order), so the train estimate is unchanged.
+     * @param distanceCache the cache, or null to not share distances
+     */
+    public void setDistanceCache(final ExemplarDistanceCache distanceCache) {
+        this.distanceCache = distanceCache;
+    }
+
     public DistanceMeasure getDistanceMeasure() {
         return distanceMeasure;
     }
@@ -527,7 +685,7 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         private final int targetIndexInTrainData;
         private double limit = Double.POSITIVE_INFINITY;
         private final BitSet seenNeighbours = new BitSet(trainData.numInstances());
-        private final PrunedMap<Double, Integer> nearestNeighbourIndices;
+        private PrunedMap<Double, Integer> nearestNeighbourIndices;
         private boolean updateDistribution = false;
         private final double[] distribution = ArrayUtilities.uniformDistribution(trainData.numClasses());
         private long time = 0;
@@ -554,6 +712,15 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
             }
         }
 
+        public PrunedMap<Double, Integer> copyNearestNeighbours() {
+            return CopierUtils.deepCopy(nearestNeighbourIndices);
+        }
+
+        public void restoreNearestNeighbours(PrunedMap<Double, Integer> nearestNeighbourIndices) {
+            this.nearestNeighbourIndices = Objects.requireNonNull(nearestNeighbourIndices);
+            updateDistribution = true;
+        }
+
         public int getUnseenCount() {
             int count = trainData.numInstances();
             if(isTargetInTrainData()) {
@@ -649,7 +816,11 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
                 }
 
                 // compute the distance to the neighbour
-                distance = distanceMeasure.distance(getTarget(), neighbour, limit);
+                if(cachedDistanceMeasure != null && isTargetInTrainData()) {
+                    distance = cachedDistance(targetIndexInTrainData, neighbourIndexInTrainData, limit);
+                } else {
+                    distance = distanceMeasure.distance(getTarget(), neighbour, limit);
+                }
                 nearest = add(neighbourIndexInTrainData, distance);
                 
                 if(nearest && earlyPredict) {
@@ -713,26 +884,7 @@ public class KNN extends BaseClassifier implements ParamHandler, Checkpointed, C
         public double[] predict() {
             if(updateDistribution) {
                 updateDistribution = false;
-                Arrays.fill(distribution, 0d);
-                // note that more than k neighbours may be held as the nearest neighbours if there are ties.
-                // it makes most sense to keep the ties. The ties should get the kth
-                final Double lastKey = nearestNeighbourIndices.lastKey();
-                for(Double distance : nearestNeighbourIndices.keySet()) {
-                    final List<Integer> instIndices = nearestNeighbourIndices.get(distance);
-                    final double weight;
-                    if(distance.equals(lastKey)) {
-                        // last list contains any tie breaks for the kth nearest neighbour
-                        // give any ties equal share for the kth vote
-                        weight = 1d / instIndices.size();
-                    } else {
-                        weight = 1d;
-                    }
-                    for(Integer i : instIndices) {
-                        final TimeSeriesInstance nearestNeighbour = trainData.get(i);
-                        distribution[nearestNeighbour.getLabelIndex()] += weight;
-                    }
-                }
-                ArrayUtilities.normalise(distribution, true);
+                vote(nearestNeighbourIndices, trainData, distribution);
             }
             return distribution;
         }
@@ -0,0 +1,495 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package tsml.classifiers.distance_based.knn;
+
+import tsml.classifiers.distance_based.distances.DistanceMeasure;
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.classifiers.distance_based.utils.collections.pruned.PrunedMap;
+import tsml.classifiers.distance_based.utils.system.copy.CopierUtils;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.data_containers.TimeSeriesInstances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the predictions of a built KNN to a stream of queries. Queries are queued and taken by worker threads in
+ * batches of up to batchSize, each worker searching with its own copy of the distance measure over an index of the
+ * train data shared read only between them.
+ *
+ * The index holds the medoid of each class, the distance of each train instance to the medoid of its class and, for
+ * DTWDistance on equal length data, the LB_Keogh envelope of each train instance. A query is first compared to the
+ * medoids, then to the classes in order of their medoid distance, within each class visiting first the instances
+ * whose distance to the medoid is closest to that of the query. Distances are early abandoned at, and candidates
+ * pruned by LB_Keogh against, the distance of the kth nearest neighbour so far, which leaves the neighbours found
+ * unchanged. Without a time limit the prediction is that of the KNN (breaking ties in the distribution by the lowest
+ * class index). With one, the search stops at the deadline and answers with the neighbours found so far.
+ *
+ * Latencies, from submission to answer, are kept for the most recent queries to report percentiles.
+ */
+public class KNNQueryEngine implements AutoCloseable {
+
+    // the number of instances of each class considered when finding its medoid
+    private static final int MEDOID_SAMPLE_SIZE = 32;
+    // margin on LB_Keogh for rounding differences with the DTW cost
+    private static final double BOUND_MARGIN = 1e-9;
+    private static final int LATENCY_SAMPLES = 10000;
+
+    private final TimeSeriesInstances trainData;
+    private final DistanceMeasure distanceMeasure;
+    private final int k;
+    private final int[] labels;
+    // the train index of the medoid of each class, -1 if there are no instances of the class
+    private final int[] medoids;
+    private final boolean[] isMedoid;
+    // the distance of each train instance to the medoid of its class
+    private final double[] medoidDistances;
+    // the envelope of each dimension of each train instance, null if LB_Keogh does not apply
+    private double[][][] upper;
+    private double[][][] lower;
+
+    private final BlockingQueue<Query> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor;
+    private volatile int batchSize = 16;
+    private volatile long timeLimit;
+    private volatile boolean closed = false;
+
+    // ring buffer of the most recent latencies in nanoseconds, guarded by itself
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long numQueries = 0;
+
+    public KNNQueryEngine(KNN knn) {
+        this(knn, 1);
+    }
+
+    /**
+     * @param knn        a built KNN, which should not be rebuilt while the engine is in use
+     * @param numThreads the number of queries to answer at once
+     */
+    public KNNQueryEngine(KNN knn, int numThreads) {
+        trainData = knn.getTrainData();
+        if(trainData == null) {
+            throw new IllegalStateException("the KNN must be built");
+        }
+        distanceMeasure = knn.getDistanceMeasure();
+        k = knn.getPredictionK();
+        timeLimit = Math.max(0, knn.getTestTimeLimit());
+
+        labels = new int[trainData.numInstances()];
+        for(int i = 0; i < labels.length; i++) {
+            labels[i] = trainData.get(i).getLabelIndex();
+        }
+        medoids = new int[trainData.numClasses()];
+        isMedoid = new boolean[labels.length];
+        medoidDistances = new double[labels.length];
+        buildMedoids();
+        buildEnvelopes();
+
+        executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        for(int i = 0; i < Math.max(1, numThreads); i++) {
+            executor.submit(this::serve);
+        }
+    }
+
+    private void buildMedoids() {
+        final List<List<Integer>> members = new ArrayList<>();
+        for(int i = 0; i < medoids.length; i++) {
+            members.add(new ArrayList<>());
+        }
+        for(int i = 0; i < labels.length; i++) {
+            members.get(labels[i]).add(i);
+        }
+
+        for(int c = 0; c < medoids.length; c++) {
+            final List<Integer> classMembers = members.get(c);
+            medoids[c] = -1;
+            if(classMembers.isEmpty()) {
+                continue;
+            }
+            // the instance with the least total distance to an evenly spaced sample of the class
+            final int sampleSize = Math.min(MEDOID_SAMPLE_SIZE, classMembers.size());
+            final int[] sample = new int[sampleSize];
+            for(int i = 0; i < sampleSize; i++) {
+                sample[i] = classMembers.get((int) ((long) i * classMembers.size() / sampleSize));
+            }
+            double bestTotal = Double.POSITIVE_INFINITY;
+            for(int a : sample) {
+                double total = 0;
+                for(int b : sample) {
+                    if(a != b) {
+                        total += distanceMeasure.distance(trainData.get(a), trainData.get(b), Double.POSITIVE_INFINITY);
+                    }
+                }
+                if(total < bestTotal) {
+                    bestTotal = total;
+                    medoids[c] = a;
+                }
+            }
+            isMedoid[medoids[c]] = true;
+            for(int i : classMembers) {
+                medoidDistances[i] = i == medoids[c] ? 0
+                        : distanceMeasure.distance(trainData.get(i), trainData.get(medoids[c]), Double.POSITIVE_INFINITY);
+            }
+        }
+    }
+
+    private void buildEnvelopes() {
+        if(distanceMeasure.getClass() != DTWDistance.class || !trainData.isEqualLength()) {
+            return;
+        }
+        final int length = trainData.getMaxLength();
+        final int width = (int) Math.floor(((DTWDistance) distanceMeasure).getWindow() * length);
+        upper = new double[labels.length][][];
+        lower = new double[labels.length][][];
+        for(int i = 0; i < labels.length; i++) {
+            final double[][] values = trainData.get(i).toValueArray();
+            upper[i] = new double[values.length][];
+            lower[i] = new double[values.length][];
+            for(int d = 0; d < values.length; d++) {
+                upper[i][d] = DTWDistance.envelope(values[d], width, true);
+                lower[i][d] = DTWDistance.envelope(values[d], width, false);
+            }
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the most queries a worker takes from the queue at once
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Set the default time to answer each query in, from its submission, or 0 for none. By default the test time limit
+     * of the KNN.
+     */
+    public void setTimeLimit(long time, TimeUnit unit) {
+        timeLimit = Math.max(0, unit.toNanos(time));
+    }
+
+    public Future<Result> submit(TimeSeriesInstance query) {
+        return submit(query, timeLimit, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Queue a query to be answered within the time given, or without a deadline if 0.
+     */
+    public Future<Result> submit(TimeSeriesInstance query, long time, TimeUnit unit) {
+        if(closed) {
+            throw new IllegalStateException("closed");
+        }
+        final Query q = new Query(query, unit.toNanos(time));
+        queue.add(q);
+        return q.future;
+    }
+
+    /**
+     * Answer each instance of data, waiting for them all.
+     */
+    public List<Result> query(TimeSeriesInstances data) throws Exception {
+        final List<Future<Result>> futures = new ArrayList<>(data.numInstances());
+        for(TimeSeriesInstance inst : data) {
+            futures.add(submit(inst));
+        }
+        final List<Result> results = new ArrayList<>(futures.size());
+        for(Future<Result> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * @return the number of queries answered
+     */
+    public long getNumQueries() {
+        synchronized(latencies) {
+            return numQueries;
+        }
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency at the percentile of the most recent queries answered (nearest rank), in nanoseconds, or -1
+     * if there are none
+     */
+    public long getLatencyPercentile(double percentile) {
+        return getLatencyPercentiles(percentile)[0];
+    }
+
+    public long[] getLatencyPercentiles(double... percentiles) {
+        final long[] sorted;
+        synchronized(latencies) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(numQueries, latencies.length));
+        }
+        Arrays.sort(sorted);
+        final long[] values = new long[percentiles.length];
+        for(int i = 0; i < percentiles.length; i++) {
+            if(sorted.length == 0) {
+                values[i] = -1;
+            } else {
+                final int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length);
+                values[i] = sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+            }
+        }
+        return values;
+    }
+
+    public void resetLatencies() {
+        synchronized(latencies) {
+            numQueries = 0;
+        }
+    }
+
+    /**
+     * Stop the workers. Queries not yet started are cancelled.
+     */
+    @Override public void close() {
+        closed = true;
+        executor.shutdownNow();
+        final List<Query> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for(Query query : remaining) {
+            query.future.cancel(false);
+        }
+    }
+
+    private void serve() {
+        final Searcher searcher = new Searcher();
+        final List<Query> batch = new ArrayList<>();
+        try {
+            while(!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                for(Query query : batch) {
+                    try {
+                        final Result result = searcher.search(query);
+                        synchronized(latencies) {
+                            latencies[(int) (numQueries++ % latencies.length)] = result.latency;
+                        }
+                        query.future.complete(result);
+                    } catch(Exception e) {
+                        query.future.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch(InterruptedException e) {
+            // closed
+            for(Query query : batch) {
+                query.future.cancel(false);
+            }
+        }
+    }
+
+    private static class Query {
+        private final TimeSeriesInstance target;
+        private final long submitTime = System.nanoTime();
+        private final long timeLimit;
+        private final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        private Query(TimeSeriesInstance target, long timeLimit) {
+            this.target = target;
+            this.timeLimit = timeLimit;
+        }
+    }
+
+    // the working state of a worker
+    private class Searcher {
+        private final DistanceMeasure distanceMeasure = CopierUtils.deepCopy(KNNQueryEngine.this.distanceMeasure);
+        private final double[] queryMedoidDistances = new double[medoids.length];
+        private final int[] classRanks = new int[medoids.length];
+        private final Integer[] classOrder = new Integer[medoids.length];
+        private final double[] keys = new double[labels.length];
+        private final Integer[] order = new Integer[labels.length];
+        private final Comparator<Integer> byMedoid = (a, b) -> {
+            final int c = Integer.compare(classRanks[labels[a]], classRanks[labels[b]]);
+            return c != 0 ? c : Double.compare(keys[a], keys[b]);
+        };
+
+        private Searcher() {
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            for(int i = 0; i < classOrder.length; i++) {
+                classOrder[i] = i;
+            }
+        }
+
+        private Result search(Query query) {
+            final TimeSeriesInstance target = query.target;
+            final PrunedMap<Double, Integer> nearest = PrunedMap.asc(k);
+            int numDistances = 0;
+            int numPruned = 0;
+
+            // the medoids first, for an answer early and a limit for the rest
+            for(int c = 0; c < medoids.length; c++) {
+                if(medoids[c] < 0) {
+                    queryMedoidDistances[c] = Double.POSITIVE_INFINITY;
+                } else {
+                    queryMedoidDistances[c] = distanceMeasure.distance(target, trainData.get(medoids[c]),
+                            Double.POSITIVE_INFINITY);
+                    nearest.add(queryMedoidDistances[c], medoids[c]);
+                    numDistances++;
+                }
+            }
+            Arrays.sort(classOrder, Comparator.comparingDouble(c -> queryMedoidDistances[c]));
+            for(int i = 0; i < classOrder.length; i++) {
+                classRanks[classOrder[i]] = i;
+            }
+            for(int i = 0; i < keys.length; i++) {
+                keys[i] = Math.abs(queryMedoidDistances[labels[i]] - medoidDistances[i]);
+            }
+            Arrays.sort(order, byMedoid);
+
+            final double[][] values = upper != null && target.isEqualLength()
+                    && target.getMaxLength() == trainData.getMaxLength()
+                    && target.getNumDimensions() == trainData.getMaxNumDimensions() ? target.toValueArray() : null;
+            final long deadline = query.submitTime + query.timeLimit;
+            boolean exact = true;
+            for(int i : order) {
+                if(isMedoid[i]) {
+                    continue;
+                }
+                if(query.timeLimit > 0 && System.nanoTime() - deadline > 0) {
+                    exact = false;
+                    break;
+                }
+                final double limit = nearest.size() >= k ? nearest.lastKey() : Double.POSITIVE_INFINITY;
+                if(values != null && limit < Double.POSITIVE_INFINITY) {
+                    double bound = 0;
+                    for(int d = 0; d < values.length && bound <= limit; d++) {
+                        bound += DTWDistance.lbKeogh(values[d], upper[i][d], lower[i][d]);
+                    }
+                    if(bound > limit * (1 + BOUND_MARGIN)) {
+                        numPruned++;
+                        continue;
+                    }
+                }
+                final double distance = distanceMeasure.distance(target, trainData.get(i), limit);
+                numDistances++;
+                if(distance <= limit) {
+                    nearest.add(distance, i);
+                }
+            }
+
+            final double[] distribution = new double[trainData.numClasses()];
+            KNN.vote(nearest, trainData, distribution);
+            final List<Integer> neighbours = new ArrayList<>();
+            final List<Double> distances = new ArrayList<>();
+            for(Map.Entry<Double, List<Integer>> entry : nearest.entrySet()) {
+                for(Integer i : entry.getValue()) {
+                    neighbours.add(i);
+                    distances.add(entry.getKey());
+                }
+            }
+            return new Result(distribution, neighbours, distances, exact, numDistances, numPruned,
+                    System.nanoTime() - query.submitTime);
+        }
+    }
+
+    public static class Result {
+        private final double[] distribution;
+        private final int[] neighbourIndices;
+        private final double[] neighbourDistances;
+        private final boolean exact;
+        private final int numDistances;
+        private final int numPruned;
+        private final long latency;
+
+        private Result(double[] distribution, List<Integer> neighbours, List<Double> distances, boolean exact,
+                int numDistances, int numPruned, long latency) {
+            this.distribution = distribution;
+            neighbourIndices = neighbours.stream().mapToInt(Integer::intValue).toArray();
+            neighbourDistances = distances.stream().mapToDouble(Double::doubleValue).toArray();
+            this.exact = exact;
+            this.numDistances = numDistances;
+            this.numPruned = numPruned;
+            this.latency = latency;
+        }
+
+        public double[] getDistribution() {
+            return distribution;
+        }
+
+        /**
+         * @return the class with the most votes, the lowest index of any tied
+         */
+        public int getPrediction() {
+            int best = 0;
+            for(int i = 1; i < distribution.length; i++) {
+                if(distribution[i] > distribution[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return the train indices of the nearest neighbours found, nearest first, including any tied with the kth
+         */
+        public int[] getNeighbourIndices() {
+            return neighbourIndices;
+        }
+
+        public double[] getNeighbourDistances() {
+            return neighbourDistances;
+        }
+
+        /**
+         * @return false if the deadline passed before all the train data was searched
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        public int getNumDistances() {
+            return numDistances;
+        }
+
+        /**
+         * @return the number of train instances skipped by LB_Keogh
+         */
+        public int getNumPruned() {
+            return numPruned;
+        }
+
+        /**
+         * @return the nanoseconds from submission to answer
+         */
+        public long getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package tsml.classifiers.distance_based.knn;
+
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.classifiers.distance_based.distances.DistanceMeasure;
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.classifiers.distance_based.distances.ed.EDistance;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.Converter;
+import weka.core.Instances;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the engine answers each query with the distribution the KNN gives for it, whatever the number of threads,
+ * and that a query is reported as inexact once its deadline passes.
+ */
+public class KNNQueryEngineTest {
+
+    private static KNN buildKnn(DistanceMeasure distanceMeasure, int k, TimeSeriesInstances train) throws Exception {
+        KNN knn = new KNN();
+        knn.setSeed(0);
+        knn.setDistanceMeasure(distanceMeasure);
+        knn.setK(k);
+        knn.buildClassifier(train);
+        return knn;
+    }
+
+    private static void assertMatchesKnn(DistanceMeasure distanceMeasure, int k) throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        TimeSeriesInstances train = Converter.fromArff(data[0]);
+        TimeSeriesInstances test = Converter.fromArff(data[1]);
+        KNN knn = buildKnn(distanceMeasure, k, train);
+
+        for (int numThreads : new int[]{ 1, 3 }) {
+            try (KNNQueryEngine engine = new KNNQueryEngine(knn, numThreads)) {
+                engine.setBatchSize(7);
+                List<KNNQueryEngine.Result> results = engine.query(test);
+                Assert.assertEquals(test.numInstances(), results.size());
+                for (int i = 0; i < test.numInstances(); i++) {
+                    KNNQueryEngine.Result result = results.get(i);
+                    Assert.assertTrue(result.isExact());
+                    Assert.assertArrayEquals(knn.distributionForInstance(test.get(i)), result.getDistribution(), 0);
+                }
+                Assert.assertEquals(test.numInstances(), engine.getNumQueries());
+            }
+        }
+    }
+
+    @Test
+    public void testEDMatchesKnn() throws Exception {
+        assertMatchesKnn(new EDistance(), 1);
+        assertMatchesKnn(new EDistance(), 3);
+    }
+
+    @Test
+    public void testDTWMatchesKnn() throws Exception {
+        DTWDistance dtw = new DTWDistance();
+        dtw.setWindow(0.2);
+        assertMatchesKnn(dtw, 1);
+        dtw = new DTWDistance();
+        dtw.setWindow(0.2);
+        assertMatchesKnn(dtw, 3);
+    }
+
+    @Test
+    public void testInexactAfterDeadline() throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        TimeSeriesInstances test = Converter.fromArff(data[1]);
+        KNN knn = buildKnn(new DTWDistance(), 1, Converter.fromArff(data[0]));
+
+        try (KNNQueryEngine engine = new KNNQueryEngine(knn)) {
+            // the deadline passes while comparing to the medoids, before any other train instance is searched
+            KNNQueryEngine.Result result = engine.submit(test.get(0), 1, TimeUnit.NANOSECONDS).get();
+            Assert.assertFalse(result.isExact());
+            Assert.assertEquals(test.numClasses(), result.getNumDistances());
+            // the answer is still that of the neighbours found
+            Assert.assertEquals(1, result.getNeighbourIndices().length);
+
+            // without a deadline the same query is exact
+            Assert.assertTrue(engine.submit(test.get(0), 0, TimeUnit.NANOSECONDS).get().isExact());
+        }
+    }
+}
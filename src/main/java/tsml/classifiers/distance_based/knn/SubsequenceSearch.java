@@ -0,0 +1,597 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package tsml.classifiers.distance_based.knn;
+
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.data_containers.TimeSeries;
+import tsml.data_containers.utilities.TimeSeriesSummaryStatistics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the k subsequences of a long series or stream closest to a query under DTW (or ED, which is DTW with a
+ * window of 0), as in the UCR Suite (Rakthanmanon et al., Searching and mining trillions of time series subsequences
+ * under dynamic time warping, KDD 2012). The query and each subsequence are z-normalised unless normalisation is
+ * turned off. Distances are the squared costs of DTWDistance, with the window a proportion of the query length.
+ *
+ * The stream is appended to incrementally and scanned in chunks of chunkSize subsequences, overlapping by one less
+ * than the query length, so only the chunks being scanned are held in memory. With more than one thread the chunks
+ * are scanned at once, sharing the bound on the distance of the kth match. Each subsequence passes through a cascade
+ * of lower bounds, LB_Kim then LB_Keogh of the subsequence against the envelope of the query and of the query
+ * against the envelope of the stream, before DTW early abandoned with the bounds remaining. Each visits the query in
+ * order of decreasing magnitude so it abandons early.
+ *
+ * Matches are picked greedily in order of distance, then start, skipping any starting within exclusionZone of a
+ * match already picked, so that trivial matches offset by a few points from a better one are not reported. The
+ * matches are the same whatever the number of threads or chunk size. The stream should have no missing values.
+ */
+public class SubsequenceSearch implements AutoCloseable {
+
+    // margin on the lower bounds for rounding differences with the full distance
+    private static final double BOUND_MARGIN = 1e-9;
+    // windows with a smaller standard deviation, relative to their mean, are constant and normalise to 0
+    private static final double MIN_STD = 1e-8;
+
+    public static class Match {
+        private final long start;
+        private final double distance;
+
+        public Match(long start, double distance) {
+            this.start = start;
+            this.distance = distance;
+        }
+
+        /**
+         * @return the position in the stream of the first point of the subsequence
+         */
+        public long getStart() {
+            return start;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        @Override public String toString() {
+            return "Match{start=" + start + ", distance=" + distance + "}";
+        }
+    }
+
+    private static final Comparator<Match> ORDER =
+            Comparator.comparingDouble(Match::getDistance).thenComparingLong(Match::getStart);
+
+    private final double[] rawQuery;
+    private final int length;
+    private int k = 1;
+    private double window = 0.1;
+    private boolean normalise = true;
+    private int exclusionZone;
+    private int numThreads = 1;
+    private int chunkSize = 100000;
+
+    // the query prepared on the first ingestion, after which the settings are fixed
+    private boolean prepared = false;
+    private int width;
+    private double[] query;
+    private double[] upper;
+    private double[] lower;
+    // query indices by decreasing magnitude
+    private int[] order;
+
+    // the values not yet scanned, preceded by the last length - 1 values scanned
+    private double[] buffer;
+    private int size = 0;
+    // the position in the stream of buffer[0]
+    private long offset = 0;
+
+    private ExecutorService executor;
+    private final Deque<Future<?>> pending = new ArrayDeque<>();
+
+    // every subsequence scanned within the bound, guarded by itself
+    private final List<Match> candidates = new ArrayList<>();
+    // matches pairwise at least 2 * exclusionZone - 1 apart, the kth distance of which bounds the kth distance of the
+    // greedy matches (each greedy match excludes at most one of them), guarded by candidates
+    private final List<Match> separated = new ArrayList<>();
+    private volatile double bound = Double.POSITIVE_INFINITY;
+
+    private final LongAdder numSubsequences = new LongAdder();
+    private final LongAdder numDistances = new LongAdder();
+
+    public SubsequenceSearch(TimeSeries query) {
+        this(query.toValueArray());
+    }
+
+    public SubsequenceSearch(double[] query) {
+        if(query.length == 0) {
+            throw new IllegalArgumentException("empty query");
+        }
+        rawQuery = query.clone();
+        length = query.length;
+        exclusionZone = length / 2;
+    }
+
+    private void checkNotStarted() {
+        if(prepared) {
+            throw new IllegalStateException("settings cannot change once the search has started");
+        }
+    }
+
+    public void setK(int k) {
+        checkNotStarted();
+        if(k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        this.k = k;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @param window the DTW window as a proportion of the query length, 0 for ED
+     */
+    public void setWindow(double window) {
+        checkNotStarted();
+        if(!(window >= 0 && window <= 1)) {
+            throw new IllegalArgumentException("window must be in [0, 1]: " + window);
+        }
+        this.window = window;
+    }
+
+    public double getWindow() {
+        return window;
+    }
+
+    public void setNormalise(boolean normalise) {
+        checkNotStarted();
+        this.normalise = normalise;
+    }
+
+    public boolean isNormalise() {
+        return normalise;
+    }
+
+    /**
+     * @param exclusionZone matches must start at least this far apart, by default half the query length
+     */
+    public void setExclusionZone(int exclusionZone) {
+        checkNotStarted();
+        this.exclusionZone = Math.max(0, exclusionZone);
+    }
+
+    public int getExclusionZone() {
+        return exclusionZone;
+    }
+
+    public void setNumThreads(int numThreads) {
+        checkNotStarted();
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param chunkSize the number of subsequences scanned as one task
+     */
+    public void setChunkSize(int chunkSize) {
+        checkNotStarted();
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public int getQueryLength() {
+        return length;
+    }
+
+    /**
+     * @return the number of points ingested so far
+     */
+    public long getStreamLength() {
+        return offset + size;
+    }
+
+    public long getNumSubsequences() {
+        return numSubsequences.sum();
+    }
+
+    /**
+     * @return the number of subsequences not pruned by a lower bound, for which the full distance was computed
+     */
+    public long getNumDistances() {
+        return numDistances.sum();
+    }
+
+    private void prepare() {
+        if(prepared) {
+            return;
+        }
+        prepared = true;
+        width = (int) Math.floor(window * length);
+        query = rawQuery.clone();
+        if(normalise) {
+            final TimeSeriesSummaryStatistics stats = new TimeSeriesSummaryStatistics(query);
+            final double mean = stats.getMean();
+            final double invStd = invStd(mean, stats.getStd());
+            for(int i = 0; i < length; i++) {
+                query[i] = (query[i] - mean) * invStd;
+            }
+        }
+        upper = DTWDistance.envelope(query, width, true);
+        lower = DTWDistance.envelope(query, width, false);
+        order = new int[length];
+        final Integer[] boxed = new Integer[length];
+        for(int i = 0; i < length; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, Comparator.comparingDouble(i -> -Math.abs(query[i])));
+        for(int i = 0; i < length; i++) {
+            order[i] = boxed[i];
+        }
+        buffer = new double[chunkSize + length - 1];
+        if(numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+    }
+
+    private static double invStd(double mean, double std) {
+        return std > MIN_STD * (1 + Math.abs(mean)) ? 1 / std : 0;
+    }
+
+    public void append(double value) throws Exception {
+        prepare();
+        buffer[size++] = value;
+        if(size == buffer.length) {
+            scanBuffer();
+        }
+    }
+
+    public void append(double[] values) throws Exception {
+        prepare();
+        for(int i = 0; i < values.length; ) {
+            final int n = Math.min(values.length - i, buffer.length - size);
+            System.arraycopy(values, i, buffer, size, n);
+            size += n;
+            i += n;
+            if(size == buffer.length) {
+                scanBuffer();
+            }
+        }
+    }
+
+    public void append(TimeSeries series) throws Exception {
+        append(series.toValueArray());
+    }
+
+    /**
+     * Scan every subsequence in the buffer, keeping the last length - 1 values to start the subsequences which run
+     * into the values yet to come.
+     */
+    private void scanBuffer() throws Exception {
+        if(size < length) {
+            return;
+        }
+        final double[] data = Arrays.copyOf(buffer, size);
+        final long start = offset;
+        if(executor == null) {
+            scan(data, start);
+        } else {
+            while(pending.size() >= 2 * numThreads) {
+                pending.poll().get();
+            }
+            pending.add(executor.submit(() -> scan(data, start)));
+        }
+        final int kept = length - 1;
+        System.arraycopy(buffer, size - kept, buffer, 0, kept);
+        offset += size - kept;
+        size = kept;
+    }
+
+    /**
+     * Scan the subsequences ingested so far and find the best matches among them. More may be appended afterwards.
+     *
+     * @return at most k matches in order of distance
+     */
+    public List<Match> getMatches() throws Exception {
+        prepare();
+        scanBuffer();
+        while(!pending.isEmpty()) {
+            pending.poll().get();
+        }
+        final List<Match> sorted;
+        synchronized(candidates) {
+            sorted = new ArrayList<>(candidates);
+        }
+        sorted.sort(ORDER);
+        final List<Match> matches = new ArrayList<>(k);
+        for(Match candidate : sorted) {
+            if(matches.size() == k) {
+                break;
+            }
+            if(!overlaps(matches, candidate.getStart(), exclusionZone)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Search a whole series, appending it to the stream.
+     */
+    public List<Match> search(TimeSeries series) throws Exception {
+        append(series);
+        return getMatches();
+    }
+
+    private static boolean overlaps(List<Match> matches, long start, int zone) {
+        for(Match match : matches) {
+            if(Math.abs(match.getStart() - start) < zone) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void offer(long start, double distance) {
+        synchronized(candidates) {
+            if(distance > bound) {
+                return;
+            }
+            final Match match = new Match(start, distance);
+            candidates.add(match);
+
+            // keep the separated matches best first, a new match replacing any worse within the separation
+            final int separation = Math.max(1, 2 * exclusionZone - 1);
+            for(Match other : separated) {
+                if(Math.abs(other.getStart() - start) < separation && ORDER.compare(other, match) <= 0) {
+                    return;
+                }
+            }
+            separated.removeIf(other -> Math.abs(other.getStart() - start) < separation);
+            int index = 0;
+            while(index < separated.size() && ORDER.compare(separated.get(index), match) < 0) {
+                index++;
+            }
+            separated.add(index, match);
+            if(separated.size() > k) {
+                separated.remove(k);
+            }
+            if(separated.size() == k && separated.get(k - 1).getDistance() < bound) {
+                final double newBound = separated.get(k - 1).getDistance();
+                bound = newBound;
+                candidates.removeIf(candidate -> candidate.getDistance() > newBound);
+            }
+        }
+    }
+
+    private void scan(double[] data, long start) {
+        final int numStarts = data.length - length + 1;
+        final double[] means = new double[numStarts];
+        final double[] stds = new double[numStarts];
+        if(normalise) {
+            TimeSeriesSummaryStatistics.slidingMeanStd(data, length, means, stds);
+        }
+        double[] dataUpper = null;
+        double[] dataLower = null;
+        if(width > 0) {
+            dataUpper = DTWDistance.envelope(data, width, true);
+            dataLower = DTWDistance.envelope(data, width, false);
+        }
+        final double[] candidate = new double[length];
+        final double[] cb1 = new double[length];
+        final double[] cb2 = new double[length];
+        final double[] cb = new double[length];
+        final double[] row = new double[length];
+        final double[] prevRow = new double[length];
+
+        for(int s = 0; s < numStarts; s++) {
+            final double limit = bound + BOUND_MARGIN;
+            final double mean = normalise ? means[s] : 0;
+            final double invStd = normalise ? invStd(mean, stds[s]) : 1;
+            final double distance;
+            if(width == 0) {
+                distance = euclidean(data, s, mean, invStd, limit);
+            } else {
+                if(lbKim(data, s, mean, invStd, limit) > limit) {
+                    continue;
+                }
+                final double lbQuery = lbKeoghQuery(data, s, mean, invStd, cb1, limit);
+                if(lbQuery > limit) {
+                    continue;
+                }
+                final double lbData = lbKeoghData(dataUpper, dataLower, s, mean, invStd, cb2, limit);
+                if(lbData > limit) {
+                    continue;
+                }
+                // the tighter bound on the cost of the rest of the warping path from each index
+                final double[] contributions = lbQuery > lbData ? cb1 : cb2;
+                cb[length - 1] = contributions[length - 1];
+                for(int i = length - 2; i >= 0; i--) {
+                    cb[i] = cb[i + 1] + contributions[i];
+                }
+                for(int i = 0; i < length; i++) {
+                    candidate[i] = (data[s + i] - mean) * invStd;
+                }
+                distance = dtw(candidate, cb, row, prevRow, limit);
+            }
+            if(distance <= bound) {
+                offer(start + s, distance);
+            }
+        }
+        numSubsequences.add(numStarts);
+    }
+
+    private double euclidean(double[] data, int s, double mean, double invStd, double limit) {
+        numDistances.increment();
+        double sum = 0;
+        for(int i = 0; i < length && sum <= limit; i++) {
+            final int index = order[i];
+            final double diff = (data[s + index] - mean) * invStd - query[index];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static double sq(double a, double b) {
+        return (a - b) * (a - b);
+    }
+
+    /**
+     * LB_Kim hierarchy: the cost of the first and last three points, each of which must be matched to one of the
+     * first or last three of the other series.
+     */
+    private double lbKim(double[] data, int s, double mean, double invStd, double limit) {
+        final double[] q = query;
+        final int m = length;
+        final double x0 = (data[s] - mean) * invStd;
+        final double y0 = (data[s + m - 1] - mean) * invStd;
+        double lb = sq(x0, q[0]);
+        if(m == 1) {
+            return lb;
+        }
+        lb += sq(y0, q[m - 1]);
+        if(lb > limit || m < 6) {
+            return lb;
+        }
+
+        final double x1 = (data[s + 1] - mean) * invStd;
+        lb += Math.min(sq(x1, q[0]), Math.min(sq(x0, q[1]), sq(x1, q[1])));
+        if(lb > limit) {
+            return lb;
+        }
+        final double y1 = (data[s + m - 2] - mean) * invStd;
+        lb += Math.min(sq(y1, q[m - 1]), Math.min(sq(y0, q[m - 2]), sq(y1, q[m - 2])));
+        if(lb > limit) {
+            return lb;
+        }
+
+        final double x2 = (data[s + 2] - mean) * invStd;
+        lb += Math.min(Math.min(sq(x0, q[2]), sq(x1, q[2])),
+                Math.min(sq(x2, q[2]), Math.min(sq(x2, q[1]), sq(x2, q[0]))));
+        if(lb > limit) {
+            return lb;
+        }
+        final double y2 = (data[s + m - 3] - mean) * invStd;
+        lb += Math.min(Math.min(sq(y0, q[m - 3]), sq(y1, q[m - 3])),
+                Math.min(sq(y2, q[m - 3]), Math.min(sq(y2, q[m - 2]), sq(y2, q[m - 1]))));
+        return lb;
+    }
+
+    /**
+     * LB_Keogh of the subsequence against the envelope of the query, recording the contribution of each index.
+     */
+    private double lbKeoghQuery(double[] data, int s, double mean, double invStd, double[] contributions,
+                                double limit) {
+        Arrays.fill(contributions, 0);
+        double lb = 0;
+        for(int i = 0; i < length && lb <= limit; i++) {
+            final int index = order[i];
+            final double value = (data[s + index] - mean) * invStd;
+            final double diff;
+            if(value > upper[index]) {
+                diff = value - upper[index];
+            } else if(value < lower[index]) {
+                diff = value - lower[index];
+            } else {
+                continue;
+            }
+            contributions[index] = diff * diff;
+            lb += contributions[index];
+        }
+        return lb;
+    }
+
+    /**
+     * LB_Keogh of the query against the envelope of the stream, normalised as the subsequence. The envelope of the
+     * stream covers that of the subsequence alone, so is still a bound.
+     */
+    private double lbKeoghData(double[] dataUpper, double[] dataLower, int s, double mean, double invStd,
+                               double[] contributions, double limit) {
+        Arrays.fill(contributions, 0);
+        double lb = 0;
+        for(int i = 0; i < length && lb <= limit; i++) {
+            final int index = order[i];
+            final double value = query[index];
+            final double u = (dataUpper[s + index] - mean) * invStd;
+            final double l = (dataLower[s + index] - mean) * invStd;
+            final double diff;
+            if(value > u) {
+                diff = value - u;
+            } else if(value < l) {
+                diff = value - l;
+            } else {
+                continue;
+            }
+            contributions[index] = diff * diff;
+            lb += contributions[index];
+        }
+        return lb;
+    }
+
+    /**
+     * DTW between the candidate and the query within the window, abandoned once the cheapest cell of a row plus the
+     * bound on the rest of the path beyond the window exceeds the limit.
+     */
+    private double dtw(double[] candidate, double[] cb, double[] row, double[] prevRow, double limit) {
+        numDistances.increment();
+        final int m = length;
+        double[] curr = row;
+        double[] prev = prevRow;
+        Arrays.fill(curr, Double.POSITIVE_INFINITY);
+        Arrays.fill(prev, Double.POSITIVE_INFINITY);
+        for(int i = 0; i < m; i++) {
+            final int start = Math.max(0, i - width);
+            final int end = Math.min(m - 1, i + width);
+            if(start > 0) {
+                curr[start - 1] = Double.POSITIVE_INFINITY;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            for(int j = start; j <= end; j++) {
+                final double cost = sq(candidate[i], query[j]);
+                final double best;
+                if(i == 0 && j == 0) {
+                    best = 0;
+                } else {
+                    best = Math.min(prev[j], Math.min(j > 0 ? curr[j - 1] : Double.POSITIVE_INFINITY,
+                            j > 0 ? prev[j - 1] : Double.POSITIVE_INFINITY));
+                }
+                curr[j] = best + cost;
+                min = Math.min(min, curr[j]);
+            }
+            final double rest = i + width + 1 < m ? cb[i + width + 1] : 0;
+            if(min + rest > limit) {
+                return Double.POSITIVE_INFINITY;
+            }
+            final double[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[m - 1];
+    }
+
+    @Override public void close() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package tsml.classifiers.distance_based.knn;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the matches found against a brute force search, which z-normalises every subsequence in two passes, finds
+ * its full DTW distance to the query and picks the best greedily outside the exclusion zone, for several numbers of
+ * threads and chunk sizes.
+ */
+public class SubsequenceSearchTest {
+
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    private static double[] randomWalk(Random random, int length) {
+        double[] series = new double[length];
+        for (int i = 1; i < length; i++)
+            series[i] = series[i - 1] + random.nextGaussian();
+        return series;
+    }
+
+    private static double[] zNormalise(double[] series, int start, int length) {
+        double mean = 0;
+        for (int i = 0; i < length; i++)
+            mean += series[start + i];
+        mean /= length;
+        double var = 0;
+        for (int i = 0; i < length; i++)
+            var += (series[start + i] - mean) * (series[start + i] - mean);
+        double std = Math.sqrt(var / length);
+        double[] out = new double[length];
+        for (int i = 0; i < length; i++)
+            out[i] = std > 1e-8 * (1 + Math.abs(mean)) ? (series[start + i] - mean) / std : 0;
+        return out;
+    }
+
+    private static double dtw(double[] a, double[] b, int width) {
+        int m = a.length;
+        double[][] cost = new double[m][m];
+        for (double[] row : cost)
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < m; i++) {
+            for (int j = Math.max(0, i - width); j <= Math.min(m - 1, i + width); j++) {
+                double best;
+                if (i == 0 && j == 0)
+                    best = 0;
+                else
+                    best = Math.min(i > 0 ? cost[i - 1][j] : Double.POSITIVE_INFINITY,
+                            Math.min(j > 0 ? cost[i][j - 1] : Double.POSITIVE_INFINITY,
+                                    i > 0 && j > 0 ? cost[i - 1][j - 1] : Double.POSITIVE_INFINITY));
+                cost[i][j] = best + (a[i] - b[j]) * (a[i] - b[j]);
+            }
+        }
+        return cost[m - 1][m - 1];
+    }
+
+    private static List<SubsequenceSearch.Match> bruteForce(double[] stream, double[] query, int k, double window,
+                                                            int exclusionZone) {
+        int m = query.length;
+        int width = (int) Math.floor(window * m);
+        double[] q = zNormalise(query, 0, m);
+        List<SubsequenceSearch.Match> all = new ArrayList<>();
+        for (int s = 0; s + m <= stream.length; s++)
+            all.add(new SubsequenceSearch.Match(s, dtw(zNormalise(stream, s, m), q, width)));
+        all.sort((a, b) -> a.getDistance() != b.getDistance() ? Double.compare(a.getDistance(), b.getDistance())
+                : Long.compare(a.getStart(), b.getStart()));
+        List<SubsequenceSearch.Match> matches = new ArrayList<>();
+        for (SubsequenceSearch.Match candidate : all) {
+            if (matches.size() == k)
+                break;
+            boolean excluded = false;
+            for (SubsequenceSearch.Match match : matches)
+                excluded |= Math.abs(match.getStart() - candidate.getStart()) < exclusionZone;
+            if (!excluded)
+                matches.add(candidate);
+        }
+        return matches;
+    }
+
+    private static void assertMatchesBruteForce(double window, int k) throws Exception {
+        Random random = new Random(0);
+        double[] stream = randomWalk(random, 3000);
+        int m = 64;
+        // a noisy copy of part of the stream, so there is a clear best match among many close ones
+        double[] query = Arrays.copyOfRange(stream, 1200, 1200 + m);
+        for (int i = 0; i < m; i++)
+            query[i] = 3 * query[i] + 10 + 0.5 * random.nextGaussian();
+
+        List<SubsequenceSearch.Match> expected = bruteForce(stream, query, k, window, m / 2);
+        Assert.assertEquals(k, expected.size());
+
+        for (int numThreads : new int[]{ 1, 2, 4 }) {
+            for (int chunkSize : new int[]{ 50, 333, 100000 }) {
+                try (SubsequenceSearch search = new SubsequenceSearch(query)) {
+                    search.setK(k);
+                    search.setWindow(window);
+                    search.setNumThreads(numThreads);
+                    search.setChunkSize(chunkSize);
+                    // appended in pieces which do not line up with the chunks
+                    for (int i = 0; i < stream.length; i += 97)
+                        search.append(Arrays.copyOfRange(stream, i, Math.min(stream.length, i + 97)));
+                    List<SubsequenceSearch.Match> matches = search.getMatches();
+                    Assert.assertEquals(stream.length - m + 1, search.getNumSubsequences());
+                    Assert.assertEquals(expected.size(), matches.size());
+                    for (int i = 0; i < expected.size(); i++) {
+                        Assert.assertEquals(expected.get(i).getStart(), matches.get(i).getStart());
+                        Assert.assertEquals(expected.get(i).getDistance(), matches.get(i).getDistance(),
+                                RELATIVE_TOLERANCE * Math.max(1, expected.get(i).getDistance()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEDMatchesBruteForce() throws Exception {
+        assertMatchesBruteForce(0, 5);
+    }
+
+    @Test
+    public void testDTWMatchesBruteForce() throws Exception {
+        assertMatchesBruteForce(0.1, 1);
+        assertMatchesBruteForce(0.1, 5);
+    }
+}
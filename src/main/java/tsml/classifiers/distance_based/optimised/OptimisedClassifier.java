@@ -24,8 +24,13 @@ import tsml.data_containers.TimeSeriesInstances;
 import utilities.ClassifierTools;
 import weka.core.Instances;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class OptimisedClassifier extends BaseClassifier implements Checkpointed, ProgressiveBuild, TimedTrain, TimedTest,
                                                                      ContractedTrain, MemoryWatchable,
@@ -59,6 +64,12 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
     private long longestEvaluationTime;
     private TimeSeriesInstances trainData;
     private boolean explore;
+    // the number of evaluations run at once
+    private int numThreads = 1;
+    private transient ExecutorService executor;
+    // evaluations in flight, in the order taken from the agent, with the time each took once done
+    private transient Deque<Evaluation> pendingEvaluations;
+    private transient Deque<Future<Long>> pendingTimes;
 
     public boolean withinTrainContract(long time) {
         return insideTrainTimeLimit(time);
@@ -72,6 +83,18 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
         return IterableBuild.super.isFullyBuilt();
     }
 
+    @Override public void buildClassifier(final TimeSeriesInstances trainData) throws Exception {
+        setTrainData(trainData);
+        try {
+            IterableBuild.super.buildClassifier(trainData);
+        } finally {
+            if(executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
     @Override public void beforeBuild() throws Exception {
         long timeStamp = System.nanoTime();
         memoryWatcher.start();
@@ -98,11 +121,25 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
         }
         runTimer.start(timeStamp);
         
+        if(numThreads > 1 && agent instanceof KnnAgent) {
+            // KnnAgent picks each evaluation (and in patience mode whether to explore or exploit) from the feedback
+            // of the last, so cannot have several in flight
+            getLogger().warning("KnnAgent needs sequential evaluation, ignoring " + numThreads + " threads");
+        }
+        executor = numThreads > 1 && !(agent instanceof KnnAgent) ? Executors.newFixedThreadPool(numThreads) : null;
+        pendingEvaluations = new ArrayDeque<>();
+        pendingTimes = new ArrayDeque<>();
+        
         memoryWatcher.stop();
         runTimer.stop();
     }
 
     @Override public boolean hasNextBuildStep() throws Exception {
+        // evaluations already in flight are always seen through
+        return (pendingEvaluations != null && !pendingEvaluations.isEmpty()) || hasNextEvaluation();
+    }
+    
+    private boolean hasNextEvaluation() {
 
         // x2 on the longest eval time because we need an extra slot of eval time to recompute the results
         // granted this means we end up re-evaluating the best classifier again, but a) some classifiers like knn bare
@@ -110,28 +147,57 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
         // evaluation and eat a million gigs of ram
         return agent.hasNext() && insideTrainTimeLimit(getRunTime() + longestEvaluationTime * 2);
     }
-
-    @Override public void nextBuildStep() throws Exception {
-        runTimer.start();
-        memoryWatcher.stop();
-        
-        final long timeStamp = System.nanoTime();
+    
+    private Evaluation nextEvaluation() {
         final Evaluation evaluation = agent.next();
         if(explore != evaluation.isExplore()) {
             explore = !explore;
             getLogger().info("----");
         }
-        execute(evaluation, trainData);
-        agent.feedback(evaluation);
-        longestEvaluationTime = Math.max(longestEvaluationTime, System.nanoTime() - timeStamp);
+        return evaluation;
+    }
+
+    @Override public void nextBuildStep() throws Exception {
+        runTimer.start();
+        // the memory watcher runs from the first step to the end of the build, as starting and stopping it forces gc
+        memoryWatcher.optionalStart();
+        
+        if(executor == null) {
+            final long timeStamp = System.nanoTime();
+            final Evaluation evaluation = nextEvaluation();
+            execute(evaluation, trainData);
+            agent.feedback(evaluation);
+            longestEvaluationTime = Math.max(longestEvaluationTime, System.nanoTime() - timeStamp);
+        } else {
+            // keep every thread busy with an evaluation, then feed back the oldest. Feedback is in the order the
+            // evaluations were taken from the agent, so an agent deciding on whole rounds of evaluations (e.g.
+            // RacingKnnAgent) makes the same decisions whatever the number of threads
+            trainEstimateTimer.start();
+            while(pendingEvaluations.size() < numThreads && hasNextEvaluation()) {
+                final Evaluation evaluation = nextEvaluation();
+                pendingEvaluations.add(evaluation);
+                pendingTimes.add(executor.submit(() -> evaluate(evaluation, trainData)));
+            }
+            final Evaluation evaluation = pendingEvaluations.poll();
+            final long time = evaluation == null ? 0 : pendingTimes.poll().get();
+            trainEstimateTimer.stop();
+            if(evaluation != null) {
+                agent.feedback(evaluation);
+                longestEvaluationTime = Math.max(longestEvaluationTime, time);
+            }
+        }
         
-        memoryWatcher.stop();
         runTimer.stop();
     }
 
     @Override public void afterBuild() throws Exception {
         runTimer.start();
-        memoryWatcher.start();
+        memoryWatcher.optionalStart();
+        
+        if(executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
         
         final List<Evaluation> bestEvaluations = agent.getBestEvaluations();
         bestEvaluation = RandomUtils.choice(bestEvaluations, getRandom());
@@ -152,11 +218,20 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
     
     private void execute(Evaluation evaluation, TimeSeriesInstances trainData) throws Exception {
         trainEstimateTimer.start();
+        evaluate(evaluation, trainData);
+        trainEstimateTimer.stop();
+    }
+    
+    /**
+     * @return the time taken
+     */
+    private long evaluate(Evaluation evaluation, TimeSeriesInstances trainData) throws Exception {
+        final long timeStamp = System.nanoTime();
         final TSClassifier classifier = evaluation.getClassifier();
         final ClassifierResults results = evaluation.getEvaluator().evaluate(classifier, trainData);
         evaluation.setResults(results);
         getLogger().info(evaluation::toStringVerbose);
-        trainEstimateTimer.stop();
+        return System.nanoTime() - timeStamp;
     }
 
     @Override public double[] distributionForInstance(final TimeSeriesInstance inst) throws Exception {
@@ -178,6 +253,19 @@ public class OptimisedClassifier extends BaseClassifier implements Checkpointed,
         this.agent = agent;
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads the number of evaluations to run at once. The agent is asked for more evaluations while any
+     *                   are in flight, so must not wait on feedback between them. KnnAgent does, so is always
+     *                   evaluated one at a time
+     */
+    public void setNumThreads(final int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public CheckpointConfig getCheckpointConfig() {
         return checkpointConfig;
     }
@@ -0,0 +1,275 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package tsml.classifiers.distance_based.optimised;
+
+import evaluation.evaluators.Evaluator;
+import evaluation.evaluators.InternalEstimateEvaluator;
+import tsml.classifiers.TSClassifier;
+import tsml.classifiers.distance_based.distances.DistanceMeasure;
+import tsml.classifiers.distance_based.distances.dtw.DTW;
+import tsml.classifiers.distance_based.distances.dtw.spaces.DTWDistanceSpace;
+import tsml.classifiers.distance_based.distances.transformed.TransformDistanceMeasure;
+import tsml.classifiers.distance_based.knn.KNN;
+import tsml.classifiers.distance_based.proximity.ExemplarDistanceCache;
+import tsml.classifiers.distance_based.utils.classifiers.configs.Builder;
+import tsml.classifiers.distance_based.utils.classifiers.configs.ClassifierBuilder;
+import tsml.classifiers.distance_based.utils.collections.checks.Checks;
+import tsml.classifiers.distance_based.utils.collections.params.ParamSpaceBuilder;
+import tsml.classifiers.distance_based.utils.collections.params.iteration.AbstractSearch;
+import tsml.classifiers.distance_based.utils.collections.params.iteration.GridSearch;
+import tsml.data_containers.TimeSeriesInstances;
+
+import java.util.*;
+
+/**
+ * Races knns with different parameters by successive rejection. Every candidate param set is evaluated on a small
+ * proportion of the LOOCV neighbourhood, then the best 1 / reductionFactor of the candidates (ties broken at random)
+ * go through to the next round, where their neighbourhoods grow by reductionFactor. Candidates are only given more
+ * neighbours while they remain competitive. The race ends with the round evaluating the full neighbourhood, or as
+ * soon as one candidate remains, which is then given the full neighbourhood.
+ * <p>
+ * All evaluations of a round are handed out before any feedback is needed, so they can run at once (see
+ * OptimisedClassifier.setNumThreads), and the candidates kept depend only on the scores of the whole round. The knns
+ * share an ExemplarDistanceCache, so candidates of the same distance measure share the distances between train
+ * instances: exactly for equal parameters, and across windows for DTW. Within a round, DTW candidates go widest window
+ * first, as a distance is reused by any narrower window still containing its warping path.
+ */
+public class RacingKnnAgent extends BaseAgent {
+
+    public RacingKnnAgent() {
+        setParamSpaceBuilder(new DTWDistanceSpace());
+        setSearch(new GridSearch());
+        setEvaluatorBuilder(InternalEstimateEvaluator::new);
+        paramAgent.setClassifierBuilder((ClassifierBuilder<TSClassifier>) () -> {
+            final KNN classifier = new KNN();
+            classifier.setNeighbourhoodSizeLimit(-1);
+            classifier.setNeighbourhoodSizeLimitProportional(neighbourhoodProportion);
+            classifier.setDistanceCache(distanceCache);
+            classifier.setSeed(getSeed());
+            return classifier;
+        });
+    }
+
+    private final BaseParamAgent paramAgent = new BaseParamAgent();
+    private int maxNumCandidates = -1;
+    private double reductionFactor = 2;
+    // smaller neighbourhoods give too few neighbours per instance to tell candidates apart
+    private double minNeighbourhoodProportion = 0.1;
+    private boolean shareDistances = true;
+    private transient ExemplarDistanceCache distanceCache;
+    // the candidates still in the race, in the order they are evaluated each round
+    private List<Evaluation> racing;
+    // the candidates of this round not yet handed out
+    private LinkedList<Evaluation> remaining;
+    // the number handed out this round awaiting feedback
+    private int numAwaiting;
+    private int round;
+    private double neighbourhoodProportion;
+    // the best candidates at the end of the last round completed
+    private List<Evaluation> leaders;
+
+    @Override public void buildAgent(final TimeSeriesInstances trainData) {
+        super.buildAgent(trainData);
+        distanceCache = shareDistances ? new ExemplarDistanceCache(trainData.numInstances()) : null;
+        copyRandomTo(paramAgent);
+        paramAgent.buildAgent(trainData);
+
+        int numCandidates = paramAgent.getSearch().size();
+        if(maxNumCandidates >= 0) {
+            numCandidates = Math.min(numCandidates, maxNumCandidates);
+        }
+        // enough rounds to whittle the candidates down to one, unless the first neighbourhood would be too small
+        final int numRounds = (int) Math.ceil(Math.log(Math.max(1, numCandidates)) / Math.log(reductionFactor));
+        neighbourhoodProportion = Math.min(1, Math.max(Math.pow(reductionFactor, -numRounds),
+                Math.max(minNeighbourhoodProportion, 1d / Math.max(1, trainData.numInstances() - 1))));
+        round = 0;
+        numAwaiting = 0;
+        leaders = null;
+
+        racing = new ArrayList<>();
+        while(racing.size() < numCandidates && paramAgent.hasNextExplore()) {
+            racing.add(paramAgent.nextExplore());
+        }
+        racing.sort(Comparator.comparingDouble(RacingKnnAgent::getWindow).reversed());
+        remaining = new LinkedList<>(racing);
+        getLogger().info(() -> "round 0: " + racing.size() + " candidates, neighbourhood " + neighbourhoodProportion);
+    }
+
+    // the window of a dtw candidate, 0 otherwise
+    private static double getWindow(Evaluation evaluation) {
+        DistanceMeasure distanceMeasure = getClassifier(evaluation).getDistanceMeasure();
+        if(distanceMeasure instanceof TransformDistanceMeasure) {
+            distanceMeasure = ((TransformDistanceMeasure) distanceMeasure).getDistanceMeasure();
+        }
+        return distanceMeasure instanceof DTW ? ((DTW) distanceMeasure).getWindow() : 0;
+    }
+
+    private static KNN getClassifier(Evaluation evaluation) {
+        final TSClassifier classifier = evaluation.getClassifier();
+        if(!(classifier instanceof KNN)) {
+            throw new IllegalStateException("expected knn");
+        }
+        return (KNN) classifier;
+    }
+
+    @Override public boolean hasNextExplore() {
+        return round == 0 && !remaining.isEmpty();
+    }
+
+    @Override protected Evaluation nextExplore() {
+        numAwaiting++;
+        return remaining.remove(0);
+    }
+
+    @Override public boolean hasNextExploit() {
+        return round > 0 && !remaining.isEmpty();
+    }
+
+    @Override protected Evaluation nextExploit() {
+        numAwaiting++;
+        final Evaluation evaluation = remaining.remove(0);
+        evaluation.setResults(null); // clear the results (do not clear the score!)
+        final KNN classifier = getClassifier(evaluation);
+        classifier.setNeighbourhoodSizeLimitProportional(neighbourhoodProportion);
+        return evaluation;
+    }
+
+    @Override public void feedback(final Evaluation evaluation) {
+        super.feedback(evaluation);
+        // carry on from the neighbourhood so far when evaluated again
+        getClassifier(evaluation).setRebuild(false);
+        numAwaiting--;
+        if(remaining.isEmpty() && numAwaiting == 0) {
+            endRound();
+        }
+    }
+
+    private void endRound() {
+        // ties are broken at random, as the order of the race favours wide windows
+        final List<Evaluation> ranked = new ArrayList<>(racing);
+        Collections.shuffle(ranked, getRandom());
+        ranked.sort(Comparator.comparingDouble(Evaluation::getScore).reversed());
+        final double bestScore = ranked.get(0).getScore();
+        leaders = new ArrayList<>();
+        for(Evaluation evaluation : ranked) {
+            if(evaluation.getScore() == bestScore) {
+                leaders.add(evaluation);
+            }
+        }
+        if(neighbourhoodProportion >= 1) {
+            // evaluated on the full neighbourhood, so the race is over
+            return;
+        }
+
+        final Set<Evaluation> kept = new HashSet<>(ranked.subList(0, (int) Math.ceil(racing.size() / reductionFactor)));
+        racing.removeIf(evaluation -> !kept.contains(evaluation));
+        neighbourhoodProportion = racing.size() == 1 ? 1 : Math.min(1, neighbourhoodProportion * reductionFactor);
+        round++;
+        remaining = new LinkedList<>(racing);
+        getLogger().info(() -> "round " + round + ": " + racing.size() + " candidates, neighbourhood "
+                                       + neighbourhoodProportion);
+    }
+
+    @Override public List<Evaluation> getBestEvaluations() {
+        if(leaders == null) {
+            // stopped within the first round
+            return super.getBestEvaluations();
+        }
+        return new ArrayList<>(leaders);
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public int getMaxNumCandidates() {
+        return maxNumCandidates;
+    }
+
+    /**
+     * @param maxNumCandidates the number of param sets to race, taken from the search in order. -1 for all
+     */
+    public void setMaxNumCandidates(final int maxNumCandidates) {
+        this.maxNumCandidates = maxNumCandidates;
+    }
+
+    public double getReductionFactor() {
+        return reductionFactor;
+    }
+
+    public void setReductionFactor(final double reductionFactor) {
+        if(!(reductionFactor > 1)) {
+            throw new IllegalArgumentException("reduction factor must be greater than 1: " + reductionFactor);
+        }
+        this.reductionFactor = reductionFactor;
+    }
+
+    public double getMinNeighbourhoodProportion() {
+        return minNeighbourhoodProportion;
+    }
+
+    /**
+     * @param minNeighbourhoodProportion the least proportion of the neighbourhood evaluated in the first round
+     */
+    public void setMinNeighbourhoodProportion(final double minNeighbourhoodProportion) {
+        this.minNeighbourhoodProportion = Checks.requireUnitInterval(minNeighbourhoodProportion);
+    }
+
+    public boolean isShareDistances() {
+        return shareDistances;
+    }
+
+    public void setShareDistances(final boolean shareDistances) {
+        this.shareDistances = shareDistances;
+    }
+
+    public ExemplarDistanceCache getDistanceCache() {
+        return distanceCache;
+    }
+
+    public AbstractSearch getSearch() {
+        return paramAgent.getSearch();
+    }
+
+    public void setSearch(final AbstractSearch search) {
+        paramAgent.setSearch(search);
+    }
+
+    public ParamSpaceBuilder getParamSpaceBuilder() {
+        return paramAgent.getParamSpaceBuilder();
+    }
+
+    public void setParamSpaceBuilder(final ParamSpaceBuilder paramSpaceBuilder) {
+        paramAgent.setParamSpaceBuilder(paramSpaceBuilder);
+    }
+
+    public Builder<? extends Evaluator> getEvaluatorBuilder() {
+        return paramAgent.getEvaluatorBuilder();
+    }
+
+    public void setEvaluatorBuilder(Builder<? extends Evaluator> builder) {
+        paramAgent.setEvaluatorBuilder(builder);
+    }
+
+    public ResultsScorer getScorer() {
+        return paramAgent.getScorer();
+    }
+
+    public void setScorer(final ResultsScorer scorer) {
+        paramAgent.setScorer(scorer);
+    }
+}
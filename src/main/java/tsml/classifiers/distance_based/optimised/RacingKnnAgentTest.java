@@ -0,0 +1,52 @@
+package tsml.classifiers.distance_based.optimised;
+
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.Converter;
+
+import java.util.List;
+
+/**
+ * Checks the race picks the same candidates, with the same scores, whatever the number of evaluations run at once.
+ */
+public class RacingKnnAgentTest {
+
+    private static OptimisedClassifier race(TimeSeriesInstances train, int numThreads, boolean shareDistances)
+            throws Exception {
+        RacingKnnAgent agent = new RacingKnnAgent();
+        agent.setMaxNumCandidates(16);
+        agent.setShareDistances(shareDistances);
+        OptimisedClassifier classifier = new OptimisedClassifier();
+        classifier.setSeed(0);
+        classifier.setAgent(agent);
+        classifier.setNumThreads(numThreads);
+        classifier.buildClassifier(train);
+        return classifier;
+    }
+
+    private static void assertSameWinner(OptimisedClassifier expected, OptimisedClassifier actual) {
+        RacingKnnAgent expectedAgent = (RacingKnnAgent) expected.getAgent();
+        RacingKnnAgent actualAgent = (RacingKnnAgent) actual.getAgent();
+        Assert.assertEquals(expectedAgent.getRound(), actualAgent.getRound());
+        List<Evaluation> expectedBest = expectedAgent.getBestEvaluations();
+        List<Evaluation> actualBest = actualAgent.getBestEvaluations();
+        Assert.assertEquals(expectedBest.size(), actualBest.size());
+        for (int i = 0; i < expectedBest.size(); i++) {
+            Assert.assertEquals(expectedBest.get(i).getId(), actualBest.get(i).getId());
+            Assert.assertEquals(expectedBest.get(i).getScore(), actualBest.get(i).getScore(), 0);
+        }
+        Assert.assertArrayEquals(expected.getTrainResults().getPredClassValsAsArray(),
+                actual.getTrainResults().getPredClassValsAsArray(), 0);
+    }
+
+    @Test
+    public void testSameWinnerForAnyThreads() throws Exception {
+        TimeSeriesInstances train = Converter.fromArff(DatasetLoading.sampleItalyPowerDemand(0)[0]);
+        OptimisedClassifier expected = race(train, 1, true);
+        Assert.assertTrue(((RacingKnnAgent) expected.getAgent()).getRound() > 0);
+        assertSameWinner(expected, race(train, 3, true));
+        assertSameWinner(expected, race(train, 4, false));
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tsml.classifiers.distance_based.proximity;
+
+import tsml.classifiers.distance_based.distances.DistanceMeasure;
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.classifiers.distance_based.distances.transformed.TransformDistanceMeasure;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.transformers.Derivative;
+import tsml.transformers.Transformer;
+import weka.core.Utils;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Distances between exemplars and instances of the train data, shared by the candidate splits of a proximity tree.
+ * <p>
+ * Distances are stored in a row per distance measure and exemplar, indexed by the position of instances in the train
+ * data. A candidate split using a distance measure with the same parameters and exemplar as an earlier candidate, at
+ * the same node or an ancestor, reuses the stored distances rather than computing them again. DTW rows (with or
+ * without a derivative transform) are shared across windows: each distance is stored with the smallest window
+ * containing an optimal warping path, so it is reused for any window between that and the window it was found with.
+ * Derivatives of the train instances are computed once for all derivative distance measures. KNNs tuned together
+ * also share their LOOCV distances through a cache (see KNN.setDistanceCache).
+ * <p>
+ * Stored distances are the distances computed, so using the cache does not change the splits chosen. Distances
+ * abandoned at a limit are not stored. Once maxDistances distances are stored, new rows are no longer kept. Rows and
+ * derivatives are also reserved from a MemoryBudget, which may evict the cache to make room for other allocations.
+ * Safe to use from multiple threads.
+ */
+public class ExemplarDistanceCache implements MemoryBudget.Evictable {
+
+    public static final long DEFAULT_MAX_DISTANCES = 10000000;
+
+    // margin so rounding in the window bounds of DTW cannot place a path cell outside a window
+    private static final double WINDOW_MARGIN = 1e-9;
+    // approximate size of an array header
+    private static final long ARRAY_BYTES = 16;
+
+    private final int numInstances;
+    private final long maxDistances;
+    private final AtomicLong numDistances = new AtomicLong();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Row>> rows = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<TimeSeriesInstance> derivatives;
+    private final MemoryBudget memoryBudget;
+
+    public ExemplarDistanceCache(int numInstances) {
+        this(numInstances, DEFAULT_MAX_DISTANCES);
+    }
+
+    public ExemplarDistanceCache(int numInstances, long maxDistances) {
+        this(numInstances, maxDistances, new MemoryBudget());
+    }
+
+    /**
+     * @param numInstances the number of train instances
+     * @param maxDistances the most distances to store
+     * @param memoryBudget the budget to reserve rows and derivatives from. The cache is added as evictable, so
+     *                     discard it from the budget once finished with
+     */
+    public ExemplarDistanceCache(int numInstances, long maxDistances, MemoryBudget memoryBudget) {
+        this.numInstances = numInstances;
+        this.maxDistances = maxDistances;
+        this.memoryBudget = Objects.requireNonNull(memoryBudget);
+        derivatives = new AtomicReferenceArray<>(numInstances);
+        memoryBudget.addEvictable(this);
+    }
+
+    /**
+     * Get a view of the cache for a distance measure. DTW measures record path windows until released.
+     * @param distanceMeasure the distance measure of a split, not shared with any other split
+     * @return the cached distance measure, or null if distances from the measure cannot be cached
+     */
+    public CachedDistanceMeasure cache(DistanceMeasure distanceMeasure) {
+        DistanceMeasure base = distanceMeasure;
+        boolean derivative = false;
+        if(distanceMeasure instanceof TransformDistanceMeasure) {
+            final Transformer transformer = ((TransformDistanceMeasure) distanceMeasure).getTransformer();
+            if(transformer == null || !transformer.getClass().equals(Derivative.class)) {
+                // other transforms may depend on state
+                return null;
+            }
+            base = ((TransformDistanceMeasure) distanceMeasure).getDistanceMeasure();
+            derivative = true;
+        }
+        String key = (derivative ? "Derivative_" : "") + base.getClass().getName();
+        DTWDistance dtw = null;
+        if(base.getClass().equals(DTWDistance.class)) {
+            // share dtw rows across windows
+            dtw = (DTWDistance) base;
+            dtw.setRecordPathWindow(true);
+        } else {
+            key += " " + Utils.joinOptions(base.getOptions());
+        }
+        return new CachedDistanceMeasure(key, distanceMeasure, derivative ? base : null, dtw);
+    }
+
+    /**
+     * @return the number of distances stored
+     */
+    public long size() {
+        return numDistances.get();
+    }
+
+    /**
+     * Drop all stored distances and derivatives, releasing their memory from the budget. The cache can still be used.
+     */
+    @Override public synchronized void evict() {
+        for(ConcurrentHashMap<Integer, Row> measureRows : rows.values()) {
+            for(Row row : measureRows.values()) {
+                numDistances.addAndGet(-row.size());
+                memoryBudget.release(row.bytes());
+            }
+        }
+        rows.clear();
+        for(int i = 0; i < numInstances; i++) {
+            final TimeSeriesInstance transformed = derivatives.getAndSet(i, null);
+            if(transformed != null) {
+                memoryBudget.release(bytes(transformed));
+            }
+        }
+    }
+
+    /**
+     * @return the approximate memory held by the values of an instance
+     */
+    static long bytes(TimeSeriesInstance inst) {
+        return inst.getNumDimensions() * (ARRAY_BYTES + (long) inst.getMaxLength() * Double.BYTES);
+    }
+
+    private TimeSeriesInstance derivative(Transformer transformer, int index, TimeSeriesInstance inst) {
+        TimeSeriesInstance transformed = derivatives.get(index);
+        if(transformed == null) {
+            transformed = transformer.transform(inst);
+            synchronized(this) {
+                if(memoryBudget.tryReserve(bytes(transformed))
+                           && !derivatives.compareAndSet(index, null, transformed)) {
+                    memoryBudget.release(bytes(transformed));
+                }
+            }
+        }
+        return transformed;
+    }
+
+    private Row row(String key, int exemplarIndex, boolean windowed) {
+        ConcurrentHashMap<Integer, Row> measureRows = rows.get(key);
+        Row row = measureRows == null ? null : measureRows.get(exemplarIndex);
+        if(row == null) {
+            final int size = Row.size(numInstances, windowed);
+            final long bytes = Row.bytes(numInstances, windowed);
+            if(numDistances.get() + size > maxDistances || memoryBudget.getRemaining() < bytes) {
+                // full, do not keep the row
+                return null;
+            }
+            // synchronized with eviction so the distances and memory reserved stay in step with the rows held
+            synchronized(this) {
+                measureRows = rows.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+                row = measureRows.get(exemplarIndex);
+                if(row == null) {
+                    if(numDistances.get() + size > maxDistances || !memoryBudget.tryReserve(bytes)) {
+                        return null;
+                    }
+                    numDistances.addAndGet(size);
+                    measureRows.put(exemplarIndex, row = new Row(numInstances, windowed));
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * A distance measure of a split with distances between train instances stored in the cache.
+     */
+    public class CachedDistanceMeasure {
+        private final String key;
+        private final DistanceMeasure distanceMeasure;
+        // the measure applied after the derivative transform, null if not transforming
+        private final DistanceMeasure derivativeMeasure;
+        // the dtw measure if sharing rows across windows, null otherwise
+        private final DTWDistance dtw;
+
+        private CachedDistanceMeasure(String key, DistanceMeasure distanceMeasure, DistanceMeasure derivativeMeasure,
+                DTWDistance dtw) {
+            this.key = key;
+            this.distanceMeasure = Objects.requireNonNull(distanceMeasure);
+            this.derivativeMeasure = derivativeMeasure;
+            this.dtw = dtw;
+        }
+
+        /**
+         * Find the distance between an exemplar and an instance of the train data, as
+         * distanceMeasure.distance(exemplar, inst, limit).
+         * @param exemplarIndex index of the exemplar in the train data
+         * @param exemplar the exemplar
+         * @param instIndex index of the instance in the train data
+         * @param inst the instance
+         * @param limit the limit to abandon the distance computation at
+         * @return the distance
+         */
+        public double distance(int exemplarIndex, TimeSeriesInstance exemplar, int instIndex,
+                TimeSeriesInstance inst, double limit) {
+            final double window = dtw == null ? Double.NaN : dtw.getWindow();
+            final Row row = row(key, exemplarIndex, dtw != null);
+            if(row != null) {
+                final double distance = row.get(instIndex, window);
+                if(!Double.isNaN(distance)) {
+                    return distance;
+                }
+            }
+            final double distance;
+            if(derivativeMeasure != null) {
+                final Transformer transformer = ((TransformDistanceMeasure) distanceMeasure).getTransformer();
+                distance = derivativeMeasure.distance(derivative(transformer, exemplarIndex, exemplar),
+                        derivative(transformer, instIndex, inst), limit);
+            } else {
+                distance = distanceMeasure.distance(exemplar, inst, limit);
+            }
+            if(row != null && (distance <= limit || limit == Double.POSITIVE_INFINITY)
+                       && !Double.isInfinite(distance)) {
+                row.put(instIndex, distance, window, dtw == null ? Double.NaN : dtw.getPathWindow());
+            }
+            return distance;
+        }
+
+        /**
+         * Stop recording path windows in the distance measure once distances are no longer being cached.
+         */
+        public void release() {
+            if(dtw != null) {
+                dtw.setRecordPathWindow(false);
+            }
+        }
+    }
+
+    private static class Row {
+        private final double[] distances;
+        // the window each distance was found with and the smallest window containing its path, if windowed
+        private final double[] windows;
+        private final double[] pathWindows;
+
+        private Row(int numInstances, boolean windowed) {
+            distances = new double[numInstances];
+            Arrays.fill(distances, Double.NaN);
+            if(windowed) {
+                windows = new double[numInstances];
+                pathWindows = new double[numInstances];
+            } else {
+                windows = null;
+                pathWindows = null;
+            }
+        }
+
+        private static int size(int numInstances, boolean windowed) {
+            return windowed ? numInstances * 3 : numInstances;
+        }
+
+        private static long bytes(int numInstances, boolean windowed) {
+            return size(numInstances, windowed) * (long) Double.BYTES + (windowed ? 3 : 1) * ARRAY_BYTES;
+        }
+
+        private int size() {
+            return size(distances.length, windows != null);
+        }
+
+        private long bytes() {
+            return bytes(distances.length, windows != null);
+        }
+
+        private synchronized double get(int index, double window) {
+            final double distance = distances[index];
+            if(windows == null || Double.isNaN(distance)) {
+                return distance;
+            }
+            if(window == windows[index] || (window <= windows[index] && window > pathWindows[index] + WINDOW_MARGIN)) {
+                return distance;
+            }
+            return Double.NaN;
+        }
+
+        private synchronized void put(int index, double distance, double window, double pathWindow) {
+            if(windows != null) {
+                if(Double.isNaN(pathWindow)) {
+                    return;
+                }
+                windows[index] = window;
+                pathWindows[index] = pathWindow;
+            }
+            distances[index] = distance;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package tsml.classifiers.distance_based.proximity;
+
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.classifiers.distance_based.distances.DistanceMeasure;
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.classifiers.distance_based.distances.dtw.spaces.DDTWDistanceFullWindowSpace;
+import tsml.classifiers.distance_based.distances.dtw.spaces.DDTWDistanceRestrictedContinuousSpace;
+import tsml.classifiers.distance_based.distances.dtw.spaces.DTWDistanceFullWindowSpace;
+import tsml.classifiers.distance_based.distances.dtw.spaces.DTWDistanceRestrictedContinuousSpace;
+import tsml.classifiers.distance_based.distances.transformed.BaseTransformDistanceMeasure;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
+import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.Converter;
+import tsml.transformers.Derivative;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.function.DoubleFunction;
+
+/**
+ * Checks distances from the cache are those the distance measure gives, including DTW distances reused across
+ * windows, and that proximity trees built with the cache have the same splits and predictions as those built without.
+ */
+public class ExemplarDistanceCacheTest {
+
+    // visited out of order, so distances are found with both wider and narrower windows than they are reused for
+    private static final double[] WINDOWS = { 1, 0.1, 0.5, 0, 0.25, 1, 0.05, 0.75, 0.1 };
+
+    private static TimeSeriesInstances italyPowerDemand() throws Exception {
+        return Converter.fromArff(DatasetLoading.sampleItalyPowerDemand(0)[0]);
+    }
+
+    private static DTWDistance dtw(double window) {
+        DTWDistance dtw = new DTWDistance();
+        dtw.setWindow(window);
+        return dtw;
+    }
+
+    private static DistanceMeasure ddtw(double window) {
+        return new BaseTransformDistanceMeasure("DDTWDistance", new Derivative(), dtw(window));
+    }
+
+    private static void assertMatchesDistanceMeasure(DoubleFunction<DistanceMeasure> measure,
+            MemoryBudget memoryBudget) throws Exception {
+        TimeSeriesInstances data = italyPowerDemand();
+        ExemplarDistanceCache cache = new ExemplarDistanceCache(data.numInstances(),
+                ExemplarDistanceCache.DEFAULT_MAX_DISTANCES, memoryBudget);
+        int[] exemplars = { 0, 7, 33 };
+        for (double window : WINDOWS) {
+            DistanceMeasure cached = measure.apply(window);
+            cached.buildDistanceMeasure(data);
+            ExemplarDistanceCache.CachedDistanceMeasure cachedDistanceMeasure = cache.cache(cached);
+            Assert.assertNotNull(cachedDistanceMeasure);
+            DistanceMeasure direct = measure.apply(window);
+            direct.buildDistanceMeasure(data);
+            for (int exemplar : exemplars) {
+                for (int i = 0; i < data.numInstances(); i++) {
+                    double expected = direct.distance(data.get(exemplar), data.get(i));
+                    Assert.assertEquals(expected, cachedDistanceMeasure.distance(exemplar, data.get(exemplar), i,
+                            data.get(i), Double.POSITIVE_INFINITY), 0);
+                    // a distance abandoned at a limit is past the limit either way
+                    double limit = expected * 0.5;
+                    double abandoned = cachedDistanceMeasure.distance(exemplar, data.get(exemplar), i, data.get(i),
+                            limit);
+                    Assert.assertTrue(expected == 0 ? abandoned == 0 : abandoned > limit);
+                }
+            }
+            cachedDistanceMeasure.release();
+        }
+        Assert.assertTrue(!memoryBudget.isLimited() || memoryBudget.getReserved() <= memoryBudget.getLimit());
+
+        // the cache can be used again once evicted
+        cache.evict();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, memoryBudget.getReserved());
+        ExemplarDistanceCache.CachedDistanceMeasure cachedDistanceMeasure = cache.cache(measure.apply(0.2));
+        Assert.assertEquals(measure.apply(0.2).distance(data.get(0), data.get(1)),
+                cachedDistanceMeasure.distance(0, data.get(0), 1, data.get(1), Double.POSITIVE_INFINITY), 0);
+    }
+
+    @Test
+    public void testDTWSharedAcrossWindows() throws Exception {
+        assertMatchesDistanceMeasure(ExemplarDistanceCacheTest::dtw, new MemoryBudget());
+    }
+
+    @Test
+    public void testDerivativeDTWSharedAcrossWindows() throws Exception {
+        assertMatchesDistanceMeasure(ExemplarDistanceCacheTest::ddtw, new MemoryBudget());
+    }
+
+    @Test
+    public void testWithinMemoryBudget() throws Exception {
+        // room for a few rows only
+        assertMatchesDistanceMeasure(ExemplarDistanceCacheTest::ddtw, new MemoryBudget(5000));
+        assertMatchesDistanceMeasure(ExemplarDistanceCacheTest::dtw, new MemoryBudget(0));
+    }
+
+    private static ProximityTree buildTree(String config, boolean cacheDistances, boolean earlyAbandon, int seed,
+            Instances train) throws Exception {
+        ProximityTree tree = ProximityTree.CONFIGS.get(config).build();
+        tree.setSeed(seed);
+        tree.setCacheDistances(cacheDistances);
+        tree.setEarlyAbandonDistances(earlyAbandon);
+        tree.setEarlyExemplarCheck(earlyAbandon);
+        if (config.equals("PT_R10")) {
+            // dtw only, so most splits can reuse the distances of another window
+            tree.setDistanceMeasureSpaceBuilders(Arrays.asList(new DTWDistanceFullWindowSpace(),
+                    new DTWDistanceRestrictedContinuousSpace(), new DDTWDistanceFullWindowSpace(),
+                    new DDTWDistanceRestrictedContinuousSpace()));
+        }
+        tree.buildClassifier(train);
+        return tree;
+    }
+
+    @Test
+    public void testSameTree() throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        for (String config : new String[]{ "PT_R5", "PT_R10" }) {
+            for (boolean earlyAbandon : new boolean[]{ false, true }) {
+                for (int seed = 0; seed < 3; seed++) {
+                    ProximityTree expected = buildTree(config, false, earlyAbandon, seed, data[0]);
+                    ProximityTree actual = buildTree(config, true, earlyAbandon, seed, data[0]);
+                    // the splits, their distance measures and partitions
+                    Assert.assertEquals(expected.toString(), actual.toString());
+                    for (int i = 0; i < data[1].numInstances(); i++)
+                        Assert.assertArrayEquals(expected.distributionForInstance(data[1].get(i)),
+                                actual.distributionForInstance(data[1].get(i)), 0);
+                }
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@ import evaluation.evaluators.Evaluator;
 import evaluation.evaluators.OutOfBagEvaluator;
 import evaluation.storage.ClassifierResults;
 import experiments.data.DatasetLoading;
+import tsml.classifiers.MemoryContractable;
+import tsml.classifiers.MultiThreadable;
 import tsml.classifiers.TrainEstimateTimeable;
 import tsml.classifiers.distance_based.utils.classifiers.*;
 import tsml.classifiers.distance_based.utils.classifiers.checkpointing.CheckpointConfig;
@@ -33,6 +35,7 @@ import tsml.classifiers.distance_based.utils.classifiers.contracting.ContractedT
 import tsml.classifiers.distance_based.utils.classifiers.contracting.ContractedTrain;
 import tsml.classifiers.distance_based.utils.system.logging.LogUtils;
 import tsml.classifiers.distance_based.utils.classifiers.results.ResultUtils;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatchable;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatcher;
 import tsml.classifiers.distance_based.utils.system.timing.StopWatch;
@@ -52,7 +55,8 @@ import static utilities.Utilities.argMax;
  * Contributors: goastler
  */
 public class ProximityForest extends BaseClassifier implements ContractedTrain, ContractedTest, TrainEstimateTimeable,
-                                                                       Checkpointed, MemoryWatchable {
+                                                                       Checkpointed, MemoryWatchable,
+                                                                       MemoryContractable, MultiThreadable {
 
     public static void main(String[] args) throws Exception {
 ////        Thread.sleep(10000);
@@ -136,6 +140,8 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
     private List<ClassifierResults> treeTrainResults;
     // the number of trees
     private int numTreeLimit;
+    // the number of threads each tree is built with
+    private int numThreads = 1;
     // the train time limit / contract
     private long trainTimeLimit;
     // the test time limit / contract
@@ -148,6 +154,12 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
     private final MemoryWatcher memoryWatcher = new MemoryWatcher();
     // the longest tree build time for predicting train time requirements
     private long longestTrainStageTime;
+    // the memory limit / contract on the heap in use
+    private long memoryLimit = -1;
+    // the most memory held by a tree for predicting memory requirements
+    private long largestTrainStageMemory;
+    // the memory left in the contract for this build, shared with the trees' distance caches
+    private transient MemoryBudget memoryBudget;
     // the method of setting the config of the trees
     private Builder<ProximityTree> proximityTreeBuilder;
     // checkpoint config
@@ -200,6 +212,7 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
                 treeTrainResults = new ArrayList<>();
                 // zero tree build time so the first tree build will always set the bar
                 longestTrainStageTime = 0;
+                largestTrainStageMemory = 0;
                 // init the running train estimate variables if using OOB
                 if(estimateOwnPerformance && trainEstimateMethod.equals(TrainEstimateMethod.OOB)) {
                     trainEstimatePredictionTimes = new long[trainData.numInstances()];
@@ -254,12 +267,18 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
             LogUtils.logTimeContract(runTimer.elapsedTime(), trainTimeLimit, getLogger(), "train");
             getLogger().info("cross validation finished, acc " + trainResults.getAcc());
         }
+        // the trees already built are held in the heap in use, so only the remainder of the contract is available
+        long heapInUse = memoryLimit < 0 ? 0 : MemoryBudget.usedHeapAfterGc();
+        memoryBudget = memoryLimit < 0 ? new MemoryBudget() : new MemoryBudget(Math.max(0, memoryLimit - heapInUse));
         while(
                 // there's remaining trees to be built
                 insideNumTreeLimit()
                 &&
                 // and there's remaining time left to build more trees
                 insideTrainTimeLimit(runTimer.elapsedTime() + longestTrainStageTime)
+                &&
+                // and there's room for another tree as large as the largest so far
+                reserveTrainStageMemory()
         ) {
             // reset the tree build timer
             trainStageTimer.resetAndStart();
@@ -268,6 +287,8 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
             final ProximityTree tree = proximityTreeBuilder.build();
             final int treeSeed = rand.nextInt();
             tree.setSeed(treeSeed);
+            tree.setMemoryBudget(memoryBudget);
+            tree.enableMultiThreading(numThreads);
             // setup the constituent
             trees.add(tree);
             // estimate the performance of the tree
@@ -304,6 +325,16 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
             getLogger().info(() -> "building tree " + treeIndex);
             tree.setRebuild(true);
             tree.buildClassifier(trainData);
+            if(memoryBudget.isLimited()) {
+                // swap the memory reserved for the tree for the memory it holds. The heap is measured once per
+                // tree, so the heap after one tree is the heap before the next
+                final long heapAfterTree = MemoryBudget.usedHeapAfterGc();
+                final long treeMemory = Math.max(0, heapAfterTree - heapInUse);
+                heapInUse = heapAfterTree;
+                memoryBudget.release(largestTrainStageMemory);
+                memoryBudget.account(treeMemory);
+                largestTrainStageMemory = Math.max(largestTrainStageMemory, treeMemory);
+            }
             // tree fully built
             trainStageTimer.stop();
             workDone = true;
@@ -400,6 +431,26 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
         return !hasNumTreeLimit() || trees.size() < numTreeLimit;
     }
 
+    private boolean reserveTrainStageMemory() {
+        if(memoryBudget.reserve(largestTrainStageMemory)) {
+            return true;
+        }
+        getLogger().info(() -> "memory contract reached with " + trees.size() + " trees");
+        return false;
+    }
+
+    @Override public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Limit the heap in use while building. Trees are built until another tree as large as the largest so far would
+     * exceed the limit, and the trees' distance caches keep to the memory remaining.
+     */
+    @Override public void setMemoryLimit(final DataUnit unit, final long amount) {
+        memoryLimit = MemoryContractable.toBytes(unit, amount);
+    }
+
     public boolean hasNumTreeLimit() {
         return numTreeLimit > 0;
     }
@@ -412,6 +463,15 @@ public class ProximityForest extends BaseClassifier implements ContractedTrain,
         this.numTreeLimit = numTreeLimit;
     }
 
+    /**
+     * Build each tree with several threads, see ProximityTree.enableMultiThreading. Trees are still built one at a
+     * time.
+     * @param numThreads
+     */
+    @Override public void enableMultiThreading(final int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public Builder<ProximityTree> getProximityTreeFactory() {
         return proximityTreeBuilder;
     }
@@ -20,6 +20,7 @@ package tsml.classifiers.distance_based.proximity;
 import com.google.common.collect.Lists;
 import experiments.data.DatasetLoading;
 import org.junit.Assert;
+import tsml.classifiers.MultiThreadable;
 import tsml.classifiers.distance_based.distances.DistanceMeasure;
 import tsml.classifiers.distance_based.distances.IndependentDistanceMeasure;
 import tsml.classifiers.distance_based.distances.dtw.spaces.*;
@@ -51,6 +52,7 @@ import tsml.classifiers.distance_based.utils.classifiers.results.ResultUtils;
 import tsml.classifiers.distance_based.utils.stats.scoring.*;
 import tsml.classifiers.distance_based.utils.strings.StrUtils;
 import tsml.classifiers.distance_based.utils.system.logging.LogUtils;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryBudget;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatchable;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatcher;
 import tsml.classifiers.distance_based.utils.system.random.RandomUtils;
@@ -66,6 +68,10 @@ import utilities.ClassifierTools;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -76,7 +82,8 @@ import static tsml.classifiers.distance_based.utils.collections.checks.Checks.re
  * <p>
  * Contributors: goastler
  */
-public class ProximityTree extends BaseClassifier implements ContractedTest, ContractedTrain, Checkpointed, MemoryWatchable {
+public class ProximityTree extends BaseClassifier implements ContractedTest, ContractedTrain, Checkpointed, MemoryWatchable,
+                                                                      MultiThreadable {
 
     public static void main(String[] args) throws Exception {
 //        System.out.println(CONFIGS);
@@ -133,6 +140,7 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                         pt.setDistanceMode(DistanceMode.DEPENDENT);
                         pt.setDimensionSamplingMode(DimensionSamplingMode.SINGLE);
                         pt.setCacheTransforms(false);
+                        pt.setCacheDistances(false);
                 });
         
         configs.add("PT_R5", "5 random splits per node", "PT_R1", pt -> pt.setR(5));
@@ -173,6 +181,8 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
     private final MemoryWatcher memoryWatcher = new MemoryWatcher();
     // the tree of splits
     private Tree<Split> tree;
+    // the data the tree is built from, splits hold the indices of their data in this
+    private TimeSeriesInstances trainData;
     // the train time limit / contract
     private long trainTimeLimit;
     // the test time limit / contract
@@ -197,8 +207,19 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
     private boolean earlyExemplarCheck;
     // enhanced early abandon distance computation via ordering partition examination to hit the most likely closest exemplar sooner
     private boolean partitionExaminationReordering;
-    // cache certain transformers to avoid repetition
+    // cache certain transformers to avoid repetition, shared between the threads building splits
     private Map<Transformer, CachedTransformer> transformerCache;
+    // the memory reserved for the transforms cached while building
+    private transient long transformerCacheBytes;
+    // whether to share exemplar distances between splits
+    private boolean cacheDistances;
+    // the exemplar distances shared between splits while building
+    private transient ExemplarDistanceCache distanceCache;
+    // the memory the distance cache may use, null for no limit
+    private transient MemoryBudget memoryBudget;
+    // the number of threads to build nodes and candidate splits with
+    private int numThreads = 1;
+    private transient ExecutorService executor;
 
     public DistanceMode getDistanceMode() {
         return distanceMode;
@@ -248,20 +269,63 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
 
     public void setCacheTransforms(final boolean cacheTransforms) {
         if(cacheTransforms) {
-            transformerCache = new HashMap<>();
+            transformerCache = new ConcurrentHashMap<>();
         } else {
             transformerCache = null;
         }
     }
 
     /**
-     * Set the cache to an external cache
+     * Set the cache to an external cache, which must be thread safe if building with multiple threads
      * @param cache
      */
     public void setCacheTransforms(final Map<Transformer, CachedTransformer> cache) {
         transformerCache = cache;
     }
 
+    public boolean isCacheDistances() {
+        return cacheDistances;
+    }
+
+    /**
+     * Share distances between exemplars and train instances across splits while building, see
+     * ExemplarDistanceCache. This does not change the tree built, but holds up to
+     * ExemplarDistanceCache.DEFAULT_MAX_DISTANCES distances (within the memory budget) per tree being built, so is
+     * off by default and in the configs. Worth enabling where time rather than memory is short, particularly with
+     * DTW distance measures over many windows, whose distances are shared across windows.
+     * @param cacheDistances
+     */
+    public void setCacheDistances(final boolean cacheDistances) {
+        this.cacheDistances = cacheDistances;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        if(memoryBudget == null) {
+            memoryBudget = new MemoryBudget();
+        }
+        return memoryBudget;
+    }
+
+    /**
+     * Reserve the memory of the distance and transform caches from a budget, e.g. one shared by the trees of a forest.
+     * Distances and transforms which do not fit in the budget are computed as needed instead. The reservations are
+     * released once built, as the budget of a forest accounts for the memory each tree holds as a whole.
+     * @param memoryBudget the budget, or null for no limit
+     */
+    public void setMemoryBudget(final MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Build nodes and their r candidate splits concurrently. Each node is given its own random source seeded from
+     * its parent's, so the tree built is the same for any number of threads above 1 but differs from a single
+     * threaded build.
+     * @param numThreads
+     */
+    @Override public void enableMultiThreading(final int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public enum DimensionSamplingMode {
         SINGLE, // randomly pick a single dimension, discarding others
         SUBSET, // randomly pick a subset of dimensions (between 1 and all dimensions) and discard others
@@ -377,10 +441,16 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 longestTrainStageTime = 0;
                 if(isCacheTransforms()) {
                     // clear out any old cached versions
-                    transformerCache = new HashMap<>();
+                    transformerCache = new ConcurrentHashMap<>();
                 }
+                this.trainData = trainData;
                 // setup the root node
-                final TreeNode<Split> root = new BaseTreeNode<>(new Split(trainData, new IndexList(trainData.numInstances())), null);
+                final int[] dataIndices = new int[trainData.numInstances()];
+                for(int i = 0; i < dataIndices.length; i++) {
+                    dataIndices[i] = i;
+                }
+                final Split rootSplit = numThreads > 1 ? new Split(dataIndices, rand.nextLong()) : new Split(dataIndices);
+                final TreeNode<Split> root = new BaseTreeNode<>(rootSplit, null);
                 // add the root node to the tree
                 tree.setRoot(root);
                 // add the root node to the build queue
@@ -398,35 +468,61 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
         boolean workDone = false;
         // maintain a timer for how long nodes take to build
         final StopWatch trainStageTimer = new StopWatch();
-        while(
-                // there's remaining nodes to be built
-                !nodeBuildQueue.isEmpty()
-                &&
-                // there is enough time for another split to be built
-                insideTrainTimeLimit( runTimer.elapsedTime() + longestTrainStageTime)
-        ) {
-            // time how long it takes to build the node
-            trainStageTimer.resetAndStart();
-            // get the next node to be built
-            final TreeNode<Split> node = nodeBuildQueue.removeFirst();
-            // partition the data at the node
-            Split split = node.getValue();
-            // find the best of R partitioning attempts
-            split = buildSplit(split);
-            node.setValue(split);
-            // for each partition of data build a child node
-            final List<TreeNode<Split>> children = buildChildNodes(node);
-            // add the child nodes to the build queue
-            enqueueNodes(children);
-            // done building this node
-            trainStageTimer.stop();
-            workDone = true;
-            // checkpoint if necessary
-            saveCheckpoint();
-            // update the train timer
-            LogUtils.logTimeContract(runTimer.elapsedTime(), trainTimeLimit, getLogger(), "train");
-            // calculate the longest time taken to build a node given
-            longestTrainStageTime = Math.max(longestTrainStageTime, trainStageTimer.elapsedTime());
+        if(cacheDistances) {
+            distanceCache = new ExemplarDistanceCache(trainData.numInstances(),
+                    ExemplarDistanceCache.DEFAULT_MAX_DISTANCES, getMemoryBudget());
+        }
+        if(numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
+        }
+        try {
+            while(
+                    // there's remaining nodes to be built
+                    !nodeBuildQueue.isEmpty()
+                    &&
+                    // there is enough time for another split to be built
+                    insideTrainTimeLimit( runTimer.elapsedTime() + longestTrainStageTime)
+            ) {
+                // time how long it takes to build the node
+                trainStageTimer.resetAndStart();
+                if(executor != null) {
+                    // build several nodes at once
+                    buildNodesConcurrently();
+                } else {
+                    // get the next node to be built
+                    final TreeNode<Split> node = nodeBuildQueue.removeFirst();
+                    // partition the data at the node
+                    Split split = node.getValue();
+                    // find the best of R partitioning attempts
+                    split = buildSplit(split);
+                    node.setValue(split);
+                    // for each partition of data build a child node
+                    final List<TreeNode<Split>> children = buildChildNodes(node, null);
+                    // add the child nodes to the build queue
+                    enqueueNodes(children);
+                }
+                // done building this node
+                trainStageTimer.stop();
+                workDone = true;
+                // checkpoint if necessary
+                saveCheckpoint();
+                // update the train timer
+                LogUtils.logTimeContract(runTimer.elapsedTime(), trainTimeLimit, getLogger(), "train");
+                // calculate the longest time taken to build a node given
+                longestTrainStageTime = Math.max(longestTrainStageTime, trainStageTimer.elapsedTime());
+            }
+        } finally {
+            // release the distances and threads, these are rebuilt if building is resumed
+            if(distanceCache != null) {
+                getMemoryBudget().discard(distanceCache);
+                distanceCache = null;
+            }
+            getMemoryBudget().release(transformerCacheBytes);
+            transformerCacheBytes = 0;
+            if(executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
         }
         // stop resource monitoring
         memoryWatcher.stop();
@@ -450,21 +546,68 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
      * setup the child nodes given the parent node
      *
      * @param parent
+     * @param seeds source of seeds for a random source per child, or null to use the tree's random source
      * @return
      */
-    private List<TreeNode<Split>> buildChildNodes(TreeNode<Split> parent) {
+    private List<TreeNode<Split>> buildChildNodes(TreeNode<Split> parent, Random seeds) {
         final Split split = parent.getValue();
         List<TreeNode<Split>> children = new ArrayList<>(split.numPartitions());
         for(int i = 0; i < split.numPartitions(); i++) {
-            final TimeSeriesInstances data = split.getPartitionData(i);
-            final List<Integer> dataIndicesInTrainData = split.getPartitionDataIndicesInTrainData(i);
-            final Split child = new Split(data, dataIndicesInTrainData);
+            final int[] dataIndices = split.getPartitionDataIndices(i);
+            final Split child = seeds == null ? new Split(dataIndices) : new Split(dataIndices, seeds.nextLong());
             children.add(new BaseTreeNode<>(child, parent));
         }
 
         return children;
     }
 
+    /**
+     * Build nodes from the front of the build queue concurrently, taking enough nodes to give each thread a candidate
+     * split to build. Each node uses its own random source, so the tree built does not depend on how many nodes are
+     * built at once.
+     *
+     * @throws Exception
+     */
+    private void buildNodesConcurrently() throws Exception {
+        final List<TreeNode<Split>> nodes = new ArrayList<>();
+        do {
+            nodes.add(nodeBuildQueue.removeFirst());
+        } while(!nodeBuildQueue.isEmpty() && nodes.size() * r < numThreads);
+        // build r candidate splits for every node
+        final List<List<Future<Split>>> futures = new ArrayList<>(nodes.size());
+        for(TreeNode<Split> node : nodes) {
+            final Split unbuiltSplit = node.getValue();
+            final List<Future<Split>> candidates = new ArrayList<>(r);
+            for(int i = 0; i < r; i++) {
+                final Split split = new Split(unbuiltSplit.getDataIndices(), unbuiltSplit.getSplitRandom().nextLong());
+                candidates.add(executor.submit(() -> {
+                    split.buildSplit();
+                    return split;
+                }));
+            }
+            futures.add(candidates);
+        }
+        // select the best split for each node in the same order as the linear build
+        final List<List<TreeNode<Split>>> children = new ArrayList<>(nodes.size());
+        for(int i = 0; i < nodes.size(); i++) {
+            final TreeNode<Split> node = nodes.get(i);
+            final Random random = node.getValue().getSplitRandom();
+            Split bestSplit = null;
+            for(Future<Split> future : futures.get(i)) {
+                final Split split = future.get();
+                if(bestSplit == null || split.getScore() > bestSplit.getScore()) {
+                    bestSplit = split;
+                }
+            }
+            node.setValue(Objects.requireNonNull(bestSplit));
+            children.add(buildChildNodes(node, random));
+        }
+        // enqueue in reverse if depth first so the subtree of the first node is built first
+        for(int i = 0; i < nodes.size(); i++) {
+            enqueueNodes(children.get(breadthFirst ? i : nodes.size() - i - 1));
+        }
+    }
+
     /**
      * add nodes to the build queue if they fail the stopping criteria
      *
@@ -483,10 +626,12 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 node = nodes.get(nodes.size() - i - 1);
             }
             // check the data at the node is not pure
-            final List<Integer> uniqueClassLabelIndices =
-                    node.getValue().getData().stream().map(TimeSeriesInstance::getLabelIndex).distinct()
-                            .collect(Collectors.toList());
-            if(uniqueClassLabelIndices.size() > 1) {
+            final int[] dataIndices = node.getValue().getDataIndices();
+            boolean pure = true;
+            for(int j = 1; j < dataIndices.length && pure; j++) {
+                pure = trainData.get(dataIndices[j]).getLabelIndex() == trainData.get(dataIndices[0]).getLabelIndex();
+            }
+            if(!pure) {
                 // if not hit the stopping condition then add node to the build queue
                 if(breadthFirst) {
                     nodeBuildQueue.addLast(node);
@@ -568,13 +713,12 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
 
     private Split buildSplit(Split unbuiltSplit) {
         Split bestSplit = null;
-        final TimeSeriesInstances data = unbuiltSplit.getData();
-        final List<Integer> dataIndices = unbuiltSplit.getDataIndicesInTrainData();
+        final int[] dataIndices = unbuiltSplit.getDataIndices();
         // need to find the best of R splits
         // linearly go through r splits and select the best
         for(int i = 0; i < r; i++) {
             // construct a new split
-            final Split split = new Split(data, dataIndices);
+            final Split split = new Split(dataIndices);
             split.buildSplit();
             final double score = split.getScore();
             if(bestSplit == null || score > bestSplit.getScore()) {
@@ -610,20 +754,36 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
 
     private class Split implements Serializable, Iterator<Integer> {
 
-        public Split(TimeSeriesInstances data, List<Integer> dataIndicesInTrainData) {
-            setData(data, dataIndicesInTrainData);
+        public Split(int[] dataIndices) {
+            this.dataIndices = Objects.requireNonNull(dataIndices);
+            this.seed = null;
+        }
+
+        public Split(int[] dataIndices, long seed) {
+            this.dataIndices = Objects.requireNonNull(dataIndices);
+            this.seed = seed;
         }
+
+        // the seed of the source of randomness when building the split, null to use the tree's random source
+        private final Long seed;
+        // the source of randomness when building the split, derived from the seed when first needed
+        private transient Random random;
+        // the distance function with distances shared between splits, null if not sharing
+        private transient ExemplarDistanceCache.CachedDistanceMeasure cachedDistanceMeasure;
         
         // the distance function for comparing instances to exemplars
         private DistanceMeasure distanceMeasure;
-        // the data at this split (i.e. before being partitioned)
-        private TimeSeriesInstances data; // the split data
-        private List<Integer> dataIndicesInTrainData; // the indices of the split data in the train data
+        // the indices of the data at this split (i.e. before being partitioned) in the train data
+        private final int[] dataIndices;
+        // the data at this split, only held while building the split
+        private transient TimeSeriesInstances data;
         // the partitions of the data, each containing data for the partition and exemplars representing the partition
         // store pairwise set of data in the partition and corresponding exemplar
         private List<Integer> exemplarIndicesInSplitData;
         private List<TimeSeriesInstance> exemplars;
         private List<List<Integer>> partitionedDataIndicesInSplitData; // each list is a partition containing indices of insts in that partition. I.e. [[1,2,3],[4,5,6]] means partition 0 contains the 1,2,3rd inst at this split while partition 1 contains 4,5,6th inst at this split
+        // the indices of the data in each partition in the train data, kept once the split is built
+        private int[][] partitionedDataIndices;
         
         // partitionIndices houses all the partitions to look at when partitioning. This obviously stays consistent (i.e. look at all partitions in order) when not using early abandon
         private List<Integer> partitionIndices = null;
@@ -651,9 +811,9 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
         public double[] distributionForInstance(TimeSeriesInstance testInst) {
             // report the prediction as the same as the data distribution at this split
             if(distribution == null) {
-                distribution = new double[data.numClasses()];
-                for(TimeSeriesInstance inst : data) {
-                    distribution[inst.getLabelIndex()]++;
+                distribution = new double[trainData.numClasses()];
+                for(int i = 0; i < dataIndices.length; i++) {
+                    distribution[getLabelIndex(i)]++;
                 }
                 ArrayUtilities.normalise(distribution);
             }
@@ -668,14 +828,18 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
             return partitionOrderByClass;
         }
 
+        private int getLabelIndex(int instIndexInSplitData) {
+            return trainData.get(dataIndices[instIndexInSplitData]).getLabelIndex();
+        }
+
         private Labels<Integer> getParentLabels() {
             return new Labels<>(new AbstractList<Integer>() {
                 @Override public Integer get(final int i) {
-                    return data.get(i).getLabelIndex();
+                    return getLabelIndex(i);
                 }
 
                 @Override public int size() {
-                    return data.numInstances();
+                    return dataIndices.length;
                 }
             }); // todo weights
         }
@@ -686,7 +850,7 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 score = splitScorer.score(getParentLabels(), partitionedDataIndicesInSplitData.stream().map(partition -> new Labels<>(new AbstractList<Integer>() {
                     @Override public Integer get(final int i) {
                         final Integer instIndexInSplitData = partition.get(i);
-                        return data.get(instIndexInSplitData).getLabelIndex();
+                        return getLabelIndex(instIndexInSplitData);
                     }
 
                     @Override public int size() {
@@ -699,14 +863,23 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
         }
 
         @Override public boolean hasNext() {
-            return instIndexInSplitData + 1 < data.numInstances();
+            return instIndexInSplitData + 1 < dataIndices.length;
         }
         
         public void setup() {
+            final List<TimeSeriesInstance> insts = new ArrayList<>(dataIndices.length);
+            for(int i : dataIndices) {
+                insts.add(trainData.get(i));
+            }
+            data = new TimeSeriesInstances(insts, trainData.getClassLabels());
             setupTransform();
             setupDistanceMeasure();
             setupExemplars();
             setupMisc();
+            // distances can only be shared when the split compares the train data as is
+            if(distanceCache != null && pipeline.getTransformers().isEmpty()) {
+                cachedDistanceMeasure = distanceCache.cache(distanceMeasure);
+            }
         }
 
         @Override public Integer next() {
@@ -771,6 +944,10 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
         
         public void cleanup() {
             transformedDataAtSplit = null;
+            if(cachedDistanceMeasure != null) {
+                cachedDistanceMeasure.release();
+                cachedDistanceMeasure = null;
+            }
 
             // quick check that partitions line up with num insts
             if(isDebug()) {
@@ -780,6 +957,21 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                     throw new IllegalStateException("data indices mismatch");
                 }
             }
+
+            // keep only the score and the partitions as indices in the train data, the rest is only needed to build
+            getScore();
+            partitionedDataIndices = new int[partitionedDataIndicesInSplitData.size()][];
+            for(int i = 0; i < partitionedDataIndices.length; i++) {
+                final List<Integer> partition = partitionedDataIndicesInSplitData.get(i);
+                partitionedDataIndices[i] = new int[partition.size()];
+                for(int j = 0; j < partition.size(); j++) {
+                    partitionedDataIndices[i][j] = dataIndices[partition.get(j)];
+                }
+            }
+            data = null;
+            partitionedDataIndicesInSplitData = null;
+            partitionOrderByClass = null;
+            exemplarIndexInSplitDataToPartitionIndex = null;
         }
 
         /**
@@ -790,7 +982,26 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
         private Transformer getCachedTransformer(Transformer transformer) {
             if(transformerCache != null) {
                 // get from internal source
-                return transformerCache.computeIfAbsent(transformer, x -> new CachedTransformer(transformer));
+                synchronized(transformerCache) {
+                    CachedTransformer cachedTransformer = transformerCache.get(transformer);
+                    if(cachedTransformer == null) {
+                        // the cache fills up with a transform of every train inst, so reserve it as such. If that
+                        // does not fit then transform as needed
+                        long bytes = 0;
+                        for(TimeSeriesInstance inst : trainData) {
+                            bytes += ExemplarDistanceCache.bytes(inst);
+                        }
+                        if(!getMemoryBudget().tryReserve(bytes)) {
+                            return transformer;
+                        }
+                        transformerCacheBytes += bytes;
+                        // only the train data is cached, so the cache must be fitted before use
+                        cachedTransformer = new CachedTransformer(transformer);
+                        cachedTransformer.fit(trainData);
+                        transformerCache.put(transformer, cachedTransformer);
+                    }
+                    return cachedTransformer;
+                }
             } else {
                 return transformer;
             }
@@ -808,12 +1019,13 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                     final int numChoices;
                     if(DimensionSamplingMode.SUBSET.equals(dimensionSamplingMode)) {
                         // select anywhere between 1..all dimensions
-                        numDimensions = RandomUtils.choiceIndex(numDimensions, getRandom()) + 1;
+                        numDimensions = RandomUtils.choiceIndex(numDimensions, getSplitRandom()) + 1;
                     } else {
                         // select only 1 dimension
                         numDimensions = 1;
                     }
-                    final List<Integer> dimensionIndices = RandomUtils.choiceIndex(data.getMaxNumDimensions(), getRandom(), numDimensions);
+                    final List<Integer> dimensionIndices = RandomUtils.choiceIndex(data.getMaxNumDimensions(),
+                            getSplitRandom(), numDimensions);
                     // build a hSlicer to slice insts to the specified dimensions
                     final HSlicer hSlicer = new HSlicer(dimensionIndices);
                     // add the hslice to the transform pipeline
@@ -858,11 +1070,11 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
             
             // pick the distance function
             // pick a random space
-            ParamSpaceBuilder distanceMeasureSpaceBuilder = RandomUtils.choice(distanceMeasureSpaceBuilders, getRandom());
+            ParamSpaceBuilder distanceMeasureSpaceBuilder = RandomUtils.choice(distanceMeasureSpaceBuilders, getSplitRandom());
             // built that space
             ParamSpace distanceMeasureSpace = distanceMeasureSpaceBuilder.build(transformedDataAtSplit);
             // randomly pick the distance function / parameters from that space
-            final ParamSet paramSet = RandomSearch.choice(distanceMeasureSpace, getRandom());
+            final ParamSet paramSet = RandomSearch.choice(distanceMeasureSpace, getSplitRandom());
             // there is only one distance function in the ParamSet returned
             distanceMeasure = Objects.requireNonNull((DistanceMeasure) paramSet.get(DistanceMeasure.DISTANCE_MEASURE_FLAG));
             
@@ -890,7 +1102,7 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 if(distanceMode.equals(DistanceMode.RANDOM)) {
                     // then random pick from the remaining modes
                     final Integer index = RandomUtils
-                                                  .choiceIndexExcept(DistanceMode.values().length, getRandom(),
+                                                  .choiceIndexExcept(DistanceMode.values().length, getSplitRandom(),
                                                           DistanceMode.RANDOM.ordinal());
                     distanceMode = DistanceMode.values()[index];
                 }
@@ -928,7 +1140,7 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 if(!sameClassInstIndices.isEmpty()) {
                     // get the indices of all instances with the specified class
                     // random pick exemplars from this 
-                    final Integer exemplarIndexInSplitData = RandomUtils.choice(sameClassInstIndices, getRandom());
+                    final Integer exemplarIndexInSplitData = RandomUtils.choice(sameClassInstIndices, getSplitRandom());
                     exemplarIndicesInSplitData.add(exemplarIndexInSplitData);
                     // generate the partition with empty data and the chosen exemplar instances
                     final ArrayList<Integer> partition = new ArrayList<>();
@@ -1016,7 +1228,13 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
                 }
                 final TimeSeriesInstance exemplar = exemplars.get(i);
                 // find the distance
-                final double distance = distanceMeasure.distance(exemplar, inst, limit);
+                final double distance;
+                if(cachedDistanceMeasure != null && instIndexInSplitData >= 0) {
+                    distance = cachedDistanceMeasure.distance(dataIndices[exemplarIndexInSplitData], exemplar,
+                            dataIndices[instIndexInSplitData], inst, limit);
+                } else {
+                    distance = distanceMeasure.distance(exemplar, inst, limit);
+                }
                 // add the distance and partition to the map
                 if(filter.add(distance, i)) {
                     // new min dist
@@ -1028,7 +1246,7 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
             }
             
             // random pick the best partition for the instance
-            return RandomUtils.choice(filter.valuesList(), rand);
+            return RandomUtils.choice(filter.valuesList(), instIndexInSplitData >= 0 ? getSplitRandom() : rand);
         }
 
         /**
@@ -1040,63 +1258,43 @@ public class ProximityTree extends BaseClassifier implements ContractedTest, Con
             return findPartitionIndexFor(inst, -1, partitionIndices);
         }
 
-        public TimeSeriesInstances getData() {
-            return data;
+        public int[] getDataIndices() {
+            return dataIndices;
         }
 
-        public void setData(TimeSeriesInstances data, List<Integer> dataIndices) {
-            this.dataIndicesInTrainData = Objects.requireNonNull(dataIndices);
-            this.data = Objects.requireNonNull(data);
-            Assert.assertEquals(data.numInstances(), dataIndices.size());
-        }
-
-        public List<Integer> getDataIndicesInTrainData() {
-            return dataIndicesInTrainData;
+        private Random getSplitRandom() {
+            if(random == null) {
+                random = seed == null ? getRandom() : new Random(seed);
+            }
+            return random;
         }
         
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder();
-            if(distanceMeasure != null) {
+            if(distanceMeasure != null && partitionedDataIndices != null) {
                 // then split has been built
                 sb.append("df=").append(distanceMeasure);
-                sb.append(", partitionedDataIndices=").append(getPartitionedDataIndicesInTrainData());
-                sb.append(", ");
+                sb.append(", partitionedDataIndices=[");
+                for(int i = 0; i < partitionedDataIndices.length; i++) {
+                    if(i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(Arrays.toString(partitionedDataIndices[i]));
+                }
+                sb.append("], ");
             }
-            sb.append("dataIndices=").append(dataIndicesInTrainData);
+            sb.append("dataIndices=").append(Arrays.toString(dataIndices));
                     
             return sb.toString();
         }
         
         public int numPartitions() {
-            return partitionedDataIndicesInSplitData.size();
-        }
-        
-        public List<List<Integer>> getPartitionedDataIndicesInTrainData() {
-            List<List<Integer>> indices = new ArrayList<>();
-            for(int i = 0; i < numPartitions(); i++) {
-                indices.add(getPartitionDataIndicesInTrainData(i));
-            }
-            return indices;
-        }
-        
-        public List<TimeSeriesInstances> getPartitionedData() {
-            List<TimeSeriesInstances> data = new ArrayList<>();
-            for(int i = 0; i < numPartitions(); i++) {
-                data.add(getPartitionData(i));
-            }
-            return data;
-        }
-        
-        public TimeSeriesInstances getPartitionData(int i) {
-            final List<TimeSeriesInstance> data =
-                    partitionedDataIndicesInSplitData.get(i).stream().map(this.data::get)
-                            .collect(Collectors.toList());
-            return new TimeSeriesInstances(data, this.data.getClassLabels());
+            return partitionedDataIndices.length;
         }
         
-        public List<Integer> getPartitionDataIndicesInTrainData(int i) {
-            return partitionedDataIndicesInSplitData.get(i).stream().map(dataIndicesInTrainData::get).collect(Collectors.toList());
+        public int[] getPartitionDataIndices(int i) {
+            return partitionedDataIndices[i];
         }
 
     }
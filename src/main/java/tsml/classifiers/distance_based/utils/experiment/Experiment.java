@@ -17,6 +17,7 @@ import tsml.classifiers.distance_based.utils.classifiers.results.ResultUtils;
 import tsml.classifiers.distance_based.utils.system.copy.Copier;
 import tsml.classifiers.distance_based.utils.system.logging.LogUtils;
 import tsml.classifiers.distance_based.utils.system.logging.Loggable;
+import tsml.classifiers.distance_based.utils.system.memory.MemoryUnit;
 import tsml.classifiers.distance_based.utils.system.memory.MemoryWatcher;
 import tsml.classifiers.distance_based.utils.system.timing.StopWatch;
 import tsml.data_containers.TimeSeriesInstances;
@@ -362,11 +363,15 @@ public class Experiment implements Copier {
         } else if(config.getNumThreads() != 1) {
             log.info("classifier cannot use multiple threads");
         }
-        // todo mem
-//        // set memory
-//        if(classifier instanceof MemoryContractable) {
-//            ((MemoryContractable) classifier).setMemoryLimit();
-//        }
+        // set memory
+        if(config.getMemory() != null) {
+            if(classifier instanceof MemoryContractable) {
+                log.info("setting " + config.getClassifierNameInResults() + " memory limit to " + config.getMemory());
+                ((MemoryContractable) classifier).setMemoryLimit(config.getMemory().convert(MemoryUnit.BYTES).getAmount());
+            } else {
+                log.info("classifier cannot be memory contracted");
+            }
+        }
     }
     
     private boolean isModelFullyBuiltFromPreviousRun() {
@@ -0,0 +1,181 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation, either version 3 of the License, or 
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package tsml.classifiers.distance_based.utils.system.memory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purpose: share a memory contract between the big allocations of a classifier (distance caches, neighbour lists,
+ * trees, ...). An allocation is reserved from the budget before it is made and released once it is freed, so a
+ * classifier can degrade (skip caching, build fewer trees, ...) rather than exceed the contract. Caches registered as
+ * evictable are emptied to make room for allocations which are needed.
+ * <p>
+ * Reservations are estimates by the allocator and the budget does not watch the heap itself. Use ofHeapLimit to make a
+ * budget from a limit on the whole heap, which deducts the heap already in use. Safe to use from multiple threads.
+ */
+public class MemoryBudget {
+
+    private final long limit;
+    private final AtomicLong reserved = new AtomicLong();
+    private final List<Evictable> evictables = new CopyOnWriteArrayList<>();
+
+    /**
+     * An unlimited budget.
+     */
+    public MemoryBudget() {
+        this(-1);
+    }
+
+    /**
+     * @param limit the bytes which can be reserved, negative for no limit
+     */
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Make a budget from a limit on the heap in use. The heap in use is measured after a gc, so only the memory held
+     * at the time counts against the limit.
+     * @param heapLimit the limit in bytes, negative for no limit
+     * @return the budget, unlimited if there is no limit
+     */
+    public static MemoryBudget ofHeapLimit(long heapLimit) {
+        if(heapLimit < 0) {
+            return new MemoryBudget();
+        }
+        return new MemoryBudget(Math.max(0, heapLimit - usedHeapAfterGc()));
+    }
+
+    /**
+     * @return the bytes in use on the heap after a gc
+     */
+    public static long usedHeapAfterGc() {
+        MemoryWatchable.gc();
+        return usedHeap();
+    }
+
+    /**
+     * @return the bytes in use on the heap, including any garbage not yet collected
+     */
+    public static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public boolean isLimited() {
+        return limit >= 0;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    /**
+     * @return the bytes which can still be reserved, Long.MAX_VALUE if unlimited
+     */
+    public long getRemaining() {
+        return isLimited() ? Math.max(0, limit - reserved.get()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Reserve memory for an allocation which can be skipped, e.g. a cache entry. Nothing is evicted.
+     * @param bytes the size of the allocation
+     * @return true if reserved, false if the allocation would exceed the budget
+     */
+    public boolean tryReserve(long bytes) {
+        if(!isLimited()) {
+            reserved.addAndGet(bytes);
+            return true;
+        }
+        long current;
+        do {
+            current = reserved.get();
+            // nothing fits in a full budget, even an allocation estimated at no bytes
+            if(current + Math.max(1, bytes) > limit) {
+                return false;
+            }
+        } while(!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Reserve memory for an allocation, evicting caches in the order they were added until it fits.
+     * @param bytes the size of the allocation
+     * @return true if reserved, false if the allocation would exceed the budget even with all caches evicted
+     */
+    public boolean reserve(long bytes) {
+        if(tryReserve(bytes)) {
+            return true;
+        }
+        for(Evictable evictable : evictables) {
+            evictable.evict();
+            if(tryReserve(bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record memory which has already been allocated, whether or not it fits in the budget.
+     * @param bytes the size of the allocation
+     */
+    public void account(long bytes) {
+        reserved.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * @param evictable a cache holding reservations in this budget, to be evicted when memory is short
+     */
+    public void addEvictable(Evictable evictable) {
+        evictables.add(evictable);
+    }
+
+    public void removeEvictable(Evictable evictable) {
+        evictables.remove(evictable);
+    }
+
+    /**
+     * Stop evicting a cache and evict it, releasing its reservations.
+     */
+    public void discard(Evictable evictable) {
+        removeEvictable(evictable);
+        evictable.evict();
+    }
+
+    @Override public String toString() {
+        return "reserved: " + reserved.get() + ", limit: " + limit;
+    }
+
+    /**
+     * A cache which can be emptied to free memory, releasing its reservations in the budget.
+     */
+    public interface Evictable {
+        void evict();
+    }
+}
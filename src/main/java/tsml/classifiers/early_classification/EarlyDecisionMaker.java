@@ -27,7 +27,7 @@ import java.util.TreeSet;
  *
  * @author Matthew Middlehurst
  */
-public abstract class EarlyDecisionMaker {
+public abstract class EarlyDecisionMaker implements Cloneable {
 
     protected boolean normalise = false;
 
@@ -50,10 +50,24 @@ public abstract class EarlyDecisionMaker {
      * is that it will create a clean slate each time the thresholdIndex is 0. Calling this on a new instance before
      * the final decision has been made on a previous one is a good way to break everything.
      *
-     * This is obviously not ideal for real use cases, but there arent being used for that currently.
+     * To decide on multiple series at once use a separate copy from copyForSeries() for each series.
      */
     public abstract boolean decide(int thresholdIndex, double[] probabilities) throws Exception;
 
+    /**
+     * Creates a copy sharing the fitted model of this decision maker, for deciding on a single series. Decision
+     * makers only hold series state which is recreated at the first threshold, so a shallow copy is enough.
+     *
+     * @return copy of the decision maker
+     */
+    public EarlyDecisionMaker copyForSeries() {
+        try {
+            return (EarlyDecisionMaker) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public int[] defaultTimeStamps(int length) {
         TreeSet<Integer> ts = new TreeSet<>();
         for (double i = 0.05; i < 0.99; i += 0.05) {
@@ -43,6 +43,7 @@ public class EarlyDecisionMakerClassifier extends AbstractEarlyClassifier implem
     private EarlyDecisionMaker decisionMaker;
 
     private Classifier[] classifiers;
+    private Instances[] prefixHeaders;
 
     private boolean useOwnTrainEstimates = true;
     private int seed = 0;
@@ -110,9 +111,11 @@ public class EarlyDecisionMakerClassifier extends AbstractEarlyClassifier implem
         }
         else {
             int length = data.numAttributes() - 1;
+            prefixHeaders = new Instances[thresholds.length];
             for (int i = 0; i < thresholds.length; i++) {
                 Instances newData = truncateInstances(data, length, thresholds[i]);
                 if (normalise) newData = zNormaliseWithClass(newData);
+                prefixHeaders[i] = new Instances(newData, 0);
 
                 classifiers[i] = AbstractClassifier.makeCopy(classifier);
                 classifiers[i].buildClassifier(newData);
@@ -169,6 +172,26 @@ public class EarlyDecisionMakerClassifier extends AbstractEarlyClassifier implem
         return decision ? probs : null;
     }
 
+    /**
+     * Creates a stream to classify a single series as its values arrive, with its own decision maker state. Any number
+     * of streams can be in use at once.
+     *
+     * @return stream for a new series
+     * @throws Exception if the classifier has not been built or is loading results from file
+     */
+    public EarlyPredictionStream newStream() throws Exception {
+        if (loadFromFile) throw new Exception("Streams cannot be used when loading results from file.");
+        if (prefixHeaders == null) throw new Exception("Classifier must be built before creating a stream.");
+
+        return new EarlyPredictionStream(this, decisionMaker.copyForSeries(), thresholds, normalise);
+    }
+
+    //Class probabilities for a series prefix the length of a threshold, normalised if required
+    double[] prefixDistribution(int thresholdIndex, Instance prefix) throws Exception {
+        prefix.setDataset(prefixHeaders[thresholdIndex]);
+        return classifiers[thresholdIndex].distributionForInstance(prefix);
+    }
+
     public static void main(String[] args) throws Exception {
         int fold = 0;
         String dataset = "ItalyPowerDemand";
@@ -194,21 +217,17 @@ public class EarlyDecisionMakerClassifier extends AbstractEarlyClassifier implem
         double[] testPreds = new double[test.numInstances()];
         double[] testEarliness = new double[test.numInstances()];
 
-        for (int i = 0; i < cls.thresholds.length; i++) {
-            Instances newData = truncateInstances(test, length, cls.thresholds[i]);
-
-            for (int n = 0; n < test.numInstances(); n++) {
-                if (testProbs[n] == null) {
-                    Instance inst = newData.get(n);
-                    double[] probs = cls.distributionForInstance(inst);
-
-                    if (probs != null) {
-                        testProbs[n] = probs;
-                        testPreds[n] = argMax(probs, r);
-                        testEarliness[n] =  cls.thresholds[i] / (double) length;
-                    }
-                }
+        for (int n = 0; n < test.numInstances(); n++) {
+            //Feed each series one value at a time, as it would arrive
+            EarlyPredictionStream stream = cls.newStream();
+            Instance inst = test.get(n);
+            for (int i = 0; i < length && !stream.hasDecided(); i++) {
+                stream.append(inst.value(i));
             }
+
+            testProbs[n] = stream.getProbabilities();
+            testPreds[n] = argMax(testProbs[n], r);
+            testEarliness[n] = stream.getDecisionLength() / (double) length;
         }
 
         double[] trueClassVals = test.attributeToDoubleArray(test.classIndex());
@@ -0,0 +1,150 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tsml.classifiers.early_classification;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Utils;
+
+import java.util.Arrays;
+
+/**
+ * Incremental early classification of a single series, fed a point or chunk at a time as it arrives.
+ *
+ * Each time the series reaches the length of the next threshold, the prefix is classified by the classifier for that
+ * threshold and passed to a copy of the decision maker holding the state for this series only, so multiple streams
+ * can be used at once. Thresholds are always visited in order, including any passed over by a single chunk. Values
+ * are stored in one growing buffer with running sums for normalisation, rather than truncating and copying the
+ * series for each threshold. Once a decision is made the stream stops classifying.
+ */
+public class EarlyPredictionStream {
+
+    private final EarlyDecisionMakerClassifier classifier;
+    private final EarlyDecisionMaker decisionMaker;
+    private final int[] thresholds;
+    private final boolean normalise;
+
+    private double[] series = new double[16];
+    //sums[i] is the sum of the first i values, added in the same order as when normalising the prefix
+    private double[] sums = new double[17];
+    private int length = 0;
+
+    private int nextThreshold = 0;
+    private double[] probabilities;
+    private int decisionLength = -1;
+
+    EarlyPredictionStream(EarlyDecisionMakerClassifier classifier, EarlyDecisionMaker decisionMaker,
+                          int[] thresholds, boolean normalise) {
+        this.classifier = classifier;
+        this.decisionMaker = decisionMaker;
+        this.thresholds = thresholds;
+        this.normalise = normalise;
+    }
+
+    /**
+     * Adds the next value of the series.
+     *
+     * @return the class probabilities if a decision has been made, null otherwise
+     * @throws Exception failure to classify a prefix
+     */
+    public double[] append(double value) throws Exception {
+        return append(new double[]{value});
+    }
+
+    /**
+     * Adds the next values of the series.
+     *
+     * @return the class probabilities if a decision has been made, null otherwise
+     * @throws Exception failure to classify a prefix
+     */
+    public double[] append(double[] values) throws Exception {
+        if (probabilities != null) return probabilities;
+
+        if (length + values.length > series.length) {
+            int size = Math.max(series.length * 2, length + values.length);
+            series = Arrays.copyOf(series, size);
+            sums = Arrays.copyOf(sums, size + 1);
+        }
+
+        for (double v : values) {
+            series[length] = v;
+            sums[length + 1] = sums[length] + v;
+            length++;
+        }
+
+        while (nextThreshold < thresholds.length && thresholds[nextThreshold] <= length) {
+            int idx = nextThreshold++;
+            double[] probs = classifier.prefixDistribution(idx, prefix(thresholds[idx]));
+
+            if (decisionMaker.decide(idx, probs)) {
+                probabilities = probs;
+                decisionLength = thresholds[idx];
+                break;
+            }
+        }
+
+        return probabilities;
+    }
+
+    public boolean hasDecided() {
+        return probabilities != null;
+    }
+
+    /**
+     * @return the class probabilities the decision was made with, null if no decision has been made
+     */
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+    /**
+     * @return the length of the series when the decision was made, -1 if no decision has been made
+     */
+    public int getDecisionLength() {
+        return decisionLength;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    //First n values of the series with a missing class value, z-normalised as in InstanceTools.zNormaliseWithClass
+    private Instance prefix(int n) {
+        double[] values = new double[n + 1];
+        System.arraycopy(series, 0, values, 0, n);
+        values[n] = Utils.missingValue();
+
+        if (normalise && n >= 2) {
+            double mean = sums[n] / n;
+
+            double squareSum = 0;
+            for (int i = 0; i < n; i++) {
+                double temp = values[i] - mean;
+                squareSum += temp * temp;
+            }
+
+            double stdev = Math.sqrt(squareSum / (n - 1));
+            if (stdev == 0) {
+                stdev = 1;
+            }
+
+            for (int i = 0; i < n; i++) {
+                values[i] = (values[i] - mean) / stdev;
+            }
+        }
+
+        return new DenseInstance(1, values);
+    }
+}
@@ -0,0 +1,65 @@
+package tsml.classifiers.early_classification;
+
+import experiments.data.DatasetLoading;
+import org.junit.Assert;
+import org.junit.Test;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instances;
+
+import static utilities.InstanceTools.truncateInstances;
+
+/**
+ * Checks that feeding a series through a stream gives the same decision, at the same length, with the same
+ * probabilities as calling distributionForInstance on each prefix in turn. The base classifier must predict
+ * deterministically, which rules out classifiers such as TSF which break tied votes randomly.
+ */
+public class EarlyPredictionStreamTest {
+
+    private static void assertStreamMatchesPrefixes(EarlyDecisionMaker decisionMaker, boolean normalise,
+                                                    int chunkSize) throws Exception {
+        Instances[] data = DatasetLoading.sampleItalyPowerDemand(0);
+        EarlyDecisionMakerClassifier cls = new EarlyDecisionMakerClassifier(new NaiveBayes(), decisionMaker);
+        cls.setNormalise(normalise);
+        cls.buildClassifier(data[0]);
+
+        Instances test = data[1];
+        int length = test.numAttributes() - 1;
+        int[] thresholds = cls.getThresholds();
+        Instances[] prefixes = new Instances[thresholds.length];
+        for (int i = 0; i < thresholds.length; i++) {
+            prefixes[i] = truncateInstances(test, length, thresholds[i]);
+        }
+
+        for (int n = 0; n < test.numInstances(); n++) {
+            double[] expected = null;
+            int expectedLength = -1;
+            for (int i = 0; i < thresholds.length && expected == null; i++) {
+                expected = cls.distributionForInstance(prefixes[i].get(n));
+                if (expected != null) expectedLength = thresholds[i];
+            }
+
+            EarlyPredictionStream stream = cls.newStream();
+            double[] series = test.get(n).toDoubleArray();
+            for (int i = 0; i < length && !stream.hasDecided(); i += chunkSize) {
+                double[] chunk = new double[Math.min(chunkSize, length - i)];
+                System.arraycopy(series, i, chunk, 0, chunk.length);
+                stream.append(chunk);
+            }
+
+            Assert.assertEquals(expectedLength, stream.getDecisionLength());
+            Assert.assertArrayEquals(expected, stream.getProbabilities(), 0);
+        }
+    }
+
+    @Test
+    public void testTEASERStreamMatchesPrefixes() throws Exception {
+        assertStreamMatchesPrefixes(new TEASER(), true, 1);
+        assertStreamMatchesPrefixes(new TEASER(), true, 5);
+    }
+
+    @Test
+    public void testProbabilityThresholdStreamMatchesPrefixes() throws Exception {
+        assertStreamMatchesPrefixes(new ProbabilityThreshold(), false, 1);
+        assertStreamMatchesPrefixes(new ProbabilityThreshold(), true, 3);
+    }
+}
@@ -15,7 +15,7 @@
 package tsml.classifiers.early_classification;
 
 import com.carrotsearch.hppc.IntIntHashMap;
-import evaluation.evaluators.CrossValidationEvaluator;
+import evaluation.evaluators.TSCrossValidationEvaluator;
 import evaluation.storage.ClassifierResults;
 import tsml.classifiers.EnhancedAbstractClassifier;
 import weka.classifiers.AbstractClassifier;
@@ -77,7 +77,7 @@ public class TEASER extends EarlyDecisionMaker implements Randomizable, Loadable
                 Instances truncatedData = truncateInstances(data, data.numAttributes() - 1, thresholds[i]);
                 if (normalise) zNormaliseWithClass(truncatedData);
 
-                CrossValidationEvaluator cv = new CrossValidationEvaluator();
+                TSCrossValidationEvaluator cv = new TSCrossValidationEvaluator();
                 cv.setSeed(seed);
                 cv.setNumFolds(5);
                 ClassifierResults r = cv.crossValidateWithStats(AbstractClassifier.makeCopy(classifiers[i]),
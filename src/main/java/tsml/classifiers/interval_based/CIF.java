@@ -24,6 +24,7 @@ import experiments.data.DatasetLoading;
 import fileIO.OutFile;
 import machine_learning.classifiers.ContinuousIntervalTree;
 import machine_learning.classifiers.ContinuousIntervalTree.Interval;
+import machine_learning.classifiers.FlatIntervalForest;
 import tsml.classifiers.*;
 import tsml.data_containers.TSCapabilities;
 import tsml.data_containers.TimeSeriesInstance;
@@ -189,6 +190,20 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
      */
     private transient Catch22 c22;
 
+    /**
+     * Interval features stored during the build and shared between trees, for the transformed data and the feature
+     * functions used by the trees. Optionally find summary stats from prefix sums.
+     */
+    private int featureCacheSize = IntervalFeatureCache.DEFAULT_MAX_INTERVALS;
+    private boolean fastSummaryStats = false;
+    private transient IntervalFeatureCache featureCache;
+    private transient IntervalFeatureCache functionCache;
+
+    /**
+     * Trees compiled into flat arrays for predictions when using a ContinuousIntervalTree base, created on first use
+     */
+    private transient FlatIntervalForest flatForest;
+
     protected static final long serialVersionUID = 1L;
 
     /**
@@ -279,6 +294,25 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
         bagging = b;
     }
 
+    /**
+     * Set the max number of intervals to store features for during the build, 0 to not store any.
+     *
+     * @param n max number of intervals stored
+     */
+    public void setFeatureCacheSize(int n) {
+        featureCacheSize = n;
+    }
+
+    /**
+     * Set whether to find the mean, std dev and slope summary stats in constant time from prefix sums. Results
+     * differ from the default only by rounding.
+     *
+     * @param b boolean to use prefix sums
+     */
+    public void setFastSummaryStats(boolean b) {
+        fastSummaryStats = b;
+    }
+
     /**
      * Set the number of attributes to show when creating visualisations.
      *
@@ -443,6 +477,9 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
 
         c22 = new Catch22();
         c22.setOutlierNormalise(outlierNorm);
+        featureCache = new IntervalFeatureCache(functions.length, featureCacheSize);
+        functionCache = new IntervalFeatureCache(functions.length, featureCacheSize);
+        flatForest = null;
 
         //Set up instances size and format.
         ArrayList<Attribute> atts = new ArrayList<>();
@@ -476,6 +513,9 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
             buildCIF(data, result);
         }
 
+        featureCache = null;
+        functionCache = null;
+
         if (trees.size() == 0) {//Not enough time to build a single classifier
             throw new Exception((" ERROR in CIF, no trees built, contract time probably too low. Contract time = "
                     + contractTime));
@@ -526,6 +566,9 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
     public void buildCIF(TimeSeriesInstances data, Instances result) throws Exception {
         double[][][] dimensions = data.toValueArray();
 
+        //Unique ID for each interval passed to Catch22, which stores transforms for the current ID
+        int seriesID = 0;
+
         while (withinTrainContract(trainResults.getBuildTime()) && trees.size() < numClassifiers) {
             int i = trees.size();
 
@@ -627,22 +670,10 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                 }
 
                 for (int j = 0; j < numIntervals; j++) {
-                    //extract the interval
-                    double[] series = dimensions[instIdx][intervalDimension[j]];
-                    double[] intervalArray = Arrays.copyOfRange(series, interval[j][0], interval[j][1] + 1);
-
-                    //process features
-
-                    for (int g = 0; g < numAttributes; g++) {
-                        if (subsampleAtt[g] < 22) {
-                            result.instance(k).setValue(j * numAttributes + g,
-                                    c22.getSummaryStatByIndex(subsampleAtt[g], j, intervalArray));
-                        } else {
-                            result.instance(k).setValue(j * numAttributes + g,
-                                    FeatureSet.calcFeatureByIndex(subsampleAtt[g], interval[j][0],
-                                            interval[j][1], series));
-                        }
-                    }
+                    //extract the interval and process features
+                    setIntervalFeatures(result.instance(k), j * numAttributes, c22, seriesID++, subsampleAtt,
+                            featureCache, instIdx, intervalDimension[j], dimensions[instIdx][intervalDimension[j]],
+                            interval[j][0], interval[j][1]);
                 }
             }
 
@@ -662,7 +693,8 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                             continue;
 
                         double[] newProbs = ((ContinuousIntervalTree) tree).distributionForInstance(dimensions[n],
-                                functions, interval, subsampleAtt, intervalDimension);
+                                functionCache.cachedFunctions(functions, n, dimensions[n]), interval, subsampleAtt,
+                                intervalDimension);
                         oobCounts[n]++;
                         for (int k = 0; k < newProbs.length; k++)
                             trainDistributions[n][k] += newProbs[k];
@@ -673,19 +705,9 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                             continue;
 
                         for (int j = 0; j < numIntervals; j++) {
-                            double[] series = dimensions[n][intervalDimension[j]];
-                            double[] intervalArray = Arrays.copyOfRange(series, interval[j][0], interval[j][1] + 1);
-
-                            for (int g = 0; g < numAttributes; g++) {
-                                if (subsampleAtt[g] < 22) {
-                                    testHolder.instance(0).setValue(j * numAttributes + g,
-                                            c22.getSummaryStatByIndex(subsampleAtt[g], j, intervalArray));
-                                } else {
-                                    testHolder.instance(0).setValue(j * numAttributes + g,
-                                            FeatureSet.calcFeatureByIndex(subsampleAtt[g], interval[j][0],
-                                                    interval[j][1], series));
-                                }
-                            }
+                            setIntervalFeatures(testHolder.instance(0), j * numAttributes, c22, seriesID++,
+                                    subsampleAtt, featureCache, n, intervalDimension[j],
+                                    dimensions[n][intervalDimension[j]], interval[j][0], interval[j][1]);
                         }
 
                         double[] newProbs = tree.distributionForInstance(testHolder.instance(0));
@@ -855,6 +877,8 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
         this.maxIntervalLengthFinder = other.maxIntervalLengthFinder;
         this.base = other.base;
         this.bagging = other.bagging;
+        this.featureCacheSize = other.featureCacheSize;
+        this.fastSummaryStats = other.fastSummaryStats;
         this.trainTimeContract = other.trainTimeContract;
         this.contractTime = other.contractTime;
     }
@@ -874,8 +898,14 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
         if (interpSavePath != null) {
             interpData = new ArrayList<>();
             interpTreePreds = new ArrayList<>();
+        } else if (!multiThread && base instanceof ContinuousIntervalTree) {
+            return flatForest().distributionForInstance(dimensions, functions);
         }
 
+        //Intervals shared between trees only have their features calculated once
+        IntervalFeatureCache cache = new IntervalFeatureCache(functions.length);
+        Function<Interval, Double>[] cachedFunctions = cache.cachedFunctions(functions, 0, dimensions);
+
         if (multiThread) {
             ArrayList<Future<MultiThreadPredictionHolder>> futures = new ArrayList<>(trees.size());
 
@@ -885,7 +915,8 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                 in.setValue(testHolder.numAttributes() - 1, -1);
                 testCopy.add(in);
 
-                futures.add(ex.submit(new TreePredictionThread(i, dimensions, trees.get(i), testCopy)));
+                futures.add(ex.submit(new TreePredictionThread(i, dimensions, trees.get(i), testCopy, cache,
+                        cachedFunctions)));
             }
 
             for (Future<MultiThreadPredictionHolder> f : futures) {
@@ -898,41 +929,27 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                 }
             }
         } else if (base instanceof ContinuousIntervalTree) {
+            //Only reached when saving interpretability output, otherwise the flattened trees are used
             for (int i = 0; i < trees.size(); i++) {
-                int c;
-                if (interpSavePath != null) {
-                    ArrayList<double[]> al = new ArrayList<>();
-                    c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
-                            intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i), al);
-                    interpData.add(al);
-                    interpTreePreds.add(c);
-                } else {
-                    c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
-                            intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i));
-                }
+                ArrayList<double[]> al = new ArrayList<>();
+                int c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions,
+                        cachedFunctions, intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i), al);
+                interpData.add(al);
+                interpTreePreds.add(c);
                 d[c]++;
             }
         } else {
+            Catch22 c22 = new Catch22();
+            c22.setOutlierNormalise(outlierNorm);
+            int seriesID = 0;
+
             //Build transformed instance
             for (int i = 0; i < trees.size(); i++) {
-                Catch22 c22 = new Catch22();
-                c22.setOutlierNormalise(outlierNorm);
-
                 for (int j = 0; j < numIntervals; j++) {
-                    double[] series = dimensions[intervalDimensions.get(i)[j]];
-                    double[] intervalArray = Arrays.copyOfRange(series, intervals.get(i)[j][0],
-                            intervals.get(i)[j][1] + 1);
-
-                    for (int g = 0; g < numAttributes; g++) {
-                        if (subsampleAtts.get(i)[g] < 22) {
-                            testHolder.instance(0).setValue(j * numAttributes + g,
-                                    c22.getSummaryStatByIndex(subsampleAtts.get(i)[g], j, intervalArray));
-                        } else {
-                            testHolder.instance(0).setValue(j * numAttributes + g,
-                                    FeatureSet.calcFeatureByIndex(subsampleAtts.get(i)[g], intervals.get(i)[j][0],
-                                            intervals.get(i)[j][1], series));
-                        }
-                    }
+                    int dim = intervalDimensions.get(i)[j];
+                    setIntervalFeatures(testHolder.instance(0), j * numAttributes, c22, seriesID++,
+                            subsampleAtts.get(i), cache, 0, dim, dimensions[dim], intervals.get(i)[j][0],
+                            intervals.get(i)[j][1]);
                 }
 
                 int c = (int) trees.get(i).classifyInstance(testHolder.instance(0));
@@ -954,6 +971,97 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
         return d;
     }
 
+    /**
+     * Find class probabilities for a batch of instances using the trained model. When using a ContinuousIntervalTree
+     * base without saving interpretability output, predictions are made using the flattened trees, split between
+     * threads by instance when multi threading.
+     *
+     * @param data TimeSeriesInstances object
+     * @return array of doubles: probability of each class for each instance
+     * @throws Exception failure to classify
+     */
+    @Override //TSClassifier
+    public double[][] distributionForInstances(TimeSeriesInstances data) throws Exception {
+        double[][] probs = new double[data.numInstances()][];
+
+        if (interpSavePath != null || !(base instanceof ContinuousIntervalTree)) {
+            for (int i = 0; i < probs.length; i++) {
+                probs[i] = distributionForInstance(data.get(i));
+            }
+            return probs;
+        }
+
+        double[][][] series = data.toValueArray();
+        FlatIntervalForest forest = flatForest();
+
+        if (multiThread) {
+            double[][][][] dimensions = new double[probs.length][][][];
+            for (int i = 0; i < probs.length; i++) {
+                dimensions[i] = new double[][][]{series[i]};
+            }
+
+            return multiThreadVote(forest, dimensions);
+        } else {
+            for (int i = 0; i < probs.length; i++) {
+                probs[i] = forest.distributionForInstance(series[i], functions);
+            }
+        }
+
+        return probs;
+    }
+
+    //Splits the trees of the flat forest between threads, each finding votes for all instances so the tie breaks of
+    //each tree are made in the same order as for a single thread
+    private double[][] multiThreadVote(FlatIntervalForest forest, double[][][][] dimensions) throws Exception {
+        int numBlocks = Math.min(numThreads, forest.numTrees());
+        ArrayList<Future<double[][]>> futures = new ArrayList<>(numBlocks);
+        for (int n = 0; n < numBlocks; n++) {
+            int fromTree = forest.numTrees() * n / numBlocks;
+            int toTree = forest.numTrees() * (n + 1) / numBlocks;
+            futures.add(ex.submit(() -> {
+                double[][] votes = new double[dimensions.length][numClasses];
+                for (int i = 0; i < dimensions.length; i++) {
+                    forest.vote(dimensions[i], functions, fromTree, toTree, votes[i]);
+                }
+                return votes;
+            }));
+        }
+
+        double[][] probs = new double[dimensions.length][numClasses];
+        for (Future<double[][]> f : futures) {
+            double[][] votes = f.get();
+            for (int i = 0; i < probs.length; i++) {
+                for (int j = 0; j < numClasses; j++) {
+                    probs[i][j] += votes[i][j];
+                }
+            }
+        }
+
+        for (double[] d : probs) {
+            double sum = 0;
+            for (double x : d)
+                sum += x;
+            for (int i = 0; i < d.length; i++)
+                d[i] = d[i] / sum;
+        }
+
+        return probs;
+    }
+
+    //Compiles the trees into a flat forest if not already done
+    private synchronized FlatIntervalForest flatForest() {
+        if (flatForest == null || flatForest.numTrees() != trees.size()) {
+            FlatIntervalForest forest = new FlatIntervalForest(numClasses);
+            for (int i = 0; i < trees.size(); i++) {
+                forest.addTree((ContinuousIntervalTree) trees.get(i), intervals.get(i), subsampleAtts.get(i),
+                        intervalDimensions.get(i));
+            }
+            flatForest = forest;
+        }
+
+        return flatForest;
+    }
+
     /**
      * Find class probabilities of an instance using the trained model.
      *
@@ -1413,6 +1521,54 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
     /**
      * Nested class to find and store three simple summary features for an interval
      */
+    /**
+     * Sets the subsampled features of an interval as attribute values of an instance, starting from an attribute
+     * offset. Features stored in the cache are not recalculated.
+     *
+     * @param inst     instance to set values for
+     * @param offset   index of the first attribute to set
+     * @param c22      Catch22 transformer
+     * @param seriesID unique ID for the interval, Catch22 stores transforms of the current series
+     * @param atts     indices of the features to set
+     * @param cache    feature cache for the intervals of the series
+     * @param instance index of the instance in the cache
+     * @param dim      dimension of the series
+     * @param series   series the interval is taken from
+     * @param start    start of the interval
+     * @param end      end of the interval, inclusive
+     * @throws Exception unable to calculate features
+     */
+    private void setIntervalFeatures(Instance inst, int offset, Catch22 c22, int seriesID, int[] atts,
+                                     IntervalFeatureCache cache, int instance, int dim, double[] series, int start,
+                                     int end) throws Exception {
+        IntervalFeatureCache.Features features = cache.features(instance, 0, dim, start, end);
+        double[] intervalArray = null;
+
+        for (int g = 0; g < atts.length; g++) {
+            double value;
+            if (features.contains(atts[g])) {
+                value = features.get(atts[g]);
+            } else {
+                if (atts[g] < 22) {
+                    if (intervalArray == null) intervalArray = Arrays.copyOfRange(series, start, end + 1);
+                    value = c22.getSummaryStatByIndex(atts[g], seriesID, intervalArray);
+                } else if (fastSummaryStats && atts[g] == 22) {
+                    value = cache.summaryTables(instance, 0, dim, series).calcMean(start, end);
+                } else if (fastSummaryStats && atts[g] == 23) {
+                    value = cache.summaryTables(instance, 0, dim, series).calcStandardDeviation(start, end);
+                } else if (fastSummaryStats && atts[g] == 24) {
+                    value = cache.summaryTables(instance, 0, dim, series).calcSlope(start, end);
+                } else {
+                    value = FeatureSet.calcFeatureByIndex(atts[g], start, end, series);
+                }
+
+                features.put(atts[g], value);
+            }
+
+            inst.setValue(offset + g, value);
+        }
+    }
+
     private static class FeatureSet {
         public static double calcFeatureByIndex(int idx, int start, int end, double[] data) {
             switch (idx) {
@@ -1512,6 +1668,7 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
 
             Catch22 c22 = new Catch22();
             c22.setOutlierNormalise(outlierNorm);
+            int seriesID = 0;
 
             //1. Select random intervals for tree i
             int[][] interval = new int[numIntervals][2];  //Start and end
@@ -1613,21 +1770,10 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                 }
 
                 for (int j = 0; j < numIntervals; j++) {
-                    //extract the interval
-                    double[] series = dimensions[instIdx][intervalDimensions[j]];
-                    double[] intervalArray = Arrays.copyOfRange(series, interval[j][0], interval[j][1] + 1);
-
-                    for (int g = 0; g < numAttributes; g++) {
-                        //process features
-                        if (subsampleAtts[g] < 22) {
-                            result.instance(k).setValue(j * numAttributes + g,
-                                    c22.getSummaryStatByIndex(subsampleAtts[g], j, intervalArray));
-                        } else {
-                            result.instance(k).setValue(j * numAttributes + g,
-                                    FeatureSet.calcFeatureByIndex(subsampleAtts[g], interval[j][0],
-                                            interval[j][1], series));
-                        }
-                    }
+                    //extract the interval and process features
+                    setIntervalFeatures(result.instance(k), j * numAttributes, c22, seriesID++, subsampleAtts,
+                            featureCache, instIdx, intervalDimensions[j], dimensions[instIdx][intervalDimensions[j]],
+                            interval[j][0], interval[j][1]);
                 }
             }
 
@@ -1649,7 +1795,8 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                             continue;
 
                         double[] newProbs = ((ContinuousIntervalTree) tree).distributionForInstance(dimensions[n],
-                                functions, interval, subsampleAtts, intervalDimensions);
+                                functionCache.cachedFunctions(functions, n, dimensions[n]), interval, subsampleAtts,
+                                intervalDimensions);
                         oobCounts[n]++;
                         for (int k = 0; k < newProbs.length; k++)
                             trainDistributions[n][k] += newProbs[k];
@@ -1660,19 +1807,9 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
                             continue;
 
                         for (int j = 0; j < numIntervals; j++) {
-                            double[] series = dimensions[n][intervalDimensions[j]];
-                            double[] intervalArray = Arrays.copyOfRange(series, interval[j][0], interval[j][1] + 1);
-
-                            for (int g = 0; g < numAttributes; g++) {
-                                if (subsampleAtts[g] < 22) {
-                                    result.instance(0).setValue(j * numAttributes + g,
-                                            c22.getSummaryStatByIndex(subsampleAtts[g], j, intervalArray));
-                                } else {
-                                    result.instance(0).setValue(j * numAttributes + g,
-                                            FeatureSet.calcFeatureByIndex(subsampleAtts[g], interval[j][0],
-                                                    interval[j][1], series));
-                                }
-                            }
+                            setIntervalFeatures(result.instance(0), j * numAttributes, c22, seriesID++,
+                                    subsampleAtts, featureCache, n, intervalDimensions[j],
+                                    dimensions[n][intervalDimensions[j]], interval[j][0], interval[j][1]);
                         }
 
                         double[] newProbs = tree.distributionForInstance(result.instance(0));
@@ -1713,12 +1850,17 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
         double[][] dimensions;
         Classifier tree;
         Instances testHolder;
+        IntervalFeatureCache cache;
+        Function<Interval, Double>[] cachedFunctions;
 
-        public TreePredictionThread(int i, double[][] dimensions, Classifier tree, Instances testHolder) {
+        public TreePredictionThread(int i, double[][] dimensions, Classifier tree, Instances testHolder,
+                                    IntervalFeatureCache cache, Function<Interval, Double>[] cachedFunctions) {
             this.i = i;
             this.dimensions = dimensions;
             this.tree = tree;
             this.testHolder = testHolder;
+            this.cache = cache;
+            this.cachedFunctions = cachedFunctions;
         }
 
         @Override
@@ -1728,33 +1870,24 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
             if (base instanceof ContinuousIntervalTree) {
                 if (interpSavePath != null) {
                     ArrayList<double[]> al = new ArrayList<>();
-                    h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
-                            intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i), al);
+                    h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions,
+                            cachedFunctions, intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i), al);
                     h.al = al;
                 } else {
-                    h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
-                            intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i));
+                    h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions,
+                            cachedFunctions, intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i));
                 }
             } else {
                 //Build transformed instance
                 Catch22 c22 = new Catch22();
                 c22.setOutlierNormalise(outlierNorm);
+                int seriesID = 0;
 
                 for (int j = 0; j < numIntervals; j++) {
-                    double[] series = dimensions[intervalDimensions.get(i)[j]];
-                    double[] intervalArray = Arrays.copyOfRange(series, intervals.get(i)[j][0],
-                            intervals.get(i)[j][1] + 1);
-
-                    for (int g = 0; g < numAttributes; g++) {
-                        if (subsampleAtts.get(i)[g] < 22) {
-                            testHolder.instance(0).setValue(j * numAttributes + g,
-                                    c22.getSummaryStatByIndex(subsampleAtts.get(i)[g], j, intervalArray));
-                        } else {
-                            testHolder.instance(0).setValue(j * numAttributes + g,
-                                    FeatureSet.calcFeatureByIndex(subsampleAtts.get(i)[g], intervals.get(i)[j][0],
-                                            intervals.get(i)[j][1], series));
-                        }
-                    }
+                    int dim = intervalDimensions.get(i)[j];
+                    setIntervalFeatures(testHolder.instance(0), j * numAttributes, c22, seriesID++,
+                            subsampleAtts.get(i), cache, 0, dim, dimensions[dim], intervals.get(i)[j][0],
+                            intervals.get(i)[j][1]);
                 }
 
                 h.c = (int) tree.classifyInstance(testHolder.instance(0));
@@ -1767,6 +1900,7 @@ public class CIF extends EnhancedAbstractClassifier implements TechnicalInformat
     /**
      * CIF attributes as functions
      **/
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public static final Function<Interval, Double>[] functions = new Function[]{c22_0, c22_1, c22_2, c22_3, c22_4,
             c22_5, c22_6, c22_7, c22_8, c22_9, c22_10, c22_11, c22_12, c22_13, c22_14, c22_15, c22_16, c22_17, c22_18,
             c22_19, c22_20, c22_21, mean, stdev, slope};
@@ -20,6 +20,7 @@ import evaluation.tuning.ParameterSpace;
 import experiments.data.DatasetLoading;
 import machine_learning.classifiers.ContinuousIntervalTree;
 import machine_learning.classifiers.ContinuousIntervalTree.Interval;
+import machine_learning.classifiers.FlatIntervalForest;
 import tsml.classifiers.*;
 import tsml.data_containers.TSCapabilities;
 import tsml.data_containers.TimeSeriesInstance;
@@ -176,6 +177,20 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
      */
     private transient Catch22 c22;
 
+    /**
+     * Interval features stored during the build and shared between trees, for the transformed data and the feature
+     * functions used by the trees. Optionally find summary stats from prefix sums.
+     */
+    private int featureCacheSize = IntervalFeatureCache.DEFAULT_MAX_INTERVALS;
+    private boolean fastSummaryStats = false;
+    private transient IntervalFeatureCache featureCache;
+    private transient IntervalFeatureCache functionCache;
+
+    /**
+     * Trees compiled into flat arrays for predictions when using a ContinuousIntervalTree base, created on first use
+     */
+    private transient FlatIntervalForest flatForest;
+
     /**
      * Transformers used for other representations
      */
@@ -272,6 +287,25 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
         bagging = b;
     }
 
+    /**
+     * Set the max number of intervals to store features for during the build, 0 to not store any.
+     *
+     * @param n max number of intervals stored
+     */
+    public void setFeatureCacheSize(int n) {
+        featureCacheSize = n;
+    }
+
+    /**
+     * Set whether to find the mean, std dev and slope summary stats in constant time from prefix sums. Results
+     * differ from the default only by rounding.
+     *
+     * @param b boolean to use prefix sums
+     */
+    public void setFastSummaryStats(boolean b) {
+        fastSummaryStats = b;
+    }
+
     /**
      * Outputs DrCIF parameters information as a String.
      *
@@ -349,6 +383,9 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
 
         c22 = new Catch22();
         c22.setOutlierNormalise(outlierNorm);
+        featureCache = new IntervalFeatureCache(functions.length, featureCacheSize);
+        functionCache = new IntervalFeatureCache(functions.length, featureCacheSize);
+        flatForest = null;
 
         TimeSeriesInstances[] representations = new TimeSeriesInstances[3];
         representations[0] = data;
@@ -476,6 +513,9 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
             buildDrCIF(representations, result);
         }
 
+        featureCache = null;
+        functionCache = null;
+
         if (trees.size() == 0) {//Not enough time to build a single classifier
             throw new Exception((" ERROR in DrCIF, no trees built, contract time probably too low. Contract time = "
                     + contractTime));
@@ -530,6 +570,9 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
             }
         }
 
+        //Unique ID for each interval passed to Catch22, which stores transforms for the current ID
+        int seriesID = 0;
+
         while (underContractTime && trees.size() < numClassifiers) {
             int i = trees.size();
 
@@ -640,23 +683,11 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                 int p = 0;
                 for (int r = 0; r < representations.length; r++) {
                     for (int j = 0; j < numIntervals[r]; j++) {
-                        //extract the interval
-                        double[] series = dimensions[instIdx][r][intervalDimension[r][j]];
-                        double[] intervalArray = Arrays.copyOfRange(series, interval[r][j][0], interval[r][j][1] + 1);
-
-                        //process features
-                        for (int a = 0; a < numAttributes; a++) {
-                            if (subsampleAtt[a] < 22) {
-                                result.instance(k).setValue(p,
-                                        c22.getSummaryStatByIndex(subsampleAtt[a], j, intervalArray));
-                            } else {
-                                result.instance(k).setValue(p,
-                                        FeatureSet.calcFeatureByIndex(subsampleAtt[a], interval[r][j][0],
-                                                interval[r][j][1], series));
-                            }
-
-                            p++;
-                        }
+                        //extract the interval and process features
+                        int dim = intervalDimension[r][j];
+                        setIntervalFeatures(result.instance(k), p, c22, seriesID++, subsampleAtt, featureCache,
+                                instIdx, r, dim, dimensions[instIdx][r][dim], interval[r][j][0], interval[r][j][1]);
+                        p += numAttributes;
                     }
                 }
             }
@@ -677,7 +708,8 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                             continue;
 
                         double[] newProbs = ((ContinuousIntervalTree) tree).distributionForInstance(dimensions[n],
-                                functions, interval, subsampleAtt, intervalDimension);
+                                functionCache.cachedFunctions(functions, n, dimensions[n]), interval, subsampleAtt,
+                                intervalDimension);
                         oobCounts[n]++;
                         for (int k = 0; k < newProbs.length; k++)
                             trainDistributions[n][k] += newProbs[k];
@@ -690,22 +722,11 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                         int p = 0;
                         for (int r = 0; r < representations.length; r++) {
                             for (int j = 0; j < numIntervals[r]; j++) {
-                                double[] series = dimensions[n][r][intervalDimension[r][j]];
-                                double[] intervalArray = Arrays.copyOfRange(series, interval[r][j][0],
-                                        interval[r][j][1] + 1);
-
-                                for (int a = 0; a < numAttributes; a++) {
-                                    if (subsampleAtt[a] < 22) {
-                                        testHolder.instance(0).setValue(p,
-                                                c22.getSummaryStatByIndex(subsampleAtt[a], j, intervalArray));
-                                    } else {
-                                        testHolder.instance(0).setValue(p,
-                                                FeatureSet.calcFeatureByIndex(subsampleAtt[a],
-                                                        interval[r][j][0], interval[r][j][1], series));
-                                    }
-
-                                    p++;
-                                }
+                                int dim = intervalDimension[r][j];
+                                setIntervalFeatures(testHolder.instance(0), p, c22, seriesID++, subsampleAtt,
+                                        featureCache, n, r, dim, dimensions[n][r][dim], interval[r][j][0],
+                                        interval[r][j][1]);
+                                p += numAttributes;
                             }
                         }
 
@@ -933,6 +954,8 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
         this.maxIntervalLengthFinder = other.maxIntervalLengthFinder;
         this.base = other.base;
         this.bagging = other.bagging;
+        this.featureCacheSize = other.featureCacheSize;
+        this.fastSummaryStats = other.fastSummaryStats;
         this.trainTimeContract = other.trainTimeContract;
         this.contractTime = other.contractTime;
     }
@@ -953,8 +976,16 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
         dimensions[1] = fft.transform(ins).toValueArray();
         dimensions[2] = di.transform(ins).toValueArray();
 
+        if (!multiThread && base instanceof ContinuousIntervalTree) {
+            return flatForest().distributionForInstance(dimensions, functions);
+        }
+
+        //Intervals shared between trees only have their features calculated once
+        IntervalFeatureCache cache = new IntervalFeatureCache(functions.length);
+
         if (multiThread) {
             ArrayList<Future<MultiThreadPredictionHolder>> futures = new ArrayList<>(trees.size());
+            Function<Interval, Double>[] cachedFunctions = cache.cachedFunctions(functions, 0, dimensions);
 
             for (int i = 0; i < trees.size(); ++i) {
                 Instances testCopy = new Instances(testHolder, 1);
@@ -962,7 +993,8 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                 in.setValue(testHolder.numAttributes() - 1, -1);
                 testCopy.add(in);
 
-                futures.add(ex.submit(new TreePredictionThread(i, dimensions, trees.get(i), testCopy)));
+                futures.add(ex.submit(new TreePredictionThread(i, dimensions, trees.get(i), testCopy, cache,
+                        cachedFunctions)));
             }
 
             for (Future<MultiThreadPredictionHolder> f : futures) {
@@ -970,37 +1002,20 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                 d[h.c]++;
 
             }
-        } else if (base instanceof ContinuousIntervalTree) {
-            for (int i = 0; i < trees.size(); i++) {
-                int c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
-                        intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i));
-                d[c]++;
-            }
         } else {
+            Catch22 c22 = new Catch22();
+            c22.setOutlierNormalise(outlierNorm);
+            int seriesID = 0;
+
             //Build transformed instance
             for (int i = 0; i < trees.size(); i++) {
-                Catch22 c22 = new Catch22();
-                c22.setOutlierNormalise(outlierNorm);
-
                 int p = 0;
                 for (int r = 0; r < dimensions.length; r++) {
                     for (int j = 0; j < intervals.get(i)[r].length; j++) {
-                        double[] series = dimensions[r][intervalDimensions.get(i)[r][j]];
-                        double[] intervalArray = Arrays.copyOfRange(series, intervals.get(i)[r][j][0],
-                                intervals.get(i)[r][j][1] + 1);
-
-                        for (int a = 0; a < numAttributes; a++) {
-                            if (subsampleAtts.get(i)[a] < 22) {
-                                testHolder.instance(0).setValue(p,
-                                        c22.getSummaryStatByIndex(subsampleAtts.get(i)[a], j, intervalArray));
-                            } else {
-                                testHolder.instance(0).setValue(p,
-                                        FeatureSet.calcFeatureByIndex(subsampleAtts.get(i)[a],
-                                                intervals.get(i)[r][j][0], intervals.get(i)[r][j][1], series));
-                            }
-
-                            p++;
-                        }
+                        int dim = intervalDimensions.get(i)[r][j];
+                        setIntervalFeatures(testHolder.instance(0), p, c22, seriesID++, subsampleAtts.get(i), cache,
+                                0, r, dim, dimensions[r][dim], intervals.get(i)[r][j][0], intervals.get(i)[r][j][1]);
+                        p += numAttributes;
                     }
                 }
 
@@ -1018,6 +1033,99 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
         return d;
     }
 
+    /**
+     * Find class probabilities for a batch of instances using the trained model. When using a ContinuousIntervalTree
+     * base the representations are transformed once for the batch and predictions made using the flattened trees,
+     * split between threads by instance when multi threading.
+     *
+     * @param data TimeSeriesInstances object
+     * @return array of doubles: probability of each class for each instance
+     * @throws Exception failure to classify
+     */
+    @Override //TSClassifier
+    public double[][] distributionForInstances(TimeSeriesInstances data) throws Exception {
+        double[][] probs = new double[data.numInstances()][];
+
+        if (!(base instanceof ContinuousIntervalTree)) {
+            for (int i = 0; i < probs.length; i++) {
+                probs[i] = distributionForInstance(data.get(i));
+            }
+            return probs;
+        }
+
+        double[][][] series = data.toValueArray();
+        double[][][] ffts = fft.transform(data).toValueArray();
+        double[][][] diffs = di.transform(data).toValueArray();
+        FlatIntervalForest forest = flatForest();
+
+        double[][][][] dimensions = new double[probs.length][][][];
+        for (int i = 0; i < probs.length; i++) {
+            dimensions[i] = new double[][][]{series[i], ffts[i], diffs[i]};
+        }
+
+        if (multiThread) {
+            return multiThreadVote(forest, dimensions);
+        } else {
+            for (int i = 0; i < probs.length; i++) {
+                probs[i] = forest.distributionForInstance(dimensions[i], functions);
+            }
+        }
+
+        return probs;
+    }
+
+    //Splits the trees of the flat forest between threads, each finding votes for all instances so the tie breaks of
+    //each tree are made in the same order as for a single thread
+    private double[][] multiThreadVote(FlatIntervalForest forest, double[][][][] dimensions) throws Exception {
+        int numBlocks = Math.min(numThreads, forest.numTrees());
+        ArrayList<Future<double[][]>> futures = new ArrayList<>(numBlocks);
+        for (int n = 0; n < numBlocks; n++) {
+            int fromTree = forest.numTrees() * n / numBlocks;
+            int toTree = forest.numTrees() * (n + 1) / numBlocks;
+            futures.add(ex.submit(() -> {
+                double[][] votes = new double[dimensions.length][numClasses];
+                for (int i = 0; i < dimensions.length; i++) {
+                    forest.vote(dimensions[i], functions, fromTree, toTree, votes[i]);
+                }
+                return votes;
+            }));
+        }
+
+        double[][] probs = new double[dimensions.length][numClasses];
+        for (Future<double[][]> f : futures) {
+            double[][] votes = f.get();
+            for (int i = 0; i < probs.length; i++) {
+                for (int j = 0; j < numClasses; j++) {
+                    probs[i][j] += votes[i][j];
+                }
+            }
+        }
+
+        for (double[] d : probs) {
+            double sum = 0;
+            for (double x : d)
+                sum += x;
+            for (int i = 0; i < d.length; i++)
+                d[i] = d[i] / sum;
+        }
+
+        return probs;
+    }
+
+    //Compiles the trees into a flat forest if not already done
+    private synchronized FlatIntervalForest flatForest() {
+        if (flatForest == null || flatForest.numTrees() != trees.size()) {
+            FlatIntervalForest forest = new FlatIntervalForest(numClasses);
+            for (int i = 0; i < trees.size(); i++) {
+                forest.addTree((ContinuousIntervalTree) trees.get(i), intervals.get(i), subsampleAtts.get(i),
+                        intervalDimensions.get(i));
+            }
+            flatForest = forest;
+        }
+
+        return flatForest;
+    }
+
     /**
      * Find class probabilities of an instance using the trained model.
      *
@@ -1255,6 +1363,55 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
     /**
      * Nested class to find and store seven simple summary features for an interval
      */
+    /**
+     * Sets the subsampled features of an interval as attribute values of an instance, starting from an attribute
+     * offset. Features stored in the cache are not recalculated.
+     *
+     * @param inst     instance to set values for
+     * @param offset   index of the first attribute to set
+     * @param c22      Catch22 transformer
+     * @param seriesID unique ID for the interval, Catch22 stores transforms of the current series
+     * @param atts     indices of the features to set
+     * @param cache    feature cache for the intervals of the series
+     * @param instance index of the instance in the cache
+     * @param rep      representation of the series
+     * @param dim      dimension of the series
+     * @param series   series the interval is taken from
+     * @param start    start of the interval
+     * @param end      end of the interval, inclusive
+     * @throws Exception unable to calculate features
+     */
+    private void setIntervalFeatures(Instance inst, int offset, Catch22 c22, int seriesID, int[] atts,
+                                     IntervalFeatureCache cache, int instance, int rep, int dim, double[] series,
+                                     int start, int end) throws Exception {
+        IntervalFeatureCache.Features features = cache.features(instance, rep, dim, start, end);
+        double[] intervalArray = null;
+
+        for (int a = 0; a < atts.length; a++) {
+            double value;
+            if (features.contains(atts[a])) {
+                value = features.get(atts[a]);
+            } else {
+                if (atts[a] < 22) {
+                    if (intervalArray == null) intervalArray = Arrays.copyOfRange(series, start, end + 1);
+                    value = c22.getSummaryStatByIndex(atts[a], seriesID, intervalArray);
+                } else if (fastSummaryStats && atts[a] == 22) {
+                    value = cache.summaryTables(instance, rep, dim, series).calcMean(start, end);
+                } else if (fastSummaryStats && atts[a] == 24) {
+                    value = cache.summaryTables(instance, rep, dim, series).calcStandardDeviation(start, end);
+                } else if (fastSummaryStats && atts[a] == 25) {
+                    value = cache.summaryTables(instance, rep, dim, series).calcSlope(start, end);
+                } else {
+                    value = FeatureSet.calcFeatureByIndex(atts[a], start, end, series);
+                }
+
+                features.put(atts[a], value);
+            }
+
+            inst.setValue(offset + a, value);
+        }
+    }
+
     private static class FeatureSet {
         public static double calcFeatureByIndex(int idx, int start, int end, double[] data) {
             switch (idx) {
@@ -1416,6 +1573,7 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
 
             Catch22 c22 = new Catch22();
             c22.setOutlierNormalise(outlierNorm);
+            int seriesID = 0;
 
             //1. Select random intervals for tree i
             int[][][] interval = new int[dimensions[0].length][][];
@@ -1527,23 +1685,11 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                 int p = 0;
                 for (int r = 0; r < dimensions[0].length; r++) {
                     for (int j = 0; j < numIntervals[r]; j++) {
-                        //extract the interval
-                        double[] series = dimensions[instIdx][r][intervalDimensions[r][j]];
-                        double[] intervalArray = Arrays.copyOfRange(series, interval[r][j][0], interval[r][j][1] + 1);
-
-                        //process features
-                        for (int a = 0; a < numAttributes; a++) {
-                            if (subsampleAtts[a] < 22) {
-                                result.instance(k).setValue(p,
-                                        c22.getSummaryStatByIndex(subsampleAtts[a], j, intervalArray));
-                            } else {
-                                result.instance(k).setValue(p,
-                                        FeatureSet.calcFeatureByIndex(subsampleAtts[a], interval[r][j][0],
-                                                interval[r][j][1], series));
-                            }
-
-                            p++;
-                        }
+                        //extract the interval and process features
+                        int dim = intervalDimensions[r][j];
+                        setIntervalFeatures(result.instance(k), p, c22, seriesID++, subsampleAtts, featureCache,
+                                instIdx, r, dim, dimensions[instIdx][r][dim], interval[r][j][0], interval[r][j][1]);
+                        p += numAttributes;
                     }
                 }
             }
@@ -1566,7 +1712,8 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                             continue;
 
                         double[] newProbs = ((ContinuousIntervalTree) tree).distributionForInstance(dimensions[n],
-                                functions, interval, subsampleAtts, intervalDimensions);
+                                functionCache.cachedFunctions(functions, n, dimensions[n]), interval, subsampleAtts,
+                                intervalDimensions);
                         oobCounts[n]++;
                         for (int k = 0; k < newProbs.length; k++)
                             trainDistributions[n][k] += newProbs[k];
@@ -1579,22 +1726,11 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
                         int p = 0;
                         for (int r = 0; r < dimensions[0].length; r++) {
                             for (int j = 0; j < numIntervals[r]; j++) {
-                                double[] series = dimensions[n][r][intervalDimensions[r][j]];
-                                double[] intervalArray = Arrays.copyOfRange(series, interval[r][j][0],
-                                        interval[r][j][1] + 1);
-
-                                for (int a = 0; a < numAttributes; a++) {
-                                    if (subsampleAtts[a] < 22) {
-                                        result.instance(0).setValue(p,
-                                                c22.getSummaryStatByIndex(subsampleAtts[a], j, intervalArray));
-                                    } else {
-                                        result.instance(0).setValue(p,
-                                                FeatureSet.calcFeatureByIndex(subsampleAtts[a],
-                                                        interval[r][j][0], interval[r][j][1], series));
-                                    }
-
-                                    p++;
-                                }
+                                int dim = intervalDimensions[r][j];
+                                setIntervalFeatures(result.instance(0), p, c22, seriesID++, subsampleAtts,
+                                        featureCache, n, r, dim, dimensions[n][r][dim], interval[r][j][0],
+                                        interval[r][j][1]);
+                                p += numAttributes;
                             }
                         }
 
@@ -1669,12 +1805,17 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
         double[][][] dimensions;
         Classifier tree;
         Instances testHolder;
+        IntervalFeatureCache cache;
+        Function<Interval, Double>[] cachedFunctions;
 
-        public TreePredictionThread(int i, double[][][] dimensions, Classifier tree, Instances testHolder) {
+        public TreePredictionThread(int i, double[][][] dimensions, Classifier tree, Instances testHolder,
+                                    IntervalFeatureCache cache, Function<Interval, Double>[] cachedFunctions) {
             this.i = i;
             this.dimensions = dimensions;
             this.tree = tree;
             this.testHolder = testHolder;
+            this.cache = cache;
+            this.cachedFunctions = cachedFunctions;
         }
 
         @Override
@@ -1682,31 +1823,20 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
             MultiThreadPredictionHolder h = new MultiThreadPredictionHolder();
 
             if (base instanceof ContinuousIntervalTree) {
-                h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, functions,
+                h.c = (int) ((ContinuousIntervalTree) trees.get(i)).classifyInstance(dimensions, cachedFunctions,
                         intervals.get(i), subsampleAtts.get(i), intervalDimensions.get(i));
             } else {
                 Catch22 c22 = new Catch22();
                 c22.setOutlierNormalise(outlierNorm);
+                int seriesID = 0;
 
                 int p = 0;
                 for (int r = 0; r < dimensions.length; r++) {
                     for (int j = 0; j < intervals.get(i)[r].length; j++) {
-                        double[] series = dimensions[r][intervalDimensions.get(i)[r][j]];
-                        double[] intervalArray = Arrays.copyOfRange(series, intervals.get(i)[r][j][0],
-                                intervals.get(i)[r][j][1] + 1);
-
-                        for (int a = 0; a < numAttributes; a++) {
-                            if (subsampleAtts.get(i)[a] < 22) {
-                                testHolder.instance(0).setValue(p,
-                                        c22.getSummaryStatByIndex(subsampleAtts.get(i)[a], j, intervalArray));
-                            } else {
-                                testHolder.instance(0).setValue(p,
-                                        FeatureSet.calcFeatureByIndex(subsampleAtts.get(i)[a],
-                                                intervals.get(i)[r][j][0], intervals.get(i)[r][j][1], series));
-                            }
-
-                            p++;
-                        }
+                        int dim = intervalDimensions.get(i)[r][j];
+                        setIntervalFeatures(testHolder.instance(0), p, c22, seriesID++, subsampleAtts.get(i), cache,
+                                0, r, dim, dimensions[r][dim], intervals.get(i)[r][j][0], intervals.get(i)[r][j][1]);
+                        p += numAttributes;
                     }
                 }
 
@@ -1823,6 +1953,7 @@ public class DrCIF extends EnhancedAbstractClassifier implements TechnicalInform
     /**
      * DrCIF attributes as functions
      **/
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public static final Function<Interval, Double>[] functions = new Function[]{c22_0, c22_1, c22_2, c22_3, c22_4,
             c22_5, c22_6, c22_7, c22_8, c22_9, c22_10, c22_11, c22_12, c22_13, c22_14, c22_15, c22_16, c22_17, c22_18,
             c22_19, c22_20, c22_21, mean, median, stdev, slope, iqr, min, max};
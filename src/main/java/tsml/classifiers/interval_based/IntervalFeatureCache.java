@@ -0,0 +1,258 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tsml.classifiers.interval_based;
+
+import machine_learning.classifiers.ContinuousIntervalTree.Interval;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of interval features shared by the trees of an interval forest such as CIF and DrCIF.
+ *
+ * Features are stored for each (instance, representation, dimension, start, end) interval and feature index, so an
+ * interval drawn by more than one tree only has each of its features calculated once. Once maxIntervals intervals
+ * are stored, features for new intervals are still returned by features(...) but are not kept. Cached values are the
+ * values calculated, so using the cache does not change results. Safe to use from multiple threads.
+ *
+ * Optionally also stores prefix sum tables for each series, allowing the mean, variance and slope of any interval
+ * to be found in constant time.
+ */
+public class IntervalFeatureCache {
+
+    public static final int DEFAULT_MAX_INTERVALS = 100000;
+
+    private final int numFeatures;
+    private final int maxIntervals;
+
+    private final ConcurrentHashMap<Key, Features> intervals = new ConcurrentHashMap<>();
+    private final AtomicInteger numIntervals = new AtomicInteger();
+
+    private final ConcurrentHashMap<Key, SummaryTables> tables = new ConcurrentHashMap<>();
+
+    public IntervalFeatureCache(int numFeatures) {
+        this(numFeatures, DEFAULT_MAX_INTERVALS);
+    }
+
+    public IntervalFeatureCache(int numFeatures, int maxIntervals) {
+        if (numFeatures > 64)
+            throw new IllegalArgumentException("At most 64 features can be cached for each interval.");
+
+        this.numFeatures = numFeatures;
+        this.maxIntervals = maxIntervals;
+    }
+
+    /**
+     * @return the stored features for the interval [start, end] of a series, or an empty store which is not kept if
+     * the cache is full
+     */
+    public Features features(int instance, int representation, int dimension, int start, int end) {
+        Key key = new Key(instance, representation, dimension, start, end);
+        Features features = intervals.get(key);
+
+        if (features == null) {
+            features = new Features(numFeatures);
+
+            if (numIntervals.get() < maxIntervals) {
+                Features existing = intervals.putIfAbsent(key, features);
+                if (existing != null)
+                    features = existing;
+                else
+                    numIntervals.incrementAndGet();
+            }
+        }
+
+        return features;
+    }
+
+    /**
+     * @return the prefix sum tables for a series, created on first use
+     */
+    public SummaryTables summaryTables(int instance, int representation, int dimension, double[] series) {
+        return tables.computeIfAbsent(new Key(instance, representation, dimension, -1, -1),
+                k -> new SummaryTables(series));
+    }
+
+    /**
+     * Wraps interval feature functions so that results for an instance are stored in this cache, for use with the
+     * ContinuousIntervalTree methods taking functions.
+     *
+     * @param functions feature functions, function i is stored as feature i
+     * @param instance index of the instance
+     * @param representations series for the instance, indexed by representation then dimension
+     * @return the cached functions
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Function<Interval, Double>[] cachedFunctions(Function<Interval, Double>[] functions, int instance,
+                                                        double[][][] representations) {
+        IdentityHashMap<double[], int[]> seriesIndex = new IdentityHashMap<>();
+        for (int r = 0; r < representations.length; r++) {
+            for (int d = 0; d < representations[r].length; d++) {
+                seriesIndex.put(representations[r][d], new int[]{ r, d });
+            }
+        }
+
+        Function<Interval, Double>[] cached = new Function[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            int feature = i;
+            cached[i] = (Interval interval) -> {
+                int[] idx = seriesIndex.get(interval.series);
+                if (idx == null)
+                    return functions[feature].apply(interval);
+
+                Features features = features(instance, idx[0], idx[1], interval.start, interval.end);
+                if (features.contains(feature))
+                    return features.get(feature);
+
+                double value = functions[feature].apply(interval);
+                features.put(feature, value);
+                return value;
+            };
+        }
+
+        return cached;
+    }
+
+    /**
+     * Wraps interval feature functions for an instance with a single representation.
+     */
+    public Function<Interval, Double>[] cachedFunctions(Function<Interval, Double>[] functions, int instance,
+                                                        double[][] dimensions) {
+        return cachedFunctions(functions, instance, new double[][][]{ dimensions });
+    }
+
+    /**
+     * @return the number of intervals with stored features
+     */
+    public int size() {
+        return numIntervals.get();
+    }
+
+    /**
+     * Features calculated for a single interval.
+     */
+    public static class Features {
+        private final double[] values;
+        private long calculated = 0;
+
+        private Features(int numFeatures) {
+            values = new double[numFeatures];
+        }
+
+        public synchronized boolean contains(int feature) {
+            return (calculated & (1L << feature)) != 0;
+        }
+
+        public synchronized double get(int feature) {
+            return values[feature];
+        }
+
+        public synchronized void put(int feature, double value) {
+            values[feature] = value;
+            calculated |= 1L << feature;
+        }
+    }
+
+    /**
+     * Prefix sums of the values, squared values and index weighted values of a series. The results of the methods
+     * below match the summary statistics of the interval forests up to rounding.
+     */
+    public static class SummaryTables {
+        private final double[] sums;
+        private final double[] squares;
+        private final double[] weighted;
+
+        private SummaryTables(double[] series) {
+            sums = new double[series.length + 1];
+            squares = new double[series.length + 1];
+            weighted = new double[series.length + 1];
+
+            for (int i = 0; i < series.length; i++) {
+                sums[i + 1] = sums[i] + series[i];
+                squares[i + 1] = squares[i] + series[i] * series[i];
+                weighted[i + 1] = weighted[i] + series[i] * i;
+            }
+        }
+
+        public double calcMean(int start, int end) {
+            int length = end - start + 1;
+            return (sums[end + 1] - sums[start]) / length;
+        }
+
+        //Sample variance, as calculated by calcStandardDeviation in the interval forests
+        public double calcStandardDeviation(int start, int end) {
+            int length = end - start + 1;
+            double sumY = sums[end + 1] - sums[start];
+            double sumYY = squares[end + 1] - squares[start];
+            return (sumYY - (sumY * sumY) / length) / (length - 1);
+        }
+
+        public double calcSlope(int start, int end) {
+            int length = end - start + 1;
+            double sumY = sums[end + 1] - sums[start];
+            double sumXY = weighted[end + 1] - weighted[start] - start * sumY;
+            double sumX = length * (length - 1) / 2.0;
+            double sumXX = (length - 1) * (double) length * (2 * length - 1) / 6.0;
+
+            double slope = (sumXY - (sumX * sumY) / length);
+            double denom = sumXX - (sumX * sumX) / length;
+            slope = denom == 0 ? 0 : slope / denom;
+            return slope;
+        }
+    }
+
+    private static class Key {
+        private final int instance;
+        private final int representation;
+        private final int dimension;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        private Key(int instance, int representation, int dimension, int start, int end) {
+            this.instance = instance;
+            this.representation = representation;
+            this.dimension = dimension;
+            this.start = start;
+            this.end = end;
+
+            int h = instance;
+            h = 31 * h + representation;
+            h = 31 * h + dimension;
+            h = 31 * h + start;
+            h = 31 * h + end;
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return instance == k.instance && representation == k.representation && dimension == k.dimension
+                    && start == k.start && end == k.end;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tsml.classifiers.multivariate;
+
+import tsml.classifiers.distance_based.distances.dtw.DTWDistance;
+import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_DistanceBasic;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nearest neighbour search over multivariate series by dependent (DTW_D) and independent (DTW_I) DTW, giving the
+ * same distances as the DTW_D and DTW_I distance functions.
+ *
+ * Both distances are found in one pass over the warping matrix: the pointwise cost of each dimension is computed once
+ * per cell, then used by the DTW of that dimension (for DTW_I) and summed over dimensions (for DTW_D). Candidates are
+ * pruned by LB_Keogh over an envelope of each dimension of the query, shared by both distances: the bound of DTW_D is
+ * the sum of the bounds of the dimensions and the bound of DTW_I the sum of their square roots. Candidates are
+ * searched in order of their lower bounds and abandoned once they can not be nearer than the nearest found so far,
+ * in parallel if numThreads > 1. Ties are resolved to the candidate first in the train data, as a sequential scan
+ * would.
+ */
+public class MultivariateDTWSearch implements Serializable {
+
+    // relative margin on lower bounds, so rounding can not prune a candidate at the same distance as the nearest
+    private static final double BOUND_MARGIN = 1e-9;
+
+    private double r = 1;
+    private int numThreads = 1;
+    private transient ForkJoinPool pool;
+
+    // [instance][dimension][time]
+    private double[][][] series;
+
+    /**
+     * @param r the warping window as a proportion of the series length, between 0 (no warping) and 1 (full warping)
+     */
+    public void setR(double r) {
+        this.r = r;
+    }
+
+    public double getR() {
+        return r;
+    }
+
+    public synchronized void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        if (pool != null)
+            pool.shutdown();
+        pool = null;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void fit(Instances data) {
+        series = new double[data.numInstances()][][];
+        for (int i = 0; i < series.length; i++)
+            series[i] = toArrays(data.get(i));
+    }
+
+    public int numInstances() {
+        return series.length;
+    }
+
+    /**
+     * @return the dimensions of a multivariate instance, [dimension][time]
+     */
+    public static double[][] toArrays(Instance instance) {
+        Instances dimensions = instance.relationalValue(0);
+        double[][] arrays = new double[dimensions.numInstances()][];
+        for (int d = 0; d < arrays.length; d++)
+            arrays[d] = dimensions.get(d).toDoubleArray();
+        return arrays;
+    }
+
+    /**
+     * Find the nearest neighbours of a query in the train data.
+     */
+    public Neighbours nearest(Instance query, boolean dependent, boolean independent) throws Exception {
+        return nearest(toArrays(query), -1, dependent, independent);
+    }
+
+    /**
+     * Find the nearest neighbours of a train instance among the other train instances, as a leave one out
+     * cross validation would.
+     */
+    public Neighbours nearestExcluding(int trainIndex, boolean dependent, boolean independent) throws Exception {
+        return nearest(series[trainIndex], trainIndex, dependent, independent);
+    }
+
+    private Neighbours nearest(double[][] query, int exclude, boolean dependent, boolean independent) throws Exception {
+        final int numDimensions = query.length;
+        final int length = query[0].length;
+        final int windowSize = DTW_DistanceBasic.findWindowSize(r, length);
+
+        // envelope of each dimension of the query over the window
+        final double[][] upper = new double[numDimensions][];
+        final double[][] lower = new double[numDimensions][];
+        for (int d = 0; d < numDimensions; d++) {
+            upper[d] = DTWDistance.envelope(query[d], windowSize - 1, true);
+            lower[d] = DTWDistance.envelope(query[d], windowSize - 1, false);
+        }
+
+        // lower bounds of each candidate
+        final int numCandidates = series.length - (exclude >= 0 ? 1 : 0);
+        final int[] candidates = new int[numCandidates];
+        final double[] dependentBounds = new double[series.length];
+        final double[] independentBounds = new double[series.length];
+        int c = 0;
+        for (int i = 0; i < series.length; i++) {
+            if (i == exclude)
+                continue;
+            candidates[c++] = i;
+            if (series[i].length != numDimensions || series[i][0].length != length)
+                throw new IllegalArgumentException("Cannot handle unequal length series or numbers of dimensions");
+            double dependentBound = 0, independentBound = 0;
+            for (int d = 0; d < numDimensions; d++) {
+                double bound = DTWDistance.lbKeogh(series[i][d], upper[d], lower[d]);
+                dependentBound += bound;
+                independentBound += Math.sqrt(bound);
+            }
+            dependentBounds[i] = Math.sqrt(dependentBound);
+            independentBounds[i] = independentBound;
+        }
+
+        // search the candidates most likely to be nearest first
+        final double[] order = dependent ? dependentBounds : independentBounds;
+        sortByBound(candidates, order);
+
+        final Neighbours nearest = new Neighbours();
+        final AtomicLong bestDependent = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        final AtomicLong bestIndependent = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        final AtomicInteger next = new AtomicInteger();
+        final int numTasks = Math.min(numThreads, numCandidates);
+
+        final List<Neighbours> found = new ArrayList<>(numTasks);
+        if (numTasks <= 1) {
+            found.add(search(query, windowSize, candidates, next, dependent ? dependentBounds : null,
+                    independent ? independentBounds : null, bestDependent, bestIndependent));
+        } else {
+            ForkJoinPool pool = getPool();
+            List<Future<Neighbours>> futures = new ArrayList<>(numTasks);
+            for (int t = 0; t < numTasks; t++)
+                futures.add(pool.submit(() -> search(query, windowSize, candidates, next,
+                        dependent ? dependentBounds : null, independent ? independentBounds : null,
+                        bestDependent, bestIndependent)));
+            for (Future<Neighbours> future : futures)
+                found.add(future.get());
+        }
+
+        for (Neighbours neighbours : found)
+            nearest.merge(neighbours);
+        return nearest;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(numThreads);
+        return pool;
+    }
+
+    // search candidates from the shared cursor until none remain
+    private Neighbours search(double[][] query, int windowSize, int[] candidates, AtomicInteger next,
+            double[] dependentBounds, double[] independentBounds, AtomicLong bestDependent,
+            AtomicLong bestIndependent) {
+        final int numDimensions = query.length;
+        final int length = query[0].length;
+        final Neighbours nearest = new Neighbours();
+        final double[][] prev = new double[numDimensions + 1][length];
+        final double[][] curr = new double[numDimensions + 1][length];
+        final double[] costs = new double[numDimensions];
+
+        int c;
+        while ((c = next.getAndIncrement()) < candidates.length) {
+            final int candidate = candidates[c];
+            final double dependentLimit = Double.longBitsToDouble(bestDependent.get());
+            final double independentLimit = Double.longBitsToDouble(bestIndependent.get());
+            boolean dependent = dependentBounds != null
+                    && !(dependentBounds[candidate] > dependentLimit * (1 + BOUND_MARGIN));
+            boolean independent = independentBounds != null
+                    && !(independentBounds[candidate] > independentLimit * (1 + BOUND_MARGIN));
+            if (!dependent && !independent)
+                continue;
+
+            double[][] a = series[candidate];
+            for (double[] row : prev)
+                Arrays.fill(row, Double.MAX_VALUE);
+            for (double[] row : curr)
+                Arrays.fill(row, Double.MAX_VALUE);
+
+            double[][] p = prev, q = curr;
+            for (int i = 0; i < length && (dependent || independent); i++) {
+                final int lo = Math.max(0, i - windowSize + 1);
+                final int hi = Math.min(length - 1, i + windowSize - 1);
+                if (lo > 0)
+                    for (double[] row : q)
+                        row[lo - 1] = Double.MAX_VALUE;
+
+                for (int j = lo; j <= hi; j++) {
+                    double dependentCost = 0;
+                    for (int d = 0; d < numDimensions; d++) {
+                        double diff = a[d][i] - query[d][j];
+                        costs[d] = diff * diff;
+                        dependentCost += costs[d];
+                    }
+                    if (independent)
+                        for (int d = 0; d < numDimensions; d++)
+                            q[d][j] = cell(p[d], q[d], i, j, windowSize) + costs[d];
+                    if (dependent)
+                        q[numDimensions][j] = cell(p[numDimensions], q[numDimensions], i, j, windowSize)
+                                + dependentCost;
+                }
+                if (hi + 1 < length)
+                    for (double[] row : q)
+                        row[hi + 1] = Double.MAX_VALUE;
+
+                // abandon a distance once every cell of the row is further than the nearest
+                if (dependent && Math.sqrt(min(q[numDimensions], lo, hi))
+                        > Double.longBitsToDouble(bestDependent.get()))
+                    dependent = false;
+                if (independent) {
+                    double bound = 0;
+                    for (int d = 0; d < numDimensions; d++)
+                        bound += Math.sqrt(min(q[d], lo, hi));
+                    if (bound > Double.longBitsToDouble(bestIndependent.get()))
+                        independent = false;
+                }
+
+                double[][] tmp = p;
+                p = q;
+                q = tmp;
+            }
+
+            if (dependent) {
+                double distance = Math.sqrt(p[numDimensions][length - 1]);
+                if (nearest.offerDependent(candidate, distance))
+                    lower(bestDependent, distance);
+            }
+            if (independent) {
+                double distance = 0;
+                for (int d = 0; d < numDimensions; d++)
+                    distance += Math.sqrt(p[d][length - 1]);
+                if (nearest.offerIndependent(candidate, distance))
+                    lower(bestIndependent, distance);
+            }
+        }
+        return nearest;
+    }
+
+    // the cumulative distance to cell i,j of the warping matrix, less the cost of the cell
+    private static double cell(double[] prev, double[] curr, int i, int j, int windowSize) {
+        if (i == 0)
+            return j == 0 ? 0 : curr[j - 1];
+        if (j == 0)
+            return prev[0];
+        double min = curr[j - 1];
+        if (prev[j] < min)
+            min = prev[j];
+        if (prev[j - 1] < min)
+            min = prev[j - 1];
+        return min;
+    }
+
+    private static double min(double[] row, int from, int to) {
+        double min = row[from];
+        for (int j = from + 1; j <= to; j++)
+            if (row[j] < min)
+                min = row[j];
+        return min;
+    }
+
+    private static void lower(AtomicLong best, double distance) {
+        long current;
+        while (distance < Double.longBitsToDouble(current = best.get())) {
+            if (best.compareAndSet(current, Double.doubleToLongBits(distance)))
+                return;
+        }
+    }
+
+    private static void sortByBound(int[] candidates, double[] bounds) {
+        Integer[] boxed = new Integer[candidates.length];
+        for (int i = 0; i < boxed.length; i++)
+            boxed[i] = candidates[i];
+        Arrays.sort(boxed, (x, y) -> Double.compare(bounds[x], bounds[y]));
+        for (int i = 0; i < boxed.length; i++)
+            candidates[i] = boxed[i];
+    }
+
+    /**
+     * The nearest train instances by DTW_D and DTW_I, -1 if not searched for
+     */
+    public static class Neighbours {
+        private int dependentIndex = -1;
+        private double dependentDistance = Double.POSITIVE_INFINITY;
+        private int independentIndex = -1;
+        private double independentDistance = Double.POSITIVE_INFINITY;
+
+        public int getDependentIndex() {
+            return dependentIndex;
+        }
+
+        public double getDependentDistance() {
+            return dependentDistance;
+        }
+
+        public int getIndependentIndex() {
+            return independentIndex;
+        }
+
+        public double getIndependentDistance() {
+            return independentDistance;
+        }
+
+        private boolean offerDependent(int index, double distance) {
+            if (distance < dependentDistance || (distance == dependentDistance && index < dependentIndex)) {
+                dependentIndex = index;
+                dependentDistance = distance;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean offerIndependent(int index, double distance) {
+            if (distance < independentDistance || (distance == independentDistance && index < independentIndex)) {
+                independentIndex = index;
+                independentDistance = distance;
+                return true;
+            }
+            return false;
+        }
+
+        private void merge(Neighbours other) {
+            if (other.dependentIndex >= 0)
+                offerDependent(other.dependentIndex, other.dependentDistance);
+            if (other.independentIndex >= 0)
+                offerIndependent(other.independentIndex, other.independentDistance);
+        }
+    }
+}
@@ -17,41 +17,43 @@
  
 package tsml.classifiers.multivariate;
 
-import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_D;
-import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_I;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+
+import tsml.classifiers.MultiThreadable;
 import utilities.generic_storage.Pair;
 import weka.core.Instance;
 import weka.core.Instances;
-import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_DistanceBasic;
-import static utilities.InstanceTools.findMinDistance;
 
 /**
+ * 1NN choosing between dependent and independent DTW per query by a threshold learnt on the train data. The nearest
+ * neighbours by both are found together by MultivariateDTWSearch.
  *
  * @author ABostrom
  */
-public class NN_DTW_A extends MultivariateAbstractClassifier{
+public class NN_DTW_A extends MultivariateAbstractClassifier implements MultiThreadable {
 
     Instances train;
     
     public double threshold;
        
-    DTW_DistanceBasic I;
-    DTW_DistanceBasic D;
+    MultivariateDTWSearch search;
     
     double R;
     
     public NN_DTW_A(){
-        I = new DTW_I();
-        D = new DTW_D();
+        search = new MultivariateDTWSearch();
     }
     
     public void setR(double r){
         R = r;
-        I.setR(R);
-        D.setR(R);
+        search.setR(R);
+    }
+
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        search.setNumThreads(numThreads);
     }
     
 
@@ -61,6 +63,7 @@ public class NN_DTW_A extends MultivariateAbstractClassifier{
         testWithFailRelationalInstances(data);
 
         train = data;
+        search.fit(train);
         threshold = learnThreshold(train);
         System.out.println("threshold = " + threshold);
         //build DTW_A. doesn't matter what function it uses for building as its' lazy.
@@ -70,13 +73,11 @@ public class NN_DTW_A extends MultivariateAbstractClassifier{
     @Override
     public double classifyInstance(Instance instance) throws Exception{
         testWithFailRelationalInstance(instance);
-        Pair<Instance, Double> minD = findMinDistance(train, instance, D);
-        Pair<Instance, Double> minI = findMinDistance(train, instance, I);
-        //System.out.println("minD = " + minD + "minI = " + minI);
-        double S =  minD.var2 / (minI.var2 + 0.000000001);
-        double out = S > threshold ? minI.var1.classValue() : minD.var1.classValue();
+        MultivariateDTWSearch.Neighbours nearest = search.nearest(instance, true, true);
+        double S =  nearest.getDependentDistance() / (nearest.getIndependentDistance() + 0.000000001);
+        double out = S > threshold ? train.get(nearest.getIndependentIndex()).classValue()
+                : train.get(nearest.getDependentIndex()).classValue();
         
-        //System.out.println("minD " + minD.var2 + " minI "+ minI.var2 + " S " + S);
         return out;
     }
     
@@ -151,22 +152,25 @@ public class NN_DTW_A extends MultivariateAbstractClassifier{
     Pair<List<Double>, List<Double>> findScores(Instances data){
         List<Double> S_dSuccess = new ArrayList<>();
         List<Double> S_iSuccess = new ArrayList<>();
+
+        MultivariateDTWSearch loocv = search;
+        if (data != train) {
+            loocv = new MultivariateDTWSearch();
+            loocv.setR(search.getR());
+            loocv.setNumThreads(search.getNumThreads());
+            loocv.fit(data);
+        }
         
         for(int i=0; i<data.numInstances(); i++){
             try {
                 //LOOCV search for distances.
-                Instances cv_train = data.trainCV(data.numInstances(), i);
-                Instances cv_test = data.testCV(data.numInstances(), i);
-                Instance test = cv_test.firstInstance();
-                
-                Pair<Instance, Double> pair_D = findMinDistance(cv_train, test, D);
-                Pair<Instance, Double> pair_I = findMinDistance(cv_train, test, I);
+                Instance test = data.get(i);
+                MultivariateDTWSearch.Neighbours nearest = loocv.nearestExcluding(i, true, true);
                 
-                //we know we only have one instance.
-                double pred_d = pair_D.var1.classValue();
-                double pred_i = pair_I.var1.classValue();
-                double dist_d = pair_D.var2;
-                double dist_i = pair_I.var2;
+                double pred_d = data.get(nearest.getDependentIndex()).classValue();
+                double pred_i = data.get(nearest.getIndependentIndex()).classValue();
+                double dist_d = nearest.getDependentDistance();
+                double dist_i = nearest.getIndependentDistance();
                 double S = dist_d / (dist_i+0.000000001);
                 
                 //if d is correct and i is incorrect.
@@ -17,42 +17,44 @@
  
 package tsml.classifiers.multivariate;
 
-import tsml.classifiers.distance_based.NN_CID;
-import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_D;
-import static utilities.InstanceTools.findMinDistance;
-import utilities.generic_storage.Pair;
+import tsml.classifiers.MultiThreadable;
 import weka.core.Instance;
 import weka.core.Instances;
 
 /**
+ * 1NN by dependent DTW, searched by MultivariateDTWSearch.
  *
  * @author raj09hxu
  */
-public class NN_DTW_D extends MultivariateAbstractClassifier{
+public class NN_DTW_D extends MultivariateAbstractClassifier implements MultiThreadable {
     
     Instances train;
-    DTW_D D;
+    MultivariateDTWSearch search;
     public NN_DTW_D(){
-        D = new DTW_D();
+        search = new MultivariateDTWSearch();
     }
     
     public void setR(double r){
-        D.setR(r);
+        search.setR(r);
     }
 
-
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        search.setNumThreads(numThreads);
+    }
 
     @Override
     public void buildClassifier(Instances data) throws Exception {
         testWithFailRelationalInstances(data);
         train = data;
+        search.fit(train);
     }
     
     @Override
     public double classifyInstance(Instance instance) throws Exception{
         testWithFailRelationalInstance(instance);
-        Pair<Instance, Double> minD = findMinDistance(train, instance, D);
-        return minD.var1.classValue();
+        MultivariateDTWSearch.Neighbours nearest = search.nearest(instance, true, false);
+        return train.get(nearest.getDependentIndex()).classValue();
     }
     
     
@@ -17,40 +17,43 @@
  
 package tsml.classifiers.multivariate;
 
-import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW_I;
-import static utilities.InstanceTools.findMinDistance;
-import utilities.generic_storage.Pair;
+import tsml.classifiers.MultiThreadable;
 import weka.core.Instance;
 import weka.core.Instances;
 
 /**
+ * 1NN by independent DTW, searched by MultivariateDTWSearch.
  *
  * @author raj09hxu
  */
-public class NN_DTW_I extends MultivariateAbstractClassifier{
+public class NN_DTW_I extends MultivariateAbstractClassifier implements MultiThreadable {
     
     Instances train;
-    DTW_I I;
+    MultivariateDTWSearch search;
     public NN_DTW_I(){
-        I = new DTW_I();
+        search = new MultivariateDTWSearch();
     }
     
     public void setR(double r){
-        I.setR(r);
+        search.setR(r);
     }
 
-
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        search.setNumThreads(numThreads);
+    }
 
     @Override
     public void buildClassifier(Instances data) throws Exception {
         testWithFailRelationalInstances(data);
         train = data;
+        search.fit(train);
     }
     
     @Override
     public double classifyInstance(Instance instance) throws Exception{
         testWithFailRelationalInstance(instance);
-        Pair<Instance, Double> minD = findMinDistance(train, instance, I);
-        return minD.var1.classValue();
+        MultivariateDTWSearch.Neighbours nearest = search.nearest(instance, false, true);
+        return train.get(nearest.getIndependentIndex()).classValue();
     }
 }
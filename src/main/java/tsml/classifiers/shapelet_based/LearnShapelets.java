@@ -22,9 +22,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import tsml.classifiers.EnhancedAbstractClassifier;
+import tsml.classifiers.MultiThreadable;
 import tsml.classifiers.ParameterSplittable;
 
 import utilities.StatisticalUtilities;
@@ -43,10 +48,18 @@ import weka.core.TechnicalInformationHandler;
  * @author Original algorithm and adjustments Josef Grabocka, initial conversion
  * Aaron Bostrom 
 
+ * By default the model is learnt by stochastic gradient descent, one instance at a time. If batchSize is set above 0,
+ * the model is instead learnt by mini-batch gradient descent: the train series are shuffled each iteration and the
+ * gradients of a batch are accumulated across instances (in parallel if multithreading is enabled) before the
+ * shapelets and weights are updated. Each instance in a batch is forward passed once for all the classes, the
+ * distance terms are reused by the backward pass, and distances are found from the sums of squares of the segments
+ * of each series at each scale, which are cached. Mini-batch training only keeps the precomputed terms for the
+ * instances being worked on, rather than for the whole train set.
  * 
  */
 
-public class LearnShapelets extends EnhancedAbstractClassifier implements ParameterSplittable,TechnicalInformationHandler{
+public class LearnShapelets extends EnhancedAbstractClassifier implements ParameterSplittable,TechnicalInformationHandler,
+        MultiThreadable {
 
   
     @Override
@@ -132,6 +145,19 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
     List<Integer> instanceIdxs;
     
     public boolean enableParallel=true;
+
+    // the number of instances per gradient update, 0 for stochastic gradient descent one instance at a time
+    public int batchSize=0;
+    private boolean multiThread=false;
+    private int numThreads=1;
+    private transient ExecutorService ex;
+
+    // structures for mini-batch training
+    double[][][] segmentSqSums_train; // sum of squares of each segment, [i][r][j]
+    double[][][][] batchGradW; // per batch position
+    double[][] batchGradBiasW;
+    double[][][][] batchGradShapelets;
+    Workspace[] workspaces; // precomputed terms, per chunk of a batch
     
 //Parameter search settings
     boolean paraSearch=false;
@@ -200,6 +226,21 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
         rand = new Random(seed);
     }
 
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        if (numThreads > 1) {
+            this.numThreads = numThreads;
+            multiThread = true;
+        } else {
+            this.numThreads = 1;
+            multiThread = false;
+        }
+    }
+
     // initialize the data structures
     public void initialize() throws Exception {
         
@@ -234,23 +275,27 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
         // to the logarithm of the total segments
         K = (int)(Math.log(totalSegments)*(C-1)); 
 
-        // initialize the terms for pre-computation
-        D_train = new double[train.length][R][K][];
-        E_train = new double[train.length][R][K][];
-
-        for (int i = 0; i < train.length; i++) {
-            for (int r = 0; r < R; r++) {
-                for (int k = 0; k < K; k++) {
-                    D_train[i][r][k] = new double[numberOfSegments[r]];
-                    E_train[i][r][k] = new double[numberOfSegments[r]];
+        if (batchSize > 0) {
+            initializeMiniBatch();
+        } else {
+            // initialize the terms for pre-computation
+            D_train = new double[train.length][R][K][];
+            E_train = new double[train.length][R][K][];
+
+            for (int i = 0; i < train.length; i++) {
+                for (int r = 0; r < R; r++) {
+                    for (int k = 0; k < K; k++) {
+                        D_train[i][r][k] = new double[numberOfSegments[r]];
+                        E_train[i][r][k] = new double[numberOfSegments[r]];
+                    }
                 }
             }
+
+            // initialize the placeholders for the precomputed values
+            M_train = new double[train.length][R][K];
+            Psi_train = new double[train.length][R][K];
+            sigY_train = new double[train.length][C];
         }
-        
-        // initialize the placeholders for the precomputed values
-        M_train = new double[train.length][R][K];
-        Psi_train = new double[train.length][R][K];
-        sigY_train = new double[train.length][C];
 
         // initialize the weights
         W = new double[C][R][K];
@@ -295,6 +340,42 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
         }        
     }
 
+    // initialize the structures for mini-batch training
+    private void initializeMiniBatch() {
+        D_train = null;
+        E_train = null;
+        M_train = null;
+        Psi_train = null;
+        sigY_train = null;
+
+        segmentSqSums_train = new double[train.length][R][];
+        for (int i = 0; i < train.length; i++) {
+            for (int r = 0; r < R; r++) {
+                double[] sqSums = new double[numberOfSegments[r]];
+                double sqSum = 0;
+                for (int l = 0; l < L[r]; l++)
+                    sqSum += train[i][l] * train[i][l];
+                for (int j = 0; j < numberOfSegments[r]; j++) {
+                    sqSums[j] = sqSum;
+                    sqSum += train[i][j + L[r]] * train[i][j + L[r]] - train[i][j] * train[i][j];
+                }
+                segmentSqSums_train[i][r] = sqSums;
+            }
+        }
+
+        int size = Math.min(batchSize, train.length);
+        batchGradW = new double[size][C][R][K];
+        batchGradBiasW = new double[size][C];
+        batchGradShapelets = new double[size][R][][];
+        for (int b = 0; b < size; b++)
+            for (int r = 0; r < R; r++)
+                batchGradShapelets[b][r] = new double[K][L[r]];
+
+        workspaces = new Workspace[multiThread ? Math.min(numThreads, size) : 1];
+        for (int w = 0; w < workspaces.length; w++)
+            workspaces[w] = new Workspace();
+    }
+
     // create one-cs-all targets
     public void createOneVsAllTargets() {
         
@@ -482,7 +563,10 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
     }
 
     // compute the accuracy loss of the train set
-    public double accuracyLossTrainSet() {
+    public double accuracyLossTrainSet() throws Exception {
+        if (batchSize > 0)
+            return accuracyLossTrainSetMiniBatch();
+
         double accuracyLoss = 0;
 
         for (int i = 0; i < train.length; i++) {
@@ -555,6 +639,188 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
     }
     
    
+    // learn the model parameters over a shuffle of the train set, one update per batch
+    public void learnFMiniBatch() throws Exception {
+        Collections.shuffle(instanceIdxs, rand);
+
+        for (int start = 0; start < train.length; start += batchSize) {
+            int size = Math.min(batchSize, train.length - start);
+            final int batchStart = start;
+            forEachChunk(size, (w, b) -> batchGradients(w, b, instanceIdxs.get(batchStart + b)));
+            applyBatchGradients(size);
+        }
+    }
+
+    // the gradients of the loss of instance i over all classes, stored at position b of the batch
+    private void batchGradients(Workspace w, int b, int i) {
+        forwardMiniBatch(w, i);
+
+        double[] dLdY = w.dLdY;
+        for (int c = 0; c < C; c++) {
+            dLdY[c] = -(classValues_train[i][c] - w.sigY[c]);
+            batchGradBiasW[b][c] = dLdY[c];
+        }
+
+        for (int r = 0; r < R; r++) {
+            double[] tmp2 = w.tmp2[r];
+
+            for (int k = 0; k < shapelets[r].length; k++) {
+                double coef = 0;
+                for (int c = 0; c < C; c++) {
+                    batchGradW[b][c][r][k] = dLdY[c] * w.M[r][k];
+                    coef += dLdY[c] * W[c][r][k];
+                }
+
+                double tmp1 = 2.0 / ((double) L[r] * w.Psi[r][k]);
+                double sumTmp2 = 0;
+                for (int j = 0; j < numberOfSegments[r]; j++) {
+                    tmp2[j] = w.E[r][k][j] * (1 + alpha * (w.D[r][k][j] - w.M[r][k]));
+                    sumTmp2 += tmp2[j];
+                }
+
+                double[] s = shapelets[r][k];
+                double[] grad = batchGradShapelets[b][r][k];
+                for (int l = 0; l < L[r]; l++) {
+                    double corr = 0;
+                    for (int j = 0; j < numberOfSegments[r]; j++)
+                        corr += tmp2[j] * train[i][j + l];
+                    grad[l] = coef * tmp1 * (s[l] * sumTmp2 - corr);
+                }
+            }
+        }
+    }
+
+    // precompute the terms of train instance i into the workspace, finding distances from the cached segment sums
+    private void forwardMiniBatch(Workspace w, int i) {
+        double[] series = train[i];
+
+        for (int r = 0; r < R; r++) {
+            for (int k = 0; k < shapelets[r].length; k++) {
+                double[] s = shapelets[r][k];
+                double sSqSum = 0;
+                for (int l = 0; l < L[r]; l++)
+                    sSqSum += s[l] * s[l];
+
+                double[] D = w.D[r][k], E = w.E[r][k], sqSums = segmentSqSums_train[i][r];
+                double psi = 0, m = 0;
+                for (int j = 0; j < numberOfSegments[r]; j++) {
+                    double dot = 0;
+                    for (int l = 0; l < L[r]; l++)
+                        dot += series[j + l] * s[l];
+
+                    D[j] = Math.max(0, (sqSums[j] - 2 * dot + sSqSum) / L[r]);
+                    E[j] = Math.exp(alpha * D[j]);
+                    psi += E[j];
+                    m += D[j] * E[j];
+                }
+
+                w.Psi[r][k] = psi;
+                w.M[r][k] = m / psi;
+            }
+        }
+
+        for (int c = 0; c < C; c++)
+            w.sigY[c] = calculateSigmoid(predict_i(w.M, c));
+    }
+
+    // update the model with the mean of the gradients of a batch
+    private void applyBatchGradients(int size) {
+        for (int c = 0; c < C; c++) {
+            for (int r = 0; r < R; r++) {
+                for (int k = 0; k < shapelets[r].length; k++) {
+                    double grad = 0;
+                    for (int b = 0; b < size; b++)
+                        grad += batchGradW[b][c][r][k];
+                    grad = grad / size + regWConst * W[c][r][k];
+                    gradHistW[c][r][k] += grad * grad;
+                    W[c][r][k] -= (eta / (Math.sqrt(gradHistW[c][r][k]) + eps)) * grad;
+                }
+            }
+
+            double grad = 0;
+            for (int b = 0; b < size; b++)
+                grad += batchGradBiasW[b][c];
+            grad /= size;
+            gradHistBiasW[c] += grad * grad;
+            biasW[c] -= (eta / (Math.sqrt(gradHistBiasW[c]) + eps)) * grad;
+        }
+
+        for (int r = 0; r < R; r++) {
+            for (int k = 0; k < shapelets[r].length; k++) {
+                for (int l = 0; l < L[r]; l++) {
+                    double grad = 0;
+                    for (int b = 0; b < size; b++)
+                        grad += batchGradShapelets[b][r][k][l];
+                    grad /= size;
+                    gradHistShapelets[r][k][l] += grad * grad;
+                    shapelets[r][k][l] -= (eta / (Math.sqrt(gradHistShapelets[r][k][l]) + eps)) * grad;
+                }
+            }
+        }
+    }
+
+    private double accuracyLossTrainSetMiniBatch() throws Exception {
+        double[] losses = new double[train.length];
+        forEachChunk(train.length, (w, i) -> {
+            forwardMiniBatch(w, i);
+            for (int c = 0; c < C; c++)
+                losses[i] += accuracyLoss(w.M, classValues_train[i], c);
+        });
+
+        double accuracyLoss = 0;
+        for (double loss : losses)
+            accuracyLoss += loss;
+        return accuracyLoss / train.length;
+    }
+
+    // apply the task to positions 0 to size-1, split into a contiguous chunk per workspace
+    private void forEachChunk(int size, ChunkTask task) throws Exception {
+        int numChunks = Math.min(workspaces.length, size);
+        if (ex == null || numChunks == 1) {
+            for (int b = 0; b < size; b++)
+                task.apply(workspaces[0], b);
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>(numChunks);
+        for (int n = 0; n < numChunks; n++) {
+            final Workspace w = workspaces[n];
+            final int from = n * size / numChunks, to = (n + 1) * size / numChunks;
+            futures.add(ex.submit((Callable<Void>) () -> {
+                for (int b = from; b < to; b++)
+                    task.apply(w, b);
+                return null;
+            }));
+        }
+        for (Future<Void> future : futures)
+            future.get();
+    }
+
+    private interface ChunkTask {
+        void apply(Workspace w, int position);
+    }
+
+    // the precomputed terms of the instance being worked on
+    private class Workspace {
+        final double[][][] D = new double[R][K][];
+        final double[][][] E = new double[R][K][];
+        final double[][] M = new double[R][K];
+        final double[][] Psi = new double[R][K];
+        final double[] sigY = new double[C];
+        final double[] dLdY = new double[C];
+        final double[][] tmp2 = new double[R][];
+
+        Workspace() {
+            for (int r = 0; r < R; r++) {
+                for (int k = 0; k < K; k++) {
+                    D[r][k] = new double[numberOfSegments[r]];
+                    E[r][k] = new double[numberOfSegments[r]];
+                }
+                tmp2[r] = new double[numberOfSegments[r]];
+            }
+        }
+    }
+   
     // build a classifier using cross-validation to tune hyper-parameters
     public void buildClassifier(Instances trainData) throws Exception {
         long startTime=System.nanoTime();
@@ -681,23 +947,43 @@ public class LearnShapelets extends EnhancedAbstractClassifier implements Parame
         // initialize the data structures
         initialize();
 
-        // apply the stochastic gradient descent in a series of iterations
-        for (int iter = 0; iter <= maxIter; iter++) {
-            // learn the latent matrices
-           learnF();
-            
-            // measure the loss
-            if ((iter %(maxIter/3)) == 0 && iter>0) 
-            {
-                double lossTrain = accuracyLossTrainSet();
+        if (batchSize > 0 && multiThread)
+            ex = Executors.newFixedThreadPool(numThreads);
 
-                print("Iter="+iter+", Loss="+lossTrain); 
-                
-                // if divergence is detected break
-                if ( Double.isNaN(lossTrain) )
-                    break;
+        try {
+            // apply the stochastic gradient descent in a series of iterations
+            for (int iter = 0; iter <= maxIter; iter++) {
+                // learn the latent matrices
+                if (batchSize > 0)
+                    learnFMiniBatch();
+                else
+                    learnF();
+
+                // measure the loss
+                if ((iter %(maxIter/3)) == 0 && iter>0)
+                {
+                    double lossTrain = accuracyLossTrainSet();
+
+                    print("Iter="+iter+", Loss="+lossTrain);
+
+                    // if divergence is detected break
+                    if ( Double.isNaN(lossTrain) )
+                        break;
+                }
+            }
+        } finally {
+            if (ex != null) {
+                ex.shutdown();
+                ex = null;
             }
         }
+
+        // the mini-batch structures are only needed while training
+        segmentSqSums_train = null;
+        batchGradW = null;
+        batchGradBiasW = null;
+        batchGradShapelets = null;
+        workspaces = null;
     }
 
     @Override
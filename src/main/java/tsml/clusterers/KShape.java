@@ -18,10 +18,8 @@
 package tsml.clusterers;
 
 import experiments.data.DatasetLoading;
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
+import tsml.classifiers.MultiThreadable;
+import utilities.FFTUtilities;
 import weka.clusterers.NumberOfClustersRequestable;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -33,18 +31,23 @@ import weka.core.matrix.Matrix;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static utilities.ClusteringUtilities.randIndex;
 import static utilities.ClusteringUtilities.zNormalise;
-import static utilities.GenericTools.indexOfMax;
-import static utilities.InstanceTools.deleteClassAttribute;
 
 /**
  * Class for the KShape clustering algorithm.
  *
+ * The FFT of each training series is found once per build and the FFT of each centroid once per iteration,
+ * such that each shape based distance only requires a multiplication and an inverse FFT. Assignment of
+ * instances to centroids and the shape extraction of each centroid can be multithreaded.
+ *
  * @author Matthew Middlehurst
  */
-public class KShape extends EnhancedAbstractClusterer implements NumberOfClustersRequestable {
+public class KShape extends EnhancedAbstractClusterer implements NumberOfClustersRequestable, MultiThreadable {
 
     //Paparrizos, John, and Luis Gravano.
     //"k-shape: Efficient and accurate clustering of time series."
@@ -55,6 +58,13 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
 
     private Instances centroids;
 
+    private transient double[][] centroidSpectra;
+    private transient double[] centroidNorms;
+
+    private int numThreads = 1;
+    private boolean multiThread = false;
+    private ExecutorService ex;
+
     public KShape() {
     }
 
@@ -101,8 +111,28 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
             assignments[i] = (int) Math.ceil(rand.nextDouble() * k) - 1;
         }
 
+        if (multiThread) {
+            ex = Executors.newFixedThreadPool(numThreads);
+        }
+
+        //The training series do not change, so their FFTs are only found once
+        int seriesLength = train.numAttributes();
+        int nfft = SBD.fftLength(seriesLength);
         SBD sbd = new SBD();
 
+        double[][] series = new double[train.numInstances()][];
+        double[][] spectra = new double[train.numInstances()][];
+        double[] norms = new double[train.numInstances()];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = train.get(i).toDoubleArray();
+            spectra[i] = sbd.spectrum(series[i], nfft);
+            norms[i] = SBD.sumSquare(series[i]);
+        }
+
+        double[][] centroidValues = new double[k][seriesLength];
+        centroidSpectra = new double[k][];
+        centroidNorms = new double[k];
+
         int iterations = 0;
         double[] prevCluster = new double[train.numInstances()];
         prevCluster[0] = -1;
@@ -110,28 +140,52 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
         while (!Arrays.equals(assignments, prevCluster) && iterations < maxIterations) {
             prevCluster = Arrays.copyOf(assignments, assignments.length);
 
-            //Select centroids
+            //Select centroids, using the FFTs of the previous iterations centroids to align the cluster members
+            if (multiThread) {
+                ArrayList<Future<double[]>> futures = new ArrayList<>(k);
+                for (int i = 0; i < k; i++) {
+                    final int n = i;
+                    final double[] centroid = centroidValues[i];
+                    futures.add(ex.submit(() -> shapeExtraction(series, spectra, norms, centroid, n, new SBD())));
+                }
+                for (int i = 0; i < k; i++) {
+                    centroidValues[i] = futures.get(i).get();
+                }
+            } else {
+                for (int i = 0; i < k; i++) {
+                    centroidValues[i] = shapeExtraction(series, spectra, norms, centroidValues[i], i, sbd);
+                }
+            }
+
             for (int i = 0; i < k; i++) {
-                centroids.set(i, shapeExtraction(train, centroids.get(i), i));
+                centroids.set(i, new DenseInstance(1, centroidValues[i]));
+                centroidSpectra[i] = sbd.spectrum(centroidValues[i], nfft);
+                centroidNorms[i] = SBD.sumSquare(centroidValues[i]);
             }
 
             //Set each instance to the cluster of its closest centroid using shape based distance
-            for (int i = 0; i < train.numInstances(); i++) {
-                double minDist = Double.MAX_VALUE;
-
-                for (int n = 0; n < k; n++) {
-                    double dist = sbd.calculateDistance(centroids.get(n), train.get(i));
-
-                    if (dist < minDist) {
-                        minDist = dist;
-                        assignments[i] = n;
-                    }
+            if (multiThread) {
+                int chunkSize = (series.length + numThreads - 1) / numThreads;
+                ArrayList<Future<?>> futures = new ArrayList<>(numThreads);
+                for (int start = 0; start < series.length; start += chunkSize) {
+                    final int from = start;
+                    final int to = Math.min(start + chunkSize, series.length);
+                    futures.add(ex.submit(() -> assignInstances(spectra, norms, from, to, seriesLength, new SBD())));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
                 }
+            } else {
+                assignInstances(spectra, norms, 0, series.length, seriesLength, sbd);
             }
 
             iterations++;
         }
 
+        if (multiThread) {
+            ex.shutdown();
+        }
+
         //Create and store an ArrayList for each cluster containing indexes of
         //points inside the cluster.
         clusters = new ArrayList[k];
@@ -145,6 +199,21 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
         }
     }
 
+    private void assignInstances(double[][] spectra, double[] norms, int from, int to, int seriesLength, SBD sbd) {
+        for (int i = from; i < to; i++) {
+            double minDist = Double.MAX_VALUE;
+
+            for (int n = 0; n < k; n++) {
+                double dist = sbd.distance(centroidSpectra[n], centroidNorms[n], seriesLength, spectra[i], norms[i]);
+
+                if (dist < minDist) {
+                    minDist = dist;
+                    assignments[i] = n;
+                }
+            }
+        }
+    }
+
     @Override
     public int clusterInstance(Instance inst) throws Exception {
         Instance newInst = copyInstances ? new DenseInstance(inst) : inst;
@@ -156,13 +225,34 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
 
         zNormalise(newInst);
 
+        double[] series = newInst.toDoubleArray();
+        SBD sbd = new SBD();
+
+        if (centroidSpectra == null || series.length != centroids.numAttributes()) {
+            double minDist = Double.MAX_VALUE;
+            int closestCluster = 0;
+            for (int i = 0; i < centroids.size(); ++i) {
+                double dist = sbd.calculateDistance(newInst, centroids.get(i));
+
+                if (dist < minDist) {
+                    minDist = dist;
+                    closestCluster = i;
+                }
+            }
+
+            return closestCluster;
+        }
+
+        double[] spectrum = sbd.spectrum(series, centroidSpectra[0].length / 2);
+        double norm = SBD.sumSquare(series);
+
         double minDist = Double.MAX_VALUE;
         int closestCluster = 0;
         for (int i = 0; i < centroids.size(); ++i) {
-            SBD sbd = new SBD(newInst, centroids.get(i), false);
+            double dist = sbd.distance(spectrum, norm, series.length, centroidSpectra[i], centroidNorms[i]);
 
-            if (sbd.dist < minDist) {
-                minDist = sbd.dist;
+            if (dist < minDist) {
+                minDist = dist;
                 closestCluster = i;
             }
         }
@@ -170,40 +260,46 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
         return closestCluster;
     }
 
-    private Instance shapeExtraction(Instances data, Instance centroid, int centroidNum) {
-        Instances subsample = new Instances(data, 0);
-        int seriesSize = centroid.numAttributes();
+    private double[] shapeExtraction(double[][] series, double[][] spectra, double[] norms, double[] centroid,
+                                     int centroidNum, SBD sbd) {
+        int seriesSize = centroid.length;
 
         double sum = 0;
         for (int i = 0; i < seriesSize; i++) {
-            sum += centroid.value(i);
+            sum += centroid[i];
         }
         boolean sumZero = sum == 0;
 
+        double[] centroidSpectrum = null;
+        double centroidNorm = 0;
+        if (!sumZero) {
+            centroidSpectrum = centroidSpectra[centroidNum];
+            centroidNorm = centroidNorms[centroidNum];
+        }
+
         //Take subsample of instances in centroids cluster
-        for (int i = 0; i < data.numInstances(); i++) {
+        ArrayList<double[]> subsample = new ArrayList<>();
+        for (int i = 0; i < series.length; i++) {
             if (assignments[i] == centroidNum) {
                 //If the centroid sums to 0 add full instance to the subsample
                 if (sumZero) {
-                    subsample.add(data.get(i));
+                    subsample.add(Arrays.copyOf(series[i], series[i].length));
                 } else {
-                    SBD sbd = new SBD(centroid, data.get(i), true);
-                    subsample.add(sbd.yShift);
+                    sbd.distance(centroidSpectrum, centroidNorm, seriesSize, spectra[i], norms[i]);
+                    subsample.add(sbd.shiftSeries(series[i], seriesSize));
                 }
             }
         }
 
         //Return instances of 0s as centroid if subsample empty
-        if (subsample.numInstances() == 0) {
-            return new DenseInstance(1, new double[centroid.numAttributes()]);
+        if (subsample.size() == 0) {
+            return new double[seriesSize];
         }
 
-        zNormalise(subsample);
-
-        double[][] subsampleArray = new double[subsample.numInstances()][];
-
-        for (int i = 0; i < subsample.numInstances(); i++) {
-            subsampleArray[i] = subsample.get(i).toDoubleArray();
+        double[][] subsampleArray = new double[subsample.size()][];
+        for (int i = 0; i < subsample.size(); i++) {
+            subsampleArray[i] = subsample.get(i);
+            zNormalise(subsampleArray[i]);
         }
 
         //Calculate eignenvectors for subsample
@@ -224,8 +320,8 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
         EigenvalueDecomposition eig = matrix.eig();
 //        EigenvalueDecomposition.maxIter = -1;
         Matrix v = eig.getV();
-        double[] eigVector = new double[centroid.numAttributes()];
-        double[] eigVectorNeg = new double[centroid.numAttributes()];
+        double[] eigVector = new double[seriesSize];
+        double[] eigVectorNeg = new double[seriesSize];
 
         double eigSum = 0;
         double eigSumNeg = 0;
@@ -236,7 +332,7 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
                 eigVector[i] = v.get(i, col);
                 eigVectorNeg[i] = -eigVector[i];
 
-                double firstVal = subsample.get(0).value(i);
+                double firstVal = subsampleArray[0][i];
 
                 eigSum += (firstVal - eigVector[i]) * (firstVal - eigVector[i]);
                 eigSumNeg += (firstVal - eigVectorNeg[i]) * (firstVal - eigVectorNeg[i]);
@@ -244,20 +340,15 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
 
             //Hack to move to next column if the correct values dont appear on the first one for some reason
             //I have no idea why this happens or which datasets this may happen in
-            if (Math.round(eigSum) == subsample.get(0).numAttributes() &&
-                    Math.round(eigSumNeg) == subsample.get(0).numAttributes()) {
+            if (Math.round(eigSum) == seriesSize &&
+                    Math.round(eigSumNeg) == seriesSize) {
                 col++;
             } else {
                 break;
             }
         }
 
-        Instance newCent;
-        if (eigSum < eigSumNeg) {
-            newCent = new DenseInstance(1, eigVector);
-        } else {
-            newCent = new DenseInstance(1, eigVectorNeg);
-        }
+        double[] newCent = eigSum < eigSumNeg ? eigVector : eigVectorNeg;
 
         //Normalise and return eigenvector as new centroid
         zNormalise(newCent);
@@ -265,6 +356,22 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
         return newCent;
     }
 
+    /**
+     * Enables multithreading for the assignment of instances to centroids and the extraction of each centroid
+     *
+     * @param numThreads number of threads available for multi threading
+     */
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        if (numThreads > 1) {
+            this.numThreads = numThreads;
+            multiThread = true;
+        } else {
+            this.numThreads = 1;
+            multiThread = false;
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         String dataset = "Trace";
         Instances inst = DatasetLoading.loadDataNullable("D:\\CMP Machine Learning\\Datasets\\UnivariateARFF\\" + dataset + "/" +
@@ -289,26 +396,22 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
     public static class SBD {
 
         private double dist;
-        private Instance yShift;
-
-        private FastFourierTransformer fft;
+        private int shift;
 
         public SBD() {
         }
 
-        private SBD(Instance first, Instance second, boolean calcShift) {
-            calculateDistance(first, second, calcShift);
-        }
-
         public double[][] createDistanceMatrix(Instances data){
             double[][] distMatrix = new double[data.numInstances()][];
+            double[][] spectra = new double[data.numInstances()][];
+            double[] norms = new double[data.numInstances()];
+            int length = spectra(data, spectra, norms);
 
             for (int i = 0; i < data.numInstances(); i++){
                 distMatrix[i] = new double[data.numInstances()];
-                Instance first = data.get(i);
 
                 for (int n = 0; n < data.numInstances(); n++){
-                    distMatrix[i][n] = calculateDistance(first, data.get(n));
+                    distMatrix[i][n] = distance(spectra[i], norms[i], length, spectra[n], norms[n]);
                 }
             }
 
@@ -317,107 +420,125 @@ public class KShape extends EnhancedAbstractClusterer implements NumberOfCluster
 
         public double[][] createBottomHalfDistanceMatrix(Instances data){
             double[][] distMatrix = new double[data.numInstances()][];
+            double[][] spectra = new double[data.numInstances()][];
+            double[] norms = new double[data.numInstances()];
+            int length = spectra(data, spectra, norms);
 
             for (int i = 0; i < data.numInstances(); i++){
                 distMatrix[i] = new double[i + 1];
-                Instance first = data.get(i);
 
                 for (int n = 0; n < i; n++){
-                    distMatrix[i][n] = calculateDistance(first, data.get(n));
+                    distMatrix[i][n] = distance(spectra[i], norms[i], length, spectra[n], norms[n]);
                 }
             }
 
             return distMatrix;
         }
 
-        public double calculateDistance(Instance first, Instance second) {
-            calculateDistance(first, second, false);
-            return dist;
-        }
+        private int spectra(Instances data, double[][] spectra, double[] norms) {
+            int length = data.numAttributes();
+            int nfft = fftLength(length);
+
+            for (int i = 0; i < data.numInstances(); i++){
+                double[] series = data.get(i).toDoubleArray();
+                spectra[i] = spectrum(series, nfft);
+                norms[i] = sumSquare(series);
+            }
 
-        private void calculateDistance(Instance first, Instance second, boolean calcShift) {
-            int oldLength = first.numAttributes();
-            int oldLengthY = second.numAttributes();
-            int maxLength = Math.max(oldLength, oldLengthY);
+            return length;
+        }
 
-            int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(maxLength) / Math.log(2)));
+        public double calculateDistance(Instance first, Instance second) {
+            double[] x = first.toDoubleArray();
+            double[] y = second.toDoubleArray();
+            int nfft = fftLength(Math.max(x.length, y.length));
 
-            //FFT and IFFT
-            fft = new FastFourierTransformer(DftNormalization.STANDARD);
+            return distance(spectrum(x, nfft), sumSquare(x), x.length, spectrum(y, nfft), sumSquare(y));
+        }
 
-            Complex[] firstC = fft(first, oldLength, nfft);
-            Complex[] secondC = fft(second, oldLengthY, nfft);
-            for (int i = 0; i < nfft; i++) {
-                firstC[i] = firstC[i].multiply(secondC[i].conjugate());
+        /**
+         * Shape based distance between two series given their spectra from spectrum(...) of the same padded
+         * length, their sums of squares and the length of the first series. The shift of the best alignment
+         * is kept for a following call to shiftSeries(...)
+         */
+        double distance(double[] firstSpectrum, double firstNorm, int firstLength, double[] secondSpectrum,
+                        double secondNorm) {
+            int nfft = firstSpectrum.length / 2;
+            double[] buffer = FFTUtilities.scratch(nfft * 2);
+
+            //Cross correlation, the inverse FFT of the first spectrum times the conjugate of the second
+            for (int i = 0; i < nfft * 2; i += 2) {
+                double re1 = firstSpectrum[i], im1 = firstSpectrum[i + 1];
+                double re2 = secondSpectrum[i], im2 = secondSpectrum[i + 1];
+                buffer[i] = re1 * re2 + im1 * im2;
+                buffer[i + 1] = im1 * re2 - re1 * im2;
             }
 
-            firstC = fft.transform(firstC, TransformType.INVERSE);
+            FFTUtilities.plan(nfft).complexInverse(buffer, true);
 
-            //Calculate NCCc values
-            double firstNorm = sumSquare(first);
-            double secondNorm = sumSquare(second);
+            //Largest NCCc value and index
             double norm = Math.sqrt(firstNorm * secondNorm);
 
-            double[] ncc = new double[oldLength * 2 - 1];
+            double maxValue = 0;
+            shift = -1;
             int idx = 0;
 
-            for (int i = nfft - oldLength + 1; i < nfft; i++) {
-                ncc[idx++] = firstC[i].getReal() / norm;
-            }
-
-            for (int i = 0; i < oldLength; i++) {
-                ncc[idx++] = firstC[i].getReal() / norm;
+            for (int i = nfft - firstLength + 1; i < nfft; i++, idx++) {
+                double ncc = buffer[i * 2] / norm;
+                if (ncc > maxValue) {
+                    maxValue = ncc;
+                    shift = idx;
+                }
             }
 
-            double maxValue = 0;
-            int shift = -1;
-            //Largest NCCc value and index
-            for (int i = 0; i < ncc.length; i++) {
-                if (ncc[i] > maxValue) {
-                    maxValue = ncc[i];
-                    shift = i;
+            for (int i = 0; i < firstLength; i++, idx++) {
+                double ncc = buffer[i * 2] / norm;
+                if (ncc > maxValue) {
+                    maxValue = ncc;
+                    shift = idx;
                 }
             }
 
             dist = 1 - maxValue;
+            return dist;
+        }
 
-            //Create y', shifting the second instance in a direction and padding with 0s
-            if (calcShift) {
-                shift -= maxLength - 1;
-
-                yShift = new DenseInstance(1, new double[oldLengthY]);
-
-                if (shift >= 0) {
-                    for (int i = 0; i < oldLengthY - shift; i++) {
-                        yShift.setValue(i + shift, second.value(i));
-                    }
-                } else {
-                    for (int i = 0; i < oldLengthY + shift; i++) {
-                        yShift.setValue(i, second.value(i - shift));
-                    }
+        /**
+         * Creates y', a copy of the series shifted in a direction by the alignment found in the last distance
+         * calculation and padded with 0s
+         */
+        double[] shiftSeries(double[] series, int maxLength) {
+            int s = shift - (maxLength - 1);
+            double[] shifted = new double[series.length];
+
+            if (s >= 0) {
+                for (int i = 0; i < series.length - s; i++) {
+                    shifted[i + s] = series[i];
+                }
+            } else {
+                for (int i = 0; i < series.length + s; i++) {
+                    shifted[i] = series[i - s];
                 }
             }
-        }
-
-        //Run FFT and return array of complex numbers
-        private Complex[] fft(Instance inst, int oldLength, int nfft) {
-            Complex[] complex = new Complex[nfft];
 
-            for (int i = 0; i < oldLength; i++) {
-                complex[i] = new Complex(inst.value(i), 0);
-            }
+            return shifted;
+        }
 
-            for (int i = oldLength; i < nfft; i++) {
-                complex[i] = new Complex(0, 0);
-            }
+        /**
+         * @return the FFT of the series zero padded to length nfft, as interleaved real and imaginary parts
+         */
+        double[] spectrum(double[] series, int nfft) {
+            return FFTUtilities.complexForward(series, 0, nfft);
+        }
 
-            return fft.transform(complex, TransformType.FORWARD);
+        static int fftLength(int maxLength) {
+            return FFTUtilities.powerOfTwoLength(maxLength);
         }
 
-        private double sumSquare(Instance inst) {
+        static double sumSquare(double[] series) {
             double sum = 0;
-            for (int i = 0; i < inst.numAttributes(); i++) {
-                sum += inst.value(i) * inst.value(i);
+            for (int i = 0; i < series.length; i++) {
+                sum += series[i] * series[i];
             }
             return sum;
         }
@@ -20,6 +20,7 @@ package tsml.clusterers;
 import experiments.data.DatasetLoading;
 import machine_learning.clusterers.CAST;
 import machine_learning.clusterers.KMedoids;
+import tsml.classifiers.MultiThreadable;
 import tsml.classifiers.legacy.elastic_ensemble.distance_functions.DTW;
 import weka.clusterers.NumberOfClustersRequestable;
 import weka.core.DenseInstance;
@@ -38,7 +39,7 @@ import static utilities.InstanceTools.deleteClassAttribute;
  *
  * @author Matthew Middlehurst
  */
-public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRequestable {
+public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRequestable, MultiThreadable {
 
     //Aghabozorgi, Saeed, et al.
     //"A hybrid algorithm for clustering of time series data based on affinity search technique."
@@ -52,6 +53,8 @@ public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRe
 
     private KMedoids kmedoids;
 
+    private int numThreads = 1;
+
     public TTC() {
     }
 
@@ -65,6 +68,16 @@ public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRe
         k = numClusters;
     }
 
+    /**
+     * Enables multi threading with a set number of threads to use.
+     *
+     * @param numThreads number of threads available for multi threading
+     */
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        this.numThreads = Math.max(numThreads, 1);
+    }
+
     @Override
     public void buildClusterer(Instances data) throws Exception {
         super.buildClusterer(data);
@@ -73,7 +86,7 @@ public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRe
 
         EuclideanDistance ed = new EuclideanDistance();
         ed.setDontNormalize(true);
-        distanceMatrix = createDistanceMatrix(train, ed);
+        distanceMatrix = createDistanceMatrix(train, ed, numThreads);
 
         //Cluster using the CAST algorithm
         CAST cast = new CAST(distanceMatrix);
@@ -106,6 +119,7 @@ public class TTC extends EnhancedAbstractClusterer implements NumberOfClustersRe
         kmedoids.setNumClusters(k);
         kmedoids.setNormaliseData(false);
         kmedoids.setCopyInstances(false);
+        kmedoids.enableMultiThreading(numThreads);
         if (seedClusterer)
             kmedoids.setSeed(seed);
         kmedoids.buildClusterer(cl);
@@ -38,6 +38,7 @@ public class TSWriter {
 
     TimeSeriesInstances data;
     BufferedWriter writer;
+    PrintWriter printWriter;
 
     public void setData(TimeSeriesInstances dat){
         data = dat;
@@ -47,6 +48,7 @@ public class TSWriter {
 
     public void setDestination(OutputStream output) {
         writer = new BufferedWriter(new OutputStreamWriter(output));
+        printWriter = null;
     }
 
     public void setDesination(File output) throws FileNotFoundException {
@@ -68,37 +70,65 @@ public class TSWriter {
     }
 
     public void writeBatch(){
+        writeHeader(data.getProblemName(), data.hasTimeStamps(), data.hasMissing(), !data.isMultivariate(),
+                data.getMaxNumDimensions(), data.isEqualLength(), data.getMaxLength(), data.getClassLabels());
+        writeInstances(data, data.getClassLabels());
+        close();
+    }
 
-        PrintWriter outW = new PrintWriter(getWriter());
-
-        //writer header info first.
-        outW.println("@problemName " + data.getProblemName());
-        outW.println("@timeStamps " + data.hasTimeStamps());
-        outW.println("@missing " + data.hasMissing());
-        outW.println("@univariate " + !data.isMultivariate());
-        outW.println("@dimensions " + data.getMaxNumDimensions());
-        outW.println("@equalLength " + data.isEqualLength());
-        outW.println("@seriesLength " + data.getMaxLength());
-        //outW.println("@classLabel " + );
+    /**
+     * Write the header alone, so that the data can follow in chunks through writeInstances, e.g. when it is too
+     * large to hold in memory. Call close once all the data has been written.
+     */
+    public void writeHeader(String problemName, boolean timeStamps, boolean missing, boolean univariate,
+                            int dimensions, boolean equalLength, int seriesLength, String[] classLabels){
+        PrintWriter outW = getPrintWriter();
+
+        outW.println("@problemName " + problemName);
+        outW.println("@timeStamps " + timeStamps);
+        outW.println("@missing " + missing);
+        outW.println("@univariate " + univariate);
+        outW.println("@dimensions " + dimensions);
+        outW.println("@equalLength " + equalLength);
+        outW.println("@seriesLength " + seriesLength);
         outW.print("@classLabel ");
-        outW.print(data.getClassLabels() != null && data.getClassLabels().length > 0);
-        outW.println(data.getClassLabelsFormatted());
+        outW.print(classLabels != null && classLabels.length > 0);
+        //formatted as TimeSeriesInstances.getClassLabelsFormatted
+        StringBuilder labels = new StringBuilder(" ");
+        if (classLabels != null)
+            for (String s : classLabels)
+                labels.append(s).append(" ");
+        outW.println(labels);
 
         outW.println("@data");
-        //then writer data.
+    }
+
+    /**
+     * Append the data of insts, one line per instance.
+     */
+    public void writeInstances(Iterable<TimeSeriesInstance> insts, String[] classLabels){
         StringBuilder sb = new StringBuilder();
-        for(TimeSeriesInstance inst : data){
+        for(TimeSeriesInstance inst : insts){
             for(TimeSeries ts : inst){
                 
                 for(Double d : ts.getSeries())
                     sb.append(df.format(d.doubleValue())).append(",");
                 sb.replace(sb.length()-1,sb.length(),":"); //we use colon to separate dimensions, overwriter the last comma.
             }
-            sb.append(data.getClassLabels()[inst.getLabelIndex()]); //append the class label.
+            sb.append(classLabels[inst.getLabelIndex()]); //append the class label.
             sb.append("\n");
         }
 
-        outW.print(sb.toString());
-        outW.close();
+        getPrintWriter().print(sb.toString());
+    }
+
+    public void close(){
+        getPrintWriter().close();
+    }
+
+    private PrintWriter getPrintWriter(){
+        if (printWriter == null)
+            printWriter = new PrintWriter(getWriter());
+        return printWriter;
     }
 }
\ No newline at end of file
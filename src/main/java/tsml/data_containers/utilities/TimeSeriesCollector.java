@@ -17,46 +17,52 @@
  
 package tsml.data_containers.utilities;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-public class TimeSeriesCollector implements Collector<Double, List<Double>, TimeSeriesSummaryStatistics> {
+/**
+ * Collects a stream of values, in order, into their TimeSeriesSummaryStatistics in a single pass. Values which are not
+ * finite are ignored.
+ */
+public class TimeSeriesCollector implements Collector<Double, TimeSeriesSummaryStatistics, TimeSeriesSummaryStatistics> {
 
     @Override
-    public BiConsumer<List<Double>, Double> accumulator() {
-        return (list, val) -> list.add(val);
+    public BiConsumer<TimeSeriesSummaryStatistics, Double> accumulator() {
+        return (stats, val) -> {
+            if (Double.isFinite(val))
+                stats.add(val);
+        };
     }
 
     @Override
     public Set<Characteristics> characteristics() {
         HashSet<Characteristics> set = new HashSet<Characteristics>(); 
-        set.add(Characteristics.UNORDERED);
+        set.add(Characteristics.IDENTITY_FINISH);
         return set;
     }
 
-    //merge two lists in parallel.
+    //merge the stats of consecutive parts in parallel.
     @Override
-    public BinaryOperator<List<Double>> combiner() {
-       return (list1, list2) -> Stream.concat(list1.stream(), list2.stream()).collect(Collectors.toList());
+    public BinaryOperator<TimeSeriesSummaryStatistics> combiner() {
+       return (stats1, stats2) -> {
+           stats1.merge(stats2);
+           return stats1;
+       };
     }
 
     @Override
-    public Supplier<List<Double>> supplier() {
-        return ArrayList<Double>::new;
+    public Supplier<TimeSeriesSummaryStatistics> supplier() {
+        return TimeSeriesSummaryStatistics::new;
     }
 
     @Override
-    public Function<List<Double>, TimeSeriesSummaryStatistics> finisher() {
-        return TimeSeriesSummaryStatistics::new;
+    public Function<TimeSeriesSummaryStatistics, TimeSeriesSummaryStatistics> finisher() {
+        return Function.identity();
     }
     
-}
\ No newline at end of file
+}
@@ -17,24 +17,48 @@
  
 package tsml.data_containers.utilities;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 
 import tsml.data_containers.TimeSeries;
+import tsml.data_containers.TimeSeriesInstance;
+import tsml.data_containers.TimeSeriesInstances;
 
+/**
+ * Summary statistics of a series, found in a single pass. The higher moments are accumulated with Welford style
+ * updates, so values can also be added one at a time with add and the statistics of consecutive parts of a series
+ * combined with merge, e.g. when computed in parallel.
+ *
+ * The static methods compute each statistic on its own.
+ */
 public class TimeSeriesSummaryStatistics {
 
-    private double mean;
+    private int count;
     private double sum;
-    private double slope;
-    private double variance;
-    private double kurtosis;
+    private double sumSq;
+    // sum of value * position, for the slope
+    private double sumXY;
     private double min;
     private double max;
-    private double sumSq;
-    private double skew;
-    private double std;
+    private int argmin;
+    private int argmax;
+    // running mean and sums of the 2nd, 3rd and 4th powers of the deviations from it
+    private double runningMean;
+    private double m2;
+    private double m3;
+    private double m4;
+
+    /**
+     * Empty statistics, for values to be added to.
+     */
+    public TimeSeriesSummaryStatistics() {
+        reset();
+    }
 
     public TimeSeriesSummaryStatistics(double[] data) {
         // this method assume that there is no NaNs present.
@@ -48,8 +72,8 @@ public class TimeSeriesSummaryStatistics {
 
     public TimeSeriesSummaryStatistics(List<Double> data) {
         // calculate stats
-        // strip out the NaNs, convert to an array of doubles.
-        this(convert(data));
+        // ignores the NaNs.
+        calculateStats(data);
     }
 
     
@@ -57,22 +81,183 @@ public class TimeSeriesSummaryStatistics {
      * @param inst
      */
     public void calculateStats(double[] inst) {
-        max = max(inst);
-        min = min(inst);
-        sum = sum(inst);
-        sumSq = sumSq(inst);
+        calculateStats(inst, 0, inst.length);
+    }
 
-        mean = mean(inst);
-        variance = variance(inst, mean);
+    /**
+     * Calculate the stats of inst[start, end), e.g. an interval, without copying it. Positions (argmin, argmax and
+     * the slope) are relative to start.
+     */
+    public void calculateStats(double[] inst, int start, int end) {
+        reset();
+        for (int i = start; i < end; i++)
+            add(inst[i]);
+    }
 
-        std = Math.sqrt(variance);
+    /**
+     * Calculate the stats of the finite values of data.
+     */
+    public void calculateStats(List<Double> data) {
+        reset();
+        for (Double x : data)
+            if (Double.isFinite(x))
+                add(x);
+    }
 
-        skew = skew(inst, mean, std);
-        kurtosis = kurtosis(inst, mean, std);
-        slope = slope(inst, sum, sumSq, std);
+    public void reset() {
+        count = 0;
+        sum = sumSq = sumXY = 0;
+        runningMean = m2 = m3 = m4 = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        argmin = argmax = -1;
+    }
+
+    /**
+     * Add the next value of the series.
+     */
+    public void add(double x) {
+        int pos = count++;
+        sum += x;
+        sumSq += x * x;
+        sumXY += x * pos;
+        if (x < min) {
+            min = x;
+            argmin = pos;
+        }
+        if (x > max) {
+            max = x;
+            argmax = pos;
+        }
+
+        double delta = x - runningMean;
+        double deltaN = delta / count;
+        double deltaN2 = deltaN * deltaN;
+        double term = delta * deltaN * pos;
+        runningMean += deltaN;
+        m4 += term * deltaN2 * ((double) count * count - 3 * count + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        m3 += term * deltaN * (count - 2) - 3 * deltaN * m2;
+        m2 += term;
+    }
+
+    /**
+     * Combine with the stats of the values which follow those of this in the series.
+     */
+    public void merge(TimeSeriesSummaryStatistics other) {
+        if (other.count == 0)
+            return;
+        if (count == 0) {
+            copy(other);
+            return;
+        }
+
+        double nA = count, nB = other.count, n = nA + nB;
+        double delta = other.runningMean - runningMean;
+        double delta2 = delta * delta;
+        double newM2 = m2 + other.m2 + delta2 * nA * nB / n;
+        double newM3 = m3 + other.m3 + delta2 * delta * nA * nB * (nA - nB) / (n * n)
+                + 3 * delta * (nA * other.m2 - nB * m2) / n;
+        m4 = m4 + other.m4 + delta2 * delta2 * nA * nB * (nA * nA - nA * nB + nB * nB) / (n * n * n)
+                + 6 * delta2 * (nA * nA * other.m2 + nB * nB * m2) / (n * n) + 4 * delta * (nA * other.m3 - nB * m3) / n;
+        m3 = newM3;
+        m2 = newM2;
+        runningMean += delta * nB / n;
+
+        sumXY += other.sumXY + nA * other.sum;
+        sum += other.sum;
+        sumSq += other.sumSq;
+        if (other.min < min) {
+            min = other.min;
+            argmin = count + other.argmin;
+        }
+        if (other.max > max) {
+            max = other.max;
+            argmax = count + other.argmax;
+        }
+        count += other.count;
+    }
+
+    private void copy(TimeSeriesSummaryStatistics other) {
+        count = other.count;
+        sum = other.sum;
+        sumSq = other.sumSq;
+        sumXY = other.sumXY;
+        min = other.min;
+        max = other.max;
+        argmin = other.argmin;
+        argmax = other.argmax;
+        runningMean = other.runningMean;
+        m2 = other.m2;
+        m3 = other.m3;
+        m4 = other.m4;
+    }
+
+    /**
+     * Calculate the stats of every dimension of every instance in data.
+     *
+     * @return the stats indexed by instance then dimension
+     */
+    public static TimeSeriesSummaryStatistics[][] calculateStats(TimeSeriesInstances data, int numThreads)
+            throws Exception {
+        TimeSeriesSummaryStatistics[][] stats = new TimeSeriesSummaryStatistics[data.numInstances()][];
+        if (numThreads <= 1) {
+            calculateStats(data, stats, 0, 1);
+            return stats;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(numThreads);
+            for (int t = 0; t < numThreads; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> calculateStats(data, stats, first, numThreads)));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        return stats;
+    }
+
+    private static void calculateStats(TimeSeriesInstances data, TimeSeriesSummaryStatistics[][] stats, int first,
+                                       int step) {
+        for (int i = first; i < stats.length; i += step) {
+            TimeSeriesInstance inst = data.get(i);
+            stats[i] = new TimeSeriesSummaryStatistics[inst.getNumDimensions()];
+            for (int j = 0; j < stats[i].length; j++)
+                stats[i][j] = new TimeSeriesSummaryStatistics(inst.get(j));
+        }
+    }
+
+    /**
+     * The mean and standard deviation of every window of windowLength consecutive values of series, each updated
+     * from the last in constant time. RowNormalizer, SummaryStats and the interval classifiers do not use this, as
+     * they summarise whole series or randomly placed intervals rather than every window of a series.
+     *
+     * @param means the window means, of length series.length - windowLength + 1
+     * @param stds  the window standard deviations (population), of the same length
+     */
+    public static void slidingMeanStd(double[] series, int windowLength, double[] means, double[] stds) {
+        double mean = 0, m2 = 0;
+        for (int i = 0; i < windowLength; i++) {
+            double delta = series[i] - mean;
+            mean += delta / (i + 1);
+            m2 += delta * (series[i] - mean);
+        }
+        means[0] = mean;
+        stds[0] = Math.sqrt(Math.max(0, m2) / windowLength);
+
+        for (int i = windowLength; i < series.length; i++) {
+            double in = series[i], out = series[i - windowLength];
+            double oldMean = mean;
+            mean += (in - out) / windowLength;
+            m2 += (in - out) * (in - mean + out - oldMean);
+            means[i - windowLength + 1] = mean;
+            stds[i - windowLength + 1] = Math.sqrt(Math.max(0, m2) / windowLength);
+        }
     }
 
-    
     /** 
      * @param inst
      * @return double
@@ -414,8 +599,10 @@ public class TimeSeriesSummaryStatistics {
         for (int j = 0; j < inst.length; j++) {
             sumXY += inst[j] * j;
         }
-        double length = inst.length;
+        return slope(sumXY, sum, sumSq, inst.length, std);
+    }
 
+    private static double slope(double sumXY, double sum, double sumSq, double length, double std) {
         double sqsum = sum * sum;
         // slope
         double slope = sumXY - sqsum / length;
@@ -543,7 +730,7 @@ public class TimeSeriesSummaryStatistics {
      * @return double
      */
     public double getMean() {
-        return mean;
+        return sum / count;
     }
 
     
@@ -559,7 +746,7 @@ public class TimeSeriesSummaryStatistics {
      * @return double
      */
     public double getSlope() {
-        return slope;
+        return slope(sumXY, sum, sumSq, count, getStd());
     }
 
     
@@ -567,7 +754,15 @@ public class TimeSeriesSummaryStatistics {
      * @return double
      */
     public double getVariance() {
-        return variance;
+        return m2 / count;
+    }
+
+    
+    /** 
+     * @return double
+     */
+    public double getStd() {
+        return Math.sqrt(getVariance());
     }
 
     
@@ -575,7 +770,7 @@ public class TimeSeriesSummaryStatistics {
      * @return double
      */
     public double getKurtosis() {
-        return kurtosis;
+        return m4 / Math.pow(getStd(), 4) / count;
     }
 
     
@@ -595,6 +790,30 @@ public class TimeSeriesSummaryStatistics {
     }
 
     
+    /** 
+     * @return int
+     */
+    public int getArgmin() {
+        return argmin;
+    }
+
+    
+    /** 
+     * @return int
+     */
+    public int getArgmax() {
+        return argmax;
+    }
+
+    
+    /** 
+     * @return int the number of values
+     */
+    public int getCount() {
+        return count;
+    }
+
+    
     /** 
      * @return double
      */
@@ -607,7 +826,7 @@ public class TimeSeriesSummaryStatistics {
      * @return double
      */
     public double getSkew() {
-        return skew;
+        return m3 / Math.pow(getStd(), 3) / count;
     }
 
 
@@ -0,0 +1,145 @@
+package tsml.data_containers.utilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tsml.data_containers.TimeSeriesInstances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the single pass statistics against the static methods computing each statistic on its own. The sums,
+ * mean, min, max and their positions should match exactly, the higher moments and slope to within a relative 1e-9.
+ */
+public class TimeSeriesSummaryStatisticsTest {
+
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+    private static final int[] LENGTHS = { 2, 3, 10, 257 };
+
+    private static double[] randomSeries(Random random, int length) {
+        double[] series = new double[length];
+        for (int i = 0; i < length; i++)
+            series[i] = 5 + 0.01 * i + random.nextGaussian();
+        return series;
+    }
+
+    private static void assertClose(double expected, double actual) {
+        Assert.assertEquals(expected, actual, RELATIVE_TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+
+    private static void assertMatchesStatic(double[] series, TimeSeriesSummaryStatistics stats) {
+        double mean = TimeSeriesSummaryStatistics.mean(series);
+        double std = Math.sqrt(TimeSeriesSummaryStatistics.variance(series, mean));
+        double sum = TimeSeriesSummaryStatistics.sum(series);
+        double sumSq = TimeSeriesSummaryStatistics.sumSq(series);
+
+        Assert.assertEquals(series.length, stats.getCount());
+        Assert.assertEquals(sum, stats.getSum(), 0);
+        Assert.assertEquals(sumSq, stats.getSumSq(), 0);
+        Assert.assertEquals(mean, stats.getMean(), 0);
+        Assert.assertEquals(TimeSeriesSummaryStatistics.min(series), stats.getMin(), 0);
+        Assert.assertEquals(TimeSeriesSummaryStatistics.max(series), stats.getMax(), 0);
+        Assert.assertEquals(TimeSeriesSummaryStatistics.argmin(series), stats.getArgmin());
+        Assert.assertEquals(TimeSeriesSummaryStatistics.argmax(series), stats.getArgmax());
+        assertClose(std * std, stats.getVariance());
+        assertClose(TimeSeriesSummaryStatistics.skew(series, mean, std), stats.getSkew());
+        assertClose(TimeSeriesSummaryStatistics.kurtosis(series, mean, std), stats.getKurtosis());
+        assertClose(TimeSeriesSummaryStatistics.slope(series, sum, sumSq, std), stats.getSlope());
+    }
+
+    @Test
+    public void testSinglePassMatchesStatic() {
+        Random random = new Random(0);
+        for (int length : LENGTHS) {
+            double[] series = randomSeries(random, length);
+            assertMatchesStatic(series, new TimeSeriesSummaryStatistics(series));
+        }
+    }
+
+    @Test
+    public void testIntervalMatchesCopy() {
+        double[] series = randomSeries(new Random(1), 100);
+        TimeSeriesSummaryStatistics stats = new TimeSeriesSummaryStatistics();
+        stats.calculateStats(series, 17, 64);
+        assertMatchesStatic(Arrays.copyOfRange(series, 17, 64), stats);
+    }
+
+    @Test
+    public void testListSkipsNonFinite() {
+        double[] series = randomSeries(new Random(2), 50);
+        List<Double> list = new ArrayList<>();
+        for (int i = 0; i < series.length; i++) {
+            list.add(series[i]);
+            if (i % 10 == 0)
+                list.add(Double.NaN);
+        }
+        list.add(Double.POSITIVE_INFINITY);
+        assertMatchesStatic(series, new TimeSeriesSummaryStatistics(list));
+    }
+
+    @Test
+    public void testMergedPartsMatchWhole() {
+        Random random = new Random(3);
+        for (int length : LENGTHS) {
+            double[] series = randomSeries(random, length);
+            // split into up to 4 consecutive parts, some of which may be empty
+            int[] cuts = { 0, random.nextInt(length + 1), 0, 0, length };
+            cuts[2] = cuts[1] + random.nextInt(length - cuts[1] + 1);
+            cuts[3] = cuts[2] + random.nextInt(length - cuts[2] + 1);
+            TimeSeriesSummaryStatistics merged = new TimeSeriesSummaryStatistics();
+            for (int i = 0; i < 4; i++) {
+                TimeSeriesSummaryStatistics part = new TimeSeriesSummaryStatistics();
+                part.calculateStats(series, cuts[i], cuts[i + 1]);
+                merged.merge(part);
+            }
+            // merging changes the order of the sums, so these are only close rather than exact
+            TimeSeriesSummaryStatistics whole = new TimeSeriesSummaryStatistics(series);
+            Assert.assertEquals(whole.getCount(), merged.getCount());
+            Assert.assertEquals(whole.getMin(), merged.getMin(), 0);
+            Assert.assertEquals(whole.getMax(), merged.getMax(), 0);
+            Assert.assertEquals(whole.getArgmin(), merged.getArgmin());
+            Assert.assertEquals(whole.getArgmax(), merged.getArgmax());
+            assertClose(whole.getSum(), merged.getSum());
+            assertClose(whole.getSumSq(), merged.getSumSq());
+            assertClose(whole.getMean(), merged.getMean());
+            assertClose(whole.getVariance(), merged.getVariance());
+            assertClose(whole.getSkew(), merged.getSkew());
+            assertClose(whole.getKurtosis(), merged.getKurtosis());
+            assertClose(whole.getSlope(), merged.getSlope());
+        }
+    }
+
+    @Test
+    public void testSlidingMeanStdMatchesWindows() {
+        double[] series = randomSeries(new Random(4), 300);
+        for (int windowLength : new int[]{ 1, 2, 16, 300 }) {
+            int numWindows = series.length - windowLength + 1;
+            double[] means = new double[numWindows];
+            double[] stds = new double[numWindows];
+            TimeSeriesSummaryStatistics.slidingMeanStd(series, windowLength, means, stds);
+            for (int i = 0; i < numWindows; i++) {
+                double[] window = Arrays.copyOfRange(series, i, i + windowLength);
+                double mean = TimeSeriesSummaryStatistics.mean(window);
+                assertClose(mean, means[i]);
+                assertClose(Math.sqrt(TimeSeriesSummaryStatistics.variance(window, mean)), stds[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        Random random = new Random(5);
+        double[][][] raw = new double[20][3][];
+        for (double[][] inst : raw)
+            for (int d = 0; d < inst.length; d++)
+                inst[d] = randomSeries(random, 40);
+        TimeSeriesInstances data = new TimeSeriesInstances(raw, new double[raw.length]);
+
+        TimeSeriesSummaryStatistics[][] stats = TimeSeriesSummaryStatistics.calculateStats(data, 4);
+        for (int i = 0; i < raw.length; i++)
+            for (int d = 0; d < raw[i].length; d++)
+                assertMatchesStatic(raw[i][d], stats[i][d]);
+    }
+}
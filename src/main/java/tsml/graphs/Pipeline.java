@@ -18,9 +18,15 @@
 package tsml.graphs;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import tsml.classifiers.EnhancedAbstractClassifier;
+import tsml.classifiers.MultiThreadable;
+import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.TimeSeriesInstances;
 import tsml.data_containers.utilities.Splitter;
 import tsml.data_containers.utilities.TimeSeriesSummaryStatistics;
@@ -29,14 +35,57 @@ import weka.classifiers.AbstractClassifier;
 import weka.core.Instance;
 import weka.core.Instances;
 
-public class Pipeline extends EnhancedAbstractClassifier {
+/**
+ * A graph of layers, each transforming or classifying the output of the layer before. Split and concat layers branch
+ * the graph over dimensions of the data. With multithreading enabled, the branches of every split and concat layer,
+ * including those in nested pipelines, are fitted and evaluated concurrently on one pool shared by the whole graph.
+ *
+ * With instrumentation enabled, each layer records the time taken and the number of values output on its last fit and
+ * predict, see getInstrumentation. The number of values output stands in for the memory used by a layer, which can
+ * not be measured for a single layer while branches run concurrently.
+ */
+public class Pipeline extends EnhancedAbstractClassifier implements MultiThreadable {
 
     List<Layer> layers;
+    private int numThreads = 1;
+    private boolean instrumented = false;
 
     public Pipeline() {
         layers = new ArrayList<>();
     }
 
+    @Override
+    public void enableMultiThreading(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
+    /**
+     * @param instrumented whether each layer, including those in nested pipelines, records its time taken and number of
+     *                     values output. Off by default
+     */
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * @return a line per layer, indented by depth in the graph, giving the fit and predict times in milliseconds and
+     * the number of values output by the last instrumented fit and predict
+     */
+    public String getInstrumentation() {
+        StringBuilder sb = new StringBuilder();
+        for (Layer layer : layers)
+            layer.appendInstrumentation(sb, "");
+        return sb.toString();
+    }
+
     public void add(String name, Transformer transformer) {
         layers.add(new TransformerLayer(name, transformer));
     }
@@ -106,25 +155,43 @@ public class Pipeline extends EnhancedAbstractClassifier {
     public void buildClassifier(TimeSeriesInstances trainData) throws Exception {
         //super.buildClassifier(trainData);
 
-        TimeSeriesInstances data = trainData;
-        for (Layer layer : layers) {
-            data = layer.fit(data);
-        }   
+        fit(trainData);
     }
 
     public TimeSeriesInstances fit(TimeSeriesInstances trainData) throws Exception {
-        TimeSeriesInstances data = trainData;
-        for (Layer layer : layers) {
-            data = layer.fit(data);
-        }  
-        return data;
+        return run(trainData, true);
     }
 
     public TimeSeriesInstances predict(TimeSeriesInstances testData)throws Exception{
-        TimeSeriesInstances data = testData;
+        return run(testData, false);
+    }
+
+    private TimeSeriesInstances run(TimeSeriesInstances data, boolean fit) throws Exception {
+        for (Layer layer : layers)
+            layer.setInstrumented(instrumented);
+        if (numThreads <= 1)
+            return run(data, fit, null);
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            // run from inside the pool so branches are forked onto it
+            Branch root = new Branch(null, data, fit, pool) {
+                @Override
+                TimeSeriesInstances run() throws Exception {
+                    return Pipeline.this.run(input, fit, pool);
+                }
+            };
+            pool.execute(root);
+            return root.getOutput();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    TimeSeriesInstances run(TimeSeriesInstances data, boolean fit, ForkJoinPool pool) throws Exception {
         for (Layer layer : layers) {
-            data = layer.predict(data);
-        }   
+            data = layer.run(data, fit, pool);
+        }
         return data;
     }
 
@@ -135,9 +202,134 @@ public class Pipeline extends EnhancedAbstractClassifier {
 
     public static abstract class Layer {
         String name;
+        boolean instrumented = false;
+        // instrumentation of the last instrumented fit and predict, -1 if not yet run
+        long fitTime = -1;
+        long predictTime = -1;
+        long fitOutputSize = -1;
+        long predictOutputSize = -1;
 
         abstract TimeSeriesInstances fit(TimeSeriesInstances input) throws Exception;
         abstract TimeSeriesInstances predict(TimeSeriesInstances inst) throws Exception;
+
+        void setInstrumented(boolean instrumented) {
+            this.instrumented = instrumented;
+        }
+
+        /**
+         * Fit or predict, running any branches on the pool if not null, and if instrumented record the time taken and
+         * size of output.
+         */
+        TimeSeriesInstances run(TimeSeriesInstances input, boolean fit, ForkJoinPool pool) throws Exception {
+            if (!instrumented)
+                return fit ? fit(input, pool) : predict(input, pool);
+
+            long start = System.nanoTime();
+            TimeSeriesInstances output = fit ? fit(input, pool) : predict(input, pool);
+            long time = System.nanoTime() - start;
+            long size = 0;
+            for (TimeSeriesInstance inst : output)
+                for (int i = 0; i < inst.getNumDimensions(); i++)
+                    size += inst.get(i).getSeriesLength();
+            if (fit) {
+                fitTime = time;
+                fitOutputSize = size;
+            } else {
+                predictTime = time;
+                predictOutputSize = size;
+            }
+            return output;
+        }
+
+        TimeSeriesInstances fit(TimeSeriesInstances input, ForkJoinPool pool) throws Exception {
+            return fit(input);
+        }
+
+        TimeSeriesInstances predict(TimeSeriesInstances input, ForkJoinPool pool) throws Exception {
+            return predict(input);
+        }
+
+        void appendInstrumentation(StringBuilder sb, String indent) {
+            sb.append(indent).append(name)
+                    .append(": fit=").append(fitTime < 0 ? -1 : fitTime / 1000000).append("ms")
+                    .append(" (").append(fitOutputSize).append(" values)")
+                    .append(", predict=").append(predictTime < 0 ? -1 : predictTime / 1000000).append("ms")
+                    .append(" (").append(predictOutputSize).append(" values)")
+                    .append(System.lineSeparator());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the time taken by the last instrumented fit in nanoseconds, including any branches, or -1 if not fit
+         */
+        public long getFitTime() {
+            return fitTime;
+        }
+
+        /**
+         * @return the time taken by the last instrumented predict in nanoseconds, including any branches, or -1 if not
+         * run
+         */
+        public long getPredictTime() {
+            return predictTime;
+        }
+
+        /**
+         * @return the number of values in the data output by the last instrumented fit, or -1 if not fit
+         */
+        public long getFitOutputSize() {
+            return fitOutputSize;
+        }
+
+        /**
+         * @return the number of values in the data output by the last instrumented predict, or -1 if not run
+         */
+        public long getPredictOutputSize() {
+            return predictOutputSize;
+        }
+    }
+
+    /**
+     * A branch of the graph run as a task on the pool, holding any exception thrown to be rethrown on join.
+     */
+    private static class Branch extends RecursiveTask<TimeSeriesInstances> {
+        final Layer layer;
+        final TimeSeriesInstances input;
+        final boolean fit;
+        final ForkJoinPool pool;
+        private Exception exception;
+
+        Branch(Layer layer, TimeSeriesInstances input, boolean fit, ForkJoinPool pool) {
+            this.layer = layer;
+            this.input = input;
+            this.fit = fit;
+            this.pool = pool;
+        }
+
+        TimeSeriesInstances run() throws Exception {
+            return layer.run(input, fit, pool);
+        }
+
+        @Override
+        protected TimeSeriesInstances compute() {
+            try {
+                return run();
+            } catch (Exception e) {
+                exception = e;
+                return null;
+            }
+        }
+
+        TimeSeriesInstances getOutput() throws Exception {
+            // errors other than exceptions are thrown from get
+            TimeSeriesInstances output = get();
+            if (exception != null)
+                throw exception;
+            return output;
+        }
     }
 
     public static class ClassifierLayer<T extends EnhancedAbstractClassifier> extends Layer {
@@ -177,6 +369,32 @@ public class Pipeline extends EnhancedAbstractClassifier {
         TimeSeriesInstances predict(TimeSeriesInstances inst) throws Exception {
             return this.pipeline.predict(inst);
         }
+
+        @Override
+        TimeSeriesInstances fit(TimeSeriesInstances input, ForkJoinPool pool) throws Exception {
+            // share the pool of the enclosing pipeline
+            return pool == null ? fit(input) : this.pipeline.run(input, true, pool);
+        }
+
+        @Override
+        TimeSeriesInstances predict(TimeSeriesInstances inst, ForkJoinPool pool) throws Exception {
+            return pool == null ? predict(inst) : this.pipeline.run(inst, false, pool);
+        }
+
+        @Override
+        void setInstrumented(boolean instrumented) {
+            super.setInstrumented(instrumented);
+            pipeline.instrumented = instrumented;
+            for (Layer layer : pipeline.layers)
+                layer.setInstrumented(instrumented);
+        }
+
+        @Override
+        void appendInstrumentation(StringBuilder sb, String indent) {
+            super.appendInstrumentation(sb, indent);
+            for (Layer layer : pipeline.layers)
+                layer.appendInstrumentation(sb, indent + "  ");
+        }
     }
 
     public static class TransformerLayer extends Layer {
@@ -228,6 +446,7 @@ public class Pipeline extends EnhancedAbstractClassifier {
         public MultiLayer(String name, Transformer[] concats, int[][] indexes) {
             this.slicingIndexes = indexes;
             this.layers = new TransformerLayer[concats.length];
+            this.name = name;
 
             int i=0;
             for(Transformer t : concats)
@@ -259,6 +478,47 @@ public class Pipeline extends EnhancedAbstractClassifier {
             for(int i=0; i< slicingIndexes.length; i++)
                 slicingIndexes[i] = new int[]{i};
         }
+
+        public List<Layer> getLayers() {
+            return Collections.unmodifiableList(Arrays.asList(layers));
+        }
+
+        /**
+         * Fit or predict each layer on its part of the data, concurrently if given a pool, and merge the outputs.
+         */
+        TimeSeriesInstances run(List<TimeSeriesInstances> split, boolean fit, ForkJoinPool pool) throws Exception {
+            List<TimeSeriesInstances> t_split = new ArrayList<TimeSeriesInstances>(layers.length);
+            if (pool == null) {
+                for (int i = 0; i < layers.length; i++) {
+                    t_split.add(layers[i].run(split.get(i), fit, null));
+                }
+            } else {
+                List<Branch> branches = new ArrayList<>(layers.length);
+                for (int i = 0; i < layers.length; i++) {
+                    Branch branch = new Branch(layers[i], split.get(i), fit, pool);
+                    branch.fork();
+                    branches.add(branch);
+                }
+                for (Branch branch : branches) {
+                    t_split.add(branch.getOutput());
+                }
+            }
+            return Splitter.mergeTimeSeriesInstances(t_split);
+        }
+
+        @Override
+        void setInstrumented(boolean instrumented) {
+            super.setInstrumented(instrumented);
+            for (Layer layer : layers)
+                layer.setInstrumented(instrumented);
+        }
+
+        @Override
+        void appendInstrumentation(StringBuilder sb, String indent) {
+            super.appendInstrumentation(sb, indent);
+            for (Layer layer : layers)
+                layer.appendInstrumentation(sb, indent + "  ");
+        }
     }
 
     public static class ConcatLayer extends MultiLayer{
@@ -289,34 +549,31 @@ public class Pipeline extends EnhancedAbstractClassifier {
 
         @Override
         TimeSeriesInstances fit(TimeSeriesInstances inst) throws Exception{
-            List<TimeSeriesInstances> split = Splitter.splitTimeSeriesInstances(inst);
-
-            if (layers.length != split.size()) {
-                System.out.println("layers Split MisMatch");
-            }
-            List<TimeSeriesInstances> t_split = new ArrayList<TimeSeriesInstances>(split.size());
+            return fit(inst, null);
+        }
 
-            for (int i = 0; i < layers.length; i++) {
-                t_split.add(layers[i].fit(split.get(i)));
-            }
+        @Override
+        TimeSeriesInstances predict(TimeSeriesInstances inst) throws Exception {
+            return predict(inst, null);
+        }
 
-            return Splitter.mergeTimeSeriesInstances(t_split);
+        @Override
+        TimeSeriesInstances fit(TimeSeriesInstances inst, ForkJoinPool pool) throws Exception {
+            return run(split(inst), true, pool);
         }
 
         @Override
-        TimeSeriesInstances predict(TimeSeriesInstances inst) throws Exception {
+        TimeSeriesInstances predict(TimeSeriesInstances inst, ForkJoinPool pool) throws Exception {
+            return run(split(inst), false, pool);
+        }
+
+        private List<TimeSeriesInstances> split(TimeSeriesInstances inst) {
             List<TimeSeriesInstances> split = Splitter.splitTimeSeriesInstances(inst);
 
             if (layers.length != split.size()) {
                 System.out.println("layers Split MisMatch");
             }
-            List<TimeSeriesInstances> t_split = new ArrayList<TimeSeriesInstances>(split.size());
-
-            for (int i = 0; i < layers.length; i++) {
-                t_split.add(layers[i].predict(split.get(i)));
-            }
-
-            return Splitter.mergeTimeSeriesInstances(t_split);
+            return split;
         }
     }
 
@@ -348,31 +605,31 @@ public class Pipeline extends EnhancedAbstractClassifier {
 
         @Override
         TimeSeriesInstances fit(TimeSeriesInstances inst) throws Exception{
-            List<TimeSeriesInstances> split = Splitter.splitTimeSeriesInstances(inst, slicingIndexes);
-
-            List<TimeSeriesInstances> t_split = new ArrayList<TimeSeriesInstances>(layers.length);
-            for (int i = 0; i < layers.length; i++) {
-                System.out.println(split.get(i));
-                t_split.add(layers[i].fit(split.get(i)));
-            }
-
-            return Splitter.mergeTimeSeriesInstances(t_split);
+            return fit(inst, null);
         }
 
         @Override
         TimeSeriesInstances predict(TimeSeriesInstances inst) throws Exception {
-            List<TimeSeriesInstances> split = Splitter.splitTimeSeriesInstances(inst, slicingIndexes);
+            return predict(inst, null);
+        }
 
-            List<TimeSeriesInstances> t_split = new ArrayList<TimeSeriesInstances>(layers.length);
-            for (int i = 0; i < layers.length; i++) {
-                t_split.add(layers[i].predict(split.get(i)));
-            }
+        @Override
+        TimeSeriesInstances fit(TimeSeriesInstances inst, ForkJoinPool pool) throws Exception {
+            return run(Splitter.splitTimeSeriesInstances(inst, slicingIndexes), true, pool);
+        }
 
-            return Splitter.mergeTimeSeriesInstances(t_split);
+        @Override
+        TimeSeriesInstances predict(TimeSeriesInstances inst, ForkJoinPool pool) throws Exception {
+            return run(Splitter.splitTimeSeriesInstances(inst, slicingIndexes), false, pool);
         }
     }
 
     public static class EnsembleLayer extends Layer {
+
+        public EnsembleLayer() {
+            this.name = "ensemble";
+        }
+
         @Override
         TimeSeriesInstances fit(TimeSeriesInstances input) {
             return predict(input);
@@ -23,6 +23,7 @@ import fileIO.OutFile;
 import tsml.data_containers.TSCapabilities;
 import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
+import utilities.FFTUtilities;
 import utilities.InstanceTools;
 
 import java.text.DecimalFormat;
@@ -200,48 +201,14 @@ public class ACF implements Transformer {
     }
 
     /**
-     * Note it is possible to do this with FFT in O(nlogn) BUT requires 2^n
-     * attributes
+     * Uses an FFT in O(nlogn) rather than the O(n*maxLag) loops for large maxLag values, see
+     * fitAutoCorrelationsFFT.
      * 
      * @param data
      * @return
      */
     public double[] fitAutoCorrelations(double[] data) {
-        double[] a = new double[maxLag];
-        if (!normalized) {
-            for (int i = 1; i <= maxLag; i++) {
-                double s1, s2, ss1, ss2, v1, v2;
-                a[i - 1] = 0;
-                s1 = s2 = ss1 = ss2 = 0;
-                for (int j = 0; j < data.length - i; j++) {
-                    s1 += data[j];
-                    ss1 += data[j] * data[j];
-                    s2 += data[j + i];
-                    ss2 += data[j + i] * data[j + i];
-                }
-                s1 /= data.length - i;
-                s2 /= data.length - i;
-                for (int j = 0; j < data.length - i; j++)
-                    a[i - 1] += (data[j] - s1) * (data[j + i] - s2);
-                a[i - 1] /= (data.length - i);
-                v1 = ss1 / (data.length - i) - s1 * s1;
-                v2 = ss2 / (data.length - i) - s2 * s2;
-                if (v1 == 0 && v2 == 0)// Both zero variance, both must be 100% corr
-                    a[i - 1] = 1;
-                else if (v1 == 0 || (v2 == 0))// One zero variance the other not
-                    a[i - 1] = 0;
-                else
-                    a[i - 1] /= Math.sqrt(v1) * Math.sqrt(v2);
-            }
-        } else {
-            for (int i = 1; i <= maxLag; i++) {
-                a[i - 1] = 0;
-                for (int j = 0; j < data.length - i; j++)
-                    a[i - 1] += data[j] * data[j + i];
-                a[i - 1] /= data.length;
-            }
-        }
-        return a;
+        return fitAutoCorrelations(data, maxLag, normalized, true);
     }
 
     /**
@@ -256,8 +223,19 @@ public class ACF implements Transformer {
     }
 
     public static double[] fitAutoCorrelations(double[] data, int mLag, boolean normalised) {
-        double[] a = new double[mLag];
+        return fitAutoCorrelations(data, mLag, normalised, false);
+    }
 
+    // If constantIsCorrelated a lag where both windows have zero variance has correlation 1 and a lag where one
+    // does has correlation 0, otherwise these are left as the covariance.
+    private static double[] fitAutoCorrelations(double[] data, int mLag, boolean normalised,
+                                                boolean constantIsCorrelated) {
+        int fftLength = FFTUtilities.powerOfTwoLength(data.length + mLag + 1);
+        if ((long) Math.min(mLag, data.length) * data.length >
+                4L * fftLength * Integer.numberOfTrailingZeros(fftLength))
+            return fitAutoCorrelationsFFT(data, mLag, normalised, constantIsCorrelated);
+
+        double[] a = new double[mLag];
         if (!normalised) {
             double s1, s2, ss1, ss2, v1, v2;
             for (int i = 1; i <= mLag; i++) {
@@ -278,6 +256,8 @@ public class ACF implements Transformer {
                 v2 = ss2 / (data.length - i) - s2 * s2;
                 if (v1 != 0 && v2 != 0)
                     a[i - 1] /= Math.sqrt(v1) * Math.sqrt(v2);
+                else if (constantIsCorrelated)
+                    a[i - 1] = v1 == 0 && v2 == 0 ? 1 : 0;
             }
         } else {
             for (int i = 1; i <= mLag; i++) {
@@ -291,6 +271,67 @@ public class ACF implements Transformer {
         return a;
     }
 
+    /**
+     * The sums of lagged products are found for all lags at once from the FFT of the series in O(nlogn), with the
+     * window means and variances for each lag taken from prefix sums. Used when maxLag is large enough for this to be
+     * faster than the O(n*maxLag) loops, results differ only by rounding.
+     */
+    private static double[] fitAutoCorrelationsFFT(double[] data, int mLag, boolean normalised,
+                                                   boolean constantIsCorrelated) {
+        double[] a = new double[mLag];
+        int n = data.length;
+        double[] products = new double[mLag + 1];
+
+        if (normalised) {
+            FFTUtilities.lagProducts(data, products);
+            for (int i = 1; i <= mLag; i++)
+                a[i - 1] = products[i] / n;
+            return a;
+        }
+
+        // Correlations are unchanged by a shift, centring the series first keeps the sums below small
+        double mean = 0;
+        for (double d : data)
+            mean += d;
+        mean /= n;
+
+        double[] centred = new double[n];
+        double[] sums = new double[n + 1];
+        double[] squares = new double[n + 1];
+        for (int j = 0; j < n; j++) {
+            centred[j] = data[j] - mean;
+            sums[j + 1] = sums[j] + centred[j];
+            squares[j + 1] = squares[j] + centred[j] * centred[j];
+        }
+
+        // Length of the constant runs at the start and end of the series, for exact zero variance checks
+        int startRun = 1, endRun = 1;
+        while (startRun < n && data[startRun] == data[0])
+            startRun++;
+        while (endRun < n && data[n - 1 - endRun] == data[n - 1])
+            endRun++;
+
+        FFTUtilities.lagProducts(centred, products);
+        for (int i = 1; i <= mLag; i++) {
+            int m = n - i;
+            double s1 = sums[m] / m;
+            double s2 = (sums[n] - sums[i]) / m;
+            a[i - 1] = products[i] / m - s1 * s2;
+
+            boolean constant1 = m <= startRun;
+            boolean constant2 = m <= endRun;
+            if (!constant1 && !constant2) {
+                double v1 = squares[m] / m - s1 * s1;
+                double v2 = (squares[n] - squares[i]) / m - s2 * s2;
+                a[i - 1] /= Math.sqrt(v1) * Math.sqrt(v2);
+            } else if (constantIsCorrelated) {
+                a[i - 1] = constant1 && constant2 ? 1 : 0;
+            }
+        }
+
+        return a;
+    }
+
     public String getRevision() {
         return "Revision 2: 2019";
     }
@@ -36,7 +36,8 @@ import weka.core.Instances;
 /**
  * Purpose: cache the filtering operation using a map. Note, the instances must
  * be hashed first to use the cache reliably otherwise issues occur with
- * instance copying changing the hashcode due to memory locations.
+ * instance copying changing the hashcode due to memory locations. Safe to use from multiple threads, although an
+ * instance transformed by several threads at once may be transformed more than once.
  * <p>
  * Contributors: goastler, abostrom
  */
@@ -66,14 +67,14 @@ public class CachedTransformer extends BaseTrainableTransformer {
         this.cacheFittedDataOnly = cacheFittedDataOnly;
     }
 
-    public void reset() {
+    public synchronized void reset() {
         super.reset();
         tsCache = new HashMap<>();
         arffCache = new HashMap<>();
     }
 
     @Override
-    public void fit(final Instances data) {
+    public synchronized void fit(final Instances data) {
         super.fit(data);
         if(transformer instanceof TrainableTransformer) {
             ((TrainableTransformer) transformer).fit(data);
@@ -84,7 +85,7 @@ public class CachedTransformer extends BaseTrainableTransformer {
     }
 
     @Override
-    public void fit(final TimeSeriesInstances data) {
+    public synchronized void fit(final TimeSeriesInstances data) {
         super.fit(data);
         if(transformer instanceof TrainableTransformer) {
             ((TrainableTransformer) transformer).fit(data);
@@ -109,11 +110,17 @@ public class CachedTransformer extends BaseTrainableTransformer {
         if(!isFit()) {
             throw new IllegalStateException("must be fitted first");
         }
-        TimeSeriesInstance transformed = tsCache.get(inst);
+        TimeSeriesInstance transformed;
+        synchronized(this) {
+            transformed = tsCache.get(inst);
+        }
         if(transformed == null) {
+            // transform outside the lock so other threads are not held up
             transformed = transformer.transform(inst);
-            if(!cacheFittedDataOnly || tsCache.containsKey(inst)) {
-                tsCache.put(inst, transformed);
+            synchronized(this) {
+                if(!cacheFittedDataOnly || tsCache.containsKey(inst)) {
+                    tsCache.put(inst, transformed);
+                }
             }
         }
         return transformed;
@@ -123,11 +130,16 @@ public class CachedTransformer extends BaseTrainableTransformer {
         if(!isFit()) {
             throw new IllegalStateException("must be fitted first");
         }
-        Instance transformed = arffCache.get(inst);
+        Instance transformed;
+        synchronized(this) {
+            transformed = arffCache.get(inst);
+        }
         if(transformed == null) {
             transformed = transformer.transform(inst);
-            if(!cacheFittedDataOnly || arffCache.containsKey(inst)) {
-                arffCache.put(inst, transformed);
+            synchronized(this) {
+                if(!cacheFittedDataOnly || arffCache.containsKey(inst)) {
+                    arffCache.put(inst, transformed);
+                }
             }
         }
         return transformed;
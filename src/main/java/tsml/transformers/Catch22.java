@@ -17,10 +17,6 @@
 
 package tsml.transformers;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import utilities.GenericTools;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -35,6 +31,9 @@ import tsml.data_containers.TimeSeriesInstance;
 
 import static utilities.ArrayUtilities.mean;
 import static utilities.ClusteringUtilities.zNormalise;
+import static utilities.FFTUtilities.autoCorrelation;
+import static utilities.FFTUtilities.powerOfTwoLength;
+import static utilities.FFTUtilities.realForward;
 import static utilities.GenericTools.*;
 import static utilities.StatisticalUtilities.median;
 import static utilities.StatisticalUtilities.standardDeviation;
@@ -65,7 +64,7 @@ public class Catch22 implements Transformer {
     private double idxMin;
     private double idxMax;
     private double idxMean;
-    private Complex[] idxFFT;
+    private double[] idxFFT;
     private double[] idxAC;
     private int idxACFZ;
     private double[] idxOutlierSeries;
@@ -155,17 +154,7 @@ public class Catch22 implements Transformer {
         }
         mean /= arr.length;
 
-        int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(series.length) / Math.log(2)));
-        Complex[] fft = new Complex[nfft];
-        for (int j = 0; j < nfft; j++) {
-            if (j < series.length)
-                fft[j] = new Complex(series[j] - mean, 0);
-            else
-                fft[j] = new Complex(0, 0);
-        }
-
-        FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-        fft = f.transform(fft, TransformType.FORWARD);
+        double[] fft = realForward(series, mean, powerOfTwoLength(series.length));
 
         double[] ac = autoCorr(arr, fft);
 
@@ -264,17 +253,7 @@ public class Catch22 implements Transformer {
                         idxMean = mean(idxSeries);
                     }
 
-                    int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(idxSeries.length) / Math.log(2)));
-                    idxFFT = new Complex[nfft];
-                    for (int j = 0; j < nfft; j++) {
-                        if (j < idxSeries.length)
-                            idxFFT[j] = new Complex(idxSeries[j] - idxMean, 0);
-                        else
-                            idxFFT[j] = new Complex(0, 0);
-                    }
-
-                    FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-                    idxFFT = f.transform(idxFFT, TransformType.FORWARD);
+                    idxFFT = realForward(idxSeries, idxMean, powerOfTwoLength(idxSeries.length));
                 }
                 break;
             case 5:
@@ -286,17 +265,7 @@ public class Catch22 implements Transformer {
                             idxMean = mean(idxSeries);
                         }
 
-                        int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(idxSeries.length) / Math.log(2)));
-                        idxFFT = new Complex[nfft];
-                        for (int j = 0; j < nfft; j++) {
-                            if (j < idxSeries.length)
-                                idxFFT[j] = new Complex(idxSeries[j] - idxMean, 0);
-                            else
-                                idxFFT[j] = new Complex(0, 0);
-                        }
-
-                        FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-                        idxFFT = f.transform(idxFFT, TransformType.FORWARD);
+                        idxFFT = realForward(idxSeries, idxMean, powerOfTwoLength(idxSeries.length));
                     }
 
                     idxAC = autoCorr(idxSeries, idxFFT);
@@ -312,17 +281,7 @@ public class Catch22 implements Transformer {
                                 idxMean = mean(idxSeries);
                             }
 
-                            int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(idxSeries.length) / Math.log(2)));
-                            idxFFT = new Complex[nfft];
-                            for (int j = 0; j < nfft; j++) {
-                                if (j < idxSeries.length)
-                                    idxFFT[j] = new Complex(idxSeries[j] - idxMean, 0);
-                                else
-                                    idxFFT[j] = new Complex(0, 0);
-                            }
-
-                            FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-                            idxFFT = f.transform(idxFFT, TransformType.FORWARD);
+                            idxFFT = realForward(idxSeries, idxMean, powerOfTwoLength(idxSeries.length));
                         }
 
                         idxAC = autoCorr(idxSeries, idxFFT);
@@ -415,7 +374,7 @@ public class Catch22 implements Transformer {
         double min = Double.MAX_VALUE;
         double max = -99999999;
         double mean = Double.MIN_VALUE;
-        Complex[] fft = null;
+        double[] fft = null;
         double[] ac = null;
         int acfz = -1;
         double[] newSeries = series;
@@ -453,34 +412,14 @@ public class Catch22 implements Transformer {
             case 8:
                 mean = mean(newSeries);
 
-                int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(newSeries.length) / Math.log(2)));
-                fft = new Complex[nfft];
-                for (int j = 0; j < nfft; j++) {
-                    if (j < newSeries.length)
-                        fft[j] = new Complex(newSeries[j] - mean, 0);
-                    else
-                        fft[j] = new Complex(0, 0);
-                }
-
-                FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-                fft = f.transform(fft, TransformType.FORWARD);
+                fft = realForward(newSeries, mean, powerOfTwoLength(newSeries.length));
                 break;
             case 5:
             case 6:
             case 12:
                 mean = mean(newSeries);
 
-                int nfft2 = (int) Math.pow(2.0, (int) Math.ceil(Math.log(newSeries.length) / Math.log(2)));
-                fft = new Complex[nfft2];
-                for (int j = 0; j < nfft2; j++) {
-                    if (j < newSeries.length)
-                        fft[j] = new Complex(newSeries[j] - mean, 0);
-                    else
-                        fft[j] = new Complex(0, 0);
-                }
-
-                FastFourierTransformer f2 = new FastFourierTransformer(DftNormalization.STANDARD);
-                fft = f2.transform(fft, TransformType.FORWARD);
+                fft = realForward(newSeries, mean, powerOfTwoLength(newSeries.length));
 
                 ac = autoCorr(newSeries, fft);
                 break;
@@ -489,17 +428,7 @@ public class Catch22 implements Transformer {
             case 20:
                 mean = mean(newSeries);
 
-                int nfft3 = (int) Math.pow(2.0, (int) Math.ceil(Math.log(newSeries.length) / Math.log(2)));
-                fft = new Complex[nfft3];
-                for (int j = 0; j < nfft3; j++) {
-                    if (j < newSeries.length)
-                        fft[j] = new Complex(newSeries[j] - mean, 0);
-                    else
-                        fft[j] = new Complex(0, 0);
-                }
-
-                FastFourierTransformer f3 = new FastFourierTransformer(DftNormalization.STANDARD);
-                fft = f3.transform(fft, TransformType.FORWARD);
+                fft = realForward(newSeries, mean, powerOfTwoLength(newSeries.length));
 
                 ac = autoCorr(newSeries, fft);
 
@@ -677,12 +606,12 @@ public class Catch22 implements Transformer {
     }
 
     // Total power in lowest fifth of frequencies in the Fourier power spectrum
-    private static double summariesWelchRectArea51SP(double[] arr, Complex[] fft) {
+    private static double summariesWelchRectArea51SP(double[] arr, double[] fft) {
         return summariesWelchRect(arr, false, fft);
     }
 
     // Centroid of the Fourier power spectrum
-    private static double summariesWelchRectCentroidSP(double[] arr, Complex[] fft) {
+    private static double summariesWelchRectCentroidSP(double[] arr, double[] fft) {
         return summariesWelchRect(arr, true, fft);
     }
 
@@ -844,17 +773,7 @@ public class Catch22 implements Transformer {
         double[] res = localSimpleMean(arr, 1);
         double mean = mean(res);
 
-        int nfft = (int) Math.pow(2.0, (int) Math.ceil(Math.log(res.length) / Math.log(2)));
-        Complex[] fft = new Complex[nfft];
-        for (int j = 0; j < nfft; j++) {
-            if (j < res.length)
-                fft[j] = new Complex(res[j] - mean, 0);
-            else
-                fft[j] = new Complex(0, 0);
-        }
-
-        FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-        fft = f.transform(fft, TransformType.FORWARD);
+        double[] fft = realForward(res, mean, powerOfTwoLength(res.length));
 
         double[] resAc = autoCorr(res, fft);
 
@@ -1164,38 +1083,25 @@ public class Catch22 implements Transformer {
         return median(Arrays.copyOf(medians, trimLimit + 1), false);
     }
 
-    private static double[] autoCorr(double[] arr, Complex[] fft) {
-        Complex[] c = new Complex[fft.length];
-        for (int i = 0; i < fft.length; i++) {
-            c[i] = fft[i].multiply(new Complex(fft[i].getReal(), -fft[i].getImaginary()));
-        }
-
-        FastFourierTransformer f = new FastFourierTransformer(DftNormalization.STANDARD);
-        c = f.transform(c, TransformType.INVERSE);
-
+    private static double[] autoCorr(double[] arr, double[] fft) {
         double[] acf = new double[arr.length];
-        double d = c[0].getReal();
-        if (d != 0) {
-            for (int i = 0; i < arr.length; i++) {
-                acf[i] = c[i].getReal() / d;
-            }
-        }
-
+        autoCorrelation(fft, fft.length / 2, acf);
         return acf;
     }
 
-    private static double summariesWelchRect(double[] arr, boolean centroid, Complex[] fft) {
-        int newLength = fft.length / 2 + 1;
+    private static double summariesWelchRect(double[] arr, boolean centroid, double[] fft) {
+        int nfft = fft.length / 2;
+        int newLength = nfft / 2 + 1;
         double[] p = new double[newLength];
         double pi2 = 2 * Math.PI;
-        p[0] = (Math.pow(complexMagnitude(fft[0]), 2) / arr.length) / pi2;
+        p[0] = (Math.pow(complexMagnitude(fft, nfft, 0), 2) / arr.length) / pi2;
         for (int i = 1; i < newLength - 1; i++) {
-            p[i] = ((Math.pow(complexMagnitude(fft[i]), 2) / arr.length) * 2) / pi2;
+            p[i] = ((Math.pow(complexMagnitude(fft, nfft, i), 2) / arr.length) * 2) / pi2;
         }
-        p[newLength - 1] = (Math.pow(complexMagnitude(fft[newLength - 1]), 2) / arr.length) / pi2;
+        p[newLength - 1] = (Math.pow(complexMagnitude(fft, nfft, newLength - 1), 2) / arr.length) / pi2;
 
         double[] w = new double[newLength];
-        double a = 1.0 / fft.length;
+        double a = 1.0 / nfft;
         for (int i = 0; i < newLength; i++) {
             w[i] = i * a * Math.PI * 2;
         }
@@ -1225,8 +1131,8 @@ public class Catch22 implements Transformer {
         }
     }
 
-    private static double complexMagnitude(Complex c){
-        return Math.sqrt(c.getReal() * c.getReal() + c.getImaginary() * c.getImaginary());
+    private static double complexMagnitude(double[] fft, int n, int k){
+        return Math.sqrt(fft[k] * fft[k] + fft[n + k] * fft[n + k]);
     }
 
     private static double[] localSimpleMean(double[] arr, int trainLength) {
@@ -19,7 +19,6 @@ package tsml.transformers;
 
 import org.apache.commons.lang3.ArrayUtils;
 
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -166,15 +165,70 @@ public class DWT implements Transformer {
     
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        //could do this across all dimensions.
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i = 0;
-        for(TimeSeries ts : inst){
-            out[i++] = getDWTCoefficients(ts.toValueArray());
+        //create a new output instance with the DWT data.
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = calculateNumAttributes(inputLengths[i]);
+        }
+        return lengths;
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            getDWTCoefficients(inst[i], out[i]);
+        }
+    }
+
+    /**
+     * Private function for writing the wavelet coefficients of a given time series
+     * into an array, in the same order as getDWTCoefficients, without building the
+     * coefficients of each level separately.
+     *
+     * @param inst - the time series to be transformed.
+     * @param out - the array to write the coefficients to.
+     */
+    private void getDWTCoefficients(double[] inst, double[] out) {
+        if (numLevels == 0) {
+            System.arraycopy(inst, 0, out, 0, inst.length);
+            return;
+        }
+        // the wavelet coefficients of each level are written backwards from the end of the output, with the
+        // approximate coefficients of the current level held in approx
+        double[] approx = null;
+        double[] current = inst;
+        int length = inst.length;
+        int end = out.length;
+        for (int i = 0; i < numLevels; i++) {
+            if (length == 1) {
+                out[--end] = current[0];
+                continue;
+            }
+            int total = length / 2;
+            if (approx == null) {
+                approx = new double[total];
+            }
+            end -= total;
+            for (int j = 0; j < total; j++) {
+                double a = current[2 * j];
+                double b = current[2 * j + 1];
+                out[end + j] = ((a - b) / Math.sqrt(2));
+                approx[j] = ((a + b) / Math.sqrt(2));
+            }
+            current = approx;
+            length = total;
         }
-        
-        //create a new output instance with the ACF data.
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+        System.arraycopy(current, 0, out, 0, length);
     }
 
     @Override
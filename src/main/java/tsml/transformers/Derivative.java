@@ -19,7 +19,6 @@ package tsml.transformers;
 
 import java.io.Serializable;
 
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -61,14 +60,21 @@ public class Derivative implements Transformer, Serializable {
     }
 
     public static double[] getDerivative(double[] input, boolean classValOn) {
+        double[] derivative = new double[input.length];
+        getDerivative(input, classValOn, derivative);
+        return derivative;
+    }
+
+    /**
+     * Write the derivative of the input into a preallocated array of the same length, which must not be the input.
+     */
+    public static void getDerivative(double[] input, boolean classValOn, double[] derivative) {
 
         int classPenalty = 0;
         if (classValOn) {
             classPenalty = 1;
         }
 
-        double[] derivative = new double[input.length];
-
         for (int i = 1; i < input.length - 1 - classPenalty; i++) { // avoids class Val if present
             derivative[i] = ((input[i] - input[i - 1]) + ((input[i + 1] - input[i - 1]) / 2)) / 2;
         }
@@ -78,7 +84,6 @@ public class Derivative implements Transformer, Serializable {
         if (classValOn) {
             derivative[derivative.length - 1] = input[input.length - 1];
         }
-        return derivative;
     }
 
     @Override
@@ -102,13 +107,24 @@ public class Derivative implements Transformer, Serializable {
 
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i = 0;
-        for (TimeSeries ts : inst) {
-            out[i++] = getDerivative(ts.toValueArray(), false);
-        }
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
 
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        return inputLengths.clone();
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            getDerivative(inst[i], false, out[i]);
+        }
     }
 
 
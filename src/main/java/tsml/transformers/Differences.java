@@ -23,7 +23,6 @@ import weka.core.Instance;
 import weka.core.Instances;
 import java.util.ArrayList;
 
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 
 /* simple Filter that just creates a new series of differences order k.
@@ -107,18 +106,24 @@ public class Differences implements Transformer {
 
 	private double[] calculateDifferences(double[] d, int numAtts) {
 		double[] diffs = new double[numAtts];
+		calculateDifferences(d, diffs);
+		return diffs;
+	}
 
+	private void calculateDifferences(double[] d, double[] diffs) {
 		for (int j = 0; j < diffs.length; j++)
 			diffs[j] = d[j] - d[j + order];
-		return diffs;
 	}
 
 	private double[] calculateDifferences2(double[] d, int numAtts) {
 		double[] diffs = new double[numAtts];
+		calculateDifferences2(d, diffs);
+		return diffs;
+	}
 
+	private void calculateDifferences2(double[] d, double[] diffs) {
 		for (int j = 0; j < diffs.length; j++)
 			diffs[j] = d[j + order] - d[j];
-		return diffs;
 	}
 
 	public static void main(String[] args) {
@@ -140,15 +145,28 @@ public class Differences implements Transformer {
 
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i = 0;
-        for (TimeSeries ts : inst) {
-            if (subtractFormerValue) out[i++] = calculateDifferences2(ts.toValueArray(),
-					ts.getSeriesLength() - order);
-        	else out[i++] = calculateDifferences(ts.toValueArray(), ts.getSeriesLength() - order);
-        }
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
 
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            lengths[i] = inputLengths[i] - order;
+        return lengths;
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            if (subtractFormerValue) calculateDifferences2(inst[i], out[i]);
+            else calculateDifferences(inst[i], out[i]);
+        }
     }
 
 }
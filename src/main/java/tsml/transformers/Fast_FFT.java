@@ -20,12 +20,9 @@ import experiments.data.DatasetLists;
 import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.utilities.TimeSeriesSummaryStatistics;
+import utilities.FFTUtilities;
 import utilities.InstanceTools;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import weka.core.*;
 
 import static experiments.data.DatasetLoading.loadDataNullable;
@@ -99,11 +96,7 @@ public class Fast_FFT implements Transformer {
 
     @Override
     public Instance transform(Instance inst) {
-        Complex[] complexData = new Complex[nfft];
         double[] data = InstanceTools.ConvertInstanceToArrayRemovingClassValue(inst);
-        for (int j = 0; j < complexData.length; j++) {
-            complexData[j] = new Complex(0.0, 0.0);
-        }
 
         double mean = 0;
         if (data.length < nfft) {
@@ -113,20 +106,12 @@ public class Fast_FFT implements Transformer {
             mean /= data.length;
         }
 
-        // int limit = nfft < data[i].length ? nfft : data[i].length;
-        for (int j = 0; j < nfft; j++) {
-            if (j < data.length)
-                complexData[j] = new Complex(data[j], 0);
-            else
-                complexData[j] = new Complex(mean, 0);
-        }
-
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        complexData = fft.transform(complexData, TransformType.FORWARD);
+        double[] complexData = FFTUtilities.scratch(nfft * 2);
+        FFTUtilities.realForward(data, 0, mean, nfft, complexData);
 
         double[] FFTData = new double[(nfft / 2) + (inst.classIndex() >= 0 ? 1 : 0)];
         for (int j = 0; j < (nfft / 2); j++) {
-            FFTData[j] = complexData[j].abs();
+            FFTData[j] = FFTUtilities.magnitude(complexData, nfft, j);
         }
 
         if (inst.classIndex() >= 0)
@@ -148,26 +133,12 @@ public class Fast_FFT implements Transformer {
     }
 
     private double[] calculate_FFT(double[] data, double mean) {
-        Complex[] complexData = new Complex[nfft];
-        for (int j = 0; j < complexData.length; j++) {
-            complexData[j] = new Complex(0.0, 0.0);
-        }
-
-        // int limit = nfft < data[i].length ? nfft : data[i].length;
-        for (int j = 0; j < nfft; j++) {
-            if (j < data.length)
-                complexData[j] = new Complex(data[j], 0);
-            else
-                complexData[j] = new Complex(mean, 0);
-        }
-
-        
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        complexData = fft.transform(complexData, TransformType.FORWARD);
+        double[] complexData = FFTUtilities.scratch(nfft * 2);
+        FFTUtilities.realForward(data, 0, mean, nfft, complexData);
 
         double[] FFTData = new double[(nfft / 2)];
         for (int j = 0; j < (nfft / 2); j++) {
-            FFTData[j] = complexData[j].abs();
+            FFTData[j] = FFTUtilities.magnitude(complexData, nfft, j);
         }
 
         return FFTData;
@@ -18,8 +18,8 @@
 package tsml.transformers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -105,16 +105,35 @@ public class PAA implements Transformer {
     
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i =0;
-        for(TimeSeries ts : inst){
-            out[i++] = convertInstance(ts.toValueArray());
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        Arrays.fill(lengths, numIntervals);
+        return lengths;
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            convertInstance(inst[i], out[i]);
         }
+    }
 
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+    private double[] convertInstance(double[] data) {
+        double[] intervals = new double[numIntervals];
+        convertInstance(data, intervals);
+        return intervals;
     }
 
-    private double[] convertInstance(double[] data)
+    private void convertInstance(double[] data, double[] intervals)
     /*
      * throws Exception {
      * 
@@ -124,7 +143,7 @@ public class PAA implements Transformer {
      */
     {
 
-        double[] intervals = new double[numIntervals];
+        Arrays.fill(intervals, 0);
 
         // counters to keep track of progress towards completion of a frame
         // potential for data.length % intervals != 0, therefore non-integer
@@ -163,8 +182,6 @@ public class PAA implements Transformer {
         if (currentFrame == numIntervals - 1) { // if frame complete
             intervals[currentFrame++] = frameSum / realFrameLength;
         }
-
-        return intervals;
     }
 
     public static double[] convertInstance(double[] data, int numIntervals) {
@@ -19,9 +19,12 @@ package tsml.transformers;
 
 import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.TimeSeriesInstances;
+import tsml.data_containers.utilities.TimeSeriesSummaryStatistics;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.Arrays;
+
 /**
  * Class to pad series to make them all equal length. In the ARFF data model, unequal length series are padded with
  * missing values to avoid ragged arrays. This class fills in the series based on the train data. It is assumed the
@@ -96,14 +99,39 @@ public class Padder implements TrainableTransformer{
     
 	@Override
 	public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-		// TODO Auto-generated method stub
-		return null;
+		return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
 	}
 
 	@Override
 	public void fit(TimeSeriesInstances data) {
-		// TODO Auto-generated method stub
-		
+		finalNumberOfAttributes = data.getMaxLength();
+		isFit = true;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public int[] getOutputLengths(int[] inputLengths) {
+		int[] lengths = new int[inputLengths.length];
+		Arrays.fill(lengths, finalNumberOfAttributes);
+		return lengths;
+	}
+
+	/**
+	 * Pads each dimension with its mean, or truncates it if longer than the longest series in the train data.
+	 */
+	@Override
+	public void transform(double[][] inst, double[][] out) {
+		for (int i = 0; i < inst.length; i++) {
+			int length = Math.min(inst[i].length, finalNumberOfAttributes);
+			System.arraycopy(inst[i], 0, out[i], 0, length);
+			if (length < finalNumberOfAttributes) {
+				Arrays.fill(out[i], length, finalNumberOfAttributes, TimeSeriesSummaryStatistics.mean(inst[i]));
+			}
+		}
 	}
 
 
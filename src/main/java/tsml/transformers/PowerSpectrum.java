@@ -27,6 +27,7 @@ import experiments.data.DatasetLoading;
 import fileIO.OutFile;
 import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
+import utilities.FFTUtilities;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -170,15 +171,11 @@ public class PowerSpectrum extends FFT {
         // Check power of 2
         if (((d.length) & (d.length - 1)) != 0) // Not a power of 2
             return null;
-        FFT.Complex[] c = new FFT.Complex[d.length];
-        for (int j = 0; j < d.length; j++) {
-            c[j] = new FFT.Complex(d[j], 0.0);
-        }
-        FFT f = new FFT();
-        f.fft(c, c.length);
-        double[] ps = new double[c.length];
-        for (int i = 0; i < c.length; i++)
-            ps[i] = c[i].getReal() * c[i].getReal() + c[i].getImag() * c[i].getImag();
+        int n = d.length;
+        double[] c = FFTUtilities.realForward(d, 0, n);
+        double[] ps = new double[n];
+        for (int i = 0; i < n; i++)
+            ps[i] = c[i] * c[i] + c[n + i] * c[n + i];
         return ps;
     }
 
@@ -21,7 +21,6 @@ import experiments.data.DatasetLists;
 import experiments.data.DatasetLoading;
 import org.apache.commons.lang3.ArrayUtils;
 import tsml.classifiers.shapelet_based.ShapeletTransformClassifier;
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.TimeSeriesInstances;
 import tsml.data_containers.utilities.TimeSeriesSummaryStatistics;
@@ -118,12 +117,27 @@ public class Resizer implements TrainableTransformer {
 
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        double[][] out = new double[inst.getNumDimensions()][resizeLength];
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        // other metrics may hold state, e.g. noise
+        return padMetric instanceof MeanPadMetric || padMetric instanceof FlatPadMetric;
+    }
 
-        int i = 0;
-        for (TimeSeries ts : inst) {
-            int diff = resizeLength - ts.getSeriesLength();
-            double[] data = ts.toValueArray();
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        Arrays.fill(lengths, resizeLength);
+        return lengths;
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            int diff = resizeLength - inst[i].length;
+            double[] data = inst[i];
 
             // just need to copy data across, if we're the same or longer. truncate the
             // first values.
@@ -142,13 +156,7 @@ public class Resizer implements TrainableTransformer {
                 if (Double.isNaN(out[i][j])) {
                     out[i][j] = padMetric.calculatePadValue(data);
                 }
-
-            //System.out.println(Arrays.toString(out[i]));
-
-            i++;
         }
-
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
     }
 
     @Override
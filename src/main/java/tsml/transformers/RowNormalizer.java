@@ -268,13 +268,32 @@ public class RowNormalizer implements Transformer {
 
 	@Override
 	public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-		switch (norm) {
-			case INTERVAL: // Map onto [0,1]
-				return intervalNorm(inst);
-			case STD: // Subtract the mean of the series
-				return standard(inst);
-			default: // Transform to zero mean, unit variance
-				return standardNorm(inst);
+		return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public int[] getOutputLengths(int[] inputLengths) {
+		return inputLengths.clone();
+	}
+
+	@Override
+	public void transform(double[][] inst, double[][] out) {
+		for(int i = 0; i < inst.length; i++){
+			switch (norm) {
+				case INTERVAL: // Map onto [0,1]
+					intervalNorm(inst[i], out[i]);
+					break;
+				case STD: // Subtract the mean of the series
+					standard(inst[i], out[i]);
+					break;
+				default: // Transform to zero mean, unit variance
+					standardNorm(inst[i], out[i]);
+			}
 		}
 	}
 
@@ -307,9 +326,31 @@ public class RowNormalizer implements Transformer {
 
 	public static TimeSeries standardNorm(TimeSeries ts) {
 		double[] out = ts.toValueArray(); //this is a copy.
+		standardNorm(out, out);
+		return new TimeSeries(out);
+	}
+
+
+	public static TimeSeries standard(TimeSeries ts){
+		double[] out = ts.toValueArray(); //this is a copy.
+		standard(out, out);
+		return new TimeSeries(out);
+	}
 
-		double mean = TimeSeriesSummaryStatistics.mean(out);
-		double var = TimeSeriesSummaryStatistics.variance(ts, mean);
+	public static TimeSeries intervalNorm(TimeSeries ts){
+		double[] out = ts.toValueArray(); //this is a copy.
+		intervalNorm(out, out);
+		return new TimeSeries(out);
+	}
+
+	/**
+	 * Normalise a series into an array of the same length, which may be the series itself.
+	 */
+	public static void standardNorm(double[] series, double[] out) {
+		// two passes rather than the single pass statistics, whose variance can differ in the last digits and so
+		// change results which depend on the normalised values
+		double mean = TimeSeriesSummaryStatistics.mean(series);
+		double var = TimeSeriesSummaryStatistics.variance(series, mean);
 		boolean constant = NumUtils.isNearlyEqual(var,0);
 
 		//if we have zero variance, then just return array of 0's
@@ -322,36 +363,26 @@ public class RowNormalizer implements Transformer {
 			double std = Math.sqrt(var);
 
 			for(int i =0; i<out.length; i++){
-				out[i] =  (out[i] - mean) / std;
+				out[i] =  (series[i] - mean) / std;
 			}
 		}
-		return new TimeSeries(out);
 	}
 
-
-	public static TimeSeries standard(TimeSeries ts){
-		double[] out = ts.toValueArray(); //this is a copy.
-
-		double mean = TimeSeriesSummaryStatistics.mean(out);
+	public static void standard(double[] series, double[] out){
+		double mean = TimeSeriesSummaryStatistics.mean(series);
 
 		for(int i =0; i<out.length; i++){
-			out[i] =  (out[i] - mean);
+			out[i] =  (series[i] - mean);
 		}
-
-		return new TimeSeries(out);
 	}
 
-	public static TimeSeries intervalNorm(TimeSeries ts){
-		double[] out = ts.toValueArray(); //this is a copy.
-
-		double max = TimeSeriesSummaryStatistics.max(out);
-		double min =  TimeSeriesSummaryStatistics.min(out);
+	public static void intervalNorm(double[] series, double[] out){
+		double max = TimeSeriesSummaryStatistics.max(series);
+		double min =  TimeSeriesSummaryStatistics.min(series);
 
 		for(int i =0; i<out.length; i++){
-			out[i] =  (out[i] - min) / (max - min);
+			out[i] =  (series[i] - min) / (max - min);
 		}
-
-		return new TimeSeries(out);
 	}
 
 
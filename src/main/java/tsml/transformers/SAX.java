@@ -18,7 +18,6 @@
 package tsml.transformers;
 
 import experiments.data.DatasetLoading;
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.TimeSeriesInstances;
 import weka.core.Attribute;
@@ -259,16 +258,29 @@ public class SAX implements Transformer, TechnicalInformationHandler {
 
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i =0;
-        for(TimeSeries ts : inst){
-            double[] o = ts.toValueArray();
-            convertSequence(o);
-            out[i++] = o;
-        }
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        return inputLengths.clone();
+    }
+
+    /**
+     * converts each dimension of 'paa-ed' data to sax letters
+     */
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        double[] gaussianBreakpoints = generateBreakpoints(alphabetSize);
+        for (int i = 0; i < inst.length; i++) {
+            System.arraycopy(inst[i], 0, out[i], 0, inst[i].length);
+            convertSequence(out[i], gaussianBreakpoints);
+        }
     }
 
     /**
@@ -278,8 +290,10 @@ public class SAX implements Transformer, TechnicalInformationHandler {
      * @throws Exception
      */
     public void convertSequence(double[] data) {
-        double[] gaussianBreakpoints = generateBreakpoints(alphabetSize);
+        convertSequence(data, generateBreakpoints(alphabetSize));
+    }
 
+    private void convertSequence(double[] data, double[] gaussianBreakpoints) {
         for (int i = 0; i < numIntervals; ++i) {
             // find symbol corresponding to each mean
             for (int j = 0; j < alphabetSize; ++j)
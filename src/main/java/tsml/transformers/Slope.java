@@ -17,7 +17,6 @@
  
 package tsml.transformers;
 
-import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
@@ -89,14 +88,27 @@ public class Slope implements Transformer {
 
     @Override
     public TimeSeriesInstance transform(TimeSeriesInstance inst) {
-        double[][] out = new double[inst.getNumDimensions()][];
-        int i =0;
-        for(TimeSeries ts : inst){
-            checkParameters(ts.getSeriesLength());
-            out[i++] = getGradients(ts.toValueArray());
-        }
+        return new TimeSeriesInstance(transform(inst.toValueArray()), inst.getLabelIndex());
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        Arrays.fill(lengths, numIntervals);
+        return lengths;
+    }
 
-        return new TimeSeriesInstance(out, inst.getLabelIndex());
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            checkParameters(inst[i].length);
+            getGradients(inst[i], out[i]);
+        }
     }
 
     /**
@@ -107,67 +119,67 @@ public class Slope implements Transformer {
      */
     private double[] getGradients(double[] inst) {
         double[] gradients = new double[this.numIntervals];
-        // Split inst into intervals
-        double[][] intervals = getIntervals(inst);
-        // perform least squares regression on each interval
-        for (int i = 0; i < intervals.length; i++) {
-            gradients[i] = getGradient(intervals[i]);
-        }
+        getGradients(inst, gradients);
         return gradients;
     }
 
     /**
-     * Private function for splitting a time series into approximately equal
-     * intervals.
+     * Private function for getting the gradients of a time series, splitting it
+     * into approximately equal intervals and performing least squares regression
+     * on each.
      *
-     * @param inst
-     * @return
+     * @param inst - the time series to be transformed.
+     * @param gradients - the array to write the gradient of each interval to.
      */
-    private double[][] getIntervals(double[] inst) {
+    private void getGradients(double[] inst, double[] gradients) {
         int numElementsRemaining = inst.length;
         int numIntervalsRemaining = this.numIntervals;
         int startIndex = 0;
-        double[][] intervals = new double[this.numIntervals][];
         for (int i = 0; i < this.numIntervals; i++) {
             int intervalSize = (int) Math.ceil(numElementsRemaining / numIntervalsRemaining);
-            double[] interval = Arrays.copyOfRange(inst, startIndex, startIndex + intervalSize);
-            intervals[i] = interval;
+            gradients[i] = getGradient(inst, startIndex, intervalSize);
             numElementsRemaining -= intervalSize;
             numIntervalsRemaining--;
             startIndex = startIndex + intervalSize;
         }
-        return intervals;
     }
 
     /**
      * Private method to calculate the gradient of a given interval.
      *
-     * @param y - an interval.
+     * @param inst - the time series.
+     * @param start - the start of the interval.
+     * @param length - the length of the interval.
      * @return
      */
-    private double getGradient(double[] y) {
-        double[] x = new double[y.length];
-        for (int i = 1; i <= y.length; i++) {
-            x[i - 1] = i;
+    private double getGradient(double[] inst, int start, int length) {
+        // x is 1 to length
+        double meanX = 0.0;
+        for (int i = 1; i <= length; i++) {
+            meanX += i;
+        }
+        meanX /= (double) length;
+        double meanY = 0.0;
+        for (int i = 0; i < length; i++) {
+            meanY += inst[start + i];
         }
-        double meanX = calculateMean(x);
-        double meanY = calculateMean(y);
+        meanY /= (double) length;
         // Calculate w which is given as:
         // w = sum((y-meanY)^2) - sum((x-meanX)^2)
         double ySquaredDiff = 0.0;
-        for (int i = 0; i < y.length; i++) {
-            ySquaredDiff += Math.pow(y[i] - meanY, 2);
+        for (int i = 0; i < length; i++) {
+            ySquaredDiff += Math.pow(inst[start + i] - meanY, 2);
         }
         double xSquaredDiff = 0.0;
-        for (int i = 0; i < y.length; i++) {
-            xSquaredDiff += Math.pow(x[i] - meanX, 2);
+        for (int i = 0; i < length; i++) {
+            xSquaredDiff += Math.pow((i + 1) - meanX, 2);
         }
         double w = ySquaredDiff - xSquaredDiff;
         // Calculate r which is given as:
         // r = 2*sum((x-meanX)(y-meanY))
         double xyDiff = 0.0;
-        for (int i = 0; i < y.length; i++) {
-            xyDiff += (x[i] - meanX) * (y[i] - meanY);
+        for (int i = 0; i < length; i++) {
+            xyDiff += ((i + 1) - meanX) * (inst[start + i] - meanY);
         }
         double r = 2 * xyDiff;
         // The gradient of the least squares regression line.
@@ -181,20 +193,6 @@ public class Slope implements Transformer {
         return m;
     }
 
-    /**
-     * Private method for calculating the mean of an array.
-     *
-     * @param arr
-     * @return
-     */
-    private double calculateMean(double[] arr) {
-        double sum = 0.0;
-        for (int i = 0; i < arr.length; i++) {
-            sum += arr[i];
-        }
-        return sum / (double) arr.length;
-    }
-
     @Override
     public Instances determineOutputFormat(Instances inputFormat) throws IllegalArgumentException {
         // If the class index exists.
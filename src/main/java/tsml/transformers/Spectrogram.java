@@ -18,13 +18,10 @@
 package tsml.transformers;
 
 import org.apache.commons.lang3.NotImplementedException;
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 
 import tsml.data_containers.TimeSeries;
 import tsml.data_containers.TimeSeriesInstance;
+import utilities.FFTUtilities;
 import utilities.multivariate_tools.MultivariateInstanceTools;
 import weka.core.*;
 
@@ -154,22 +151,24 @@ public class Spectrogram implements Transformer {
     public double[][] spectrogram(double[] signal, int windowWidth, int overlap, int nfft) {
         checkParameters(signal.length);
         int numWindows = getNumWindows(signal.length);
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
         double[][] spectrogram = new double[numWindows][nfft / 2];
-        Complex[] STFFT = null;
+
+        double[] hamming = new double[windowLength];
+        for (int j = 0; j < windowLength; j++) {
+            hamming[j] = 0.56 - 0.46 * Math.cos(2 * Math.PI * ((double) j / (double) this.windowLength));
+        }
+
+        double[] STFFT = FFTUtilities.scratch(nfft * 2);
         for (int i = 0; i < numWindows; i++) {
-            STFFT = new Complex[nfft];
-            for (int j = 0; j < nfft; j++) {
-                STFFT[j] = new Complex(0.0, 0.0);
-            }
             for (int j = 0; j < windowLength; j++) {
-                double temp = signal[j + (i * (this.windowLength - this.overlap))]
-                        * (0.56 - 0.46 * Math.cos(2 * Math.PI * ((double) j / (double) this.windowLength)));
-                STFFT[j] = new Complex(temp, 0.0);
+                STFFT[j] = signal[j + (i * (this.windowLength - this.overlap))] * hamming[j];
+            }
+            for (int j = windowLength; j < nfft * 2; j++) {
+                STFFT[j] = 0;
             }
-            STFFT = fft.transform(STFFT, TransformType.FORWARD);
+            FFTUtilities.transform(STFFT, nfft, false);
             for (int j = 0; j < nfft / 2; j++) {
-                spectrogram[i][j] = STFFT[j].abs();
+                spectrogram[i][j] = FFTUtilities.magnitude(STFFT, nfft, j);
             }
         }
         return spectrogram;
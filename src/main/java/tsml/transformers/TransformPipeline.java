@@ -19,11 +19,11 @@ package tsml.transformers;
 
 import org.junit.Assert;
 
-import scala.collection.mutable.StringBuilder$;
 import tsml.data_containers.TimeSeriesInstance;
 import tsml.data_containers.TimeSeriesInstances;
 import weka.core.Instances;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -53,6 +53,12 @@ public class TransformPipeline extends BaseTrainableTransformer {
         this.transformers = transformers;
     }
     
+    /**
+     * Fit each trainable transformer on the data transformed by the transformers before it. The data is passed
+     * through the transformers between consecutive trainable transformers in one pass per instance, and each
+     * intermediate set of data is dropped once the next trainable transformer has been fit. Transformers after the
+     * last trainable transformer need no data, so the data is not transformed through them.
+     */
     public void fit(TimeSeriesInstances data) {
         super.fit(data);
         
@@ -62,12 +68,9 @@ public class TransformPipeline extends BaseTrainableTransformer {
             if(transformer instanceof TrainableTransformer) {
                 // in order to fit the transformer, we need to transform the data up to the point of the fittable
                 // transformer
-                // so transform the data from the previous transform up to this transformer
-                for(int j = lastFitIndex; j < i; j++) {
-                    final Transformer previous = transformers.get(j);
-                    // replace the data with the data from applying a previous transform
-                    data = previous.transform(data);
-                }
+                // so transform the data from the previous transform up to this transformer, replacing the data
+                data = transform(data, lastFitIndex, i);
+                ((TrainableTransformer) transformer).fit(data);
                 // this is now the most recently fit transformer in the pipeline
                 lastFitIndex = i;
             }
@@ -75,12 +78,138 @@ public class TransformPipeline extends BaseTrainableTransformer {
     }
 
     @Override public TimeSeriesInstance transform(TimeSeriesInstance inst) {
+        return transform(inst, 0, transformers.size());
+    }
+
+    /**
+     * Transform a subset of the data, only transforming the instances requested.
+     * @param data the data
+     * @param instIndices the indices of the instances to transform
+     * @return the transformed instances, in the order of the indices
+     */
+    public TimeSeriesInstances transform(TimeSeriesInstances data, int[] instIndices) {
+        if(!isFit()) {
+            fit(data);
+        }
+        final TimeSeriesInstances output = new TimeSeriesInstances(data.getClassLabels());
+        for(int i : instIndices) {
+            output.add(transform(data.get(i)));
+        }
+        return output;
+    }
+
+    /**
+     * Get a view of the transformed data which transforms each instance when first accessed, for when not all of
+     * the instances may be needed. Not safe to access from multiple threads.
+     * @param data the data
+     * @return the lazily transformed instances
+     */
+    public List<TimeSeriesInstance> lazyTransform(TimeSeriesInstances data) {
+        if(!isFit()) {
+            fit(data);
+        }
+        final TimeSeriesInstance[] transformed = new TimeSeriesInstance[data.numInstances()];
+        return new AbstractList<TimeSeriesInstance>() {
+            @Override public TimeSeriesInstance get(final int i) {
+                if(transformed[i] == null) {
+                    transformed[i] = transform(data.get(i));
+                }
+                return transformed[i];
+            }
+
+            @Override public int size() {
+                return transformed.length;
+            }
+        };
+    }
+
+    private TimeSeriesInstances transform(TimeSeriesInstances data, int from, int to) {
+        if(from == to) {
+            return data;
+        }
+        if(to - from == 1) {
+            return transformers.get(from).transform(data);
+        }
+        final TimeSeriesInstances output = new TimeSeriesInstances(data.getClassLabels());
+        for(TimeSeriesInstance inst : data) {
+            output.add(transform(inst, from, to));
+        }
+        return output;
+    }
+
+    /**
+     * Apply the transformers in [from, to) to an instance. If the transformers all support transforming primitive
+     * blocks then the values are passed between them directly, building only the final TimeSeriesInstance with the
+     * label of the given instance as the transformers themselves do.
+     */
+    private TimeSeriesInstance transform(TimeSeriesInstance inst, int from, int to) {
+        if(to - from > 1) {
+            int[] lengths = new int[inst.getNumDimensions()];
+            for(int i = 0; i < lengths.length; i++) {
+                lengths[i] = inst.get(i).getSeriesLength();
+            }
+            for(int i = from; i < to && lengths != null; i++) {
+                lengths = transformers.get(i).getOutputLengths(lengths);
+            }
+            if(lengths != null) {
+                // fuse the transformers into a single pass over primitive values
+                double[][] values = inst.toValueArray();
+                for(int i = from; i < to; i++) {
+                    values = transformers.get(i).transform(values);
+                }
+                return new TimeSeriesInstance(values, inst.getLabelIndex());
+            }
+        }
+        for(int i = from; i < to; i++) {
+            inst = transformers.get(i).transform(inst);
+        }
+        return inst;
+    }
+
+    @Override public boolean isThreadSafe() {
+        for(Transformer transformer : transformers) {
+            if(!transformer.isThreadSafe()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override public int[] getOutputLengths(int[] inputLengths) {
+        for(Transformer transformer : transformers) {
+            if(inputLengths == null) {
+                return null;
+            }
+            inputLengths = transformer.getOutputLengths(inputLengths);
+        }
+        return inputLengths;
+    }
+
+    /**
+     * Chain the values through each transformer, holding the intermediate values in primitive blocks rather than
+     * TimeSeriesInstance objects.
+     */
+    @Override public double[][] transform(double[][] inst) {
         for(Transformer transformer : transformers) {
             inst = transformer.transform(inst);
         }
         return inst;
     }
 
+    @Override public void transform(double[][] inst, double[][] out) {
+        if(transformers.isEmpty()) {
+            for(int i = 0; i < inst.length; i++) {
+                System.arraycopy(inst[i], 0, out[i], 0, inst[i].length);
+            }
+            return;
+        }
+        // the last transformer writes straight into the output block
+        for(int i = 0; i < transformers.size() - 1; i++) {
+            inst = transformers.get(i).transform(inst);
+        }
+        transformers.get(transformers.size() - 1).transform(inst, out);
+    }
+
     @Override
     public Instances determineOutputFormat(Instances data) throws IllegalArgumentException {
         for (Transformer transformer : transformers) {
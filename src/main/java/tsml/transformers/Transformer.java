@@ -18,6 +18,7 @@
 package tsml.transformers;
 
 import java.io.Serializable;
+import java.util.stream.IntStream;
 
 import tsml.classifiers.distance_based.utils.collections.params.ParamHandler;
 import tsml.data_containers.TSCapabilities;
@@ -121,6 +122,14 @@ public interface Transformer extends TSCapabilitiesHandler, ParamHandler, Serial
     default TimeSeriesInstances transform(TimeSeriesInstances data){
         //when cloning skeleton of TSInstances, copy across classLabels.
         TimeSeriesInstances output = new TimeSeriesInstances(data.getClassLabels());
+        if(isThreadSafe()) {
+            final TimeSeriesInstance[] transformed = new TimeSeriesInstance[data.numInstances()];
+            IntStream.range(0, transformed.length).parallel().forEach(i -> transformed[i] = transform(data.get(i)));
+            for(TimeSeriesInstance inst : transformed){
+                output.add(inst);
+            }
+            return output;
+        }
         for(TimeSeriesInstance inst : data){
             output.add(transform(inst));
         }
@@ -138,4 +147,91 @@ public interface Transformer extends TSCapabilitiesHandler, ParamHandler, Serial
      * @return transformed Instance
      */
     TimeSeriesInstance transform(TimeSeriesInstance inst);
+
+
+    /********* primitive blocks ************/
+
+    /**
+     * Whether transform may be called from several threads at once. Batches are transformed in parallel over
+     * instances if so. Transformers which write to shared state when transforming must leave this false.
+     * @return true if transforming is thread safe
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * The length of each dimension of the output of transforming a series, given the length of each of its
+     * dimensions. Used to preallocate output blocks.
+     * @param inputLengths length of each dimension of the series
+     * @return length of each output dimension, or null if the output shape is not known before transforming
+     */
+    default int[] getOutputLengths(int[] inputLengths) {
+        return null;
+    }
+
+    /**
+     * Transform the values of a series, [dimension][time point], into a preallocated block shaped as given by
+     * getOutputLengths. The block must not be the input. Transformers implementing getOutputLengths should override
+     * this to avoid building a TimeSeriesInstance.
+     * @param inst values of the series
+     * @param out block to write the transformed values to
+     */
+    default void transform(double[][] inst, double[][] out) {
+        final double[][] transformed = transform(new TimeSeriesInstance(inst)).toValueArray();
+        for(int i = 0; i < transformed.length; i++) {
+            System.arraycopy(transformed[i], 0, out[i], 0, transformed[i].length);
+        }
+    }
+
+    /**
+     * Transform the values of a series, [dimension][time point].
+     * @param inst values of the series
+     * @return the transformed values
+     */
+    default double[][] transform(double[][] inst) {
+        final int[] inputLengths = new int[inst.length];
+        for(int i = 0; i < inst.length; i++) {
+            inputLengths[i] = inst[i].length;
+        }
+        final int[] outputLengths = getOutputLengths(inputLengths);
+        if(outputLengths == null) {
+            return transform(new TimeSeriesInstance(inst)).toValueArray();
+        }
+        final double[][] out = new double[outputLengths.length][];
+        for(int i = 0; i < out.length; i++) {
+            out[i] = new double[outputLengths[i]];
+        }
+        transform(inst, out);
+        return out;
+    }
+
+    /**
+     * Transform a batch of series, [instance][dimension][time point], in parallel over instances if thread safe.
+     * @param data values of the series
+     * @return the transformed values
+     */
+    default double[][][] transform(double[][][] data) {
+        final double[][][] out = new double[data.length][][];
+        IntStream indices = IntStream.range(0, data.length);
+        if(isThreadSafe()) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> out[i] = transform(data[i]));
+        return out;
+    }
+
+    /**
+     * Transform a batch of series, [instance][dimension][time point], into preallocated blocks shaped as given by
+     * getOutputLengths, in parallel over instances if thread safe.
+     * @param data values of the series
+     * @param out blocks to write the transformed values to
+     */
+    default void transform(double[][][] data, double[][][] out) {
+        IntStream indices = IntStream.range(0, data.length);
+        if(isThreadSafe()) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> transform(data[i], out[i]));
+    }
 }
@@ -26,6 +26,7 @@ import weka.core.Instances;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
 /**
@@ -294,6 +295,25 @@ public class Truncator implements TrainableTransformer{
 	public TimeSeriesInstance transform(TimeSeriesInstance inst) {
         return inst.getVSlice(IntStream.range(0, shortestSeriesLength).toArray());
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int[] getOutputLengths(int[] inputLengths) {
+        int[] lengths = new int[inputLengths.length];
+        Arrays.fill(lengths, shortestSeriesLength);
+        return lengths;
+    }
+
+    @Override
+    public void transform(double[][] inst, double[][] out) {
+        for (int i = 0; i < inst.length; i++) {
+            System.arraycopy(inst[i], 0, out[i], 0, shortestSeriesLength);
+        }
+    }
     
 	@Override
 	public void fit(TimeSeriesInstances data) {
@@ -20,8 +20,19 @@ package utilities;
 import evaluation.storage.ClustererResults;
 import tsml.clusterers.EnhancedAbstractClusterer;
 import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static weka.core.NormalizableDistance.R_MIN;
+import static weka.core.NormalizableDistance.R_MAX;
+import static weka.core.NormalizableDistance.R_WIDTH;
 
 import static utilities.ArrayUtilities.oneHot;
 
@@ -200,6 +211,166 @@ public class ClusteringUtilities {
         return distMatrix;
     }
 
+    //Create lower half distance matrix, splitting rows between numThreads threads. Uses primitive arrays when the
+    //distance function is a plain EuclideanDistance, distances are identical to the single threaded version.
+    public static double[][] createDistanceMatrix(Instances data, DistanceFunction distFunc, int numThreads)
+            throws Exception {
+        if (numThreads <= 1)
+            return createDistanceMatrix(data, distFunc);
+
+        ExecutorService ex = Executors.newFixedThreadPool(numThreads);
+        try {
+            return createDistanceMatrix(data, distFunc, ex, numThreads);
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    //As above using an existing executor, which is not shut down. Falls back to the single threaded version if
+    //ex is null or the distance function cannot be used with primitive arrays.
+    public static double[][] createDistanceMatrix(Instances data, DistanceFunction distFunc, ExecutorService ex,
+                                                  int numTasks) throws Exception {
+        distFunc.setInstances(data);
+        double[][] arrays = toEuclideanArrays(data, distFunc);
+
+        if (arrays == null || ex == null || numTasks <= 1) {
+            if (arrays == null)
+                return createDistanceMatrix(data, distFunc);
+
+            double[][] distMatrix = new double[arrays.length][];
+            distanceMatrixRows(arrays, distMatrix, 0, 1);
+            return distMatrix;
+        }
+
+        double[][] distMatrix = new double[arrays.length][];
+        ArrayList<Future<?>> futures = new ArrayList<>(numTasks);
+
+        //Rows are interleaved between tasks as their length increases with the row index
+        for (int i = 0; i < numTasks; i++) {
+            int first = i;
+            futures.add(ex.submit(() -> distanceMatrixRows(arrays, distMatrix, first, numTasks)));
+        }
+
+        for (Future<?> f : futures) {
+            f.get();
+        }
+
+        return distMatrix;
+    }
+
+    private static void distanceMatrixRows(double[][] arrays, double[][] distMatrix, int first, int step) {
+        for (int i = first; i < arrays.length; i += step) {
+            distMatrix[i] = new double[i+1];
+
+            for (int n = 0; n < i; n++) {
+                distMatrix[i][n] = squaredEuclidean(arrays[i], arrays[n]);
+            }
+        }
+    }
+
+    //Returns the values of each instance as they are compared by distFunc, such that squaredEuclidean on the arrays
+    //gives the same value as distFunc.distance on the instances. Only plain EuclideanDistance functions over numeric
+    //attributes without missing values are supported, null is returned otherwise. distFunc.setInstances must have
+    //been called beforehand.
+    public static double[][] toEuclideanArrays(Instances data, DistanceFunction distFunc) {
+        EuclideanProjection projection = EuclideanProjection.of(distFunc);
+        if (projection == null)
+            return null;
+
+        double[][] arrays = new double[data.numInstances()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = projection.project(data.get(i));
+
+            if (arrays[i] == null)
+                return null;
+        }
+
+        return arrays;
+    }
+
+    //Single instance version of the above, returns null if the instance is not supported.
+    public static double[] toEuclideanArray(Instance inst, DistanceFunction distFunc) {
+        EuclideanProjection projection = EuclideanProjection.of(distFunc);
+        return projection == null ? null : projection.project(inst);
+    }
+
+    //Squared Euclidean distance, summed in the same order as weka.core.EuclideanDistance.
+    public static double squaredEuclidean(double[] first, double[] second) {
+        double distance = 0;
+
+        for (int i = 0; i < first.length; i++) {
+            double diff = first[i] - second[i];
+            distance += diff * diff;
+        }
+
+        return distance;
+    }
+
+    private static class EuclideanProjection {
+        private final int numAttributes;
+        private final int classIndex;
+        private final double[][] ranges;
+
+        private EuclideanProjection(int numAttributes, int classIndex, double[][] ranges) {
+            this.numAttributes = numAttributes;
+            this.classIndex = classIndex;
+            this.ranges = ranges;
+        }
+
+        private static EuclideanProjection of(DistanceFunction distFunc) {
+            if (distFunc == null || distFunc.getClass() != EuclideanDistance.class)
+                return null;
+
+            EuclideanDistance ed = (EuclideanDistance) distFunc;
+            Instances header = ed.getInstances();
+            if (header == null || ed.getInvertSelection() || !ed.getAttributeIndices().equals("first-last"))
+                return null;
+
+            for (int i = 0; i < header.numAttributes(); i++) {
+                if (i != header.classIndex() && !header.attribute(i).isNumeric())
+                    return null;
+            }
+
+            //Also validates the distance function, so it is safe to use from multiple threads afterwards
+            double[][] ranges;
+            try {
+                ranges = ed.getRanges();
+            } catch (Exception e) {
+                return null;
+            }
+
+            return new EuclideanProjection(header.numAttributes(), header.classIndex(),
+                    ed.getDontNormalize() ? null : ranges);
+        }
+
+        private double[] project(Instance inst) {
+            if (inst instanceof SparseInstance || inst.numAttributes() != numAttributes)
+                return null;
+
+            double[] array = new double[classIndex >= 0 ? numAttributes - 1 : numAttributes];
+
+            for (int i = 0, p = 0; i < numAttributes; i++) {
+                if (i == classIndex)
+                    continue;
+
+                double val = inst.value(i);
+                if (Double.isNaN(val))
+                    return null;
+
+                if (ranges != null) {
+                    if (Double.isNaN(ranges[i][R_MIN]) || ranges[i][R_MAX] == ranges[i][R_MIN])
+                        val = 0;
+                    else
+                        val = (val - ranges[i][R_MIN]) / ranges[i][R_WIDTH];
+                }
+
+                array[p++] = val;
+            }
+
+            return array;
+        }
+    }
+
     //Create full distance matrix.
     public static double[][] createFullDistanceMatrix(Instances data, DistanceFunction distFunc){
         double[][] distMatrix = new double[data.numInstances()][];
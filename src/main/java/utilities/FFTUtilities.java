@@ -0,0 +1,340 @@
+/*
+ * This file is part of the UEA Time Series Machine Learning (TSML) toolbox.
+ *
+ * The UEA TSML toolbox is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The UEA TSML toolbox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with the UEA TSML toolbox. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Primitive array FFTs, shared by Catch22, KShape and the spectral transformers in place of arrays of complex number
+ * objects.
+ *
+ * Power of two length transforms use a radix-2 FFT on a split complex array, with the real part of element k at
+ * index k and the imaginary part at index n+k. The arithmetic is the same as the commons-math FastFourierTransformer
+ * using DftNormalization.STANDARD, so results are identical to it, but bit reversal orders and twiddle factors are
+ * computed once and cached. Forward transforms are unscaled and inverse transforms are scaled by 1/n.
+ *
+ * Transforms of any length use a JTransforms plan, cached for each length as for short series creating the plan
+ * costs more than the transform itself. Plans are safe to share between threads.
+ */
+public class FFTUtilities {
+
+    //Plans and bit reversal orders are only cached for this many distinct lengths, any others are created on each call
+    private static final int MAX_CACHED_PLANS = 128;
+
+    private static final ConcurrentHashMap<Integer, DoubleFFT_1D> plans = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<Integer, int[]> bitReversals = new ConcurrentHashMap<>();
+
+    //Twiddle factors for each radix-2 stage combining transforms of length m are stored in indices m to 2m-1
+    private static volatile double[][] twiddles = { new double[0], new double[0] };
+
+    private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[0]);
+
+    /**
+     * @return the shared JTransforms plan for transforms of length n
+     */
+    public static DoubleFFT_1D plan(int n) {
+        DoubleFFT_1D plan = plans.get(n);
+        if (plan == null) {
+            plan = new DoubleFFT_1D(n);
+
+            if (plans.size() < MAX_CACHED_PLANS) {
+                DoubleFFT_1D existing = plans.putIfAbsent(n, plan);
+                if (existing != null)
+                    plan = existing;
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * @return a scratch array for this thread of at least the given length, with undefined contents. Only valid
+     * until the next call to a method of this class from the same thread.
+     */
+    public static double[] scratch(int length) {
+        double[] buffer = scratch.get();
+        if (buffer.length < length) {
+            buffer = new double[length];
+            scratch.set(buffer);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * @return the smallest power of two greater than or equal to length
+     */
+    public static int powerOfTwoLength(int length) {
+        return (int) Math.pow(2.0, (int) Math.ceil(Math.log(length) / Math.log(2)));
+    }
+
+    /**
+     * JTransforms forward transform of the first n values of series padded with pad if shorter than n, as a full
+     * complex array of length 2n with interleaved real and imaginary parts.
+     */
+    public static double[] complexForward(double[] series, double pad, int n) {
+        double[] complex = new double[n * 2];
+        int length = Math.min(series.length, n);
+        System.arraycopy(series, 0, complex, 0, length);
+
+        for (int i = length; i < n; i++) {
+            complex[i] = pad;
+        }
+
+        plan(n).realForwardFull(complex);
+        return complex;
+    }
+
+    /**
+     * Forward transform of the first n values of series minus subtract, zero padded if the series is shorter
+     * than n. n must be a power of two.
+     *
+     * @return the transform as a split complex array of length 2n
+     */
+    public static double[] realForward(double[] series, double subtract, int n) {
+        double[] complex = new double[n * 2];
+        realForward(series, subtract, 0, n, complex);
+        return complex;
+    }
+
+    /**
+     * Forward transform of the first n values of series minus subtract, padded with pad if the series is shorter
+     * than n, into the first 2n values of out as a split complex array. n must be a power of two.
+     */
+    public static void realForward(double[] series, double subtract, double pad, int n, double[] out) {
+        int length = Math.min(series.length, n);
+        for (int i = 0; i < length; i++) {
+            out[i] = series[i] - subtract;
+        }
+
+        for (int i = length; i < n; i++) {
+            out[i] = pad;
+        }
+
+        for (int i = n; i < n * 2; i++) {
+            out[i] = 0;
+        }
+
+        transform(out, n, false);
+    }
+
+    /**
+     * In place radix-2 FFT of the first 2n values of a split complex array, n must be a power of two.
+     *
+     * @param inverse whether to perform the inverse transform, scaled by 1/n
+     */
+    public static void transform(double[] complex, int n, boolean inverse) {
+        if ((n & (n - 1)) != 0 || n < 1)
+            throw new IllegalArgumentException("FFT length must be a power of two, was " + n);
+
+        if (n == 1)
+            return;
+
+        if (n == 2) {
+            double r0 = complex[0], i0 = complex[2], r1 = complex[1], i1 = complex[3];
+            complex[0] = r0 + r1;
+            complex[2] = i0 + i1;
+            complex[1] = r0 - r1;
+            complex[3] = i0 - i1;
+        } else {
+            int[] order = bitReversal(n);
+            for (int i = 0; i < n; i++) {
+                int j = order[i];
+                if (i < j) {
+                    double t = complex[i];
+                    complex[i] = complex[j];
+                    complex[j] = t;
+                    t = complex[n + i];
+                    complex[n + i] = complex[n + j];
+                    complex[n + j] = t;
+                }
+            }
+
+            //Length 4 transforms, with the terms summed in the same order as commons-math
+            for (int i0 = 0; i0 < n; i0 += 4) {
+                int i1 = i0 + 1, i2 = i0 + 2, i3 = i0 + 3;
+                double r0 = complex[i0], r1 = complex[i1], r2 = complex[i2], r3 = complex[i3];
+                double c0 = complex[n + i0], c1 = complex[n + i1], c2 = complex[n + i2], c3 = complex[n + i3];
+
+                complex[i0] = r0 + r2 + r1 + r3;
+                complex[n + i0] = c0 + c2 + c1 + c3;
+                complex[i2] = r0 - r2 + r1 - r3;
+                complex[n + i2] = c0 - c2 + c1 - c3;
+
+                if (inverse) {
+                    complex[i1] = r0 - r1 + (c3 - c2);
+                    complex[n + i1] = c0 - c1 + (r2 - r3);
+                    complex[i3] = r0 - r1 + (c2 - c3);
+                    complex[n + i3] = c0 - c1 + (r3 - r2);
+                } else {
+                    complex[i1] = r0 - r1 + (c2 - c3);
+                    complex[n + i1] = c0 - c1 + (r3 - r2);
+                    complex[i3] = r0 - r1 + (c3 - c2);
+                    complex[n + i3] = c0 - c1 + (r2 - r3);
+                }
+            }
+
+            //Combine pairs of transforms of length m into transforms of length 2m
+            double[][] w = twiddles(n);
+            double[] wr = w[0];
+            double[] wi = w[1];
+            for (int m = 4; m < n; m <<= 1) {
+                for (int even = 0; even < n; even += m << 1) {
+                    int odd = even + m;
+                    for (int r = 0; r < m; r++) {
+                        double twr = wr[m + r];
+                        double twi = inverse ? -wi[m + r] : wi[m + r];
+                        double gr = complex[even + r], gi = complex[n + even + r];
+                        double hr = complex[odd + r], hi = complex[n + odd + r];
+
+                        complex[even + r] = gr + twr * hr - twi * hi;
+                        complex[n + even + r] = gi + twr * hi + twi * hr;
+                        complex[odd + r] = gr - (twr * hr - twi * hi);
+                        complex[n + odd + r] = gi - (twr * hi + twi * hr);
+                    }
+                }
+            }
+        }
+
+        if (inverse) {
+            double scale = 1.0 / n;
+            for (int i = 0; i < n * 2; i++) {
+                complex[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * @return the magnitude of element k of a split complex array of length 2n, computed as in the commons-math
+     * Complex.abs() to avoid overflow
+     */
+    public static double magnitude(double[] complex, int n, int k) {
+        double re = complex[k];
+        double im = complex[n + k];
+
+        if (Double.isNaN(re) || Double.isNaN(im))
+            return Double.NaN;
+        if (Double.isInfinite(re) || Double.isInfinite(im))
+            return Double.POSITIVE_INFINITY;
+
+        if (Math.abs(re) < Math.abs(im)) {
+            if (im == 0.0)
+                return Math.abs(re);
+            double q = re / im;
+            return Math.abs(im) * Math.sqrt(1 + q * q);
+        } else {
+            if (re == 0.0)
+                return Math.abs(im);
+            double q = im / re;
+            return Math.abs(re) * Math.sqrt(1 + q * q);
+        }
+    }
+
+    /**
+     * Autocorrelation of a series given the transform of its mean subtracted values zero padded to n, found as the
+     * inverse transform of the power spectrum. Each lag is normalised by lag 0, out is filled with 0s if lag 0 is 0.
+     * The autocorrelation is circular unless n is at least twice the series length.
+     *
+     * @param complex the split complex array from realForward(...), which is not modified
+     * @param out array of size at most n to fill with the autocorrelation
+     */
+    public static void autoCorrelation(double[] complex, int n, double[] out) {
+        double[] power = scratch(n * 2);
+        powerSpectrum(complex, n, power);
+        transform(power, n, true);
+
+        double d = power[0];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = d != 0 ? power[i] / d : 0;
+        }
+    }
+
+    /**
+     * Sums of products of the series with itself at each lag, out[i] = sum_j series[j] * series[j+i] for
+     * 0 <= i < out.length.
+     */
+    public static void lagProducts(double[] series, double[] out) {
+        int n = powerOfTwoLength(series.length + out.length);
+        double[] buffer = scratch(n * 2);
+        realForward(series, 0, 0, n, buffer);
+        powerSpectrum(buffer, n, buffer);
+        transform(buffer, n, true);
+
+        System.arraycopy(buffer, 0, out, 0, out.length);
+    }
+
+    //Squared magnitudes of a split complex array, in place if complex and out are the same array
+    private static void powerSpectrum(double[] complex, int n, double[] out) {
+        for (int k = 0; k < n; k++) {
+            double re = complex[k];
+            double im = complex[n + k];
+            out[k] = re * re + im * im;
+            out[n + k] = 0;
+        }
+    }
+
+    private static int[] bitReversal(int n) {
+        int[] order = bitReversals.get(n);
+        if (order == null) {
+            order = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for (int i = 0; i < n; i++) {
+                order[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+
+            if (bitReversals.size() < MAX_CACHED_PLANS)
+                bitReversals.putIfAbsent(n, order);
+        }
+
+        return order;
+    }
+
+    //Twiddle factors up to those needed for length n transforms, generated by the same recurrence as commons-math
+    private static double[][] twiddles(int n) {
+        double[][] w = twiddles;
+        if (w[0].length < n) {
+            synchronized (FFTUtilities.class) {
+                w = twiddles;
+                if (w[0].length < n) {
+                    double[] wr = new double[n];
+                    double[] wi = new double[n];
+                    for (int m = 4; m < n; m <<= 1) {
+                        double stepR = Math.cos(Math.PI / m);
+                        double stepI = -Math.sin(Math.PI / m);
+                        double r = 1, i = 0;
+                        for (int k = 0; k < m; k++) {
+                            wr[m + k] = r;
+                            wi[m + k] = i;
+                            double nextR = r * stepR - i * stepI;
+                            double nextI = r * stepI + i * stepR;
+                            r = nextR;
+                            i = nextI;
+                        }
+                    }
+
+                    w = new double[][]{ wr, wi };
+                    twiddles = w;
+                }
+            }
+        }
+
+        return w;
+    }
+}
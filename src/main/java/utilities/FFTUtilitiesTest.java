@@ -0,0 +1,60 @@
+package utilities;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FFTUtilitiesTest {
+
+    @Test
+    public void testTransformMatchesCommonsMath() {
+        Random rand = new Random(0);
+        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+
+        for (int n = 1; n <= 1024; n *= 2) {
+            for (boolean inverse : new boolean[]{ false, true }) {
+                Complex[] expected = new Complex[n];
+                double[] complex = new double[n * 2];
+                for (int i = 0; i < n; i++) {
+                    complex[i] = rand.nextGaussian();
+                    complex[n + i] = rand.nextGaussian();
+                    expected[i] = new Complex(complex[i], complex[n + i]);
+                }
+
+                expected = fft.transform(expected, inverse ? TransformType.INVERSE : TransformType.FORWARD);
+                FFTUtilities.transform(complex, n, inverse);
+
+                for (int i = 0; i < n; i++) {
+                    Assert.assertEquals(expected[i].getReal(), complex[i], 0);
+                    Assert.assertEquals(expected[i].getImaginary(), complex[n + i], 0);
+                    Assert.assertEquals(expected[i].abs(), FFTUtilities.magnitude(complex, n, i), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLagProducts() {
+        Random rand = new Random(0);
+        double[] series = new double[100];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = rand.nextGaussian();
+        }
+
+        double[] products = new double[40];
+        FFTUtilities.lagProducts(series, products);
+
+        for (int lag = 0; lag < products.length; lag++) {
+            double sum = 0;
+            for (int j = 0; j < series.length - lag; j++) {
+                sum += series[j] * series[j + lag];
+            }
+            Assert.assertEquals(sum, products[lag], 1e-10);
+        }
+    }
+}